@@ -0,0 +1,136 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import com.xpandit.plugins.xrayjenkins.exceptions.XrayJenkinsGenericException;
+import com.xpandit.plugins.xrayjenkins.model.ExportConflictResolution;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+public class ArchiveUtils {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private ArchiveUtils() {}
+
+    /**
+     * Merges several zip archives into a single one.
+     * Files with the same name and the same content are only added once, files with the same name
+     * but different content are handled according to the conflict resolution.
+     *
+     * @param archives the archives to merge, in the order they were requested
+     * @param target the merged archive
+     * @param resolution what to do when two archives contain the same file with a different content
+     * @param logger the logger that will be used to log some messages
+     * @return the number of files in the merged archive
+     * @throws IOException if any archive could not be read or the merged archive could not be written
+     */
+    public static int mergeArchives(@Nonnull List<File> archives,
+                                    @Nonnull File target,
+                                    @Nonnull ExportConflictResolution resolution,
+                                    @Nonnull PrintStream logger) throws IOException {
+        // First pass: find which archive provides each file
+        final Map<String, MergedEntry> entries = new LinkedHashMap<>();
+        for (int archiveIndex = 0; archiveIndex < archives.size(); archiveIndex++) {
+            try (ZipInputStream in = new ZipInputStream(new FileInputStream(archives.get(archiveIndex)))) {
+                ZipEntry entry;
+                while ((entry = in.getNextEntry()) != null) {
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+
+                    final MergedEntry current = new MergedEntry(archiveIndex, hash(in));
+                    final MergedEntry previous = entries.get(entry.getName());
+
+                    if (previous == null) {
+                        entries.put(entry.getName(), current);
+                    } else if (!Arrays.equals(previous.hash, current.hash)) {
+                        resolveConflict(entries, entry.getName(), current, resolution, logger);
+                    }
+                }
+            }
+        }
+
+        // Second pass: copy each file from the archive that provides it
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(target))) {
+            for (int archiveIndex = 0; archiveIndex < archives.size(); archiveIndex++) {
+                try (ZipInputStream in = new ZipInputStream(new FileInputStream(archives.get(archiveIndex)))) {
+                    ZipEntry entry;
+                    while ((entry = in.getNextEntry()) != null) {
+                        final MergedEntry merged = entries.get(entry.getName());
+                        if (entry.isDirectory() || merged == null || merged.archiveIndex != archiveIndex || merged.written) {
+                            continue;
+                        }
+
+                        out.putNextEntry(new ZipEntry(entry.getName()));
+                        IOUtils.copy(in, out);
+                        out.closeEntry();
+                        merged.written = true;
+                    }
+                }
+            }
+        }
+
+        return entries.size();
+    }
+
+    private static void resolveConflict(Map<String, MergedEntry> entries,
+                                        String fileName,
+                                        MergedEntry current,
+                                        ExportConflictResolution resolution,
+                                        PrintStream logger) {
+        switch (resolution) {
+            case KEEP_LAST:
+                logger.println("Conflicting file " + fileName + ": keeping the file of export #" + (current.archiveIndex + 1));
+                entries.put(fileName, current);
+                break;
+            case FAIL:
+                throw new XrayJenkinsGenericException("The file " + fileName + " was exported with different contents");
+            case KEEP_FIRST:
+            default:
+                logger.println("Conflicting file " + fileName + ": ignoring the file of export #" + (current.archiveIndex + 1));
+                break;
+        }
+    }
+
+    private static byte[] hash(ZipInputStream in) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        try (OutputStream out = new DigestOutputStream(new NullOutputStream(), digest)) {
+            IOUtils.copy(in, out);
+        }
+        return digest.digest();
+    }
+
+    private static class MergedEntry {
+        private final int archiveIndex;
+        private final byte[] hash;
+        private boolean written = false;
+
+        MergedEntry(int archiveIndex, byte[] hash) {
+            this.archiveIndex = archiveIndex;
+            this.hash = hash;
+        }
+    }
+}
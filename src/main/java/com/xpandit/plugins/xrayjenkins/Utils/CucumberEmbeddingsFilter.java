@@ -0,0 +1,287 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Caps the <code>embeddings</code> (base64 screenshots and attachments) of a Cucumber JSON report before it is uploaded:
+ * only the first embeddings of each scenario are kept (none drops them all), and the embeddings larger than a maximum
+ * size are removed.
+ * <p>
+ * The report is copied with the Jackson streaming API, so it is never fully loaded: an embedding is either skipped
+ * without being read, or decoded into a buffer that never exceeds the maximum size.
+ */
+public class CucumberEmbeddingsFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A limit that keeps the embeddings as they are.
+     */
+    public static final int UNLIMITED = -1;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final int maxEmbeddingsPerScenario;
+    private final long maxEmbeddingBytes;
+
+    /**
+     * @param maxEmbeddingsPerScenario the number of embeddings kept in each scenario (the first ones): 0 removes them all,
+     *                                 {@link #UNLIMITED} keeps them all
+     * @param maxEmbeddingBytes the maximum size of an embedding (decoded), or {@link #UNLIMITED}
+     */
+    public CucumberEmbeddingsFilter(int maxEmbeddingsPerScenario, long maxEmbeddingBytes) {
+        this.maxEmbeddingsPerScenario = maxEmbeddingsPerScenario;
+        this.maxEmbeddingBytes = maxEmbeddingBytes;
+    }
+
+    /**
+     * Filters a report into another file of the same node, without transferring it.
+     *
+     * @param report the Cucumber JSON report
+     * @param target the filtered report
+     * @return the number of bytes of the embeddings removed
+     */
+    public long filter(@Nonnull FilePath report, @Nonnull FilePath target) throws IOException, InterruptedException {
+        return report.act(new FilterCallable(this, target.getRemote()));
+    }
+
+    /**
+     * Filters a report.
+     *
+     * @param in the Cucumber JSON report (not closed)
+     * @param out where the filtered report is written, in UTF-8 (not closed)
+     * @return the embeddings removed
+     * @throws IOException if the report is not valid JSON or could not be written
+     */
+    @Nonnull
+    public Removed filter(@Nonnull InputStream in, @Nonnull OutputStream out) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(in);
+             JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+            final Scenario root = new Scenario();
+            while (parser.nextToken() != null) {
+                copyValue(parser, generator, root);
+            }
+            generator.flush();
+            return new Removed(root.removed, root.removedBytes);
+        }
+    }
+
+    private void copyValue(JsonParser parser, JsonGenerator generator, Scenario scenario) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case START_OBJECT:
+                generator.writeStartObject();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String name = parser.getCurrentName();
+                    generator.writeFieldName(name);
+
+                    final JsonToken value = parser.nextToken();
+                    if ("embeddings".equals(name) && value == JsonToken.START_ARRAY) {
+                        copyEmbeddings(parser, generator, scenario);
+                    } else if ("elements".equals(name) && value == JsonToken.START_ARRAY) {
+                        copyScenarios(parser, generator, scenario);
+                    } else {
+                        copyValue(parser, generator, scenario);
+                    }
+                }
+                generator.writeEndObject();
+                break;
+            case START_ARRAY:
+                generator.writeStartArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    copyValue(parser, generator, scenario);
+                }
+                generator.writeEndArray();
+                break;
+            default:
+                generator.copyCurrentEvent(parser);
+                break;
+        }
+    }
+
+    /**
+     * Copies the "elements" of a feature (its scenarios and backgrounds), each with its own embeddings count.
+     */
+    private void copyScenarios(JsonParser parser, JsonGenerator generator, Scenario feature) throws IOException {
+        generator.writeStartArray();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            final Scenario scenario = new Scenario();
+            copyValue(parser, generator, scenario);
+            feature.removed += scenario.removed;
+            feature.removedBytes += scenario.removedBytes;
+        }
+        generator.writeEndArray();
+    }
+
+    private void copyEmbeddings(JsonParser parser, JsonGenerator generator, Scenario scenario) throws IOException {
+        generator.writeStartArray();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            // The size of a removed embedding is its size in the report, from its first to its last byte
+            final long startOffset = parser.getTokenLocation().getByteOffset();
+            final boolean countExceeded = maxEmbeddingsPerScenario != UNLIMITED && scenario.kept >= maxEmbeddingsPerScenario;
+            if (countExceeded) {
+                parser.skipChildren();
+                scenario.removed++;
+                scenario.removedBytes += parser.getCurrentLocation().getByteOffset() - startOffset;
+            } else if (parser.getCurrentToken() != JsonToken.START_OBJECT || maxEmbeddingBytes == UNLIMITED) {
+                copyValue(parser, generator, scenario);
+                scenario.kept++;
+            } else if (copyEmbedding(parser, generator)) {
+                scenario.kept++;
+            } else {
+                scenario.removed++;
+                scenario.removedBytes += parser.getCurrentLocation().getByteOffset() - startOffset;
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Copies an embedding if its data is not too large. The other fields (mime type, name...) are small, and
+     * kept in a buffer until the size of the data is known.
+     *
+     * @return true if the embedding was copied
+     */
+    private boolean copyEmbedding(JsonParser parser, JsonGenerator generator) throws IOException {
+        final TokenBuffer otherFields = new TokenBuffer(parser.getCodec(), false);
+        otherFields.writeStartObject();
+
+        LimitedByteArrayOutputStream data = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if ("data".equals(name) && value == JsonToken.VALUE_STRING) {
+                data = new LimitedByteArrayOutputStream(maxEmbeddingBytes);
+                parser.readBinaryValue(data);
+            } else {
+                otherFields.writeFieldName(name);
+                otherFields.copyCurrentStructure(parser);
+            }
+        }
+        otherFields.writeEndObject();
+
+        if (data != null && data.isLimitExceeded()) {
+            return false;
+        }
+
+        generator.writeStartObject();
+        if (data != null) {
+            generator.writeFieldName("data");
+            generator.writeBinary(data.toByteArray());
+        }
+        try (JsonParser fields = otherFields.asParser()) {
+            fields.nextToken(); // START_OBJECT
+            while (fields.nextToken() == JsonToken.FIELD_NAME) {
+                generator.copyCurrentStructure(fields);
+            }
+        }
+        generator.writeEndObject();
+        return true;
+    }
+
+    /**
+     * The embeddings removed from a report.
+     */
+    public static final class Removed {
+        private final int embeddings;
+        private final long bytes;
+
+        Removed(int embeddings, long bytes) {
+            this.embeddings = embeddings;
+            this.bytes = bytes;
+        }
+
+        public int getEmbeddings() {
+            return embeddings;
+        }
+
+        /**
+         * @return the size of the embeddings in the report (encoded), not counting the separators between them
+         */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    private static final class Scenario {
+        private int kept;
+        private int removed;
+        private long removedBytes;
+    }
+
+    /**
+     * Keeps the bytes written until a limit, then only counts them.
+     */
+    private static final class LimitedByteArrayOutputStream extends ByteArrayOutputStream {
+
+        private final long limit;
+        private boolean limitExceeded;
+
+        private LimitedByteArrayOutputStream(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            if (limitExceeded || size() + (long) len > limit) {
+                limitExceeded = true;
+                reset();
+                return;
+            }
+            super.write(b, off, len);
+        }
+
+        boolean isLimitExceeded() {
+            return limitExceeded;
+        }
+    }
+
+    private static class FilterCallable extends MasterToSlaveFileCallable<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CucumberEmbeddingsFilter filter;
+        private final String targetPath;
+
+        FilterCallable(CucumberEmbeddingsFilter filter, String targetPath) {
+            this.filter = filter;
+            this.targetPath = targetPath;
+        }
+
+        @Override
+        public Long invoke(File report, VirtualChannel channel) throws IOException {
+            final File target = new File(targetPath);
+            try (InputStream in = new BufferedInputStream(new FileInputStream(report));
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+                return filter.filter(in, out).getBytes();
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Removes what Xray doesn't need from a JUnit XML report before it is uploaded: the <code>system-out</code> and
+ * <code>system-err</code> logs are removed or capped, the bodies (stack traces) of <code>failure</code> and
+ * <code>error</code> elements are truncated and, optionally, the Surefire reruns are collapsed (see {@link JUnitReruns}).
+ * <p>
+ * The report is copied with a streaming (StAX) reader and writer, so the memory used doesn't depend on its size,
+ * and the result is always a valid XML document.
+ */
+public class JUnitReportCompactor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A limit that keeps the content as is.
+     */
+    public static final int UNLIMITED = -1;
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XmlStreamUtils.newInputFactory();
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    /**
+     * The test case property with the number of reruns collapsed.
+     */
+    public static final String RERUNS_PROPERTY = "reruns";
+
+    private final int maxSystemOutputLength;
+    private final int maxFailureBodyLength;
+    private final boolean collapseReruns;
+
+    /**
+     * @param maxSystemOutputLength the maximum number of characters kept in each <code>system-out</code> and
+     *                              <code>system-err</code> element: 0 removes them, {@link #UNLIMITED} keeps them
+     * @param maxFailureBodyLength the maximum number of characters kept in the body of each <code>failure</code> and
+     *                             <code>error</code> element, or {@link #UNLIMITED}
+     */
+    public JUnitReportCompactor(int maxSystemOutputLength, int maxFailureBodyLength) {
+        this(maxSystemOutputLength, maxFailureBodyLength, false);
+    }
+
+    /**
+     * @param maxSystemOutputLength the maximum number of characters kept in each <code>system-out</code> and
+     *                              <code>system-err</code> element: 0 removes them, {@link #UNLIMITED} keeps them
+     * @param maxFailureBodyLength the maximum number of characters kept in the body of each <code>failure</code> and
+     *                             <code>error</code> element, or {@link #UNLIMITED}
+     * @param collapseReruns true to collapse the reruns of each test into a single test case, with the number of
+     *                       reruns in the {@value #RERUNS_PROPERTY} property
+     */
+    public JUnitReportCompactor(int maxSystemOutputLength, int maxFailureBodyLength, boolean collapseReruns) {
+        this.maxSystemOutputLength = maxSystemOutputLength;
+        this.maxFailureBodyLength = maxFailureBodyLength;
+        this.collapseReruns = collapseReruns;
+    }
+
+    /**
+     * Compacts a report into another file of the same node, without transferring it.
+     *
+     * @param report the JUnit report
+     * @param target the compacted report
+     * @return the number of bytes saved
+     */
+    public long compact(@Nonnull FilePath report, @Nonnull FilePath target) throws IOException, InterruptedException {
+        return report.act(new CompactCallable(this, target.getRemote()));
+    }
+
+    /**
+     * Compacts a report file. When the reruns are collapsed, the file is read twice.
+     *
+     * @param report the JUnit report
+     * @param out where the compacted report is written, in UTF-8 (not closed)
+     * @throws IOException if the report is not valid XML or could not be written
+     */
+    public void compact(@Nonnull File report, @Nonnull OutputStream out) throws IOException {
+        JUnitReruns reruns = null;
+        if (collapseReruns) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(report))) {
+                reruns = JUnitReruns.find(in);
+            }
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(report))) {
+            compact(in, out, reruns);
+        }
+    }
+
+    /**
+     * Compacts a report, without collapsing the reruns (that needs a second read).
+     *
+     * @param in the JUnit report (not closed)
+     * @param out where the compacted report is written, in UTF-8 (not closed)
+     * @throws IOException if the report is not valid XML or could not be written
+     */
+    public void compact(@Nonnull InputStream in, @Nonnull OutputStream out) throws IOException {
+        compact(in, out, null);
+    }
+
+    private void compact(InputStream in, OutputStream out, @Nullable JUnitReruns reruns) throws IOException {
+        XMLStreamReader reader = null;
+        XMLStreamWriter writer = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+            copy(reader, writer, reruns);
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to compact the JUnit report: " + e.getMessage(), e);
+        } finally {
+            XmlStreamUtils.close(reader, writer);
+        }
+    }
+
+    private void copy(XMLStreamReader reader, XMLStreamWriter writer, @Nullable JUnitReruns reruns) throws XMLStreamException {
+        writer.writeStartDocument(StandardCharsets.UTF_8.name(), reader.getVersion() != null ? reader.getVersion() : "1.0");
+
+        int index = 0; // of the elements, in document order
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    final int elementIndex = index++;
+                    final String name = reader.getLocalName();
+                    if (reruns != null && reruns.isRemoved(elementIndex)) {
+                        index += XmlStreamUtils.skipElement(reader);
+                    } else if ("system-out".equals(name) || "system-err".equals(name)) {
+                        if (maxSystemOutputLength == 0) {
+                            index += XmlStreamUtils.skipElement(reader);
+                        } else {
+                            index += copyElement(reader, writer, maxSystemOutputLength);
+                        }
+                    } else if ("failure".equals(name) || "error".equals(name)) {
+                        index += copyElement(reader, writer, maxFailureBodyLength);
+                    } else {
+                        XmlStreamUtils.writeStartElement(reader, writer);
+                        final int rerunCount = reruns != null ? reruns.getRerunCount(elementIndex) : 0;
+                        if (rerunCount > 0) {
+                            writeRerunsProperty(writer, rerunCount, !"properties".equals(name));
+                        }
+                    }
+                    break;
+                default:
+                    XmlStreamUtils.writeEvent(event, reader, writer);
+                    break;
+            }
+        }
+
+        writer.writeEndDocument();
+    }
+
+    /**
+     * Writes the number of reruns, in the existing properties of the test case or in new ones.
+     */
+    private static void writeRerunsProperty(XMLStreamWriter writer, int rerunCount, boolean newProperties) throws XMLStreamException {
+        if (newProperties) {
+            writer.writeStartElement("properties");
+        }
+        writer.writeEmptyElement("property");
+        writer.writeAttribute("name", RERUNS_PROPERTY);
+        writer.writeAttribute("value", Integer.toString(rerunCount));
+        if (newProperties) {
+            writer.writeEndElement();
+        }
+    }
+
+    /**
+     * Copies an element and its attributes, keeping only the first characters of its text.
+     * Nested elements are not expected in the elements compacted, and are dropped.
+     *
+     * @return the number of nested elements dropped
+     */
+    private int copyElement(XMLStreamReader reader, XMLStreamWriter writer, int maxLength) throws XMLStreamException {
+        XmlStreamUtils.writeStartElement(reader, writer);
+
+        long removed = 0;
+        int written = 0;
+        int nested = 0;
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                nested++;
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (depth == 1 && (event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.SPACE
+                    || event == XMLStreamConstants.CDATA)) {
+                final int length = reader.getTextLength();
+                final int kept = maxLength == UNLIMITED ? length : Math.max(0, Math.min(length, maxLength - written));
+                if (kept > 0) {
+                    writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), kept);
+                    written += kept;
+                }
+                removed += length - kept;
+            }
+        }
+
+        if (removed > 0) {
+            writer.writeCharacters("\n[" + removed + " characters removed before importing to Xray]");
+        }
+        writer.writeEndElement();
+        return nested;
+    }
+
+    private static class CompactCallable extends MasterToSlaveFileCallable<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final JUnitReportCompactor compactor;
+        private final String targetPath;
+
+        CompactCallable(JUnitReportCompactor compactor, String targetPath) {
+            this.compactor = compactor;
+            this.targetPath = targetPath;
+        }
+
+        @Override
+        public Long invoke(File report, VirtualChannel channel) throws IOException {
+            final File target = new File(targetPath);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+                compactor.compact(report, out);
+            }
+            return report.length() - target.length();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges JUnit XML reports into a single <code>testsuites</code> report, with all their <code>testsuite</code> elements.
+ * The reports are streamed one after the other, so none of them is fully loaded.
+ */
+public class JUnitReportMerger {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XmlStreamUtils.newInputFactory();
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private static final String TEST_SUITES = "testsuites";
+    private static final String TEST_SUITE = "testsuite";
+    private static final String TEST_CASE = "testcase";
+
+    private JUnitReportMerger() {
+    }
+
+    /**
+     * @param reports the JUnit XML reports (a <code>testsuites</code> or a <code>testsuite</code> root)
+     * @param out where the merged report is written, in UTF-8 (not closed)
+     * @return the number of test suites in the merged report
+     * @throws IOException if a report is not valid XML or could not be read
+     */
+    public static int merge(@Nonnull List<File> reports, @Nonnull OutputStream out) throws IOException {
+        return merge(reports, out, null);
+    }
+
+    /**
+     * @param reports the JUnit XML reports (a <code>testsuites</code> or a <code>testsuite</code> root)
+     * @param out where the merged report is written, in UTF-8 (not closed)
+     * @param testCases if not null, gets the test cases of each report, in the order of the merged report, as
+     *                  <code>classname.name</code> (how Xray identifies the Test of a test case)
+     * @return the number of test suites in the merged report
+     * @throws IOException if a report is not valid XML or could not be read
+     */
+    public static int merge(@Nonnull List<File> reports,
+                            @Nonnull OutputStream out,
+                            @Nullable List<List<String>> testCases) throws IOException {
+        XMLStreamWriter writer = null;
+        try {
+            writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+            writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            writer.writeStartElement(TEST_SUITES);
+
+            int testSuites = 0;
+            for (File report : reports) {
+                final List<String> reportTestCases = new ArrayList<>();
+                try (InputStream in = new BufferedInputStream(new FileInputStream(report))) {
+                    testSuites += copyTestSuites(in, writer, report.getName(), reportTestCases);
+                }
+                if (testCases != null) {
+                    testCases.add(reportTestCases);
+                }
+            }
+
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+            return testSuites;
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to merge the JUnit reports: " + e.getMessage(), e);
+        } finally {
+            XmlStreamUtils.close(null, writer);
+        }
+    }
+
+    private static int copyTestSuites(InputStream in,
+                                      XMLStreamWriter writer,
+                                      String reportName,
+                                      List<String> testCases) throws XMLStreamException {
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            int testSuites = 0;
+            int depth = 0;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    }
+                    continue;
+                }
+
+                depth++;
+                if (depth == 1 && TEST_SUITES.equals(reader.getLocalName())) {
+                    continue; // Its test suites are copied, the root is replaced
+                }
+                if (TEST_SUITE.equals(reader.getLocalName())) {
+                    copyElement(reader, writer, testCases);
+                    testSuites++;
+                } else if (depth == 1) {
+                    throw new XMLStreamException("Not a JUnit XML report: " + reportName);
+                } else {
+                    XmlStreamUtils.skipElement(reader);
+                }
+                depth--;
+            }
+            return testSuites;
+        } finally {
+            XmlStreamUtils.close(reader, null);
+        }
+    }
+
+    private static void copyElement(XMLStreamReader reader,
+                                    XMLStreamWriter writer,
+                                    List<String> testCases) throws XMLStreamException {
+        XmlStreamUtils.writeStartElement(reader, writer);
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                if (TEST_CASE.equals(reader.getLocalName())) {
+                    testCases.add(reader.getAttributeValue(null, "classname") + "." + reader.getAttributeValue(null, "name"));
+                }
+                XmlStreamUtils.writeStartElement(reader, writer);
+            } else {
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+                XmlStreamUtils.writeEvent(event, reader, writer);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.junit.SuiteResult;
+import hudson.tasks.junit.TestResult;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nonnull;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the JUnit results already parsed by Jenkins (the JUnit publisher) back into a JUnit XML report,
+ * with a streaming writer, so they can be imported into Xray without reading the workspace.
+ */
+public class JUnitReportWriter {
+
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private JUnitReportWriter() {}
+
+    /**
+     * Writes the test result as a JUnit XML report.
+     *
+     * @param result the test result of a build
+     * @param out where the report is written (not closed)
+     * @return the number of test cases written
+     * @throws IOException if the report could not be written
+     */
+    public static int write(@Nonnull TestResult result, @Nonnull OutputStream out) throws IOException {
+        int testCases = 0;
+        try {
+            final XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+            writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            writer.writeStartElement("testsuites");
+
+            for (SuiteResult suite : result.getSuites()) {
+                testCases += writeSuite(writer, suite);
+            }
+
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to write the JUnit report", e);
+        }
+        return testCases;
+    }
+
+    private static int writeSuite(XMLStreamWriter writer, SuiteResult suite) throws XMLStreamException {
+        final List<CaseResult> cases = suite.getCases();
+        int failures = 0;
+        int skipped = 0;
+        for (CaseResult testCase : cases) {
+            if (testCase.isSkipped()) {
+                skipped++;
+            } else if (!testCase.isPassed()) {
+                failures++;
+            }
+        }
+
+        writer.writeStartElement("testsuite");
+        writer.writeAttribute("name", StringUtils.defaultString(suite.getName()));
+        writer.writeAttribute("tests", Integer.toString(cases.size()));
+        writer.writeAttribute("failures", Integer.toString(failures));
+        writer.writeAttribute("errors", "0");
+        writer.writeAttribute("skipped", Integer.toString(skipped));
+        writer.writeAttribute("time", formatDuration(suite.getDuration()));
+        if (StringUtils.isNotBlank(suite.getTimestamp())) {
+            writer.writeAttribute("timestamp", suite.getTimestamp());
+        }
+
+        for (CaseResult testCase : cases) {
+            writeCase(writer, testCase);
+        }
+
+        writer.writeEndElement();
+        return cases.size();
+    }
+
+    private static void writeCase(XMLStreamWriter writer, CaseResult testCase) throws XMLStreamException {
+        writer.writeStartElement("testcase");
+        writer.writeAttribute("classname", sanitize(StringUtils.defaultString(testCase.getClassName())));
+        writer.writeAttribute("name", sanitize(StringUtils.defaultString(testCase.getName())));
+        writer.writeAttribute("time", formatDuration(testCase.getDuration()));
+
+        if (testCase.isSkipped()) {
+            writer.writeEmptyElement("skipped");
+        } else if (!testCase.isPassed()) {
+            writer.writeStartElement("failure");
+            if (testCase.getErrorDetails() != null) {
+                writer.writeAttribute("message", sanitize(testCase.getErrorDetails()));
+            }
+            writer.writeCharacters(sanitize(StringUtils.defaultString(testCase.getErrorStackTrace())));
+            writer.writeEndElement();
+        }
+
+        writeText(writer, "system-out", testCase.getStdout());
+        writeText(writer, "system-err", testCase.getStderr());
+
+        writer.writeEndElement();
+    }
+
+    private static void writeText(XMLStreamWriter writer, String element, String text) throws XMLStreamException {
+        if (StringUtils.isNotEmpty(text)) {
+            writer.writeStartElement(element);
+            writer.writeCharacters(sanitize(text));
+            writer.writeEndElement();
+        }
+    }
+
+    /**
+     * Removes the characters that are not allowed in XML 1.0 (e.g. control characters printed by the tests).
+     */
+    private static String sanitize(String text) {
+        StringBuilder builder = null;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            final boolean valid = c == '\t' || c == '\n' || c == '\r' || (c >= 0x20 && c <= 0xFFFD);
+            if (!valid && builder == null) {
+                builder = new StringBuilder(text.length());
+                builder.append(text, 0, i);
+            } else if (valid && builder != null) {
+                builder.append(c);
+            }
+        }
+        return builder != null ? builder.toString() : text;
+    }
+
+    private static String formatDuration(float seconds) {
+        return String.format(Locale.ROOT, "%.3f", seconds);
+    }
+}
@@ -0,0 +1,176 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import javax.annotation.Nonnull;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The reruns of a JUnit report written by Surefire or Failsafe with <code>rerunFailingTestsCount</code>: the
+ * <code>flakyFailure</code>, <code>flakyError</code>, <code>rerunFailure</code> and <code>rerunError</code> elements,
+ * and the consecutive runs of a test (same class name and name) that follow a failed run.
+ * <p>
+ * Each rerun chain is collapsed into a single test case with its final outcome, the last run, like Surefire reports
+ * it. Repeated test cases that don't follow a failure of the same test (e.g. parameterized tests or TestNG data
+ * providers) are not reruns, and are kept. The elements are identified by their index in document order, and only
+ * one bit per element and the current chain of runs are kept in memory.
+ */
+public class JUnitReruns {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XmlStreamUtils.newInputFactory();
+
+    private static final Set<String> RERUN_ELEMENTS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "flakyFailure", "flakyError", "rerunFailure", "rerunError")));
+
+    private final BitSet removed = new BitSet();
+    // By the index of the element where the count is written: the properties of the test case, or the test case
+    private final Map<Integer, Integer> rerunCounts = new HashMap<>();
+
+    private JUnitReruns() {
+    }
+
+    /**
+     * Reads the reruns of a report.
+     *
+     * @param report the JUnit report (not closed)
+     * @return the reruns
+     * @throws IOException if the report is not valid XML
+     */
+    @Nonnull
+    public static JUnitReruns find(@Nonnull InputStream report) throws IOException {
+        final JUnitReruns reruns = new JUnitReruns();
+        // The consecutive runs of the same test, each one after a failure of the previous one
+        List<Run> chain = new ArrayList<>();
+        String chainTest = null;
+
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(report);
+            int index = 0;
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+
+                if ("testcase".equals(reader.getLocalName())) {
+                    final Run run = new Run(index++);
+                    final String test = reader.getAttributeValue(null, "classname") + "#" + reader.getAttributeValue(null, "name");
+                    index += readRun(reader, run, reruns.removed);
+
+                    if (!test.equals(chainTest) || !chain.get(chain.size() - 1).failed) {
+                        reruns.collapse(chain);
+                        chain = new ArrayList<>(1);
+                        chainTest = test;
+                    }
+                    chain.add(run);
+                } else {
+                    // Only consecutive test cases are reruns
+                    index++;
+                    reruns.collapse(chain);
+                    chain = new ArrayList<>(1);
+                    chainTest = null;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to read the JUnit report: " + e.getMessage(), e);
+        } finally {
+            XmlStreamUtils.close(reader, null);
+        }
+
+        reruns.collapse(chain);
+        return reruns;
+    }
+
+    /**
+     * Reads the children of a test case.
+     *
+     * @return the number of elements read
+     */
+    private static int readRun(XMLStreamReader reader, Run run, BitSet removed) throws XMLStreamException {
+        int read = 0;
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                final int index = run.index + 1 + read++;
+                if (depth == 1) {
+                    final String name = reader.getLocalName();
+                    if (RERUN_ELEMENTS.contains(name)) {
+                        removed.set(index);
+                        run.reruns++;
+                    } else if ("failure".equals(name) || "error".equals(name)) {
+                        run.failed = true;
+                    } else if ("properties".equals(name) && run.propertiesIndex < 0) {
+                        run.propertiesIndex = index;
+                    }
+                }
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return read;
+    }
+
+    private void collapse(List<Run> chain) {
+        if (chain.isEmpty()) {
+            return;
+        }
+
+        // Only the last run may have passed
+        final Run kept = chain.get(chain.size() - 1);
+        int count = chain.size() - 1;
+        for (Run run : chain) {
+            count += run.reruns;
+            if (run != kept) {
+                removed.set(run.index);
+            }
+        }
+        if (count > 0) {
+            rerunCounts.put(kept.propertiesIndex >= 0 ? kept.propertiesIndex : kept.index, count);
+        }
+    }
+
+    /**
+     * @param index the index of an element, in document order
+     * @return true if the element is a rerun, that must be removed
+     */
+    public boolean isRemoved(int index) {
+        return removed.get(index);
+    }
+
+    /**
+     * Gets the number of reruns collapsed into a test case, to be written in the element at this index: the
+     * existing <code>properties</code> of the test case, or the test case itself if it has none.
+     *
+     * @param index the index of a test case or of its properties, in document order
+     * @return the number of reruns collapsed into the test case
+     */
+    public int getRerunCount(int index) {
+        final Integer count = rerunCounts.get(index);
+        return count != null ? count : 0;
+    }
+
+    private static final class Run {
+        private final int index;
+        private int propertiesIndex = -1;
+        private boolean failed;
+        private int reruns;
+
+        private Run(int index) {
+            this.index = index;
+        }
+    }
+}
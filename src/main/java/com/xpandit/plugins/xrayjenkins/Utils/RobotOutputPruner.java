@@ -0,0 +1,316 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nonnull;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes keyword details from a Robot Framework <code>output.xml</code> before it is uploaded, like
+ * <code>rebot --removekeywords</code>:
+ * <ul>
+ *     <li>PASSED: the keywords (with their arguments and messages) of passed tests and suites are removed;</li>
+ *     <li>FOR and WUKS (optional): the passed iterations of loops, except the last one, and the failed keywords of
+ *     <i>Wait Until Keyword Succeeds</i>, except the last one, are removed.</li>
+ * </ul>
+ * Suites, tests, documentation, tags, metadata and statuses are kept. Robot Framework 3 to 7 outputs are supported.
+ * <p>
+ * The file is read twice with a streaming (StAX) reader: the first pass finds the elements to remove (the status of an
+ * element is only known at its end), the second one copies the others. Only one bit per element is kept in memory.
+ */
+public class RobotOutputPruner implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String PASS = "PASS";
+    private static final String FAIL = "FAIL";
+    private static final String WUKS_NAME = "Wait Until Keyword Succeeds";
+
+    /**
+     * The body items of tests, suites and keywords (keywords, control structures and messages).
+     */
+    private static final Set<String> KEYWORD_ELEMENTS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "kw", "for", "while", "if", "try", "group", "setup", "teardown",
+            "return", "break", "continue", "var", "error", "msg")));
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XmlStreamUtils.newInputFactory();
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private final boolean pruneLoops;
+
+    /**
+     * @param pruneLoops true to also remove passed loop iterations and failed <i>Wait Until Keyword Succeeds</i>
+     *                   attempts (except the last ones)
+     */
+    public RobotOutputPruner(boolean pruneLoops) {
+        this.pruneLoops = pruneLoops;
+    }
+
+    /**
+     * Prunes an output into another file of the same node, without transferring it.
+     *
+     * @param output the Robot Framework output.xml
+     * @param target the pruned output
+     * @return the number of bytes saved
+     */
+    public long prune(@Nonnull FilePath output, @Nonnull FilePath target) throws IOException, InterruptedException {
+        return output.act(new PruneCallable(this, target.getRemote()));
+    }
+
+    /**
+     * Prunes an output.
+     *
+     * @param output the Robot Framework output.xml
+     * @param out where the pruned output is written, in UTF-8 (not closed)
+     * @throws IOException if the output is not valid XML or could not be written
+     */
+    public void prune(@Nonnull File output, @Nonnull OutputStream out) throws IOException {
+        final BitSet removed;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(output))) {
+            removed = findRemovedElements(in);
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(output))) {
+            copy(in, out, removed);
+        }
+    }
+
+    /**
+     * First pass: the index (in document order) of each element to remove.
+     */
+    private BitSet findRemovedElements(InputStream in) throws IOException {
+        final BitSet removed = new BitSet();
+        final Deque<Element> stack = new ArrayDeque<>();
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            int index = 0;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    final Element parent = stack.peek();
+                    final Element element = new Element(index++, reader);
+                    if (parent != null && "status".equals(element.name)) {
+                        parent.status = reader.getAttributeValue(null, "status");
+                    }
+                    stack.push(element);
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    final Element element = stack.pop();
+                    element.end(removed);
+                    if (!stack.isEmpty()) {
+                        stack.peek().childEnded(element);
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to read the Robot Framework output: " + e.getMessage(), e);
+        } finally {
+            XmlStreamUtils.close(reader, null);
+        }
+        return removed;
+    }
+
+    /**
+     * Second pass: copies the elements that are not removed.
+     */
+    private void copy(InputStream in, OutputStream out, BitSet removed) throws IOException {
+        XMLStreamReader reader = null;
+        XMLStreamWriter writer = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+            writer.writeStartDocument(StandardCharsets.UTF_8.name(), reader.getVersion() != null ? reader.getVersion() : "1.0");
+
+            int index = 0;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (removed.get(index++)) {
+                        index += XmlStreamUtils.skipElement(reader);
+                    } else {
+                        XmlStreamUtils.writeStartElement(reader, writer);
+                    }
+                } else {
+                    XmlStreamUtils.writeEvent(event, reader, writer);
+                }
+            }
+
+            writer.writeEndDocument();
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to prune the Robot Framework output: " + e.getMessage(), e);
+        } finally {
+            XmlStreamUtils.close(reader, writer);
+        }
+    }
+
+    private enum Kind {
+        /**
+         * A suite or a test: its keywords are removed when it passes.
+         */
+        CONTAINER,
+        /**
+         * A FOR or WHILE loop.
+         */
+        LOOP,
+        /**
+         * An iteration of a loop.
+         */
+        ITERATION,
+        /**
+         * A Wait Until Keyword Succeeds keyword.
+         */
+        WUKS,
+        OTHER
+    }
+
+    /**
+     * An open element of the first pass.
+     */
+    private final class Element {
+
+        private final int index;
+        private final String name;
+        private final Kind kind;
+        private String status;
+
+        // The keywords of a container, the iterations of a loop or the attempts of a WUKS
+        private List<Element> children;
+
+        Element(int index, XMLStreamReader reader) {
+            this.index = index;
+            this.name = reader.getLocalName();
+            this.kind = kindOf(name, reader);
+        }
+
+        void childEnded(Element child) {
+            final boolean tracked;
+            switch (kind) {
+                case CONTAINER:
+                    tracked = KEYWORD_ELEMENTS.contains(child.name);
+                    break;
+                case LOOP:
+                    tracked = pruneLoops && child.kind == Kind.ITERATION;
+                    break;
+                case WUKS:
+                    tracked = pruneLoops && "kw".equals(child.name);
+                    break;
+                default:
+                    tracked = false;
+                    break;
+            }
+
+            if (tracked) {
+                if (children == null) {
+                    children = new ArrayList<>();
+                }
+                // Only the index and the status are needed from now on
+                child.children = null;
+                children.add(child);
+            }
+        }
+
+        void end(BitSet removed) {
+            if (children == null) {
+                return;
+            }
+
+            final int last = children.size() - 1;
+            for (int i = 0; i < children.size(); i++) {
+                final Element child = children.get(i);
+                final boolean remove;
+                switch (kind) {
+                    case CONTAINER:
+                        remove = PASS.equals(status);
+                        break;
+                    case LOOP:
+                        remove = i < last && PASS.equals(child.status);
+                        break;
+                    case WUKS:
+                        remove = i < last && FAIL.equals(child.status);
+                        break;
+                    default:
+                        remove = false;
+                        break;
+                }
+                if (remove) {
+                    removed.set(child.index);
+                }
+            }
+            children = null;
+        }
+    }
+
+    private static Kind kindOf(String name, XMLStreamReader reader) {
+        switch (name) {
+            case "suite":
+            case "test":
+                return Kind.CONTAINER;
+            case "for":
+            case "while":
+                return Kind.LOOP;
+            case "iter":
+                return Kind.ITERATION;
+            case "kw":
+                // Robot Framework 3 and 4 write loops and iterations as keywords with a type
+                final String type = StringUtils.defaultString(reader.getAttributeValue(null, "type"));
+                if ("for".equalsIgnoreCase(type) || "while".equalsIgnoreCase(type)) {
+                    return Kind.LOOP;
+                } else if ("foritem".equalsIgnoreCase(type) || "iteration".equalsIgnoreCase(type)) {
+                    return Kind.ITERATION;
+                }
+                final String keywordName = StringUtils.defaultString(reader.getAttributeValue(null, "name"));
+                return keywordName.endsWith(WUKS_NAME) ? Kind.WUKS : Kind.OTHER;
+            default:
+                return Kind.OTHER;
+        }
+    }
+
+    private static class PruneCallable extends MasterToSlaveFileCallable<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RobotOutputPruner pruner;
+        private final String targetPath;
+
+        PruneCallable(RobotOutputPruner pruner, String targetPath) {
+            this.pruner = pruner;
+            this.targetPath = targetPath;
+        }
+
+        @Override
+        public Long invoke(File output, VirtualChannel channel) throws IOException {
+            final File target = new File(targetPath);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+                pruner.prune(output, out);
+            }
+            return output.length() - target.length();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Maps full test names (<code>classname.name</code>) to values, e.g. Test keys or evidence globs.
+ * <p>
+ * The mapping has one line per rule, as <code>regular expression=value</code>. The expression must match the whole
+ * test name and the value may use its groups (<code>$1</code>). The first matching line is used, and lines starting
+ * with <code>#</code> are ignored.
+ */
+public class TestNameMapping {
+
+    private static final TestNameMapping EMPTY = new TestNameMapping(Collections.<Rule>emptyList());
+
+    private final List<Rule> rules;
+
+    private TestNameMapping(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * @param mapping the mapping
+     * @return the parsed mapping
+     * @throws IllegalArgumentException if a line is not valid
+     */
+    @Nonnull
+    public static TestNameMapping parse(@Nullable String mapping) {
+        if (StringUtils.isBlank(mapping)) {
+            return EMPTY;
+        }
+
+        final List<Rule> rules = new ArrayList<>();
+        for (String line : mapping.split("\\r?\\n")) {
+            final String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+
+            final int separator = trimmed.lastIndexOf('=');
+            if (separator <= 0 || separator == trimmed.length() - 1) {
+                throw new IllegalArgumentException("Invalid mapping (expected 'regular expression=value'): " + trimmed);
+            }
+            try {
+                rules.add(new Rule(Pattern.compile(trimmed.substring(0, separator).trim()), trimmed.substring(separator + 1).trim()));
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid regular expression in the mapping: " + e.getDescription(), e);
+            }
+        }
+        return new TestNameMapping(rules);
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * @param testName the full test name
+     * @return the value of the first matching line, or null if no line matches
+     */
+    @CheckForNull
+    public String apply(@Nonnull String testName) {
+        for (Rule rule : rules) {
+            final Matcher matcher = rule.pattern.matcher(testName);
+            if (matcher.matches()) {
+                return matcher.replaceFirst(rule.value);
+            }
+        }
+        return null;
+    }
+
+    private static final class Rule {
+        private final Pattern pattern;
+        private final String value;
+
+        private Rule(Pattern pattern, String value) {
+            this.pattern = pattern;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Helpers shared by the streaming (StAX) readers and rewriters of test reports.
+ */
+public class XmlStreamUtils {
+
+    private XmlStreamUtils() {
+    }
+
+    /**
+     * @return a non coalescing input factory that doesn't read DTDs nor external entities
+     * (the reports are written by the build)
+     */
+    public static XMLInputFactory newInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    /**
+     * Moves the reader to the end of the current element.
+     *
+     * @param reader the reader, on a START_ELEMENT
+     * @return the number of elements skipped inside the current element
+     */
+    public static int skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int skipped = 0;
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                skipped++;
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * Writes the current START_ELEMENT of the reader, with its namespaces and attributes.
+     */
+    public static void writeStartElement(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        final String prefix = reader.getPrefix();
+        final String namespace = reader.getNamespaceURI();
+        if (namespace == null) {
+            writer.writeStartElement(reader.getLocalName());
+        } else {
+            writer.writeStartElement(prefix != null ? prefix : "", reader.getLocalName(), namespace);
+        }
+
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            final String namespacePrefix = reader.getNamespacePrefix(i);
+            if (namespacePrefix == null || namespacePrefix.isEmpty()) {
+                writer.writeDefaultNamespace(reader.getNamespaceURI(i));
+            } else {
+                writer.writeNamespace(namespacePrefix, reader.getNamespaceURI(i));
+            }
+        }
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            final String attributeNamespace = reader.getAttributeNamespace(i);
+            if (attributeNamespace == null || attributeNamespace.isEmpty()) {
+                writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            } else {
+                writer.writeAttribute(reader.getAttributePrefix(i), attributeNamespace, reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+        }
+    }
+
+    /**
+     * Writes the current event of the reader, except START_ELEMENT (see {@link #writeStartElement}).
+     * Comments and DTDs are dropped, since they are not needed by Xray.
+     */
+    public static void writeEvent(int event, XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        switch (event) {
+            case XMLStreamConstants.END_ELEMENT:
+                writer.writeEndElement();
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                break;
+            case XMLStreamConstants.CDATA:
+                writer.writeCData(reader.getText());
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Closes a reader and a writer (any of them may be null), without closing their underlying streams.
+     */
+    public static void close(XMLStreamReader reader, XMLStreamWriter writer) {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+            if (reader != null) {
+                reader.close();
+            }
+        } catch (XMLStreamException ignored) {
+            // The streams are closed by the caller
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the evidence files of each test in the workspace, with a {@link TestNameMapping} from test names to Ant globs
+ * (e.g. <code>com\.example\.(\w+)\.(\w+)=screenshots/$1/$2*.png</code>).
+ * <p>
+ * Files larger than the maximum file size are skipped, identical files (same content hash, computed once per file on
+ * the node where it is) are attached once per document, to the first test they match, and no more files are attached
+ * once the maximum total size is reached. The files are only read when they are written into the document.
+ */
+public class XrayEvidenceCollector implements XrayJsonResultsConverter.EvidenceSource {
+
+    private final FilePath workspace;
+    private final TestNameMapping evidenceMapping;
+    private final long maxFileBytes;
+    private final long maxTotalBytes;
+    private final TaskListener listener;
+
+    // Many tests usually share the same glob (e.g. a folder per class)
+    private final Map<String, List<FilePath>> filesByGlob = new HashMap<>();
+    // The same file may match the globs of many tests
+    private final Map<String, String> digestsByPath = new HashMap<>();
+    private final Set<String> attachedDigests = new HashSet<>();
+
+    private long totalBytes;
+    private int attachedFiles;
+    private boolean totalLimitReported;
+
+    /**
+     * @param workspace the workspace, where the globs are resolved
+     * @param evidenceMapping the globs of the evidence files of the tests, as a {@link TestNameMapping}
+     * @param maxFileBytes the maximum size of an evidence file
+     * @param maxTotalBytes the maximum size of all the evidence files
+     * @param listener where the skipped files are reported
+     * @throws IllegalArgumentException if the mapping is not valid
+     */
+    public XrayEvidenceCollector(@Nonnull FilePath workspace,
+                                 @Nullable String evidenceMapping,
+                                 long maxFileBytes,
+                                 long maxTotalBytes,
+                                 @Nonnull TaskListener listener) {
+        this.workspace = workspace;
+        this.evidenceMapping = TestNameMapping.parse(evidenceMapping);
+        this.maxFileBytes = maxFileBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        this.listener = listener;
+    }
+
+    @Nonnull
+    @Override
+    public List<XrayJsonResultsConverter.Evidence> getEvidence(@Nonnull String testName) throws IOException {
+        final String glob = evidenceMapping.apply(testName);
+        if (glob == null) {
+            return Collections.emptyList();
+        }
+
+        try {
+            final List<XrayJsonResultsConverter.Evidence> evidence = new ArrayList<>();
+            for (FilePath file : findFiles(glob)) {
+                final long length = file.length();
+                if (length > maxFileBytes) {
+                    listener.getLogger().println("Evidence " + file.getRemote() + " not attached to " + testName
+                            + ": " + length + " bytes exceeds the maximum of " + maxFileBytes);
+                    continue;
+                }
+                final String digest = digest(file);
+                if (attachedDigests.contains(digest)) {
+                    continue; // Same content already attached
+                }
+                if (totalBytes + length > maxTotalBytes) {
+                    if (!totalLimitReported) {
+                        listener.getLogger().println("Maximum total size of the evidence (" + maxTotalBytes
+                                + " bytes) reached: no more evidence is attached");
+                        totalLimitReported = true;
+                    }
+                    continue;
+                }
+
+                attachedDigests.add(digest);
+                totalBytes += length;
+                attachedFiles++;
+                evidence.add(new WorkspaceEvidence(file));
+            }
+            return evidence;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while collecting the evidence of " + testName);
+        }
+    }
+
+    /**
+     * @return the number of evidence files attached so far
+     */
+    public int getAttachedFiles() {
+        return attachedFiles;
+    }
+
+    /**
+     * @return the size of the evidence files attached so far
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private String digest(FilePath file) throws IOException, InterruptedException {
+        String digest = digestsByPath.get(file.getRemote());
+        if (digest == null) {
+            digest = file.digest();
+            digestsByPath.put(file.getRemote(), digest);
+        }
+        return digest;
+    }
+
+    private List<FilePath> findFiles(String glob) throws IOException, InterruptedException {
+        List<FilePath> files = filesByGlob.get(glob);
+        if (files == null) {
+            files = new ArrayList<>(Arrays.asList(workspace.list(glob, null, false)));
+            files.sort(Comparator.comparing(FilePath::getRemote));
+            filesByGlob.put(glob, files);
+        }
+        return files;
+    }
+
+    private static final class WorkspaceEvidence implements XrayJsonResultsConverter.Evidence {
+
+        private final FilePath file;
+
+        private WorkspaceEvidence(FilePath file) {
+            this.file = file;
+        }
+
+        @Nonnull
+        @Override
+        public String getFileName() {
+            return file.getName();
+        }
+
+        @Nonnull
+        @Override
+        public InputStream open() throws IOException {
+            try {
+                return file.read();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading " + file.getRemote());
+            }
+        }
+    }
+}
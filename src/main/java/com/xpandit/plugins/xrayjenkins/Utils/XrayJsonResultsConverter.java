@@ -0,0 +1,454 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.xpandit.plugins.xrayjenkins.model.HostingType;
+import com.xpandit.xray.model.QueryParameter;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts JUnit, TestNG and NUnit (2 and 3) XML reports into a single Xray JSON execution document.
+ * <p>
+ * The reports are read with a streaming (StAX) parser and the document is written while they are read, so only one
+ * test case is kept in memory. Only what Xray uses is written: the status of each test, its (truncated) failure message
+ * and, for tests without a mapped key, the same Generic test definition (<code>classname.name</code>) that the XML
+ * imports use, so the existing Tests are matched.
+ */
+public class XrayJsonResultsConverter {
+
+    public static final int DEFAULT_MAX_FAILURE_MESSAGE_LENGTH = 1000;
+
+    private static final int MAX_SUMMARY_LENGTH = 255;
+    private static final String GENERIC_TEST_TYPE = "Generic";
+    private static final String TEST_ENVIRONMENTS_SEPARATOR = ";";
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final XMLInputFactory XML_INPUT_FACTORY = XmlStreamUtils.newInputFactory();
+
+    private final HostingType hostingType;
+    private final TestNameMapping testKeyMapping;
+    private final int maxFailureMessageLength;
+
+    /**
+     * @param hostingType the hosting type of the Xray instance (the status names are different)
+     * @param testKeyMapping the Test keys of the tests, as a {@link TestNameMapping} (e.g. <code>.*_(CALC_\d+)=$1</code>)
+     * @param maxFailureMessageLength the maximum length of the failure message of each test
+     * @throws IllegalArgumentException if a mapping is not valid
+     */
+    public XrayJsonResultsConverter(@Nonnull HostingType hostingType,
+                                    @Nullable String testKeyMapping,
+                                    int maxFailureMessageLength) {
+        this.hostingType = hostingType;
+        this.testKeyMapping = TestNameMapping.parse(testKeyMapping);
+        this.maxFailureMessageLength = maxFailureMessageLength > 0 ? maxFailureMessageLength : DEFAULT_MAX_FAILURE_MESSAGE_LENGTH;
+    }
+
+    /**
+     * Starts a new execution document. The reports are then added one by one, and the document is completed when closed.
+     *
+     * @param out where the document is written (not closed)
+     * @param queryParams the import parameters (project, Test Execution, Test Plan, environments, revision and version)
+     * @return the document
+     * @throws IOException if the document could not be written
+     */
+    @Nonnull
+    public Document open(@Nonnull OutputStream out, @Nonnull Map<QueryParameter, String> queryParams) throws IOException {
+        return new Document(out, queryParams, null);
+    }
+
+    /**
+     * Starts a new execution document, with the evidence of each test.
+     *
+     * @param out where the document is written (not closed)
+     * @param queryParams the import parameters (project, Test Execution, Test Plan, environments, revision and version)
+     * @param evidenceSource the evidence files of the tests
+     * @return the document
+     * @throws IOException if the document could not be written
+     */
+    @Nonnull
+    public Document open(@Nonnull OutputStream out,
+                         @Nonnull Map<QueryParameter, String> queryParams,
+                         @Nullable EvidenceSource evidenceSource) throws IOException {
+        return new Document(out, queryParams, evidenceSource);
+    }
+
+    /**
+     * Provides the evidence files attached to each test.
+     */
+    public interface EvidenceSource {
+
+        /**
+         * @param testName the full test name (<code>classname.name</code>)
+         * @return the evidence files of the test
+         * @throws IOException if the files could not be found
+         */
+        @Nonnull
+        List<Evidence> getEvidence(@Nonnull String testName) throws IOException;
+    }
+
+    /**
+     * An evidence file, read only while it is written (base64 encoded) into the document.
+     */
+    public interface Evidence {
+
+        @Nonnull
+        String getFileName();
+
+        @Nonnull
+        InputStream open() throws IOException;
+    }
+
+    private enum Status {
+        PASSED("PASS", "PASSED"),
+        FAILED("FAIL", "FAILED"),
+        TODO("TODO", "TODO");
+
+        private final String serverName;
+        private final String cloudName;
+
+        Status(String serverName, String cloudName) {
+            this.serverName = serverName;
+            this.cloudName = cloudName;
+        }
+
+        String getName(HostingType hostingType) {
+            return hostingType == HostingType.CLOUD ? cloudName : serverName;
+        }
+    }
+
+    /**
+     * An Xray JSON execution document being written.
+     */
+    public final class Document implements Closeable {
+
+        private final JsonGenerator generator;
+        private final String projectKey;
+        private final EvidenceSource evidenceSource;
+        private int testCount;
+
+        private Document(OutputStream out, Map<QueryParameter, String> queryParams, EvidenceSource evidenceSource) throws IOException {
+            this.evidenceSource = evidenceSource;
+            this.generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+            this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            this.projectKey = StringUtils.trimToNull(queryParams.get(QueryParameter.PROJECT_KEY));
+
+            generator.writeStartObject();
+            writeNotBlank("testExecutionKey", queryParams.get(QueryParameter.TEST_EXEC_KEY));
+
+            generator.writeObjectFieldStart("info");
+            writeNotBlank("project", projectKey);
+            writeNotBlank("testPlanKey", queryParams.get(QueryParameter.TEST_PLAN_KEY));
+            writeNotBlank("version", queryParams.get(QueryParameter.FIX_VERSION));
+            writeNotBlank("revision", queryParams.get(QueryParameter.REVISION));
+            final String testEnvironments = queryParams.get(QueryParameter.TEST_ENVIRONMENTS);
+            if (StringUtils.isNotBlank(testEnvironments)) {
+                generator.writeArrayFieldStart("testEnvironments");
+                for (String environment : testEnvironments.split(TEST_ENVIRONMENTS_SEPARATOR)) {
+                    if (StringUtils.isNotBlank(environment)) {
+                        generator.writeString(environment.trim());
+                    }
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+
+            generator.writeArrayFieldStart("tests");
+        }
+
+        /**
+         * Adds the tests of a report to the document.
+         *
+         * @param report the JUnit, TestNG or NUnit report (not closed)
+         * @param reportName the name of the report, used in error messages
+         * @return the number of tests added
+         * @throws IOException if the report is not valid XML or the document could not be written
+         */
+        public int add(@Nonnull InputStream report, @Nonnull String reportName) throws IOException {
+            final int before = testCount;
+            XMLStreamReader reader = null;
+            try {
+                reader = XML_INPUT_FACTORY.createXMLStreamReader(report);
+                readReport(reader);
+            } catch (XMLStreamException e) {
+                throw new IOException("Unable to read the test report " + reportName + ": " + e.getMessage(), e);
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (XMLStreamException ignored) {
+                        // Nothing to release: the stream is closed by the caller
+                    }
+                }
+            }
+            return testCount - before;
+        }
+
+        /**
+         * @return the number of tests written so far
+         */
+        public int getTestCount() {
+            return testCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.close();
+        }
+
+        private void readReport(XMLStreamReader reader) throws XMLStreamException, IOException {
+            String testNgClassName = null;
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+
+                switch (reader.getLocalName()) {
+                    case "testcase": // JUnit
+                        readJUnitTestCase(reader);
+                        break;
+                    case "class": // TestNG
+                        testNgClassName = reader.getAttributeValue(null, "name");
+                        break;
+                    case "test-method": // TestNG
+                        readTestNgMethod(reader, testNgClassName);
+                        break;
+                    case "test-case": // NUnit
+                        readNUnitTestCase(reader);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        private void readJUnitTestCase(XMLStreamReader reader) throws XMLStreamException, IOException {
+            final String className = reader.getAttributeValue(null, "classname");
+            final String name = StringUtils.defaultString(reader.getAttributeValue(null, "name"));
+
+            Status status = Status.PASSED;
+            String comment = null;
+            while (nextChild(reader)) {
+                final String element = reader.getLocalName();
+                if ("failure".equals(element) || "error".equals(element)) {
+                    status = Status.FAILED;
+                    comment = readFailureMessage(reader);
+                } else if ("skipped".equals(element)) {
+                    if (status == Status.PASSED) {
+                        status = Status.TODO;
+                    }
+                    XmlStreamUtils.skipElement(reader);
+                } else {
+                    XmlStreamUtils.skipElement(reader); // system-out and system-err are not imported
+                }
+            }
+            writeTest(className, name, status, comment);
+        }
+
+        private void readTestNgMethod(XMLStreamReader reader, String className) throws XMLStreamException, IOException {
+            if ("true".equals(reader.getAttributeValue(null, "is-config"))) {
+                XmlStreamUtils.skipElement(reader);
+                return;
+            }
+
+            final String name = StringUtils.defaultString(reader.getAttributeValue(null, "name"));
+            final String result = reader.getAttributeValue(null, "status");
+            final Status status = "PASS".equalsIgnoreCase(result) ? Status.PASSED
+                    : "FAIL".equalsIgnoreCase(result) ? Status.FAILED
+                    : Status.TODO;
+
+            String comment = null;
+            while (nextChild(reader)) {
+                if ("exception".equals(reader.getLocalName()) && status == Status.FAILED) {
+                    comment = readNestedMessage(reader, "message", "full-stacktrace");
+                } else {
+                    XmlStreamUtils.skipElement(reader);
+                }
+            }
+            writeTest(className, name, status, comment);
+        }
+
+        private void readNUnitTestCase(XMLStreamReader reader) throws XMLStreamException, IOException {
+            // NUnit 3 has the full name in "fullname", NUnit 2 in "name"
+            final String fullName = StringUtils.defaultIfBlank(reader.getAttributeValue(null, "fullname"),
+                    StringUtils.defaultString(reader.getAttributeValue(null, "name")));
+            final String result = StringUtils.defaultString(reader.getAttributeValue(null, "result"));
+            final Status status;
+            if ("False".equalsIgnoreCase(reader.getAttributeValue(null, "executed"))) {
+                status = Status.TODO;
+            } else if (result.startsWith("Pass") || result.equals("Success")) {
+                status = Status.PASSED;
+            } else if (result.startsWith("Fail") || result.equals("Error") || result.equals("NotRunnable")) {
+                status = Status.FAILED;
+            } else {
+                status = Status.TODO;
+            }
+
+            String comment = null;
+            while (nextChild(reader)) {
+                if ("failure".equals(reader.getLocalName())) {
+                    comment = readNestedMessage(reader, "message", "stack-trace");
+                } else {
+                    XmlStreamUtils.skipElement(reader);
+                }
+            }
+
+            final int separator = fullName.lastIndexOf('.');
+            writeTest(separator > 0 ? fullName.substring(0, separator) : null,
+                    separator > 0 ? fullName.substring(separator + 1) : fullName,
+                    status,
+                    comment);
+        }
+
+        /**
+         * The message attribute of a JUnit failure or, if there is none, its text (the stack trace).
+         */
+        private String readFailureMessage(XMLStreamReader reader) throws XMLStreamException {
+            final String message = reader.getAttributeValue(null, "message");
+            if (StringUtils.isNotBlank(message)) {
+                XmlStreamUtils.skipElement(reader);
+                return truncate(message);
+            }
+            return readText(reader);
+        }
+
+        /**
+         * The text of the message child of the current element or, if there is none, of the stack trace child.
+         */
+        private String readNestedMessage(XMLStreamReader reader, String messageElement, String stackTraceElement) throws XMLStreamException {
+            String message = null;
+            String stackTrace = null;
+            while (nextChild(reader)) {
+                final String element = reader.getLocalName();
+                if (messageElement.equals(element)) {
+                    message = readText(reader);
+                } else if (stackTraceElement.equals(element) && message == null) {
+                    stackTrace = readText(reader);
+                } else {
+                    XmlStreamUtils.skipElement(reader);
+                }
+            }
+            return StringUtils.isNotBlank(message) ? message : stackTrace;
+        }
+
+        private void writeTest(@Nullable String className, String name, Status status, @Nullable String comment) throws IOException {
+            final String fullName = StringUtils.isBlank(className) ? name : className + "." + name;
+            final String testKey = testKeyMapping.apply(fullName);
+
+            generator.writeStartObject();
+            if (testKey != null) {
+                generator.writeStringField("testKey", testKey);
+            } else {
+                generator.writeObjectFieldStart("testInfo");
+                writeNotBlank("projectKey", projectKey);
+                generator.writeStringField("summary", StringUtils.abbreviate(name, MAX_SUMMARY_LENGTH));
+                generator.writeStringField("type", GENERIC_TEST_TYPE);
+                generator.writeStringField("definition", fullName);
+                generator.writeEndObject();
+            }
+            generator.writeStringField("status", status.getName(hostingType));
+            writeNotBlank("comment", comment);
+            if (evidenceSource != null) {
+                writeEvidence(evidenceSource.getEvidence(fullName));
+            }
+            generator.writeEndObject();
+
+            testCount++;
+        }
+
+        /**
+         * Writes the evidence files of a test: each one is base64 encoded while it is read, so it is never fully
+         * loaded in memory.
+         */
+        private void writeEvidence(List<Evidence> evidence) throws IOException {
+            if (evidence.isEmpty()) {
+                return;
+            }
+
+            // Xray Server and Xray Cloud don't use the same field name
+            generator.writeArrayFieldStart(hostingType == HostingType.CLOUD ? "evidence" : "evidences");
+            for (Evidence file : evidence) {
+                final String contentType = URLConnection.guessContentTypeFromName(file.getFileName());
+                generator.writeStartObject();
+                generator.writeStringField("filename", file.getFileName());
+                generator.writeStringField("contentType", contentType != null ? contentType : DEFAULT_CONTENT_TYPE);
+                generator.writeFieldName("data");
+                try (InputStream in = file.open()) {
+                    generator.writeBinary(in, -1);
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+
+        private void writeNotBlank(String field, @Nullable String value) throws IOException {
+            if (StringUtils.isNotBlank(value)) {
+                generator.writeStringField(field, value.trim());
+            }
+        }
+
+        /**
+         * Moves to the next child element of the current element.
+         *
+         * @return false when the end of the current element is reached
+         */
+        private boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    return true;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Reads the text of the current element, keeping only up to the maximum failure message length,
+         * so a huge stack trace is never fully buffered.
+         */
+        private String readText(XMLStreamReader reader) throws XMLStreamException {
+            final StringBuilder text = new StringBuilder();
+            boolean truncated = false;
+            int depth = 1;
+            while (depth > 0 && reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                    final int remaining = maxFailureMessageLength - text.length();
+                    if (remaining > 0) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), Math.min(remaining, reader.getTextLength()));
+                    }
+                    truncated |= reader.getTextLength() > remaining;
+                }
+            }
+            final String trimmed = text.toString().trim();
+            return truncated ? truncate(trimmed + "...") : trimmed;
+        }
+
+        private String truncate(String message) {
+            return StringUtils.abbreviate(message.trim(), Math.max(4, maxFailureMessageLength));
+        }
+    }
+}
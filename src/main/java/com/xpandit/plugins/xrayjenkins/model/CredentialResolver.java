@@ -1,11 +1,9 @@
 package com.xpandit.plugins.xrayjenkins.model;
 
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
-import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import com.xpandit.plugins.xrayjenkins.services.cache.CredentialCache;
 import hudson.model.Run;
 import hudson.util.Secret;
-import java.util.List;
 import javax.annotation.Nullable;
 import org.apache.commons.lang.StringUtils;
 
@@ -13,6 +11,7 @@ public class CredentialResolver {
     private final String credentialId;
     private final Run<?, ?> run;
     
+    private boolean resolved = false;
     private String username = null;
     private Secret password = null;
     
@@ -37,10 +36,14 @@ public class CredentialResolver {
         return null;
     }
     
-    private void resolveUsernamePassword() {
+    private synchronized void resolveUsernamePassword() {
+        if (resolved) {
+            return;
+        }
+        resolved = true;
+
         if (StringUtils.isNotBlank(this.credentialId)) {
-            final StandardUsernamePasswordCredentials credential =
-                    CredentialsProvider.findCredentialById(this.credentialId, StandardUsernamePasswordCredentials.class, run, (List<DomainRequirement>) null);
+            final StandardUsernamePasswordCredentials credential = CredentialCache.get(this.credentialId, run);
 
             if (credential != null) {
                 this.username = credential.getUsername();
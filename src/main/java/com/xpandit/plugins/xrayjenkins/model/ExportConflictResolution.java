@@ -0,0 +1,24 @@
+package com.xpandit.plugins.xrayjenkins.model;
+
+/**
+ * What to do when two exported archives contain the same file with a different content.
+ */
+public enum ExportConflictResolution {
+    KEEP_FIRST("Keep the file of the first export"),
+    KEEP_LAST("Keep the file of the last export"),
+    FAIL("Fail the build");
+
+    private final String description;
+
+    ExportConflictResolution(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public static ExportConflictResolution getDefaultResolution() {
+        return ExportConflictResolution.KEEP_FIRST;
+    }
+}
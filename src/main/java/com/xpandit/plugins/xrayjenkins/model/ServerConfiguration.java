@@ -13,6 +13,13 @@ import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import com.xpandit.plugins.xrayjenkins.Utils.ProxyUtil;
+import com.xpandit.plugins.xrayjenkins.services.balancer.XrayNodeBalancer;
+import com.xpandit.plugins.xrayjenkins.services.breaker.XrayCircuitBreaker;
+import com.xpandit.plugins.xrayjenkins.services.cache.XrayClientCache;
+import com.xpandit.plugins.xrayjenkins.services.metrics.XrayMetrics;
+import com.xpandit.plugins.xrayjenkins.services.monitor.XrayHealthMonitor;
+import com.xpandit.plugins.xrayjenkins.services.retry.XrayRetryPolicy;
+import com.xpandit.plugins.xrayjenkins.services.scheduler.XrayFolderQuotas;
 import com.xpandit.xray.service.impl.XrayClientImpl;
 import com.xpandit.xray.service.impl.XrayCloudClientImpl;
 import com.xpandit.xray.service.impl.bean.ConnectionResult;
@@ -25,6 +32,8 @@ import hudson.util.ListBoxModel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import jenkins.model.GlobalConfiguration;
 import jenkins.model.Jenkins;
@@ -47,6 +56,8 @@ public class ServerConfiguration extends GlobalConfiguration {
     private static final Logger logger = LoggerFactory.getLogger(ServerConfiguration.class);
 
     private List<XrayInstance> serverInstances = new ArrayList<>();
+    private String folderQuotas;
+    private transient XrayFolderQuotas parsedFolderQuotas;
 	
 	public ServerConfiguration(){
 		load();
@@ -59,6 +70,13 @@ public class ServerConfiguration extends GlobalConfiguration {
         req.bindJSON(this, formData.getJSONObject("xrayinstance"));
         
         save();
+
+        // Instances and credentials may have changed, so the shared clients must authenticate again.
+        XrayClientCache.invalidateAll();
+        // The instances may have been fixed, so their requests don't fail fast anymore.
+        XrayCircuitBreaker.resetAll();
+        // The metrics of the deleted instances would be published forever otherwise.
+        XrayMetrics.retain(serverInstances != null ? serverInstances : Collections.<XrayInstance>emptyList());
         return true;
     }
 	
@@ -70,6 +88,60 @@ public class ServerConfiguration extends GlobalConfiguration {
 		return this.serverInstances;
 	}
 
+    public String getFolderQuotas() {
+        return folderQuotas;
+    }
+
+    public void setFolderQuotas(String folderQuotas) {
+        this.folderQuotas = folderQuotas;
+        this.parsedFolderQuotas = null;
+    }
+
+    /**
+     * @return the quotas of concurrent Xray requests by folder (none if they are not valid)
+     */
+    @Nonnull
+    public XrayFolderQuotas getParsedFolderQuotas() {
+        XrayFolderQuotas quotas = parsedFolderQuotas;
+        if (quotas == null) {
+            try {
+                quotas = XrayFolderQuotas.parse(folderQuotas);
+            } catch (IllegalArgumentException e) {
+                logger.error("Ignoring the Xray folder quotas: {}", e.getMessage());
+                quotas = XrayFolderQuotas.parse(null);
+            }
+            parsedFolderQuotas = quotas;
+        }
+        return quotas;
+    }
+
+    public FormValidation doCheckFolderQuotas(@QueryParameter String value) {
+        try {
+            XrayFolderQuotas.parse(value);
+            return FormValidation.ok();
+        } catch (IllegalArgumentException e) {
+            return FormValidation.error(e.getMessage());
+        }
+    }
+
+    public FormValidation doCheckRetryStatusCodes(@QueryParameter String value) {
+        try {
+            XrayRetryPolicy.parseStatusCodes(value);
+            return FormValidation.ok();
+        } catch (IllegalArgumentException e) {
+            return FormValidation.error(e.getMessage());
+        }
+    }
+
+    public FormValidation doCheckRetryExceptions(@QueryParameter String value) {
+        try {
+            XrayRetryPolicy.parseExceptions(value);
+            return FormValidation.ok();
+        } catch (IllegalArgumentException e) {
+            return FormValidation.error(e.getMessage());
+        }
+    }
+
 	public String getCloudHostingTypeName(){
 	    return HostingType.getCloudHostingName();
     }
@@ -118,6 +190,7 @@ public class ServerConfiguration extends GlobalConfiguration {
 	public FormValidation doTestConnection(@AncestorInPath final Item item,
                                            @QueryParameter("hosting") final String hosting,
 	                                       @QueryParameter("serverAddress") final String serverAddress,
+                                           @QueryParameter("nodeAddresses") final String nodeAddresses,
                                            @QueryParameter("credentialId") final String credentialId) {
 
         Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
@@ -136,16 +209,19 @@ public class ServerConfiguration extends GlobalConfiguration {
         
         final String username = credential.getUsername();
         final String password = credential.getPassword().getPlainText();
-        final HttpRequestProvider.ProxyBean proxyBean = ProxyUtil.createProxyBean();
         final ConnectionResult connectionResult;
 
         if (hosting.equals(HostingType.CLOUD.toString())) {
-            connectionResult = new XrayCloudClientImpl(username, password, proxyBean).testConnection();
+            connectionResult = testConnection(HostingType.CLOUD, serverAddress, username, password);
         } else if (hosting.equals(HostingType.SERVER.toString())) {
             if(StringUtils.isBlank(serverAddress)) {
                 return FormValidation.error("Server address can't be empty");
             }
-            connectionResult = new XrayClientImpl(serverAddress, username, password, proxyBean).testConnection();
+            final List<String> nodes = XrayInstance.parseNodeAddresses(nodeAddresses);
+            if (!nodes.isEmpty()) {
+                return testNodes(nodes, username, password);
+            }
+            connectionResult = testConnection(HostingType.SERVER, serverAddress, username, password);
         } else {
             return FormValidation.error("Hosting type not recognized.");
         }
@@ -162,6 +238,99 @@ public class ServerConfiguration extends GlobalConfiguration {
         }
     }
 
+    /**
+     * Tests the connection to each Data Center node, and reports their latencies.
+     */
+    private FormValidation testNodes(final List<String> nodes, final String username, final String password) {
+        final List<String> lines = new ArrayList<>();
+        int failures = 0;
+        for (String node : nodes) {
+            final long startTime = System.nanoTime();
+            final ConnectionResult connectionResult = testConnection(HostingType.SERVER, node, username, password);
+            final long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+            if (connectionResult.isSuccessful()) {
+                lines.add(node + ": Success (" + latency + " ms)");
+            } else {
+                failures++;
+                lines.add(node + ": Failed after " + latency + " ms - " + limitStringSize(connectionResult.getErrorText()));
+                logger.error("Error while connecting to node {}:\n{}", node, connectionResult.getErrorText());
+            }
+        }
+
+        final String text = StringUtils.join(lines, "\n");
+        if (failures == 0) {
+            return FormValidation.ok("Connection: Success!\n" + text);
+        } else if (failures < nodes.size()) {
+            return FormValidation.warning("Some nodes are unreachable, their requests go to the other nodes.\n" + text);
+        }
+        return FormValidation.error("Could not establish connection.\n" + text + "\n\nFor more information please check the logs.");
+    }
+
+    /**
+     * Tests the connection to an instance, with the given credentials.
+     */
+    public static ConnectionResult testConnection(final HostingType hosting,
+                                                  final String serverAddress,
+                                                  final String username,
+                                                  final String password) {
+        final HttpRequestProvider.ProxyBean proxyBean = ProxyUtil.createProxyBean();
+        if (hosting == HostingType.CLOUD) {
+            return new XrayCloudClientImpl(username, password, proxyBean).testConnection();
+        }
+        return new XrayClientImpl(serverAddress, username, password, proxyBean).testConnection();
+    }
+
+    /**
+     * Tests the connection to a node of a configured instance, and records the test in the metrics of the instance.
+     */
+    public static ConnectionResult testConnection(final XrayInstance instance,
+                                                  final String address,
+                                                  final String username,
+                                                  final String password) {
+        final XrayMetrics.OperationMetrics metrics = XrayMetrics.of(instance, XrayMetrics.Operation.TEST_CONNECTION);
+        final long startTime = System.nanoTime();
+        boolean failed = true;
+        try {
+            final ConnectionResult connectionResult = testConnection(instance.getHosting(), address, username, password);
+            failed = !connectionResult.isSuccessful();
+            return connectionResult;
+        } finally {
+            metrics.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), failed);
+        }
+    }
+
+    /**
+     * @return the availability of an instance, as seen by the requests of the builds
+     */
+    public String getAvailability(final String configID) {
+        final XrayCircuitBreaker.Status status = StringUtils.isNotBlank(configID) ? XrayCircuitBreaker.getStatus(configID) : null;
+        return status != null ? status.toString() : "Available";
+    }
+
+    /**
+     * @return the statistics of the Data Center nodes of an instance, as seen by the requests of the builds
+     */
+    public List<XrayNodeBalancer.NodeStatus> getNodeStatuses(final XrayInstance instance) {
+        return XrayNodeBalancer.getStatuses(instance);
+    }
+
+    /**
+     * @return the health of an instance, as measured by the background connection tests
+     */
+    public String getHealth(final XrayInstance instance) {
+        final XrayHealthMonitor.Health health = XrayHealthMonitor.getHealth(instance);
+        return health != null ? health.toString() : "Not tested yet";
+    }
+
+    /**
+     * @return the global credentials with the given ID, or null if there are none
+     */
+    @Nullable
+    public StandardUsernamePasswordCredentials getGlobalCredential(@Nullable final String credentialId) {
+        return findCredential(null, credentialId);
+    }
+
     private String limitStringSize(final String errorText) {
 	    return StringUtils.trim(StringUtils.substring(errorText, 0, MAX_ERROR_TEXT_LENGTH));
     }
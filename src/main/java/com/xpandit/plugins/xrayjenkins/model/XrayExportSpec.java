@@ -0,0 +1,51 @@
+package com.xpandit.plugins.xrayjenkins.model;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Issues and/or saved filter of a single Cucumber features export.
+ */
+public class XrayExportSpec extends AbstractDescribableImpl<XrayExportSpec> {
+
+    private final String issues;
+    private final String filter;
+
+    @DataBoundConstructor
+    public XrayExportSpec(String issues, String filter) {
+        this.issues = issues;
+        this.filter = filter;
+    }
+
+    public String getIssues() {
+        return issues;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<XrayExportSpec> {
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Xray export";
+        }
+
+        public FormValidation doCheckIssues(@QueryParameter String value, @QueryParameter String filter) {
+            if (StringUtils.isEmpty(value) && StringUtils.isEmpty(filter)) {
+                return FormValidation.error("You must provide issue keys and/or a filter ID in order to export cucumber features from Xray.");
+            }
+            return FormValidation.ok();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.xpandit.plugins.xrayjenkins.model;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of importing a single file into Xray.
+ */
+@ExportedBean(defaultVisibility = 2)
+public class XrayImportFileResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String fileName;
+    private final int statusCode;
+    private final String testExecutionKey;
+    private final List<String> testKeys;
+    private final List<String> issueKeys;
+    private final long durationMillis;
+    private final long bytes;
+
+    public XrayImportFileResult(@Nonnull String fileName,
+                                @Nonnull XrayImportResponse response,
+                                long durationMillis,
+                                long bytes) {
+        this.fileName = fileName;
+        this.statusCode = response.getStatusCode();
+        this.testExecutionKey = response.getTestExecutionKey();
+        this.testKeys = new ArrayList<>(response.getTestKeys());
+        this.issueKeys = new ArrayList<>(response.getImportedFeatureIssueKeys());
+        this.durationMillis = durationMillis;
+        this.bytes = bytes;
+    }
+
+    @Exported
+    public String getFileName() {
+        return fileName;
+    }
+
+    @Exported
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    @Exported
+    public boolean isSuccessful() {
+        return statusCode >= 200 && statusCode <= 299;
+    }
+
+    @CheckForNull
+    @Exported
+    public String getTestExecutionKey() {
+        return testExecutionKey;
+    }
+
+    @Exported
+    public List<String> getTestKeys() {
+        return Collections.unmodifiableList(testKeys);
+    }
+
+    /**
+     * @return the Tests and Preconditions created or updated by a features import
+     */
+    @Exported
+    public List<String> getIssueKeys() {
+        return Collections.unmodifiableList(issueKeys);
+    }
+
+    @Exported
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Exported
+    public long getBytes() {
+        return bytes;
+    }
+}
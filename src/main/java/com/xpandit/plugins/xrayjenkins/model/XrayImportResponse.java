@@ -0,0 +1,252 @@
+package com.xpandit.plugins.xrayjenkins.model;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.xpandit.xray.model.UploadResult;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The relevant information of an Xray import response (results or features), parsed once in a single streaming pass.
+ * <p>
+ * The supported responses are:
+ * <ul>
+ *     <li>Results import (Server): <code>{"testExecIssue": {"key": ...}, "testIssues": {"success": [{"key": ...}]}}</code></li>
+ *     <li>Results import (Cloud): <code>{"key": ...}</code></li>
+ *     <li>Features import (Server): <code>[{"key": ...}]</code></li>
+ *     <li>Features import (Cloud): <code>{"updatedOrCreatedTests": [{"key": ...}], "updatedOrCreatedPreconditions": [{"key": ...}]}</code></li>
+ * </ul>
+ * Responses that are not JSON (e.g. error pages) are kept without any key.
+ */
+public class XrayImportResponse {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final int statusCode;
+    private final String message;
+    private String testExecutionKey;
+    private final Set<String> testKeys = new LinkedHashSet<>();
+    private final Set<String> preconditionKeys = new LinkedHashSet<>();
+    private final Set<String> issueKeys = new LinkedHashSet<>();
+
+    private XrayImportResponse(int statusCode, String message) {
+        this.statusCode = statusCode;
+        this.message = message;
+    }
+
+    /**
+     * Parses the response of an Xray import request.
+     *
+     * @param result the upload result
+     * @return the parsed response
+     */
+    @Nonnull
+    public static XrayImportResponse parse(@Nonnull UploadResult result) {
+        return parse(result.getStatusCode(), result.getMessage());
+    }
+
+    /**
+     * Parses the response of an Xray import request.
+     *
+     * @param statusCode the HTTP status code
+     * @param message the response body
+     * @return the parsed response
+     */
+    @Nonnull
+    public static XrayImportResponse parse(int statusCode, @Nullable String message) {
+        final XrayImportResponse response = new XrayImportResponse(statusCode, message);
+        if (StringUtils.isBlank(message)) {
+            return response;
+        }
+
+        try (JsonParser parser = JSON_FACTORY.createParser(message)) {
+            final JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                response.parseRootObject(parser);
+            } else if (token == JsonToken.START_ARRAY) {
+                parseIssueArray(parser, response.issueKeys);
+            }
+        } catch (IOException e) {
+            // Not a JSON response: we keep whatever was parsed until the error.
+        }
+        return response;
+    }
+
+    /**
+     * Gets the part of a results import response about some of its Tests, e.g. the Tests of one of the builds whose
+     * reports were imported together. Its message only has the Test Execution and those Tests.
+     *
+     * @param keys the keys of the Tests, among the Tests of this response
+     * @return the response with only those Tests
+     */
+    @Nonnull
+    public XrayImportResponse forTests(@Nonnull Collection<String> keys) {
+        final StringWriter message = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(message)) {
+            generator.writeStartObject();
+            if (getTestExecutionKey() != null) {
+                generator.writeObjectFieldStart("testExecIssue");
+                generator.writeStringField("key", getTestExecutionKey());
+                generator.writeEndObject();
+            }
+            generator.writeObjectFieldStart("testIssues");
+            generator.writeArrayFieldStart("success");
+            for (String key : keys) {
+                generator.writeStartObject();
+                generator.writeStringField("key", key);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndObject();
+        } catch (IOException e) {
+            // Written to memory
+            throw new IllegalStateException(e);
+        }
+        return parse(statusCode, message.toString());
+    }
+
+    private void parseRootObject(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+
+            switch (field) {
+                case "key":
+                    if (value == JsonToken.VALUE_STRING) {
+                        testExecutionKey = parser.getText();
+                    }
+                    break;
+                case "testExecIssue":
+                    if (value == JsonToken.START_OBJECT) {
+                        testExecutionKey = readIssueKey(parser);
+                    }
+                    break;
+                case "testIssues":
+                    if (value == JsonToken.START_OBJECT) {
+                        parseTestIssues(parser);
+                    }
+                    break;
+                case "updatedOrCreatedTests":
+                    parseIssueArray(parser, testKeys);
+                    break;
+                case "updatedOrCreatedPreconditions":
+                    parseIssueArray(parser, preconditionKeys);
+                    break;
+                default:
+                    break;
+            }
+            // Skips the values we don't need (no-op if the value was already consumed or is a scalar)
+            if (parser.getCurrentToken() == JsonToken.START_OBJECT || parser.getCurrentToken() == JsonToken.START_ARRAY) {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void parseTestIssues(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+
+            if ("success".equals(field)) {
+                parseIssueArray(parser, testKeys);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void parseIssueArray(JsonParser parser, Set<String> keys) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            if (token == JsonToken.START_OBJECT) {
+                final String key = readIssueKey(parser);
+                if (StringUtils.isNotBlank(key)) {
+                    keys.add(key);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static String readIssueKey(JsonParser parser) throws IOException {
+        String key = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+
+            if ("key".equals(field) && value == JsonToken.VALUE_STRING) {
+                key = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return key;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    @CheckForNull
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isSuccessful() {
+        // Any status code of the OK "family"
+        return statusCode >= 200 && statusCode <= 299;
+    }
+
+    /**
+     * @return the key of the Test Execution created or updated by a results import
+     */
+    @CheckForNull
+    public String getTestExecutionKey() {
+        return StringUtils.defaultIfBlank(testExecutionKey, null);
+    }
+
+    /**
+     * @return the keys of the Tests created or updated
+     */
+    @Nonnull
+    public Set<String> getTestKeys() {
+        return Collections.unmodifiableSet(testKeys);
+    }
+
+    /**
+     * @return the keys of the Preconditions created or updated by a Cloud features import
+     */
+    @Nonnull
+    public Set<String> getPreconditionKeys() {
+        return Collections.unmodifiableSet(preconditionKeys);
+    }
+
+    /**
+     * @return all the issue keys (Tests and Preconditions) created or updated by a features import
+     */
+    @Nonnull
+    public Set<String> getImportedFeatureIssueKeys() {
+        final Set<String> keys = new LinkedHashSet<>(issueKeys);
+        keys.addAll(testKeys);
+        keys.addAll(preconditionKeys);
+        return keys;
+    }
+}
@@ -0,0 +1,110 @@
+package com.xpandit.plugins.xrayjenkins.model;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The result of an Xray import step (results or features), with the result of each imported file in import order.
+ */
+@ExportedBean(defaultVisibility = 2)
+public class XrayImportResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String type;
+    private final String instanceAlias;
+    private final List<XrayImportFileResult> files;
+
+    public XrayImportResult(@Nonnull String type, String instanceAlias, @Nonnull List<XrayImportFileResult> files) {
+        this.type = type;
+        this.instanceAlias = instanceAlias;
+        this.files = new ArrayList<>(files);
+    }
+
+    /**
+     * @return the import format (e.g. "JUnit XML") or "Cucumber features"
+     */
+    @Exported
+    public String getType() {
+        return type;
+    }
+
+    @Exported
+    public String getInstanceAlias() {
+        return instanceAlias;
+    }
+
+    @Exported
+    public List<XrayImportFileResult> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    @Exported
+    public boolean isSuccessful() {
+        for (XrayImportFileResult file : files) {
+            if (!file.isSuccessful()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Exported
+    public List<String> getTestExecutionKeys() {
+        final Set<String> keys = new LinkedHashSet<>();
+        for (XrayImportFileResult file : files) {
+            if (file.getTestExecutionKey() != null) {
+                keys.add(file.getTestExecutionKey());
+            }
+        }
+        return new ArrayList<>(keys);
+    }
+
+    @Exported
+    public List<String> getTestKeys() {
+        final Set<String> keys = new LinkedHashSet<>();
+        for (XrayImportFileResult file : files) {
+            keys.addAll(file.getTestKeys());
+        }
+        return new ArrayList<>(keys);
+    }
+
+    /**
+     * @return all the issues created or updated: Test Executions, Tests and Preconditions
+     */
+    @Exported
+    public List<String> getIssueKeys() {
+        final Set<String> keys = new LinkedHashSet<>(getTestExecutionKeys());
+        for (XrayImportFileResult file : files) {
+            keys.addAll(file.getTestKeys());
+            keys.addAll(file.getIssueKeys());
+        }
+        return new ArrayList<>(keys);
+    }
+
+    @Exported
+    public long getDurationMillis() {
+        long duration = 0;
+        for (XrayImportFileResult file : files) {
+            duration += file.getDurationMillis();
+        }
+        return duration;
+    }
+
+    @Exported
+    public long getBytes() {
+        long bytes = 0;
+        for (XrayImportFileResult file : files) {
+            bytes += file.getBytes();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,156 @@
+package com.xpandit.plugins.xrayjenkins.model;
+
+import hudson.model.Api;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the structured result of every Xray import step of a build, in execution order.
+ * Unlike the environment variables, the keys keep the order in which Xray returned them.
+ * <p>
+ * The results (one entry per imported file, with all its keys) may be large, so they are not kept in build.xml:
+ * they are stored in a compressed file in the build directory and only loaded when requested.
+ * <p>
+ * The supported way to read them, including from a Pipeline, is the remote API of the build
+ * (<code>BUILD_URL/xray-import/api/json</code>).
+ */
+@ExportedBean
+public class XrayImportResultAction implements RunAction2 {
+
+    private static final Logger LOG = LoggerFactory.getLogger(XrayImportResultAction.class);
+
+    private static final String RESULTS_FILE = "xray-import-results.ser.gz";
+
+    private transient File rootDir;
+
+    // Loaded lazily from the build directory
+    private transient List<XrayImportResult> imports;
+
+    XrayImportResultAction(@CheckForNull File rootDir) {
+        this.rootDir = rootDir;
+    }
+
+    /**
+     * Adds the result of an import step to the build.
+     *
+     * @param run the build
+     * @param result the result of the import step
+     * @throws IOException if the results could not be stored in the build directory
+     */
+    public static void addResult(@Nonnull Run<?, ?> run, @Nonnull XrayImportResult result) throws IOException {
+        // Parallel branches of the same build may add their results at the same time.
+        synchronized (XrayImportResultAction.class) {
+            XrayImportResultAction action = run.getAction(XrayImportResultAction.class);
+            if (action == null) {
+                action = new XrayImportResultAction(run.getRootDir());
+                run.addAction(action);
+            }
+            action.add(result);
+        }
+    }
+
+    synchronized void add(@Nonnull XrayImportResult result) throws IOException {
+        final List<XrayImportResult> updated = new ArrayList<>(load());
+        updated.add(result);
+
+        final File file = new File(rootDir, RESULTS_FILE);
+        final File tmpFile = File.createTempFile(RESULTS_FILE, ".tmp", rootDir);
+        try {
+            try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeObject(updated);
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+        imports = updated;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<XrayImportResult> load() throws IOException {
+        if (imports != null) {
+            return imports;
+        }
+
+        final File file = new File(rootDir, RESULTS_FILE);
+        if (rootDir == null || !file.isFile()) {
+            return Collections.emptyList();
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new FileInputStream(file)))) {
+            imports = (List<XrayImportResult>) in.readObject();
+            return imports;
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Exported
+    public synchronized List<XrayImportResult> getImports() {
+        try {
+            return new ArrayList<>(load());
+        } catch (IOException e) {
+            LOG.warn("Unable to load the Xray import results from " + rootDir, e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @return the result of the latest import step
+     */
+    @CheckForNull
+    public synchronized XrayImportResult getLatestImport() {
+        final List<XrayImportResult> results = getImports();
+        return results.isEmpty() ? null : results.get(results.size() - 1);
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.rootDir = r.getRootDir();
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.rootDir = r.getRootDir();
+    }
+
+    @CheckForNull
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @CheckForNull
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return "xray-import";
+    }
+}
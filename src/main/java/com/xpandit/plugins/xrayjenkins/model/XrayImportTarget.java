@@ -0,0 +1,41 @@
+package com.xpandit.plugins.xrayjenkins.model;
+
+import com.xpandit.plugins.xrayjenkins.Utils.FormUtils;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.ListBoxModel;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Another Jira instance the results of an import are imported to, e.g. while migrating from Server to Cloud.
+ */
+public class XrayImportTarget extends AbstractDescribableImpl<XrayImportTarget> {
+
+    private final String serverInstance; // Configuration ID of the Jira instance
+
+    @DataBoundConstructor
+    public XrayImportTarget(String serverInstance) {
+        this.serverInstance = serverInstance;
+    }
+
+    public String getServerInstance() {
+        return serverInstance;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<XrayImportTarget> {
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Xray import target";
+        }
+
+        public ListBoxModel doFillServerInstanceItems() {
+            return FormUtils.getServerInstanceItems();
+        }
+    }
+}
@@ -8,11 +8,15 @@
 package com.xpandit.plugins.xrayjenkins.model;
 
 import hudson.model.Run;
-import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import com.xpandit.plugins.xrayjenkins.services.retry.XrayRetryPolicy;
+import org.kohsuke.stapler.DataBoundSetter;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -25,7 +29,23 @@ public class XrayInstance {
 	private String serverAddress;
 	private HostingType hosting;
     private String credentialId;
-    private CredentialResolver credentialResolver;
+    @SuppressWarnings("unused")
+    @Deprecated
+    private transient CredentialResolver credentialResolver; // Only read from configurations saved by older versions
+    private String nodeAddresses;
+    private int maxConcurrentRequests; // 0 (also in instances saved before this option) for no limit
+    private int circuitBreakerThreshold; // 0 (also in instances saved before this option) to disable it
+    private Integer circuitBreakerOpenSeconds;
+    private Integer retryMaxAttempts;
+    private Integer retryBaseDelayMillis;
+    private Integer retryMaxDelayMillis;
+    private String retryStatusCodes;
+    private String retryExceptions;
+    private Integer retryDeadlineSeconds;
+    private Integer degradedLatencyMillis;
+
+	private static final int DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS = 60;
+	private static final int DEFAULT_DEGRADED_LATENCY_MILLIS = 5000;
 
 	@DataBoundConstructor
  	public XrayInstance(String configID, String alias, HostingType hosting, String serverAddress, String credentialId) {
@@ -60,10 +80,64 @@ public class XrayInstance {
 		this.serverAddress = serverAddress;
 	}
 
+	/**
+	 * @return the addresses of the Jira Data Center nodes, one per line (empty to send the requests to the server address)
+	 */
+	public String getNodeAddresses() {
+		return nodeAddresses;
+	}
+
+	@DataBoundSetter
+	public void setNodeAddresses(String nodeAddresses) {
+		this.nodeAddresses = StringUtils.trimToNull(nodeAddresses);
+	}
+
+	/**
+	 * @return the addresses the requests are sent to: the node addresses of a Jira Server/Data Center instance, or
+	 * its server address if it has no nodes
+	 */
+	@Nonnull
+	public List<String> getNodes() {
+		final List<String> nodes = hosting != HostingType.CLOUD ? parseNodeAddresses(nodeAddresses) : new ArrayList<>();
+		if (nodes.isEmpty() && StringUtils.isNotBlank(serverAddress)) {
+			nodes.add(serverAddress);
+		}
+		return nodes;
+	}
+
+	/**
+	 * @return the addresses tested by the connection tests of the instance: its nodes, or a single <code>null</code>
+	 * address for a Cloud instance (its address is the one of Xray Cloud, so it isn't configured)
+	 */
+	@Nonnull
+	public List<String> getConnectionTestAddresses() {
+		return hosting == HostingType.CLOUD ? Collections.<String>singletonList(null) : getNodes();
+	}
+
+	/**
+	 * @param nodeAddresses node addresses, one per line
+	 * @return the distinct addresses, without trailing slashes
+	 */
+	@Nonnull
+	public static List<String> parseNodeAddresses(String nodeAddresses) {
+		final List<String> nodes = new ArrayList<>();
+		if (nodeAddresses != null) {
+			for (String line : nodeAddresses.split("\\r?\\n")) {
+				final String node = StringUtils.removeEnd(line.trim(), "/");
+				if (!node.isEmpty() && !nodes.contains(node)) {
+					nodes.add(node);
+				}
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * The credential is resolved once per returned resolver, in the context of the given Run.
+	 */
 	@Nonnull
 	public CredentialResolver getCredential(final Run<?, ?> runContext) {
-		this.credentialResolver = ObjectUtils.defaultIfNull(this.credentialResolver, new CredentialResolver(this.credentialId, runContext));
-		return this.credentialResolver;
+		return new CredentialResolver(this.credentialId, runContext);
 	}
 	
 	public HostingType getHosting() { return hosting; }
@@ -77,5 +151,128 @@ public class XrayInstance {
 	public void setCredentialId(String credentialId) {
 		this.credentialId = credentialId;
 	}
-}
 
+	/**
+	 * @return the maximum number of requests sent to this instance at the same time, by all the builds (0 for no limit)
+	 */
+	public int getMaxConcurrentRequests() {
+		return maxConcurrentRequests;
+	}
+
+	@DataBoundSetter
+	public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+		this.maxConcurrentRequests = Math.max(0, maxConcurrentRequests);
+	}
+
+	/**
+	 * @return the number of consecutive failed requests after which the requests to this instance fail fast
+	 * (0 to never fail fast)
+	 */
+	public int getCircuitBreakerThreshold() {
+		return circuitBreakerThreshold;
+	}
+
+	@DataBoundSetter
+	public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+		this.circuitBreakerThreshold = Math.max(0, circuitBreakerThreshold);
+	}
+
+	/**
+	 * @return how long the requests fail fast before the connection to this instance is tested again, in seconds
+	 */
+	public int getCircuitBreakerOpenSeconds() {
+		return circuitBreakerOpenSeconds != null ? circuitBreakerOpenSeconds : DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS;
+	}
+
+	@DataBoundSetter
+	public void setCircuitBreakerOpenSeconds(int circuitBreakerOpenSeconds) {
+		this.circuitBreakerOpenSeconds = Math.max(1, circuitBreakerOpenSeconds);
+	}
+
+	/**
+	 * @return the 95th percentile latency of the background connection tests above which this instance is shown as
+	 * degraded, in milliseconds (0 to only consider the failed tests)
+	 */
+	public int getDegradedLatencyMillis() {
+		return degradedLatencyMillis != null ? degradedLatencyMillis : DEFAULT_DEGRADED_LATENCY_MILLIS;
+	}
+
+	@DataBoundSetter
+	public void setDegradedLatencyMillis(int degradedLatencyMillis) {
+		this.degradedLatencyMillis = Math.max(0, degradedLatencyMillis);
+	}
+
+	/**
+	 * @return the maximum number of attempts of a request that fails with a transient error (1 to never retry)
+	 */
+	public int getRetryMaxAttempts() {
+		return retryMaxAttempts != null ? retryMaxAttempts : XrayRetryPolicy.DEFAULT_MAX_ATTEMPTS;
+	}
+
+	@DataBoundSetter
+	public void setRetryMaxAttempts(int retryMaxAttempts) {
+		this.retryMaxAttempts = Math.max(1, retryMaxAttempts);
+	}
+
+	/**
+	 * @return the maximum delay before the first retry, doubled on each retry, in milliseconds
+	 */
+	public int getRetryBaseDelayMillis() {
+		return retryBaseDelayMillis != null ? retryBaseDelayMillis : XrayRetryPolicy.DEFAULT_BASE_DELAY_MILLIS;
+	}
+
+	@DataBoundSetter
+	public void setRetryBaseDelayMillis(int retryBaseDelayMillis) {
+		this.retryBaseDelayMillis = Math.max(0, retryBaseDelayMillis);
+	}
+
+	/**
+	 * @return the maximum delay before a retry, in milliseconds
+	 */
+	public int getRetryMaxDelayMillis() {
+		return retryMaxDelayMillis != null ? retryMaxDelayMillis : XrayRetryPolicy.DEFAULT_MAX_DELAY_MILLIS;
+	}
+
+	@DataBoundSetter
+	public void setRetryMaxDelayMillis(int retryMaxDelayMillis) {
+		this.retryMaxDelayMillis = Math.max(0, retryMaxDelayMillis);
+	}
+
+	/**
+	 * @return the status codes of the responses that are retried, separated by commas
+	 */
+	@Nonnull
+	public String getRetryStatusCodes() {
+		return retryStatusCodes != null ? retryStatusCodes : XrayRetryPolicy.DEFAULT_STATUS_CODES;
+	}
+
+	@DataBoundSetter
+	public void setRetryStatusCodes(String retryStatusCodes) {
+		this.retryStatusCodes = StringUtils.trimToEmpty(retryStatusCodes);
+	}
+
+	/**
+	 * @return the exception classes (including their subclasses) of the errors that are retried, separated by commas
+	 */
+	@Nonnull
+	public String getRetryExceptions() {
+		return retryExceptions != null ? retryExceptions : XrayRetryPolicy.DEFAULT_EXCEPTIONS;
+	}
+
+	@DataBoundSetter
+	public void setRetryExceptions(String retryExceptions) {
+		this.retryExceptions = StringUtils.trimToEmpty(retryExceptions);
+	}
+
+	/**
+	 * @return how long after its start a step stops retrying its requests, in seconds (0 for no deadline)
+	 */
+	public int getRetryDeadlineSeconds() {
+		return retryDeadlineSeconds != null ? retryDeadlineSeconds : XrayRetryPolicy.DEFAULT_DEADLINE_SECONDS;
+	}
+
+	@DataBoundSetter
+	public void setRetryDeadlineSeconds(int retryDeadlineSeconds) {
+		this.retryDeadlineSeconds = Math.max(0, retryDeadlineSeconds);
+	}
+}
@@ -0,0 +1,25 @@
+package com.xpandit.plugins.xrayjenkins.model;
+
+/**
+ * The priority of the requests of a step, when they wait for a free request slot of the Xray instance. The requests
+ * of a lane always go before the requests of the lanes below it, and in arrival order within the lane.
+ */
+public enum XrayRequestLane {
+    HIGH("High (e.g. release branches)"),
+    NORMAL("Normal"),
+    LOW("Low (e.g. pull requests)");
+
+    private final String description;
+
+    XrayRequestLane(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public static XrayRequestLane getDefaultLane() {
+        return XrayRequestLane.NORMAL;
+    }
+}
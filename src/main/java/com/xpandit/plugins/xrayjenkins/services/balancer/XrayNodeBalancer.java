@@ -0,0 +1,259 @@
+package com.xpandit.plugins.xrayjenkins.services.balancer;
+
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import com.xpandit.plugins.xrayjenkins.services.breaker.XrayCircuitBreaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Spreads the requests to a Jira Data Center instance across its nodes (see {@link XrayInstance#getNodes()}).
+ * <p>
+ * Each request goes to the node with the lowest cost, which is its number of outstanding requests (by all the builds
+ * of the controller) weighted by its exponentially weighted moving average (EWMA) latency. A node whose request
+ * failed (an I/O error, a timeout or a 5xx response, see {@link XrayCircuitBreaker#isFailure(Throwable)}) is skipped
+ * for a while, unless all the nodes failed, or until a request sent after the failure succeeds.
+ */
+public class XrayNodeBalancer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(XrayNodeBalancer.class);
+
+    // The weight of the latest latency in the moving average
+    private static final double EWMA_ALPHA = 0.3;
+    private static final long UNHEALTHY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final Object LOCK = new Object();
+
+    // By node address, shared by all the builds and instances. Guarded by LOCK
+    private static final Map<String, Node> NODES = new HashMap<>();
+
+    private XrayNodeBalancer() {}
+
+    /**
+     * Creates a client that sends each request to the best node of the instance. The client of each node is created
+     * on its first request.
+     *
+     * @param clientType the client interface (importer, exporter...)
+     * @param instance the Xray instance
+     * @param factory creates the client of a node, from its address
+     * @param shutdown shuts down the client of a node
+     * @return the balanced client, or the client of the server address if the instance has a single node
+     */
+    @Nonnull
+    public static <C> C balance(@Nonnull Class<C> clientType,
+                                @Nonnull XrayInstance instance,
+                                @Nonnull Function<String, C> factory,
+                                @Nonnull Consumer<C> shutdown) {
+        final List<String> addresses = instance.getNodes();
+        if (addresses.size() < 2) {
+            return factory.apply(addresses.isEmpty() ? instance.getServerAddress() : addresses.get(0));
+        }
+
+        final Map<String, C> clients = new LinkedHashMap<>();
+        return clientType.cast(Proxy.newProxyInstance(clientType.getClassLoader(), new Class<?>[]{clientType}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return clientType.getSimpleName() + addresses;
+                }
+            }
+            if ("shutdown".equals(method.getName())) {
+                synchronized (clients) {
+                    clients.values().forEach(shutdown);
+                    clients.clear();
+                }
+                return null;
+            }
+
+            final Node node = acquire(addresses);
+            return node.invoke(() -> {
+                synchronized (clients) {
+                    return clients.computeIfAbsent(node.address, factory);
+                }
+            }, method, args);
+        }));
+    }
+
+    /**
+     * Selects a node for a request, which is outstanding until {@link Node#complete(long, long, boolean)} is called.
+     *
+     * @param addresses the addresses of the nodes
+     * @return the healthy node with the lowest cost, or the node that becomes healthy first if none is
+     */
+    @Nonnull
+    static Node acquire(@Nonnull List<String> addresses) {
+        final long now = System.currentTimeMillis();
+        synchronized (LOCK) {
+            Node best = null;
+            double bestCost = Double.MAX_VALUE;
+            Node firstHealthy = null;
+            for (String address : addresses) {
+                final Node node = NODES.computeIfAbsent(address, Node::new);
+                if (node.unhealthyUntil > now) {
+                    if (firstHealthy == null || node.unhealthyUntil < firstHealthy.unhealthyUntil) {
+                        firstHealthy = node;
+                    }
+                    continue;
+                }
+                // Nodes without any latency yet are tried first
+                final double cost = (node.outstanding + 1) * Math.max(1, node.ewmaLatencyMillis);
+                if (cost < bestCost) {
+                    best = node;
+                    bestCost = cost;
+                }
+            }
+
+            final Node selected = best != null ? best : firstHealthy;
+            selected.outstanding++;
+            return selected;
+        }
+    }
+
+    /**
+     * @param address the address of a node
+     * @return the statistics of the node, or null if no request was sent to it
+     */
+    @CheckForNull
+    public static NodeStatus getStatus(@Nonnull String address) {
+        synchronized (LOCK) {
+            final Node node = NODES.get(address);
+            if (node == null) {
+                return null;
+            }
+            return new NodeStatus(address, node.outstanding, node.ewmaLatencyMillis, node.unhealthyUntil > System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @param instance the Xray instance
+     * @return the statistics of the nodes of the instance which received requests
+     */
+    @Nonnull
+    public static List<NodeStatus> getStatuses(@Nonnull XrayInstance instance) {
+        final List<NodeStatus> statuses = new ArrayList<>();
+        for (String address : instance.getNodes()) {
+            final NodeStatus status = getStatus(address);
+            if (status != null) {
+                statuses.add(status);
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * A snapshot of the statistics of a node.
+     */
+    public static class NodeStatus {
+        private final String address;
+        private final int outstanding;
+        private final double ewmaLatencyMillis;
+        private final boolean unhealthy;
+
+        NodeStatus(String address, int outstanding, double ewmaLatencyMillis, boolean unhealthy) {
+            this.address = address;
+            this.outstanding = outstanding;
+            this.ewmaLatencyMillis = ewmaLatencyMillis;
+            this.unhealthy = unhealthy;
+        }
+
+        @Nonnull
+        public String getAddress() {
+            return address;
+        }
+
+        public int getOutstanding() {
+            return outstanding;
+        }
+
+        public double getEwmaLatencyMillis() {
+            return ewmaLatencyMillis;
+        }
+
+        public boolean isUnhealthy() {
+            return unhealthy;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s, %d request(s) in flight, %.0f ms average latency",
+                    address, unhealthy ? "skipped after a failure" : "healthy", outstanding, ewmaLatencyMillis);
+        }
+    }
+
+    static class Node {
+        private final String address;
+
+        // Guarded by LOCK
+        private int outstanding;
+        private double ewmaLatencyMillis;
+        private long unhealthyUntil;
+        private long failedAt;
+
+        Node(String address) {
+            this.address = address;
+        }
+
+        String getAddress() {
+            return address;
+        }
+
+        Object invoke(Supplier<?> client, Method method, Object[] args) throws Throwable {
+            final long startedAt = System.currentTimeMillis();
+            boolean failed = false;
+            try {
+                final Object result = method.invoke(client.get(), args);
+                failed = XrayCircuitBreaker.isFailure(result);
+                return result;
+            } catch (InvocationTargetException e) {
+                // Like the circuit breaker, only the errors showing that the node is down make it unhealthy
+                failed = XrayCircuitBreaker.isFailure(e.getCause());
+                throw e.getCause();
+            } finally {
+                complete(startedAt, System.currentTimeMillis(), failed);
+            }
+        }
+
+        /**
+         * @param startedAt when the request started
+         * @param completedAt when the request completed
+         * @param failed whether the request shows that the node is down
+         */
+        void complete(long startedAt, long completedAt, boolean failed) {
+            synchronized (LOCK) {
+                outstanding--;
+                final long latencyMillis = Math.max(0, completedAt - startedAt);
+                ewmaLatencyMillis = ewmaLatencyMillis > 0
+                        ? EWMA_ALPHA * latencyMillis + (1 - EWMA_ALPHA) * ewmaLatencyMillis
+                        : latencyMillis;
+                if (failed) {
+                    failedAt = completedAt;
+                    unhealthyUntil = completedAt + UNHEALTHY_MILLIS;
+                } else if (startedAt > failedAt) {
+                    // A request sent before the failure doesn't tell that the node is up again
+                    unhealthyUntil = 0;
+                }
+            }
+            if (failed) {
+                LOG.warn("Request to the Jira node {} failed, skipping it for {} s", address, TimeUnit.MILLISECONDS.toSeconds(UNHEALTHY_MILLIS));
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.xpandit.plugins.xrayjenkins.services.batch;
+
+import com.xpandit.plugins.xrayjenkins.Utils.JUnitReportMerger;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResponse;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Controller-wide aggregator of JUnit uploads. The reports of the builds that import to the same instance, with the
+ * same parameters (project, Test Plan, environments...), within a short window are merged into a single report and
+ * imported with a single request, instead of one request per build.
+ * <p>
+ * The first build of a batch opens it, and the batch is imported when its window ends, or as soon as it has
+ * {@link #MAX_REPORTS_PER_BATCH} reports. There is no background thread: the import is done by one of the builds
+ * still waiting for the batch, with its own client. The reports of a batch go to the same Test Execution, and each
+ * build gets its share of the response: the Test Execution, and the Tests of its own test cases.
+ * <p>
+ * The reports are merged as they are submitted: each build prepares its own reports (e.g. compacts them) before
+ * submitting them. A build that is aborted before the import leaves the batch, and a build that
+ * is aborted while importing it hands it back to the builds still waiting, one of which imports it.
+ * <p>
+ * Only the builds that resolve the same credential share a batch (see {@link Key}), since any of them may import
+ * the reports of the others.
+ */
+public class XrayUploadBatcher {
+
+    /**
+     * A batch is imported as soon as it has this many reports, so that a request never grows too large.
+     */
+    static final int MAX_REPORTS_PER_BATCH = 100;
+
+    /**
+     * How often the builds waiting for a batch imported by another build check if it was handed back.
+     */
+    static final long HANDOFF_POLL_MILLIS = 1000;
+
+    // Guarded by itself
+    private static final Map<Key, Batch> OPEN_BATCHES = new HashMap<>();
+
+    private XrayUploadBatcher() {}
+
+    /**
+     * Imports the merged reports of a batch.
+     */
+    public interface Uploader {
+        @Nonnull
+        XrayImportResponse upload(@Nonnull File mergedReport) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Adds reports to the open batch with the same key (or opens a new one), and waits until the batch is imported.
+     *
+     * @param key what the reports are imported to
+     * @param reports the JUnit XML reports, in the controller (not deleted)
+     * @param windowMillis how long a new batch waits for the reports of other builds
+     * @param uploader imports the batch, if it is done by this build
+     * @return the import of the batch
+     * @throws IOException if the batch could not be merged or imported
+     * @throws InterruptedException if the build was aborted while waiting
+     */
+    @Nonnull
+    public static Result submit(@Nonnull Key key,
+                                @Nonnull List<File> reports,
+                                long windowMillis,
+                                @Nonnull Uploader uploader) throws IOException, InterruptedException {
+        final Submission submission = new Submission(reports);
+        final Batch batch;
+        synchronized (OPEN_BATCHES) {
+            Batch open = OPEN_BATCHES.get(key);
+            if (open == null) {
+                open = new Batch(System.currentTimeMillis() + windowMillis);
+                OPEN_BATCHES.put(key, open);
+            }
+            open.submissions.add(submission);
+            open.reports += reports.size();
+            if (open.reports >= MAX_REPORTS_PER_BATCH) {
+                // Full: the next builds open a new batch
+                OPEN_BATCHES.remove(key);
+            }
+            batch = open;
+        }
+
+        try {
+            while (!submission.result.isDone()) {
+                final long remaining = batch.deadline - System.currentTimeMillis();
+                if (remaining <= 0 || batch.isFull()) {
+                    if (!flush(key, batch, submission, uploader)) {
+                        // Another build is importing the batch: it hands it back if it's aborted
+                        await(submission, HANDOFF_POLL_MILLIS);
+                    }
+                } else {
+                    // Until the window is over
+                    await(submission, remaining);
+                }
+            }
+            return submission.result.get();
+        } catch (InterruptedException e) {
+            synchronized (OPEN_BATCHES) {
+                if (!batch.closed) {
+                    batch.remove(submission);
+                }
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new IOException(cause.getMessage(), cause);
+            }
+            throw new IOException("Unable to import the batch: " + cause, cause);
+        }
+    }
+
+    private static void await(Submission submission, long millis) throws InterruptedException, ExecutionException {
+        try {
+            submission.result.get(millis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ignored) {
+            // Checked again by the caller
+        }
+    }
+
+    /**
+     * Imports the batch, unless another build is already importing it.
+     *
+     * @return false if another build is importing the batch
+     */
+    private static boolean flush(Key key, Batch batch, Submission own, Uploader uploader) throws InterruptedException {
+        final List<Submission> submissions;
+        synchronized (OPEN_BATCHES) {
+            if (batch.closed) {
+                return false;
+            }
+            batch.closed = true;
+            OPEN_BATCHES.remove(key, batch);
+            submissions = new ArrayList<>(batch.submissions);
+        }
+
+        final List<File> reports = new ArrayList<>();
+        for (Submission submission : submissions) {
+            reports.addAll(submission.reports);
+        }
+
+        File merged = null;
+        try {
+            merged = File.createTempFile("xray-batch", ".xml");
+            final List<List<String>> testCases = new ArrayList<>();
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(merged))) {
+                JUnitReportMerger.merge(reports, out, testCases);
+            }
+
+            final XrayImportResponse response = uploader.upload(merged);
+            final Map<String, String> testKeys = getTestKeys(testCases, response);
+            int report = 0;
+            for (Submission submission : submissions) {
+                // Each build only gets the Tests of its own test cases
+                final Set<String> keys = new LinkedHashSet<>();
+                for (int i = 0; i < submission.reports.size(); i++, report++) {
+                    for (String testCase : testCases.get(report)) {
+                        if (testKeys.containsKey(testCase)) {
+                            keys.add(testKeys.get(testCase));
+                        }
+                    }
+                }
+                // Errors, and responses without Tests (e.g. Cloud), are the same for all the builds
+                final boolean shared = !response.isSuccessful() || response.getTestKeys().isEmpty();
+                submission.result.complete(new Result(shared ? response : response.forTests(keys),
+                        shared || !testKeys.isEmpty(),
+                        submissions.size(),
+                        reports.size()));
+            }
+        } catch (InterruptedException e) {
+            // The other builds are still waiting: the batch is handed back to them, without the reports of this build
+            synchronized (OPEN_BATCHES) {
+                batch.remove(own);
+                batch.closed = false;
+            }
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            completeExceptionally(submissions, e);
+        } finally {
+            if (merged != null) {
+                try {
+                    Files.deleteIfExists(merged.toPath());
+                } catch (IOException ignored) {
+                    merged.deleteOnExit();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Xray lists the Tests of a JUnit import in the order of their first test case in the report, once per Test
+     * (a Test being identified by the <code>classname.name</code> of its test cases).
+     *
+     * @return the Test of each test case, or none if the Tests of the response don't match the test cases
+     */
+    private static Map<String, String> getTestKeys(List<List<String>> testCases, XrayImportResponse response) {
+        final Set<String> distinct = new LinkedHashSet<>();
+        for (List<String> reportTestCases : testCases) {
+            distinct.addAll(reportTestCases);
+        }
+        if (distinct.size() != response.getTestKeys().size()) {
+            // e.g. some test cases were rejected by Xray
+            return Collections.emptyMap();
+        }
+
+        final Map<String, String> testKeys = new HashMap<>();
+        final Iterator<String> keys = response.getTestKeys().iterator();
+        for (String testCase : distinct) {
+            testKeys.put(testCase, keys.next());
+        }
+        return testKeys;
+    }
+
+    private static void completeExceptionally(List<Submission> submissions, Exception e) {
+        for (Submission submission : submissions) {
+            submission.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * The import of a batch, for one of its builds.
+     */
+    public static class Result {
+        private final XrayImportResponse response;
+        private final boolean testsMatched;
+        private final int builds;
+        private final int reports;
+
+        Result(XrayImportResponse response, boolean testsMatched, int builds, int reports) {
+            this.response = response;
+            this.testsMatched = testsMatched;
+            this.builds = builds;
+            this.reports = reports;
+        }
+
+        /**
+         * @return the share of the build: the Test Execution, and only the Tests of its own test cases
+         */
+        @Nonnull
+        public XrayImportResponse getResponse() {
+            return response;
+        }
+
+        /**
+         * @return false if the Tests of the response couldn't be matched with the test cases of the builds, so none
+         * of them are in the share of the build
+         */
+        public boolean isTestsMatched() {
+            return testsMatched;
+        }
+
+        /**
+         * @return the number of builds whose reports were imported in the batch
+         */
+        public int getBuilds() {
+            return builds;
+        }
+
+        /**
+         * @return the number of reports imported in the batch
+         */
+        public int getReports() {
+            return reports;
+        }
+    }
+
+    /**
+     * What the reports of a batch are imported to: only reports with the same key are merged.
+     * <p>
+     * The credential is identified by the fingerprint of its resolved secret, not by its id: the same id may resolve
+     * to different credentials in different folders, or for different users.
+     */
+    public static class Key {
+        private final String configId;
+        private final String credentialFingerprint;
+        private final String endpointName;
+        private final Map<?, String> queryParams;
+
+        /**
+         * @param configId the Xray instance
+         * @param credentialFingerprint the fingerprint of the credential resolved by the build
+         * @param endpointName the import endpoint
+         * @param queryParams the import parameters (project, Test Plan, environments...)
+         */
+        public Key(String configId, String credentialFingerprint, String endpointName, @Nonnull Map<?, String> queryParams) {
+            this.configId = configId;
+            this.credentialFingerprint = credentialFingerprint;
+            this.endpointName = endpointName;
+            this.queryParams = Collections.unmodifiableMap(new HashMap<>(queryParams));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return Objects.equals(configId, key.configId)
+                    && Objects.equals(credentialFingerprint, key.credentialFingerprint)
+                    && Objects.equals(endpointName, key.endpointName)
+                    && Objects.equals(queryParams, key.queryParams);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(configId, credentialFingerprint, endpointName, queryParams);
+        }
+    }
+
+    private static class Batch {
+        private final long deadline;
+        private final List<Submission> submissions = new ArrayList<>();
+        private int reports;
+        private boolean closed;
+
+        Batch(long deadline) {
+            this.deadline = deadline;
+        }
+
+        void remove(Submission submission) {
+            if (submissions.remove(submission)) {
+                reports -= submission.reports.size();
+            }
+        }
+
+        boolean isFull() {
+            synchronized (OPEN_BATCHES) {
+                return reports >= MAX_REPORTS_PER_BATCH;
+            }
+        }
+    }
+
+    private static class Submission {
+        private final List<File> reports;
+        private final CompletableFuture<Result> result = new CompletableFuture<>();
+
+        Submission(List<File> reports) {
+            this.reports = reports;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.xpandit.plugins.xrayjenkins.services.breaker;
+
+import com.xpandit.plugins.xrayjenkins.exceptions.XrayJenkinsGenericException;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import com.xpandit.xray.model.UploadResult;
+import jenkins.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.file.FileSystemException;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Controller-wide circuit breaker of each Xray instance, so that builds fail fast while the instance is down, instead
+ * of each one of them waiting for the HTTP timeouts.
+ * <p>
+ * The circuit opens after the configured number of consecutive failed requests (I/O errors, timeouts and 5xx
+ * responses, see {@link XrayInstance#getCircuitBreakerThreshold()}): client errors, 4xx responses and rejected
+ * credentials don't count. While it is open, requests fail right away. When the open
+ * period ends, the circuit is half-open: the connection to the instance is tested in the background, and the
+ * circuit closes if the test succeeds, or opens again otherwise.
+ */
+public class XrayCircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(XrayCircuitBreaker.class);
+
+    private static final ConcurrentMap<String, Circuit> CIRCUITS = new ConcurrentHashMap<>();
+
+    private XrayCircuitBreaker() {}
+
+    /**
+     * The state of a circuit.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Tests the connection to the instance, when the circuit is half-open.
+     */
+    public interface Probe {
+        boolean isAvailable();
+    }
+
+    /**
+     * @param instance the Xray instance
+     * @throws XrayJenkinsGenericException if the circuit of the instance is not closed
+     */
+    public static void checkAvailable(@Nonnull XrayInstance instance) {
+        if (instance.getCircuitBreakerThreshold() <= 0) {
+            return;
+        }
+        final Circuit circuit = CIRCUITS.get(instance.getConfigID());
+        final String unavailable = circuit != null ? circuit.getUnavailableMessage(instance.getAlias()) : null;
+        if (unavailable != null) {
+            throw new XrayJenkinsGenericException(unavailable);
+        }
+    }
+
+    /**
+     * @param result the result of a request (any object returned by a client)
+     * @return true if the result shows that the instance is not available
+     */
+    public static boolean isFailure(@Nullable Object result) {
+        if (result instanceof UploadResult) {
+            final int statusCode = ((UploadResult) result).getStatusCode();
+            return statusCode <= 0 || statusCode >= 500;
+        }
+        return false;
+    }
+
+    /**
+     * @param error an error thrown by a request
+     * @return true if the error shows that the instance is not available: an I/O error or a timeout, not an error of
+     * the request itself (invalid parameters, credentials, local files...) nor an aborted build
+     */
+    public static boolean isFailure(@Nonnull Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause() != cause ? cause.getCause() : null) {
+            if (cause instanceof TimeoutException || cause instanceof SocketTimeoutException) {
+                return true;
+            }
+            if (cause.getClass() == InterruptedIOException.class || cause instanceof InterruptedException) {
+                return false; // Aborted build
+            }
+            if (cause instanceof FileNotFoundException || cause instanceof FileSystemException) {
+                return false; // Local file
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void recordSuccess(@Nonnull XrayInstance instance) {
+        final Circuit circuit = CIRCUITS.get(instance.getConfigID());
+        if (circuit != null) {
+            circuit.recordSuccess();
+        }
+    }
+
+    /**
+     * @param instance the Xray instance
+     * @param error what failed
+     * @param probe tests the connection to the instance once the circuit is half-open
+     */
+    public static void recordFailure(@Nonnull XrayInstance instance, @Nullable String error, @Nonnull Probe probe) {
+        if (instance.getCircuitBreakerThreshold() <= 0) {
+            return;
+        }
+        CIRCUITS.computeIfAbsent(instance.getConfigID(), Circuit::new).recordFailure(instance, error, probe);
+    }
+
+    /**
+     * @param configId the configuration ID of an instance
+     * @return the state of the circuit of the instance, or null if no request failed
+     */
+    @CheckForNull
+    public static Status getStatus(@Nonnull String configId) {
+        final Circuit circuit = CIRCUITS.get(configId);
+        return circuit != null ? circuit.getStatus() : null;
+    }
+
+    /**
+     * Closes all the circuits, e.g. when the Xray global configuration changes.
+     */
+    public static void resetAll() {
+        CIRCUITS.clear();
+    }
+
+    /**
+     * A snapshot of a circuit.
+     */
+    public static class Status {
+        private final State state;
+        private final int consecutiveFailures;
+        private final long openedAt;
+        private final String lastError;
+
+        Status(State state, int consecutiveFailures, long openedAt, String lastError) {
+            this.state = state;
+            this.consecutiveFailures = consecutiveFailures;
+            this.openedAt = openedAt;
+            this.lastError = lastError;
+        }
+
+        @Nonnull
+        public State getState() {
+            return state;
+        }
+
+        public int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        /**
+         * @return when the circuit was last opened (0 if it never was)
+         */
+        public long getOpenedAt() {
+            return openedAt;
+        }
+
+        @CheckForNull
+        public String getLastError() {
+            return lastError;
+        }
+
+        @Override
+        public String toString() {
+            switch (state) {
+                case OPEN:
+                    return "Unavailable since " + new Date(openedAt) + " (" + consecutiveFailures
+                            + " consecutive failures, last: " + lastError + "): requests fail fast";
+                case HALF_OPEN:
+                    return "Unavailable since " + new Date(openedAt) + ": testing the connection";
+                default:
+                    return consecutiveFailures > 0
+                            ? "Available (" + consecutiveFailures + " consecutive failures, last: " + lastError + ")"
+                            : "Available";
+            }
+        }
+    }
+
+    private static class Circuit {
+        private final String configId;
+
+        private State state = State.CLOSED;
+        private int consecutiveFailures;
+        private long openedAt;
+        private String lastError;
+        private Probe probe;
+
+        Circuit(String configId) {
+            this.configId = configId;
+        }
+
+        synchronized String getUnavailableMessage(String alias) {
+            if (state == State.CLOSED) {
+                return null;
+            }
+            return "The Xray instance " + alias + " is unavailable since " + new Date(openedAt) + " ("
+                    + consecutiveFailures + " consecutive failures, last: " + lastError + "). "
+                    + "Its requests fail fast until a connection test succeeds.";
+        }
+
+        synchronized void recordSuccess() {
+            consecutiveFailures = 0;
+            state = State.CLOSED;
+        }
+
+        synchronized void recordFailure(XrayInstance instance, String error, Probe probe) {
+            consecutiveFailures++;
+            lastError = error;
+            this.probe = probe;
+            if (state == State.CLOSED && consecutiveFailures >= instance.getCircuitBreakerThreshold()) {
+                LOG.warn("Xray instance {} unavailable after {} consecutive failures: {}", instance.getAlias(), consecutiveFailures, error);
+                open(instance.getCircuitBreakerOpenSeconds());
+            }
+        }
+
+        synchronized Status getStatus() {
+            return new Status(state, consecutiveFailures, openedAt, lastError);
+        }
+
+        private void open(int openSeconds) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            Timer.get().schedule(() -> halfOpen(openSeconds), openSeconds, TimeUnit.SECONDS);
+        }
+
+        private void halfOpen(int openSeconds) {
+            final Probe currentProbe;
+            synchronized (this) {
+                if (state != State.OPEN || CIRCUITS.get(configId) != this) {
+                    return; // Closed or reset in the meantime
+                }
+                state = State.HALF_OPEN;
+                currentProbe = probe;
+            }
+
+            boolean available;
+            try {
+                available = currentProbe.isAvailable();
+            } catch (RuntimeException e) {
+                LOG.warn("Unable to test the connection to the Xray instance " + configId, e);
+                available = false;
+            }
+
+            synchronized (this) {
+                if (state != State.HALF_OPEN) {
+                    return;
+                }
+                if (available) {
+                    LOG.info("Xray instance {} available again", configId);
+                    consecutiveFailures = 0;
+                    state = State.CLOSED;
+                } else {
+                    lastError = "connection test failed";
+                    open(openSeconds);
+                }
+            }
+        }
+    }
+}
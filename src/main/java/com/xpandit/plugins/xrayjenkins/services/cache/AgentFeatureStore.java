@@ -0,0 +1,264 @@
+package com.xpandit.plugins.xrayjenkins.services.cache;
+
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.remoting.RemoteInputStream;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.io.IOUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Agent-local, content-addressed store of the files exported by Xray.
+ * Each file is kept once per agent (named after the CRC-32 and size of its archive entry, so that an entry already
+ * stored isn't extracted again) and the workspaces are materialized by hard-linking the stored files, falling back to
+ * a copy when links are not supported.
+ * The stored files are read-only, since the workspaces share them: a step that changes a materialized file must
+ * replace it (e.g. delete it and write it again), as the export step does, instead of writing through the link.
+ * Deleting them, e.g. by cleaning up the workspace, doesn't change the store.
+ * The store is bounded in size: the least recently used files that no workspace links to anymore are deleted once
+ * the limit is exceeded (deleting the other ones wouldn't free any disk space).
+ */
+public class AgentFeatureStore {
+
+    private static final String STORE_FOLDER = "xray-feature-store";
+    private static final long DEFAULT_MAX_SIZE_MB = 512;
+    private static final long MAX_SIZE_BYTES =
+            Long.getLong(AgentFeatureStore.class.getName() + ".maxSizeMb", DEFAULT_MAX_SIZE_MB) * 1024 * 1024;
+
+    private AgentFeatureStore() {}
+
+    /**
+     * Gets the store folder of the agent that owns the given workspace.
+     *
+     * @param workspace the workspace
+     * @return the store folder, or <code>null</code> if the agent could not be resolved (e.g. it went offline)
+     */
+    @CheckForNull
+    public static FilePath getStoreFolder(@Nonnull FilePath workspace) {
+        final Computer computer = workspace.toComputer();
+        final Node node = computer != null ? computer.getNode() : null;
+        final FilePath rootPath = node != null ? node.getRootPath() : null;
+
+        return rootPath != null ? rootPath.child(STORE_FOLDER) : null;
+    }
+
+    /**
+     * Extracts a zip archive into the target folder, through the store of the agent.
+     *
+     * @param storeFolder the store folder, returned by {@link #getStoreFolder(FilePath)}
+     * @param target the folder where the files will be materialized
+     * @param zip the zip archive
+     * @return the number of files materialized
+     */
+    public static int materialize(@Nonnull FilePath storeFolder,
+                                  @Nonnull FilePath target,
+                                  @Nonnull InputStream zip) throws IOException, InterruptedException {
+        return target.act(new MaterializeCallable(storeFolder.getRemote(),
+                MAX_SIZE_BYTES,
+                new RemoteInputStream(zip, RemoteInputStream.Flag.GREEDY)));
+    }
+
+    static class MaterializeCallable extends MasterToSlaveFileCallable<Integer> {
+
+        private static final long serialVersionUID = 1L;
+        private static final String TMP_EXTENSION = ".tmp";
+
+        private final String storePath;
+        private final long maxSizeBytes;
+        private final InputStream zip;
+
+        MaterializeCallable(String storePath, long maxSizeBytes, InputStream zip) {
+            this.storePath = storePath;
+            this.maxSizeBytes = maxSizeBytes;
+            this.zip = zip;
+        }
+
+        @Override
+        public Integer invoke(File targetFolder, VirtualChannel channel) throws IOException, InterruptedException {
+            final File store = new File(storePath);
+            mkdirs(store);
+            mkdirs(targetFolder);
+
+            final String targetCanonicalPath = targetFolder.getCanonicalPath() + File.separator;
+            int materialized = 0;
+
+            try (ZipInputStream in = new ZipInputStream(zip)) {
+                ZipEntry entry;
+                while ((entry = in.getNextEntry()) != null) {
+                    final File target = new File(targetFolder, entry.getName());
+                    if (!target.getCanonicalPath().startsWith(targetCanonicalPath)) {
+                        throw new IOException("Zip entry outside of the target folder: " + entry.getName());
+                    }
+
+                    if (entry.isDirectory()) {
+                        mkdirs(target);
+                    } else {
+                        mkdirs(target.getParentFile());
+                        materialize(store, entry, in, target);
+                        materialized++;
+                    }
+                }
+            }
+
+            collectGarbage(store);
+            return materialized;
+        }
+
+        private void materialize(File store, ZipEntry entry, InputStream entryContent, File target) throws IOException {
+            // Most archives have the CRC and size of their entries in the local headers: a stored entry isn't extracted
+            if (entry.getCrc() != -1 && entry.getSize() != -1) {
+                final File stored = getStoredFile(store, entry.getCrc(), entry.getSize());
+                if (isStored(stored, entry.getSize()) && link(stored, target)) {
+                    return;
+                }
+            }
+
+            final File tmpFile = File.createTempFile("entry", TMP_EXTENSION, store);
+            try {
+                final CRC32 crc = new CRC32();
+                try (OutputStream out = new CheckedOutputStream(new FileOutputStream(tmpFile), crc)) {
+                    IOUtils.copy(entryContent, out);
+                }
+                final long size = tmpFile.length();
+                final File stored = getStoredFile(store, crc.getValue(), size);
+                if (isStored(stored, size) && link(stored, target)) {
+                    return;
+                }
+
+                if (!tmpFile.setReadOnly()) {
+                    throw new IOException("Unable to make " + tmpFile.getAbsolutePath() + " read-only");
+                }
+                // Linked before being stored, so that it can't be evicted in the meantime
+                if (!link(tmpFile, target)) {
+                    throw new IOException("Unable to materialize " + target.getAbsolutePath());
+                }
+                mkdirs(stored.getParentFile());
+                try {
+                    Files.move(tmpFile.toPath(), stored.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    // Same key means same content, so it doesn't matter which executor wins the race.
+                    if (!stored.isFile()) {
+                        throw e;
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(tmpFile.toPath());
+            }
+        }
+
+        private static File getStoredFile(File store, long crc, long size) {
+            final String key = String.format("%08x-%d", crc, size);
+            return new File(new File(store, key.substring(0, 2)), key);
+        }
+
+        /**
+         * @return whether the file is stored, and wasn't truncated or changed in place by a workspace
+         */
+        private static boolean isStored(File stored, long size) {
+            return stored.isFile() && stored.length() == size;
+        }
+
+        /**
+         * Materializes a stored file, replacing the file of the workspace instead of writing through it.
+         *
+         * @return false if the stored file was evicted in the meantime
+         */
+        private static boolean link(File stored, File target) throws IOException {
+            // The modification date is used as the "last access" date by the LRU eviction.
+            stored.setLastModified(System.currentTimeMillis());
+            if (target.exists() && Files.isSameFile(target.toPath(), stored.toPath())) {
+                return true;
+            }
+            Files.deleteIfExists(target.toPath());
+
+            try {
+                Files.createLink(target.toPath(), stored.toPath());
+            } catch (NoSuchFileException e) {
+                return false;
+            } catch (IOException | UnsupportedOperationException e) {
+                // e.g. the store and the workspace are in different file systems
+                try {
+                    Files.copy(stored.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } catch (NoSuchFileException notStored) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the number of hard links to the file (1 if the file system can't tell)
+         */
+        private static int getLinkCount(File file) {
+            try {
+                return ((Number) Files.getAttribute(file.toPath(), "unix:nlink")).intValue();
+            } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+                return 1;
+            }
+        }
+
+        private void collectGarbage(File store) {
+            final List<File> storedFiles = new ArrayList<>();
+            long totalSize = 0;
+
+            final File[] buckets = store.listFiles(File::isDirectory);
+            if (buckets == null) {
+                return;
+            }
+            for (File bucket : buckets) {
+                final File[] files = bucket.listFiles(File::isFile);
+                if (files != null) {
+                    for (File file : files) {
+                        // The files still linked by workspaces use their disk space, not the store's
+                        if (getLinkCount(file) <= 1) {
+                            storedFiles.add(file);
+                            totalSize += file.length();
+                        }
+                    }
+                }
+            }
+
+            if (totalSize <= maxSizeBytes) {
+                return;
+            }
+
+            storedFiles.sort(Comparator.comparingLong(File::lastModified));
+            for (File file : storedFiles) {
+                if (totalSize <= maxSizeBytes) {
+                    break;
+                }
+                final long size = file.length();
+                // Read-only files can't be deleted on Windows
+                file.setWritable(true);
+                if (file.delete()) {
+                    totalSize -= size;
+                }
+            }
+        }
+
+        private static void mkdirs(File folder) throws IOException {
+            if (!folder.isDirectory() && !folder.mkdirs() && !folder.isDirectory()) {
+                throw new IOException("Unable to create the folder " + folder.getAbsolutePath());
+            }
+        }
+    }
+}
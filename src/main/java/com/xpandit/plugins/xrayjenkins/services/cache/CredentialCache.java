@@ -0,0 +1,175 @@
+package com.xpandit.plugins.xrayjenkins.services.cache;
+
+import com.cloudbees.plugins.credentials.CredentialsParameterValue;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.ItemGroup;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import hudson.model.queue.Tasks;
+import hudson.security.ACL;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Short-lived cache of the credentials used to connect to Xray, per credential id, item (job) context and the
+ * authentication the builds of the job run as.
+ * Looking up a credential may be slow on controllers with large folder hierarchies, and the same credential is
+ * requested by every Xray step of every build.
+ * <p>
+ * Builds with credentials parameters are never cached: the parameter may resolve to the credentials of the user who
+ * started the build.
+ * <p>
+ * Entries expire after a short time and all of them are discarded as soon as a credentials store is saved
+ * (system, folder or user credentials), so rotated credentials are picked up right away.
+ */
+public class CredentialCache {
+
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong(CredentialCache.class.getName() + ".ttlSeconds", 60));
+
+    private static final ConcurrentMap<Key, Entry> CREDENTIALS = new ConcurrentHashMap<>();
+
+    private CredentialCache() {}
+
+    /**
+     * Finds the username/password credential available to the given Run.
+     *
+     * @param credentialId the credential id
+     * @param run the Run that will use the credential
+     * @return the credential, or <code>null</code> if it doesn't exist or isn't available to the Run
+     */
+    @CheckForNull
+    public static StandardUsernamePasswordCredentials get(@Nonnull String credentialId, @Nonnull Run<?, ?> run) {
+        final Supplier<StandardUsernamePasswordCredentials> lookup = () -> CredentialsProvider.findCredentialById(credentialId,
+                StandardUsernamePasswordCredentials.class,
+                run,
+                (List<DomainRequirement>) null);
+        if (hasCredentialsParameters(run)) {
+            return lookup.get();
+        }
+
+        final Key key = new Key(credentialId, run.getParent().getFullName(), getAuthenticationName(run));
+        return get(key, lookup, System.currentTimeMillis());
+    }
+
+    @CheckForNull
+    static StandardUsernamePasswordCredentials get(@Nonnull Key key,
+                                                   @Nonnull Supplier<StandardUsernamePasswordCredentials> lookup,
+                                                   long now) {
+        final Entry cached = CREDENTIALS.get(key);
+        if (cached != null && cached.expiresAt > now) {
+            return cached.credential;
+        }
+
+        final StandardUsernamePasswordCredentials credential = lookup.get();
+
+        // Missing credentials aren't cached, so they can be used as soon as they are created.
+        if (credential != null) {
+            CREDENTIALS.put(key, new Entry(credential, now + TTL_MILLIS));
+        } else {
+            CREDENTIALS.remove(key);
+        }
+        return credential;
+    }
+
+    private static boolean hasCredentialsParameters(Run<?, ?> run) {
+        final ParametersAction parameters = run.getAction(ParametersAction.class);
+        if (parameters == null) {
+            return false;
+        }
+        for (ParameterValue parameter : parameters.getParameters()) {
+            if (parameter instanceof CredentialsParameterValue) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getAuthenticationName(Run<?, ?> run) {
+        // The credentials available to a build depend on the authentication it runs as (see Authorize Project)
+        if (run.getParent() instanceof Queue.Task) {
+            return Tasks.getAuthenticationOf((Queue.Task) run.getParent()).getName();
+        }
+        return ACL.SYSTEM.getName();
+    }
+
+    /**
+     * Discards all the cached credentials.
+     */
+    public static void invalidateAll() {
+        CREDENTIALS.clear();
+    }
+
+    /**
+     * Discards the cached credentials (and the clients authenticated with them) when a credentials store changes.
+     */
+    @Extension
+    public static class CredentialsChangeListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            // Folder credentials are saved with the folder, user credentials with the user.
+            if (o instanceof SystemCredentialsProvider || o instanceof ItemGroup || o instanceof User) {
+                invalidateAll();
+                XrayClientCache.invalidateAll();
+            }
+        }
+    }
+
+    private static class Entry {
+        private final StandardUsernamePasswordCredentials credential;
+        private final long expiresAt;
+
+        Entry(StandardUsernamePasswordCredentials credential, long expiresAt) {
+            this.credential = credential;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    static class Key {
+        private final String credentialId;
+        private final String context;
+        private final String authentication;
+
+        Key(String credentialId, String context, String authentication) {
+            this.credentialId = credentialId;
+            this.context = context;
+            this.authentication = authentication;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return Objects.equals(credentialId, key.credentialId)
+                    && Objects.equals(context, key.context)
+                    && Objects.equals(authentication, key.authentication);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(credentialId, context, authentication);
+        }
+    }
+}
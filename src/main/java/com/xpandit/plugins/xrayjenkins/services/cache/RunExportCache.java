@@ -0,0 +1,174 @@
+package com.xpandit.plugins.xrayjenkins.services.cache;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the feature archives exported by Xray inside the build directory, so that every
+ * export step of the same Run (e.g. parallel branches running on different agents) with the same
+ * parameters only downloads the archive once.
+ * The first caller downloads the archive, every other caller waits for it and reuses the stored copy.
+ * The archives are deleted when the build completes.
+ */
+public class RunExportCache {
+
+    private static final String CACHE_FOLDER = "xray-exports";
+    private static final String ARCHIVE_EXTENSION = ".zip";
+    private static final String TMP_EXTENSION = ".tmp";
+
+    private static final Logger LOG = LoggerFactory.getLogger(RunExportCache.class);
+
+    // One lock per archive file, shared by all the steps (threads) of the controller.
+    private static final ConcurrentMap<String, Lock> LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Downloads the archive.
+     */
+    public interface ArchiveDownloader {
+        InputStream download() throws IOException;
+    }
+
+    private RunExportCache() {}
+
+    /**
+     * Builds the key that identifies an export inside a Run.
+     *
+     * @param parameters all the parameters that define the exported content (instance, issues, filter...)
+     * @return the cache key
+     */
+    public static String getCacheKey(String... parameters) {
+        final StringBuilder builder = new StringBuilder();
+        for (String parameter : parameters) {
+            builder.append(Util.fixNull(parameter)).append('\n');
+        }
+        return Util.getDigestOf(builder.toString());
+    }
+
+    /**
+     * Gets the archive exported in this Run with the given key, downloading it if this is the first request.
+     *
+     * @param run the current Run
+     * @param cacheKey the key returned by {@link #getCacheKey(String...)}
+     * @param downloader downloads the archive, only called if the archive isn't already stored
+     * @param logger the logger that will be used to log some messages
+     * @return the archive file, stored in the build directory
+     * @throws IOException if the archive could not be downloaded or stored
+     */
+    @Nonnull
+    public static File getOrDownload(@Nonnull Run<?, ?> run,
+                                     @Nonnull String cacheKey,
+                                     @Nonnull ArchiveDownloader downloader,
+                                     @Nonnull PrintStream logger) throws IOException {
+        return getOrDownload(new File(run.getRootDir(), CACHE_FOLDER), cacheKey, downloader, logger);
+    }
+
+    @Nonnull
+    static File getOrDownload(@Nonnull File folder,
+                              @Nonnull String cacheKey,
+                              @Nonnull ArchiveDownloader downloader,
+                              @Nonnull PrintStream logger) throws IOException {
+        final File archive = new File(folder, cacheKey + ARCHIVE_EXTENSION);
+        final String lockKey = archive.getAbsolutePath();
+        final Lock lock = acquire(lockKey);
+
+        try {
+            synchronized (lock) {
+                if (archive.isFile()) {
+                    logger.println("Reusing the features already exported in this build: " + archive.getName());
+                    return archive;
+                }
+
+                download(archive, downloader);
+                logger.println("Exported features stored in the build directory: " + archive.getName());
+                return archive;
+            }
+        } finally {
+            release(lockKey);
+        }
+    }
+
+    /**
+     * Deletes the archives exported by a Run, once it doesn't need them anymore.
+     *
+     * @param rootDir the build directory of the Run
+     */
+    static void deleteArchives(@Nonnull File rootDir) throws IOException {
+        final File folder = new File(rootDir, CACHE_FOLDER);
+        if (folder.isDirectory()) {
+            Util.deleteRecursive(folder);
+        }
+    }
+
+    private static Lock acquire(String lockKey) {
+        // The lock stays in the map while a caller holds or waits for it, so that a caller arriving after a failed
+        // download waits for the retry of the callers already waiting instead of downloading concurrently.
+        return LOCKS.compute(lockKey, (key, lock) -> {
+            final Lock acquired = lock != null ? lock : new Lock();
+            acquired.users++;
+            return acquired;
+        });
+    }
+
+    private static void release(String lockKey) {
+        LOCKS.computeIfPresent(lockKey, (key, lock) -> --lock.users > 0 ? lock : null);
+    }
+
+    /**
+     * Deletes the exported archives when the build completes.
+     */
+    @Extension
+    public static class ArchiveCleaner extends RunListener<Run<?, ?>> {
+        @Override
+        public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+            try {
+                deleteArchives(run.getRootDir());
+            } catch (IOException e) {
+                LOG.warn("Unable to delete the features exported by " + run.getFullDisplayName(), e);
+            }
+        }
+    }
+
+    private static class Lock {
+        // Guarded by the LOCKS map
+        private int users;
+    }
+
+    private static void download(File archive, ArchiveDownloader downloader) throws IOException {
+        final File folder = archive.getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Unable to create the folder " + folder.getAbsolutePath());
+        }
+
+        final File tmpFile = File.createTempFile(archive.getName(), TMP_EXTENSION, folder);
+        try {
+            try (InputStream in = downloader.download();
+                 OutputStream out = new FileOutputStream(tmpFile)) {
+                if (in == null) {
+                    throw new IOException("No features were returned by Xray");
+                }
+                IOUtils.copy(in, out);
+            }
+            Files.move(tmpFile.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.xpandit.plugins.xrayjenkins.services.cache;
+
+import com.xpandit.plugins.xrayjenkins.model.CredentialResolver;
+import com.xpandit.plugins.xrayjenkins.model.HostingType;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Controller-wide cache of the Xray Cloud clients, shared by all the builds that use the same instance and credential.
+ * Xray Cloud clients authenticate with the client id and secret and keep the resulting token, so sharing them
+ * avoids an extra authentication request per build.
+ * <p>
+ * Clients are shared by the fingerprint of the resolved client id and secret, not by credential id: the same id may
+ * resolve to different credentials in different folders, or for different users.
+ * <p>
+ * Cached clients (and their tokens) only live in memory and are retired:
+ * <ul>
+ *     <li>before the token expires (Xray Cloud tokens are valid for 24 hours). The age of a client is counted from
+ *     its creation, which is never later than its authentication, so it is retired before its token expires. A
+ *     client that authenticates again by itself gets a younger token, still retired with the client;</li>
+ *     <li>when Xray returns a 401 (e.g. the client secret was revoked);</li>
+ *     <li>when the Xray global configuration is saved.</li>
+ * </ul>
+ * A retired client is shut down as soon as the last build using it releases it. When a client is renewed, a single
+ * build creates the new one, while the other builds of the same key wait for it.
+ * Server/Data Center clients authenticate on each request, so they are never shared.
+ */
+public class XrayClientCache {
+
+    private static final long MAX_CLIENT_AGE_MILLIS = TimeUnit.HOURS.toMillis(23);
+
+    private static final ConcurrentMap<Key, Entry> CLIENTS = new ConcurrentHashMap<>();
+    // One per key ever used: there are only as many as instances, credentials and client types
+    private static final ConcurrentMap<Key, Object> RENEWAL_LOCKS = new ConcurrentHashMap<>();
+
+    private XrayClientCache() {}
+
+    /**
+     * Gets a client for the given instance. Cloud clients are shared, a new client is created otherwise.
+     * The lease must always be closed once the client is no longer needed.
+     *
+     * @param instance the Xray instance
+     * @param credential the credential of the client, resolved in the context of the build
+     * @param clientType the type of client (importer, exporter...)
+     * @param factory creates the client with the given credential, only called if there is no valid shared client
+     * @param shutdown shuts down the client, called once no build is using it anymore
+     * @return the client lease
+     */
+    @Nonnull
+    public static <C> Lease<C> acquire(@Nonnull XrayInstance instance,
+                                       @Nonnull CredentialResolver credential,
+                                       @Nonnull Class<C> clientType,
+                                       @Nonnull Supplier<C> factory,
+                                       @Nonnull Consumer<C> shutdown) {
+        return acquire(instance,
+                fingerprint(credential.getUsername(), credential.getPassword()),
+                clientType,
+                factory,
+                shutdown,
+                MAX_CLIENT_AGE_MILLIS);
+    }
+
+    @Nonnull
+    static <C> Lease<C> acquire(@Nonnull XrayInstance instance,
+                                @Nonnull String fingerprint,
+                                @Nonnull Class<C> clientType,
+                                @Nonnull Supplier<C> factory,
+                                @Nonnull Consumer<C> shutdown,
+                                long maxAgeMillis) {
+        if (instance.getHosting() != HostingType.CLOUD) {
+            // Not shared: retired right away, so it is shut down when the lease is closed.
+            final Entry entry = new Entry(factory.get(), shutdown, maxAgeMillis);
+            entry.tryAcquire();
+            entry.retire();
+            return new Lease<>(clientType, entry);
+        }
+
+        final Key key = new Key(instance.getConfigID(), fingerprint, clientType);
+        final Entry current = CLIENTS.get(key);
+        if (current != null && !current.isExpired() && current.tryAcquire()) {
+            return new Lease<>(clientType, current);
+        }
+
+        // A single build renews the client of a key (and so authenticates), the other ones wait for it.
+        // Outside of the map: authenticating may take a while, and must not block the other keys.
+        synchronized (RENEWAL_LOCKS.computeIfAbsent(key, k -> new Object())) {
+            final Entry existing = CLIENTS.get(key);
+            if (existing != null && !existing.isExpired() && existing.tryAcquire()) {
+                return new Lease<>(clientType, existing);
+            }
+
+            final Entry created = new Entry(factory.get(), shutdown, maxAgeMillis);
+            // Acquired before being shared, so that it can't be shut down in the meantime
+            created.tryAcquire();
+            final Entry replaced = CLIENTS.put(key, created);
+            if (replaced != null) {
+                replaced.retire();
+            }
+            return new Lease<>(clientType, created);
+        }
+    }
+
+    /**
+     * Fingerprints a resolved credential, so that clients (and upload batches) are only shared by builds using the
+     * same one.
+     *
+     * @param username the client id or username
+     * @param password the client secret or password
+     * @return the SHA-256 of the credential, in hexadecimal
+     */
+    @Nonnull
+    public static String fingerprint(@Nullable String username, @Nullable String password) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(String.valueOf(username).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(password).getBytes(StandardCharsets.UTF_8));
+
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Retires all the shared clients of an instance.
+     *
+     * @param instance the Xray instance
+     */
+    public static void invalidate(@Nonnull XrayInstance instance) {
+        CLIENTS.entrySet().removeIf(e -> {
+            if (Objects.equals(e.getKey().configId, instance.getConfigID())) {
+                e.getValue().retire();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Retires all the shared clients, e.g. when the Xray global configuration changes.
+     */
+    public static void invalidateAll() {
+        CLIENTS.entrySet().removeIf(e -> {
+            e.getValue().retire();
+            return true;
+        });
+    }
+
+    /**
+     * A client in use by a build.
+     */
+    public static class Lease<C> implements AutoCloseable {
+        private final Class<C> clientType;
+        private final Entry entry;
+        private boolean closed = false;
+
+        private Lease(Class<C> clientType, Entry entry) {
+            this.clientType = clientType;
+            this.entry = entry;
+        }
+
+        @Nonnull
+        public C get() {
+            return clientType.cast(entry.client);
+        }
+
+        /**
+         * Retires the client, so that no other build gets it. Used when Xray rejects its authentication.
+         */
+        public void invalidate() {
+            CLIENTS.values().remove(entry);
+            entry.retire();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                entry.release();
+            }
+        }
+    }
+
+    private static class Entry {
+        private final Object client;
+        private final Consumer<Object> shutdown;
+        private final long expiresAt;
+
+        private int leases = 0;
+        private boolean retired = false;
+        private boolean shutDown = false;
+
+        @SuppressWarnings("unchecked")
+        <C> Entry(C client, Consumer<C> shutdown, long maxAgeMillis) {
+            this.client = client;
+            this.shutdown = (Consumer<Object>) shutdown;
+            this.expiresAt = System.currentTimeMillis() + maxAgeMillis;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+
+        synchronized boolean isRetired() {
+            return retired;
+        }
+
+        synchronized boolean tryAcquire() {
+            if (retired) {
+                return false;
+            }
+            leases++;
+            return true;
+        }
+
+        synchronized void release() {
+            leases--;
+            shutdownIfUnused();
+        }
+
+        synchronized void retire() {
+            retired = true;
+            shutdownIfUnused();
+        }
+
+        private void shutdownIfUnused() {
+            if (retired && leases == 0 && !shutDown) {
+                shutDown = true;
+                shutdown.accept(client);
+            }
+        }
+    }
+
+    private static class Key {
+        private final String configId;
+        private final String fingerprint;
+        private final Class<?> clientType;
+
+        Key(String configId, String fingerprint, Class<?> clientType) {
+            this.configId = configId;
+            this.fingerprint = fingerprint;
+            this.clientType = clientType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return Objects.equals(configId, key.configId)
+                    && Objects.equals(fingerprint, key.fingerprint)
+                    && Objects.equals(clientType, key.clientType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(configId, fingerprint, clientType);
+        }
+    }
+}
@@ -3,30 +3,94 @@ package com.xpandit.plugins.xrayjenkins.services.enviromentvariables;
 import hudson.EnvVars;
 import hudson.model.AbstractBuild;
 import hudson.model.EnvironmentContributingAction;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * This class implements a Jenkins interface: EnvironmentContributingAction, ans as the name suggests, this class
  * will be called by Jenkins itself to change/set new environment variables into the current build.
  * Beware that this class will NOT be called in a Pipeline project, due to Jenkins limitations.
+ * <p>
+ * Large raw responses are not kept in the action (i.e. in build.xml): they are stored in a compressed file
+ * in the build directory and only loaded when requested. That file is on the controller, so it can't be read by the
+ * steps running on an agent: it is served under the <i>xray-raw-response</i> URL of the build instead.
  */
-public class XrayEnvironmentInjectAction implements EnvironmentContributingAction, Serializable {
+public class XrayEnvironmentInjectAction implements EnvironmentContributingAction, RunAction2, Serializable {
+
+    private static final String RAW_RESPONSE_FILE = "xray-raw-response.json.gz";
+
+    static final String URL_NAME = "xray-raw-response";
 
     private final Map<String, String> newVariablesToAdd;
 
+    // Name of the file (in the build directory) with the full raw response, null if the response is inline.
+    private final String rawResponseFileName;
+
+    private transient Run<?, ?> run;
+
     public XrayEnvironmentInjectAction(@Nonnull Map<String, String> variablesToAdd) {
+        this(variablesToAdd, null);
+    }
+
+    public XrayEnvironmentInjectAction(@Nonnull Map<String, String> variablesToAdd, @CheckForNull String rawResponseFileName) {
         Objects.requireNonNull(variablesToAdd, "'variablesToAdd' can't be null!");
 
         // We can't use Java native Synchronized structures since they are blocked by Jenkins in a Pipeline project
         // See: https://jenkins.io/blog/2018/01/13/jep-200/
         this.newVariablesToAdd = Collections.synchronizedMap(new HashMap<>(variablesToAdd));
+        this.rawResponseFileName = rawResponseFileName;
+    }
+
+    /**
+     * Writes the raw response to a compressed file in the build directory.
+     *
+     * @param run the Run
+     * @param rawResponse the raw response
+     * @return the name of the file, to be passed to the action
+     * @throws IOException if the file could not be written
+     */
+    @Nonnull
+    static String writeRawResponse(@Nonnull Run<?, ?> run, @Nonnull String rawResponse) throws IOException {
+        return writeRawResponse(run.getRootDir(), rawResponse);
+    }
+
+    @Nonnull
+    static String writeRawResponse(@Nonnull File rootDir, @Nonnull String rawResponse) throws IOException {
+        final File file = new File(rootDir, RAW_RESPONSE_FILE);
+        final File tmpFile = File.createTempFile(RAW_RESPONSE_FILE, ".tmp", rootDir);
+        try {
+            try (OutputStream out = new GZIPOutputStream(new FileOutputStream(tmpFile))) {
+                IOUtils.write(rawResponse, out, StandardCharsets.UTF_8);
+            }
+            // Parallel steps of the same build may write it at the same time.
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+        return RAW_RESPONSE_FILE;
     }
 
     @Override
@@ -34,6 +98,54 @@ public class XrayEnvironmentInjectAction implements EnvironmentContributingActio
         env.putAll(newVariablesToAdd);
     }
 
+    /**
+     * Gets the raw response of the latest Xray request, loading it from the build directory if needed.
+     *
+     * @return the full raw response
+     * @throws IOException if the stored response could not be read
+     */
+    @CheckForNull
+    public String getRawResponse() throws IOException {
+        if (rawResponseFileName == null || run == null) {
+            return newVariablesToAdd.get(XrayEnvironmentVariableSetter.RAW_RESPONSE_VARIABLE);
+        }
+        return readRawResponse(run.getRootDir());
+    }
+
+    @Nonnull
+    String readRawResponse(@Nonnull File rootDir) throws IOException {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(new File(rootDir, rawResponseFileName)))) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Serves the full raw response, e.g. to the steps running on an agent (<code>BUILD_URL/xray-raw-response/</code>).
+     *
+     * @param req the request
+     * @param rsp the response
+     * @throws IOException if the stored response could not be read
+     */
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        final String rawResponse = getRawResponse();
+        if (rawResponse == null) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        rsp.setContentType("application/json;charset=UTF-8");
+        IOUtils.write(rawResponse, rsp.getOutputStream(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
     @CheckForNull
     @Override
     public String getIconFileName() {
@@ -49,6 +161,7 @@ public class XrayEnvironmentInjectAction implements EnvironmentContributingActio
     @CheckForNull
     @Override
     public String getUrlName() {
-        return null;
+        // Not shown in the side panel (no icon), only served when the raw response is stored in a file.
+        return rawResponseFileName != null ? URL_NAME : null;
     }
 }
@@ -1,13 +1,14 @@
 package com.xpandit.plugins.xrayjenkins.services.enviromentvariables;
 
-import com.xpandit.plugins.xrayjenkins.model.HostingType;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResponse;
 import com.xpandit.plugins.xrayjenkins.services.enviromentvariables.util.XrayEnvironmentVariableSetterUtil;
-import com.xpandit.xray.model.UploadResult;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -32,11 +33,19 @@ public class XrayEnvironmentVariableSetter {
     private enum XrayEnvironmentVariable {
         XRAY_IS_REQUEST_SUCCESSFUL, // "true", if the latest Xray request was successful. "false" otherwise.
         XRAY_ISSUES_MODIFIED, // All issues created or modified
-        XRAY_RAW_RESPONSE, // The raw response String of the latest Xray request.
+        XRAY_RAW_RESPONSE, // The raw response String of the latest Xray request (only a preview, if too large).
+        XRAY_RAW_RESPONSE_FILE, // The file with the full raw response, if it was too large to be inline. Controller path: not readable from an agent.
+        XRAY_RAW_RESPONSE_URL, // The URL (relative to the Jenkins root URL) serving the full raw response, if it was too large to be inline.
         XRAY_TEST_EXECS, // Test Execution Issues created/modified, separated by a semicolon.
         XRAY_TESTS  // Test Issues created/modified, separated by a semicolon.
     }
 
+    static final String RAW_RESPONSE_VARIABLE = XrayEnvironmentVariable.XRAY_RAW_RESPONSE.name();
+
+    // Larger responses are stored in the build directory, so they don't bloat build.xml
+    private static final int MAX_INLINE_RAW_RESPONSE_LENGTH = 16 * 1024;
+    private static final int RAW_RESPONSE_PREVIEW_LENGTH = 1024;
+
     private final Map<XrayEnvironmentVariable, String> newVariables;
 
     private XrayEnvironmentVariableSetter() {
@@ -50,47 +59,39 @@ public class XrayEnvironmentVariableSetter {
     }
 
     /**
-     * Parses all the Upload Results of a Cucumber Import (features) request.
+     * Sets the variables of a Cucumber Import (features) request.
      *
-     * @param results the request results.
-     * @param hostingType the hosting type of the Jira instance.
-     * @param logger the logger that will be used to log some messages.
+     * @param responses the parsed request responses.
      * @return the XrayEnvironmentVariableSetter will all the relevant information.
      */
-    public static XrayEnvironmentVariableSetter parseCucumberFeatureImportResponse(final Collection<UploadResult> results,
-                                                                                   final HostingType hostingType,
-                                                                                   final PrintStream logger) {
+    public static XrayEnvironmentVariableSetter parseCucumberFeatureImportResponse(final Collection<XrayImportResponse> responses) {
         final XrayEnvironmentVariableSetter variableSetter = new XrayEnvironmentVariableSetter();
 
-        variableSetter.newVariables.put(XrayEnvironmentVariable.XRAY_RAW_RESPONSE, getRawResponses(results));
-        variableSetter.newVariables.put(XrayEnvironmentVariable.XRAY_IS_REQUEST_SUCCESSFUL, isUploadSuccessful(results));
-        variableSetter.newVariables.put(XrayEnvironmentVariable.XRAY_ISSUES_MODIFIED, getImportedFeatureIssueKeys(results, hostingType, logger));
+        variableSetter.newVariables.put(XrayEnvironmentVariable.XRAY_RAW_RESPONSE, getRawResponses(responses));
+        variableSetter.newVariables.put(XrayEnvironmentVariable.XRAY_IS_REQUEST_SUCCESSFUL, isUploadSuccessful(responses));
+        variableSetter.newVariables.put(XrayEnvironmentVariable.XRAY_ISSUES_MODIFIED, getImportedFeatureIssueKeys(responses));
 
         return variableSetter;
     }
 
     /**
-     * Parses all the Upload Results of a Test result importation.
+     * Sets the variables of a Test result importation.
      *
-     * @param results the request results.
-     * @param hostingType the hosting type of the Jira instance.
-     * @param logger the logger that will be used to log some messages.
+     * @param responses the parsed request responses.
      * @return the XrayEnvironmentVariableSetter will all the relevant information.
      */
-    public static XrayEnvironmentVariableSetter parseResultImportResponse(final Collection<UploadResult> results,
-                                                                          final HostingType hostingType,
-                                                                          final PrintStream logger) {
-        if (results == null) {
+    public static XrayEnvironmentVariableSetter parseResultImportResponse(final Collection<XrayImportResponse> responses) {
+        if (responses == null) {
             return failed();
         }
 
         final XrayEnvironmentVariableSetter variableSetter = new XrayEnvironmentVariableSetter();
 
-        variableSetter.newVariables.put(XrayEnvironmentVariable.XRAY_RAW_RESPONSE, getRawResponses(results));
-        variableSetter.newVariables.put(XrayEnvironmentVariable.XRAY_IS_REQUEST_SUCCESSFUL, isUploadSuccessful(results));
+        variableSetter.newVariables.put(XrayEnvironmentVariable.XRAY_RAW_RESPONSE, getRawResponses(responses));
+        variableSetter.newVariables.put(XrayEnvironmentVariable.XRAY_IS_REQUEST_SUCCESSFUL, isUploadSuccessful(responses));
 
-        final String testExecKeys = getModifiedTestExecutionsKeys(results, hostingType, logger);
-        final String testKeys = getModifiedTestKeys(results, hostingType, logger);
+        final String testExecKeys = getModifiedTestExecutionsKeys(responses);
+        final String testKeys = getModifiedTestKeys(responses);
         variableSetter.newVariables.put(XrayEnvironmentVariable.XRAY_TEST_EXECS, testExecKeys);
         variableSetter.newVariables.put(XrayEnvironmentVariable.XRAY_TESTS, testKeys);
         variableSetter.newVariables.put(XrayEnvironmentVariable.XRAY_ISSUES_MODIFIED, getAllKeys(testExecKeys, testKeys));
@@ -148,6 +149,16 @@ public class XrayEnvironmentVariableSetter {
         return variableSetter;
     }
 
+    /**
+     * Marks the request as failed, keeping the other variables (e.g. when only some of the targets were imported).
+     *
+     * @return this XrayEnvironmentVariableSetter
+     */
+    public XrayEnvironmentVariableSetter withFailure() {
+        newVariables.put(XrayEnvironmentVariable.XRAY_IS_REQUEST_SUCCESSFUL, FALSE_STRING);
+        return this;
+    }
+
     public void setAction(Run<?,?> build, TaskListener taskListener) {
         setAction(build, taskListener.getLogger());
     }
@@ -156,14 +167,43 @@ public class XrayEnvironmentVariableSetter {
         if (build != null) {
             // Builds the same name, but with the name of each XrayEnvironmentVariable.
             // Key - variable name; Value - Variable value
+            final String rawResponseFileName = externalizeRawResponse(build, logger);
             final Map<String, String> newVariablesByName = getVariableValuesByName(logger);
 
             // Adds action to Build
-            final XrayEnvironmentInjectAction action = new XrayEnvironmentInjectAction(newVariablesByName);
+            final XrayEnvironmentInjectAction action = new XrayEnvironmentInjectAction(newVariablesByName, rawResponseFileName);
             build.addOrReplaceAction(action);
         }
     }
 
+    /**
+     * Moves a large raw response to a file in the build directory, keeping only a preview in the variable.
+     *
+     * @return the name of the file, or null if the raw response is kept inline.
+     */
+    @Nullable
+    private String externalizeRawResponse(Run<?, ?> build, @Nullable PrintStream logger) {
+        final String rawResponse = newVariables.get(XrayEnvironmentVariable.XRAY_RAW_RESPONSE);
+        if (rawResponse == null || rawResponse.length() <= MAX_INLINE_RAW_RESPONSE_LENGTH) {
+            return null;
+        }
+
+        try {
+            final String fileName = XrayEnvironmentInjectAction.writeRawResponse(build, rawResponse);
+
+            newVariables.put(XrayEnvironmentVariable.XRAY_RAW_RESPONSE, StringUtils.abbreviate(rawResponse, RAW_RESPONSE_PREVIEW_LENGTH));
+            newVariables.put(XrayEnvironmentVariable.XRAY_RAW_RESPONSE_FILE, new File(build.getRootDir(), fileName).getAbsolutePath());
+            newVariables.put(XrayEnvironmentVariable.XRAY_RAW_RESPONSE_URL, build.getUrl() + XrayEnvironmentInjectAction.URL_NAME + "/");
+            return fileName;
+        } catch (IOException e) {
+            // We can still keep it inline, as before.
+            if (logger != null) {
+                logger.println("Unable to store the raw response in the build directory: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
     private Map<String, String> getVariableValuesByName(@Nullable PrintStream logger) {
         final Map<String, String> newVariablesByName = new HashMap<>();
         for (Map.Entry<XrayEnvironmentVariable, String> entry : newVariables.entrySet()) {
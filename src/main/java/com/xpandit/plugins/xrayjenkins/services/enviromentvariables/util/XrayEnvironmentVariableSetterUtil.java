@@ -1,23 +1,17 @@
 package com.xpandit.plugins.xrayjenkins.services.enviromentvariables.util;
 
-import com.google.common.collect.Sets;
-import com.xpandit.plugins.xrayjenkins.model.HostingType;
-import com.xpandit.xray.model.UploadResult;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResponse;
 import org.apache.commons.lang3.StringUtils;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
-import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
 /**
- * This helper class will parse the request results JSON into a string that could be used in the Jenkins environment variables.
+ * This helper class will join the parsed request responses into strings that could be used in the Jenkins environment variables.
  */
 public class XrayEnvironmentVariableSetterUtil {
 
@@ -31,13 +25,13 @@ public class XrayEnvironmentVariableSetterUtil {
     /**
      * Gets all the raw responses of the requests, joined by the SEPARATOR.
      *
-     * @param results all the request results.
+     * @param responses all the request responses.
      * @return string representing the raw JSON response of the requests.
      */
-    public static String getRawResponses(@Nonnull Collection<UploadResult> results) {
-        final List<String> resultsString = new ArrayList<>(results.size());
-        for (UploadResult result : results) {
-            resultsString.add(result.getMessage());
+    public static String getRawResponses(@Nonnull Collection<XrayImportResponse> responses) {
+        final List<String> resultsString = new ArrayList<>(responses.size());
+        for (XrayImportResponse response : responses) {
+            resultsString.add(response.getMessage());
         }
 
         return StringUtils.join(resultsString, SEPARATOR);
@@ -46,13 +40,13 @@ public class XrayEnvironmentVariableSetterUtil {
     /**
      * Gets all the modified Test Execution keys, joined by the SEPARATOR.
      *
-     * @param results all the request results.
+     * @param responses all the request responses.
      * @return string representing the Test Execution keys created/modified in the requests.
      */
-    public static String getModifiedTestExecutionsKeys(Collection<UploadResult> results, HostingType hostingType, @Nullable PrintStream logger) {
-        final Set<String> testExecutionKeys = new HashSet<>(results.size());
-        for (UploadResult result : results) {
-            final String testExecutionKey = getTestExecutionKey(result, hostingType, logger);
+    public static String getModifiedTestExecutionsKeys(@Nonnull Collection<XrayImportResponse> responses) {
+        final Set<String> testExecutionKeys = new LinkedHashSet<>(responses.size());
+        for (XrayImportResponse response : responses) {
+            final String testExecutionKey = response.getTestExecutionKey();
 
             if (StringUtils.isNotBlank(testExecutionKey)) {
                 testExecutionKeys.add(testExecutionKey);
@@ -62,117 +56,32 @@ public class XrayEnvironmentVariableSetterUtil {
         return StringUtils.join(testExecutionKeys, SEPARATOR);
     }
 
-    private static String getTestExecutionKey(UploadResult result, HostingType hostingType, @Nullable PrintStream logger) {
-        JSONObject root;
-        try {
-            root = new JSONObject(result.getMessage());
-        } catch (Exception e) {
-            return StringUtils.EMPTY;
-        }
-
-        switch (hostingType) {
-            case CLOUD:
-                if (root.has("key")) {
-                    return root.getString("key");
-                }
-
-                // Test Exec Key not found in the place we were expecting it.
-                return StringUtils.EMPTY;
-            case SERVER:
-                if (root.has("testExecIssue")) {
-                    JSONObject testExecIssue = root.getJSONObject("testExecIssue");
-                    if (testExecIssue.has("key")) {
-                        return testExecIssue.getString("key");
-                    }
-                }
-
-                // Test Exec Key not found in the place we were expecting it.
-                return StringUtils.EMPTY;
-            default:
-                if (logger != null) {
-                    logger.println("[getTestExecutionKey] Hosting Type not implemented!");
-                }
-                return StringUtils.EMPTY;
-        }
-    }
-
     /**
-     * Gets all the modified Test keys in a single request, joined by the SEPARATOR.
+     * Gets all the modified Test keys, joined by the SEPARATOR.
+     * Xray Cloud doesn't provide information about the Tests created by a results import.
      *
-     * @param results result of the upload requests.
-     * @param hostingType the hosting type of the Jira instance.
-     * @param logger the logger that will be used to log some messages.
-     * @return string representing the Test Execution keys created/modified in the requests.
+     * @param responses all the request responses.
+     * @return string representing the Test keys created/modified in the requests.
      */
-    public static String getModifiedTestKeys(Collection<UploadResult> results, HostingType hostingType, @Nullable PrintStream logger) {
-        final Set<String> testKeys = new HashSet<>(results.size());
-        for (UploadResult result : results) {
-            final String testKey = getTestKey(result, hostingType, logger);
-
-            if (StringUtils.isNotBlank(testKey)) {
-                testKeys.add(testKey);
-            }
+    public static String getModifiedTestKeys(@Nonnull Collection<XrayImportResponse> responses) {
+        final Set<String> testKeys = new LinkedHashSet<>();
+        for (XrayImportResponse response : responses) {
+            testKeys.addAll(response.getTestKeys());
         }
 
         return StringUtils.join(testKeys, SEPARATOR);
     }
 
-    private static String getTestKey(UploadResult result, HostingType hostingType, @Nullable PrintStream logger) {
-        JSONObject root;
-        try {
-            root = new JSONObject(result.getMessage());
-        } catch (Exception e) {
-            return StringUtils.EMPTY;
-        }
-
-        switch (hostingType) {
-            case CLOUD:
-                // Xray Cloud doesn't provide information about created Tests
-                return StringUtils.EMPTY;
-            case SERVER:
-                Set<String> testKeys = extractTestKeysFromJson(root);
-
-                // Test Exec Key not found in the place we were expecting it.
-                return StringUtils.join(testKeys, SEPARATOR);
-            default:
-                if (logger != null) {
-                    logger.println("[getTestKey] Hosting Type not implemented!");
-                }
-                return StringUtils.EMPTY;
-        }
-    }
-
-    private static Set<String> extractTestKeysFromJson(JSONObject root) {
-        final Set<String> testKeys = new HashSet<>();
-
-        if (root.has("testIssues")) {
-            JSONObject testIssuesResult = root.getJSONObject("testIssues");
-            if (testIssuesResult.has("success")) {
-                JSONArray createdTestIssues = testIssuesResult.getJSONArray("success");
-                for (int i = 0; i < createdTestIssues.length(); i++) {
-                    JSONObject testIssue = createdTestIssues.getJSONObject(i);
-                    if (testIssue.has("key")) {
-                        testKeys.add(testIssue.getString("key"));
-                    }
-                }
-            }
-        }
-
-        return testKeys;
-    }
-
     /**
      * Checks if all the requests were successful.
      *
-     * @param results result of the upload requests.
+     * @param responses all the request responses.
      * @return "true" if all requests were successful, "false" otherwise.
      */
-    public static String isUploadSuccessful(Collection<UploadResult> results) {
-        for (UploadResult result : results) {
-            int statusCode = result.getStatusCode();
-
+    public static String isUploadSuccessful(@Nonnull Collection<XrayImportResponse> responses) {
+        for (XrayImportResponse response : responses) {
             // If one of the requests was not on the OK status code "family", than we consider that was action failed at some point.
-            if (statusCode < 200 || statusCode > 299) {
+            if (!response.isSuccessful()) {
                 return FALSE_STRING;
             }
         }
@@ -182,86 +91,15 @@ public class XrayEnvironmentVariableSetterUtil {
     /**
      * Gets all the modified/created issues (Tests and Pre-conditions) from Cucumber feature file import requests.
      *
-     * @param results the Cucumber feature file import requests.
-     * @param hostingType the hosting type of the Jira instance.
-     * @param logger the logger that will be used to log some messages.
+     * @param responses the Cucumber feature file import responses.
      * @return string with all the issue keys that were created and/or modified in the requests.
      */
-    public static String getImportedFeatureIssueKeys(Collection<UploadResult> results, HostingType hostingType, @Nullable PrintStream logger) {
-        final Set<String> allTestKeys = new HashSet<>(results.size());
-        for (UploadResult result : results) {
-            final String testKeys = getSingleResultImportedIssueKeys(result, hostingType, logger);
-
-            if (StringUtils.isNotBlank(testKeys)) {
-                allTestKeys.add(testKeys);
-            }
+    public static String getImportedFeatureIssueKeys(@Nonnull Collection<XrayImportResponse> responses) {
+        final Set<String> allIssueKeys = new LinkedHashSet<>();
+        for (XrayImportResponse response : responses) {
+            allIssueKeys.addAll(response.getImportedFeatureIssueKeys());
         }
 
-        return StringUtils.join(allTestKeys, SEPARATOR);
-    }
-
-    private static String getSingleResultImportedIssueKeys(UploadResult result, HostingType hostingType, PrintStream logger) {
-        switch (hostingType) {
-            case CLOUD:
-                JSONObject cloudRoot;
-                try {
-                    cloudRoot = new JSONObject(result.getMessage());
-                } catch (Exception e) {
-                    return StringUtils.EMPTY;
-                }
-
-                return StringUtils.join(getCloudSingleResultImportedIssueKeys(cloudRoot), SEPARATOR);
-            case SERVER:
-                JSONArray serverRoot;
-                try {
-                    serverRoot = new JSONArray(result.getMessage());
-                } catch (Exception e) {
-                    return StringUtils.EMPTY;
-                }
-
-                return StringUtils.join(getServerSingleResultImportedIssueKeys(serverRoot), SEPARATOR);
-            default:
-                if (logger != null) {
-                    logger.println("[getSingleResultImportedTestKeys] Hosting Type not implemented!");
-                }
-                return StringUtils.EMPTY;
-        }
-    }
-
-    private static Set<String> getServerSingleResultImportedIssueKeys(JSONArray root) {
-        final Set<String> updatedOrCreatedIssueKeys = Sets.newHashSet();
-        for (int i = 0; i < root.length(); i++) {
-            final JSONObject test = root.getJSONObject(i);
-            if (test.has("key")) {
-                updatedOrCreatedIssueKeys.add(test.getString("key"));
-            }
-        }
-
-        return updatedOrCreatedIssueKeys;
-    }
-
-    private static Set<String> getCloudSingleResultImportedIssueKeys(JSONObject root) {
-        final Set<String> updatedOrCreatedIssueKeys = Sets.newHashSet();
-        if (root.has("updatedOrCreatedTests")) {
-            final JSONArray tests = root.getJSONArray("updatedOrCreatedTests");
-            for (int i = 0; i < tests.length(); i++) {
-                final JSONObject test = tests.getJSONObject(i);
-                if (test.has("key")) {
-                    updatedOrCreatedIssueKeys.add(test.getString("key"));
-                }
-            }
-        }
-
-        if (root.has("updatedOrCreatedPreconditions")) {
-            final JSONArray tests = root.getJSONArray("updatedOrCreatedPreconditions");
-            for (int i = 0; i < tests.length(); i++) {
-                final JSONObject test = tests.getJSONObject(i);
-                if (test.has("key")) {
-                    updatedOrCreatedIssueKeys.add(test.getString("key"));
-                }
-            }
-        }
-        
-        return updatedOrCreatedIssueKeys;
+        return StringUtils.join(allIssueKeys, SEPARATOR);
     }
 }
@@ -0,0 +1,240 @@
+package com.xpandit.plugins.xrayjenkins.services.ledger;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResponse;
+import hudson.Util;
+import hudson.model.Run;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records, in the build directory, every file imported by the import steps of a build: its content hash, the status
+ * of the upload and the Test Execution key. When a step runs again in the same build (e.g. in a <code>retry</code>
+ * block, or after a restart), the files already imported with the same content are skipped and the Test Execution
+ * of the previous attempt is reused, so no duplicated Test Executions are created.
+ * <p>
+ * The ledger is a JSON Lines file, only appended to, so an interrupted write loses at most its last entry: the next
+ * entry starts on a new line, even after a torn one.
+ */
+public final class XrayImportLedger {
+
+    private static final Logger LOG = LoggerFactory.getLogger(XrayImportLedger.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static final String LEDGER_FILE = "xray-import-ledger.jsonl";
+
+    private final File file;
+    private final List<Entry> entries;
+
+    private XrayImportLedger(File file, List<Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    /**
+     * Loads the ledger of a build (empty if nothing was imported yet).
+     *
+     * @param run the build
+     * @return the ledger
+     */
+    @Nonnull
+    public static XrayImportLedger load(@Nonnull Run<?, ?> run) {
+        return load(new File(run.getRootDir(), LEDGER_FILE));
+    }
+
+    @Nonnull
+    static XrayImportLedger load(@Nonnull File file) {
+        final List<Entry> entries = new ArrayList<>();
+        if (file.isFile()) {
+            synchronized (XrayImportLedger.class) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (StringUtils.isNotBlank(line)) {
+                            readEntry(line, entries);
+                        }
+                    }
+                } catch (IOException e) {
+                    LOG.warn("Unable to read the Xray import ledger " + file, e);
+                }
+            }
+        }
+        return new XrayImportLedger(file, entries);
+    }
+
+    private static void readEntry(String line, List<Entry> entries) {
+        try {
+            entries.add(MAPPER.readValue(line, Entry.class));
+        } catch (IOException e) {
+            LOG.warn("Ignoring an incomplete entry of the Xray import ledger", e);
+        }
+    }
+
+    /**
+     * Identifies an import step by everything that changes what it imports (instance, format, files, parameters...).
+     *
+     * @param parts the configuration of the step
+     * @return the id of the step
+     */
+    @Nonnull
+    public static String stepId(@Nonnull String... parts) {
+        return Util.getDigestOf(StringUtils.join(parts, "\n"));
+    }
+
+    /**
+     * @param stepId the id of the step
+     * @param filePath the path of the file
+     * @param digest the content hash of the file
+     * @return the response of the successful import of the same file by the same step, or null if it wasn't imported
+     */
+    @CheckForNull
+    public synchronized XrayImportResponse findImported(@Nonnull String stepId, @Nonnull String filePath, @Nonnull String digest) {
+        for (Entry entry : entries) {
+            if (entry.stepId.equals(stepId) && entry.file.equals(filePath) && entry.digest.equals(digest) && entry.isSuccessful()) {
+                return XrayImportResponse.parse(entry.statusCode, entry.message);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param stepId the id of the step
+     * @param filePath the path of the file
+     * @return whether the step imported the file, whatever its content: only then is its content hashed
+     */
+    public synchronized boolean hasImported(@Nonnull String stepId, @Nonnull String filePath) {
+        for (Entry entry : entries) {
+            if (entry.stepId.equals(stepId) && entry.file.equals(filePath) && entry.isSuccessful()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param stepId the id of the step
+     * @return the first Test Execution imported by the step, or null
+     */
+    @CheckForNull
+    public synchronized String getTestExecutionKey(@Nonnull String stepId) {
+        for (Entry entry : entries) {
+            if (entry.stepId.equals(stepId) && entry.isSuccessful() && StringUtils.isNotBlank(entry.testExecutionKey)) {
+                return entry.testExecutionKey;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records the import of a file.
+     *
+     * @param stepId the id of the step
+     * @param filePath the path of the file
+     * @param digest the content hash of the file
+     * @param response the response of the import
+     * @throws IOException if the ledger could not be written
+     */
+    public void record(@Nonnull String stepId,
+                       @Nonnull String filePath,
+                       @Nonnull String digest,
+                       @Nonnull XrayImportResponse response) throws IOException {
+        final Entry entry = new Entry(stepId,
+                filePath,
+                digest,
+                response.getStatusCode(),
+                response.getTestExecutionKey(),
+                response.getMessage());
+        final byte[] line = (MAPPER.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+
+        synchronized (this) {
+            entries.add(entry);
+        }
+        // Parallel steps of the same build may append at the same time.
+        synchronized (XrayImportLedger.class) {
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                final long length = out.length();
+                if (length > 0) {
+                    out.seek(length - 1);
+                    // The last entry was torn (e.g. by a restart): it must not swallow this one
+                    if (out.read() != '\n') {
+                        out.write('\n');
+                    }
+                }
+                out.write(line);
+            }
+        }
+    }
+
+    static final class Entry {
+        private final String stepId;
+        private final String file;
+        private final String digest;
+        private final int statusCode;
+        private final String testExecutionKey;
+        private final String message;
+
+        @JsonCreator
+        Entry(@JsonProperty("stepId") String stepId,
+              @JsonProperty("file") String file,
+              @JsonProperty("digest") String digest,
+              @JsonProperty("statusCode") int statusCode,
+              @JsonProperty("testExecutionKey") String testExecutionKey,
+              @JsonProperty("message") String message) {
+            this.stepId = StringUtils.defaultString(stepId);
+            this.file = StringUtils.defaultString(file);
+            this.digest = StringUtils.defaultString(digest);
+            this.statusCode = statusCode;
+            this.testExecutionKey = testExecutionKey;
+            this.message = message;
+        }
+
+        @JsonProperty("stepId")
+        public String getStepId() {
+            return stepId;
+        }
+
+        @JsonProperty("file")
+        public String getFile() {
+            return file;
+        }
+
+        @JsonProperty("digest")
+        public String getDigest() {
+            return digest;
+        }
+
+        @JsonProperty("statusCode")
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        @JsonProperty("testExecutionKey")
+        public String getTestExecutionKey() {
+            return testExecutionKey;
+        }
+
+        @JsonProperty("message")
+        public String getMessage() {
+            return message;
+        }
+
+        boolean isSuccessful() {
+            return statusCode >= 200 && statusCode <= 299;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.xpandit.plugins.xrayjenkins.services.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import com.xpandit.plugins.xrayjenkins.services.breaker.XrayCircuitBreaker;
+import com.xpandit.xray.model.UploadResult;
+import hudson.Extension;
+import jenkins.metrics.api.MetricProvider;
+import jenkins.metrics.api.Metrics;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Metrics of the requests to the Xray instances, published through the Metrics plugin (and so by the Prometheus
+ * plugin, among others).
+ * <p>
+ * The metrics of each instance and operation are named <code>xray.&lt;configuration ID&gt;.&lt;operation&gt;.*</code>:
+ * <ul>
+ *     <li><code>requests</code>: the timer of the requests (one per attempt, retries included)</li>
+ *     <li><code>errors</code>: the requests that failed with an error or a 5xx response</li>
+ *     <li><code>tooManyRequests</code>: the 429 responses</li>
+ *     <li><code>retries</code>: the attempts retried after a transient failure</li>
+ *     <li><code>bytesSent</code> and <code>bytesReceived</code>: the size of the uploaded reports and archives, and
+ *     of the responses</li>
+ *     <li><code>inFlight</code>: the requests being sent, a counter that goes down again when they end (and so is
+ *     read as a gauge)</li>
+ * </ul>
+ * The time spent by the requests of each instance in the request queue is timed by
+ * <code>xray.&lt;configuration ID&gt;.queueWait</code>.
+ * <p>
+ * The Metrics plugin is optional: without it, the metrics are still recorded, but not published.
+ */
+public class XrayMetrics {
+
+    private static final String PREFIX = "xray";
+    private static final MetricRegistry REGISTRY = new MetricRegistry();
+
+    private XrayMetrics() {}
+
+    /**
+     * The operations of the steps.
+     */
+    public enum Operation {
+        RESULTS_IMPORT("resultsImport"),
+        FEATURE_IMPORT("featureImport"),
+        EXPORT("export"),
+        TEST_CONNECTION("testConnection");
+
+        private final String metricName;
+
+        Operation(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    /**
+     * A request to an Xray instance.
+     */
+    public interface Request<T> {
+        T call() throws IOException, InterruptedException;
+    }
+
+    /**
+     * A request to an Xray instance that downloads content.
+     */
+    public interface Download {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * @param instance the Xray instance
+     * @param operation the operation
+     * @return the metrics of the requests of the operation to the instance
+     */
+    @Nonnull
+    public static OperationMetrics of(@Nonnull XrayInstance instance, @Nonnull Operation operation) {
+        return new OperationMetrics(REGISTRY, MetricRegistry.name(PREFIX, instance.getConfigID(), operation.metricName));
+    }
+
+    /**
+     * @param instance the Xray instance
+     * @param waitedMillis how long a request waited in the request queue of the instance
+     */
+    public static void recordQueueWait(@Nonnull XrayInstance instance, long waitedMillis) {
+        REGISTRY.timer(MetricRegistry.name(PREFIX, instance.getConfigID(), "queueWait")).update(waitedMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Removes the metrics of the instances that are not configured anymore.
+     *
+     * @param instances the configured instances
+     */
+    public static void retain(@Nonnull Collection<XrayInstance> instances) {
+        final Set<String> configIds = instances.stream().map(XrayInstance::getConfigID).collect(Collectors.toSet());
+        retain(REGISTRY, configIds);
+    }
+
+    static void retain(MetricRegistry registry, Set<String> configIds) {
+        registry.removeMatching((name, metric) -> !configIds.contains(getConfigId(name)));
+    }
+
+    @CheckForNull
+    private static String getConfigId(String name) {
+        // xray.<configuration ID>.*, configuration IDs being UUIDs
+        final int end = name.indexOf('.', PREFIX.length() + 1);
+        return name.startsWith(PREFIX + ".") && end > 0 ? name.substring(PREFIX.length() + 1, end) : null;
+    }
+
+    /**
+     * Publishes the metrics to the Metrics plugin, when it is installed.
+     * <p>
+     * The Metrics plugin reads the metric set of a provider once, when it starts, but the metrics are only created
+     * with the first requests to each instance. So the set is empty, and each metric is registered to the registry of
+     * the plugin when it is created instead, and removed from it with its instance.
+     */
+    @Extension(optional = true)
+    public static class XrayMetricProvider extends MetricProvider {
+        private final Supplier<MetricRegistry> published;
+        private final AtomicBoolean publishing = new AtomicBoolean();
+
+        public XrayMetricProvider() {
+            this(Metrics::metricRegistry);
+        }
+
+        XrayMetricProvider(@Nonnull Supplier<MetricRegistry> published) {
+            this.published = published;
+        }
+
+        @Nonnull
+        @Override
+        public MetricSet getMetricSet() {
+            if (publishing.compareAndSet(false, true)) {
+                // Also publishes the metrics created so far
+                REGISTRY.addListener(new Publisher(published));
+            }
+            return Collections::emptyMap;
+        }
+    }
+
+    private static class Publisher extends MetricRegistryListener.Base {
+        private final Supplier<MetricRegistry> published;
+
+        Publisher(Supplier<MetricRegistry> published) {
+            this.published = published;
+        }
+
+        @Override
+        public void onCounterAdded(String name, Counter counter) {
+            register(name, counter);
+        }
+
+        @Override
+        public void onCounterRemoved(String name) {
+            published.get().remove(name);
+        }
+
+        @Override
+        public void onHistogramAdded(String name, Histogram histogram) {
+            register(name, histogram);
+        }
+
+        @Override
+        public void onHistogramRemoved(String name) {
+            published.get().remove(name);
+        }
+
+        @Override
+        public void onTimerAdded(String name, Timer timer) {
+            register(name, timer);
+        }
+
+        @Override
+        public void onTimerRemoved(String name) {
+            published.get().remove(name);
+        }
+
+        private void register(String name, Metric metric) {
+            final MetricRegistry registry = published.get();
+            // Replaces a metric left by a previous registration, which the registry would refuse
+            registry.remove(name);
+            registry.register(name, metric);
+        }
+    }
+
+    /**
+     * The metrics of the requests of one operation to one instance.
+     */
+    public static class OperationMetrics {
+        private final Timer requests;
+        private final Counter errors;
+        private final Counter tooManyRequests;
+        private final Counter retries;
+        private final Counter bytesSent;
+        private final Counter bytesReceived;
+        // Goes up when a request is sent, and down when it ends
+        private final Counter inFlight;
+
+        OperationMetrics(MetricRegistry registry, String prefix) {
+            this.requests = registry.timer(MetricRegistry.name(prefix, "requests"));
+            this.errors = registry.counter(MetricRegistry.name(prefix, "errors"));
+            this.tooManyRequests = registry.counter(MetricRegistry.name(prefix, "tooManyRequests"));
+            this.retries = registry.counter(MetricRegistry.name(prefix, "retries"));
+            this.bytesSent = registry.counter(MetricRegistry.name(prefix, "bytesSent"));
+            this.bytesReceived = registry.counter(MetricRegistry.name(prefix, "bytesReceived"));
+            this.inFlight = registry.counter(MetricRegistry.name(prefix, "inFlight"));
+        }
+
+        /**
+         * Sends a request, and records it. The size of the response of an upload is the size of its message.
+         *
+         * @param bytesSent the size of the uploaded content
+         * @param request the request
+         * @return the result of the request
+         */
+        public <T> T time(long bytesSent, @Nonnull Request<T> request) throws IOException, InterruptedException {
+            this.bytesSent.inc(bytesSent);
+            inFlight.inc();
+            final long startTime = System.nanoTime();
+            boolean failed = true;
+            try {
+                final T result = request.call();
+                failed = XrayCircuitBreaker.isFailure(result);
+                if (result instanceof UploadResult) {
+                    final UploadResult uploadResult = (UploadResult) result;
+                    if (uploadResult.isTooManyRequests()) {
+                        tooManyRequests.inc();
+                    }
+                    if (uploadResult.getMessage() != null) {
+                        bytesReceived.inc(uploadResult.getMessage().getBytes(StandardCharsets.UTF_8).length);
+                    }
+                }
+                return result;
+            } finally {
+                inFlight.dec();
+                record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), failed);
+            }
+        }
+
+        /**
+         * Sends a download request. The request is recorded when the returned stream is closed, so that its latency
+         * includes reading the content.
+         *
+         * @param request the request
+         * @return the content, which counts the bytes received
+         */
+        @CheckForNull
+        public InputStream download(@Nonnull Download request) throws IOException {
+            inFlight.inc();
+            final long startTime = System.nanoTime();
+            final InputStream content;
+            try {
+                content = request.open();
+            } catch (IOException | RuntimeException e) {
+                inFlight.dec();
+                record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), true);
+                throw e;
+            }
+            if (content == null) {
+                inFlight.dec();
+                record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), true);
+                return null;
+            }
+            return new CountingInputStream(content, startTime);
+        }
+
+        /**
+         * Records a request timed by the caller.
+         *
+         * @param latencyMillis how long the request took
+         * @param failed whether the request failed
+         */
+        public void record(long latencyMillis, boolean failed) {
+            requests.update(latencyMillis, TimeUnit.MILLISECONDS);
+            if (failed) {
+                errors.inc();
+            }
+        }
+
+        /**
+         * Records that a request is retried.
+         */
+        public void retried() {
+            retries.inc();
+        }
+
+        private class CountingInputStream extends FilterInputStream {
+            private final long startTime;
+            private long count;
+            private boolean failed;
+            private boolean closed;
+
+            CountingInputStream(@Nonnull InputStream in, long startTime) {
+                super(in);
+                this.startTime = startTime;
+            }
+
+            @Override
+            public int read() throws IOException {
+                final int b = countFailure(() -> super.read());
+                if (b >= 0) {
+                    count++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+                final int read = countFailure(() -> super.read(b, off, len));
+                if (read > 0) {
+                    count += read;
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!closed) {
+                        closed = true;
+                        inFlight.dec();
+                        bytesReceived.inc(count);
+                        record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), failed);
+                    }
+                }
+            }
+
+            private int countFailure(@Nonnull Read read) throws IOException {
+                try {
+                    return read.read();
+                } catch (IOException | RuntimeException e) {
+                    failed = true;
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private interface Read {
+        int read() throws IOException;
+    }
+}
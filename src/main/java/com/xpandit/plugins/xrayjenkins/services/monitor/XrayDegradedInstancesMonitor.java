@@ -0,0 +1,34 @@
+package com.xpandit.plugins.xrayjenkins.services.monitor;
+
+import com.xpandit.plugins.xrayjenkins.model.ServerConfiguration;
+import hudson.Extension;
+import hudson.model.AdministrativeMonitor;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shows the degraded Xray instances on the Manage Jenkins page.
+ */
+@Extension
+public class XrayDegradedInstancesMonitor extends AdministrativeMonitor {
+
+    @Override
+    public String getDisplayName() {
+        return "Degraded Xray instances";
+    }
+
+    @Override
+    public boolean isActivated() {
+        return !getDegradedInstances().isEmpty();
+    }
+
+    @Nonnull
+    public List<XrayHealthMonitor.Health> getDegradedInstances() {
+        final ServerConfiguration configuration = ServerConfiguration.get();
+        return configuration != null
+                ? XrayHealthMonitor.getDegraded(configuration.getServerInstances())
+                : Collections.<XrayHealthMonitor.Health>emptyList();
+    }
+}
@@ -0,0 +1,237 @@
+package com.xpandit.plugins.xrayjenkins.services.monitor;
+
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The health of each Xray instance, as measured by the background connection tests of {@link XrayInstanceProbe}.
+ * <p>
+ * The last {@value #WINDOW_SIZE} tests of each instance (of all its Data Center nodes) are kept in a ring buffer. An
+ * instance is degraded when more than {@value #DEGRADED_ERROR_PERCENT}% of them failed, or when the 95th percentile
+ * latency of the successful ones is above the threshold of the instance (see
+ * {@link XrayInstance#getDegradedLatencyMillis()}).
+ */
+public class XrayHealthMonitor {
+
+    static final int WINDOW_SIZE = 20;
+    static final int DEGRADED_ERROR_PERCENT = 20;
+
+    // By configuration ID
+    private static final ConcurrentMap<String, Window> WINDOWS = new ConcurrentHashMap<>();
+
+    private XrayHealthMonitor() {}
+
+    /**
+     * Records the result of a connection test.
+     *
+     * @param configId the configuration ID of the instance
+     * @param latencyMillis how long the test took
+     * @param error why the test failed, or null if it succeeded
+     */
+    public static void record(@Nonnull String configId, long latencyMillis, @Nullable String error) {
+        WINDOWS.computeIfAbsent(configId, id -> new Window(WINDOW_SIZE)).add(latencyMillis, error);
+    }
+
+    /**
+     * Forgets the instances that are not configured anymore.
+     *
+     * @param configIds the configuration IDs of the configured instances
+     */
+    public static void retainAll(@Nonnull Collection<String> configIds) {
+        WINDOWS.keySet().retainAll(configIds);
+    }
+
+    /**
+     * @param instance the Xray instance
+     * @return the health of the instance, or null if it wasn't tested yet
+     */
+    @CheckForNull
+    public static Health getHealth(@Nonnull XrayInstance instance) {
+        final Window window = WINDOWS.get(instance.getConfigID());
+        return window != null ? window.getHealth(instance) : null;
+    }
+
+    /**
+     * @param instances the configured instances
+     * @return the health of the degraded instances
+     */
+    @Nonnull
+    public static List<Health> getDegraded(@Nonnull Collection<XrayInstance> instances) {
+        final List<Health> degraded = new ArrayList<>();
+        for (XrayInstance instance : instances) {
+            final Health health = getHealth(instance);
+            if (health != null && health.isDegraded()) {
+                degraded.add(health);
+            }
+        }
+        return degraded;
+    }
+
+    /**
+     * Warns a build up front that the instance it is about to use is degraded.
+     *
+     * @param instance the Xray instance
+     * @param logger the console of the build
+     */
+    public static void warnIfDegraded(@Nonnull XrayInstance instance, @Nonnull PrintStream logger) {
+        final Health health = getHealth(instance);
+        if (health != null && health.isDegraded()) {
+            logger.println("WARNING: the Xray instance is degraded according to its background connection tests: " + health);
+        }
+    }
+
+    /**
+     * A snapshot of the health of an instance.
+     */
+    public static class Health {
+        private final String alias;
+        private final int samples;
+        private final int errorPercent;
+        private final long p50LatencyMillis;
+        private final long p95LatencyMillis;
+        private final String lastError;
+        private final long lastTestedAt;
+        private final boolean degraded;
+
+        Health(String alias,
+               int samples,
+               int errorPercent,
+               long p50LatencyMillis,
+               long p95LatencyMillis,
+               String lastError,
+               long lastTestedAt,
+               int degradedLatencyMillis) {
+            this.alias = alias;
+            this.samples = samples;
+            this.errorPercent = errorPercent;
+            this.p50LatencyMillis = p50LatencyMillis;
+            this.p95LatencyMillis = p95LatencyMillis;
+            this.lastError = lastError;
+            this.lastTestedAt = lastTestedAt;
+            this.degraded = errorPercent > DEGRADED_ERROR_PERCENT
+                    || (degradedLatencyMillis > 0 && p95LatencyMillis > degradedLatencyMillis);
+        }
+
+        public String getAlias() {
+            return alias;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public int getErrorPercent() {
+            return errorPercent;
+        }
+
+        /**
+         * @return the median latency of the successful tests, in milliseconds (0 if none succeeded)
+         */
+        public long getP50LatencyMillis() {
+            return p50LatencyMillis;
+        }
+
+        /**
+         * @return the 95th percentile latency of the successful tests, in milliseconds (0 if none succeeded)
+         */
+        public long getP95LatencyMillis() {
+            return p95LatencyMillis;
+        }
+
+        @CheckForNull
+        public String getLastError() {
+            return lastError;
+        }
+
+        public long getLastTestedAt() {
+            return lastTestedAt;
+        }
+
+        public boolean isDegraded() {
+            return degraded;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s, %d%% of the last %d connection tests failed, %d ms median and %d ms p95 latency, last tested on %s%s",
+                    alias,
+                    degraded ? "degraded" : "healthy",
+                    errorPercent,
+                    samples,
+                    p50LatencyMillis,
+                    p95LatencyMillis,
+                    new Date(lastTestedAt),
+                    lastError != null ? " (last error: " + lastError + ")" : "");
+        }
+    }
+
+    /**
+     * The ring buffer of the last tests of an instance.
+     */
+    static class Window {
+        private final long[] latencies;
+        private final boolean[] failed;
+        private int next;
+        private int size;
+        private String lastError;
+        private long lastTestedAt;
+
+        Window(int capacity) {
+            this.latencies = new long[capacity];
+            this.failed = new boolean[capacity];
+        }
+
+        synchronized void add(long latencyMillis, @Nullable String error) {
+            latencies[next] = latencyMillis;
+            failed[next] = error != null;
+            next = (next + 1) % latencies.length;
+            size = Math.min(size + 1, latencies.length);
+            if (error != null) {
+                lastError = error;
+            }
+            lastTestedAt = System.currentTimeMillis();
+        }
+
+        synchronized Health getHealth(@Nonnull XrayInstance instance) {
+            final long[] successful = new long[size];
+            int successes = 0;
+            for (int i = 0; i < size; i++) {
+                if (!failed[i]) {
+                    successful[successes++] = latencies[i];
+                }
+            }
+            final long[] sorted = Arrays.copyOf(successful, successes);
+            Arrays.sort(sorted);
+            return new Health(instance.getAlias(),
+                    size,
+                    size > 0 ? (size - successes) * 100 / size : 0,
+                    percentile(sorted, 50),
+                    percentile(sorted, 95),
+                    successes < size ? lastError : null,
+                    lastTestedAt,
+                    instance.getDegradedLatencyMillis());
+        }
+
+        /**
+         * @return the nearest-rank percentile of the sorted values (0 if there are none)
+         */
+        static long percentile(@Nonnull long[] sorted, int percent) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            final int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.xpandit.plugins.xrayjenkins.services.monitor;
+
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.xpandit.plugins.xrayjenkins.model.ServerConfiguration;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import com.xpandit.xray.service.impl.bean.ConnectionResult;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the connection to every node of every configured Xray instance (or to Xray Cloud, for Cloud instances) every
+ * few minutes, and records how long each test took in the {@link XrayHealthMonitor}.
+ * <p>
+ * The credentials of an instance are looked up in the global scope only: the instances whose credentials are
+ * defined in a folder are not tested.
+ */
+@Extension
+public class XrayInstanceProbe extends AsyncPeriodicWork {
+
+    private static final long RECURRENCE_MINUTES = 5;
+
+    public XrayInstanceProbe() {
+        super("Xray instance probe");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(RECURRENCE_MINUTES);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        final ServerConfiguration configuration = ServerConfiguration.get();
+        if (configuration == null) {
+            return;
+        }
+
+        final List<String> configIds = new ArrayList<>();
+        for (XrayInstance instance : configuration.getServerInstances()) {
+            configIds.add(instance.getConfigID());
+
+            final StandardUsernamePasswordCredentials credential = configuration.getGlobalCredential(instance.getCredentialId());
+            if (credential == null) {
+                listener.getLogger().println("Not testing the Xray instance " + instance.getAlias() + ": its credentials are not global");
+                continue;
+            }
+            probe(instance, address -> {
+                final ConnectionResult connectionResult = ServerConfiguration.testConnection(instance,
+                        address,
+                        credential.getUsername(),
+                        credential.getPassword().getPlainText());
+                return connectionResult.isSuccessful() ? null : String.valueOf(connectionResult.getErrorText());
+            }, listener);
+        }
+        XrayHealthMonitor.retainAll(configIds);
+    }
+
+    /**
+     * Tests the connection to every node of an instance, or to Xray Cloud for a Cloud instance.
+     */
+    static void probe(@Nonnull XrayInstance instance, @Nonnull ConnectionTest connectionTest, @Nonnull TaskListener listener) {
+        for (String address : instance.getConnectionTestAddresses()) {
+            final long startTime = System.nanoTime();
+            String error;
+            try {
+                error = connectionTest.test(address);
+            } catch (RuntimeException e) {
+                error = e.getClass().getSimpleName() + ": " + e.getMessage();
+            }
+            final long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+            XrayHealthMonitor.record(instance.getConfigID(), latencyMillis, error);
+            listener.getLogger().println(String.format("Xray instance %s, %s: %s in %d ms",
+                    instance.getAlias(),
+                    address != null ? "node " + address : "Xray Cloud",
+                    error != null ? error : "connected",
+                    latencyMillis));
+        }
+    }
+
+    /**
+     * Tests the connection to an address of an instance.
+     */
+    interface ConnectionTest {
+        /**
+         * @param address the address, or null for Xray Cloud
+         * @return the error, or null if connected
+         */
+        @CheckForNull
+        String test(@Nullable String address);
+    }
+}
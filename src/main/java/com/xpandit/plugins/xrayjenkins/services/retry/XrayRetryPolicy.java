@@ -0,0 +1,313 @@
+package com.xpandit.plugins.xrayjenkins.services.retry;
+
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import com.xpandit.xray.model.UploadResult;
+import com.xpandit.xray.util.UploadResultUtil;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.xpandit.xray.util.UploadResultUtil.MAX_RETRY_AFTER_TIME_SECONDS;
+
+/**
+ * How the requests of a step to an Xray instance are retried after a transient failure: a retryable status code
+ * (429 and 503 by default, plus 502 and 504 for the exports), or a retryable exception (failures to connect by
+ * default).
+ * <p>
+ * The delay before each retry grows exponentially, with full jitter: it is a random time between 0 and
+ * <code>min(max delay, base delay * 2^(attempt - 1))</code>, so that the builds failing at the same time don't retry
+ * at the same time. A 429 response waits at least the time asked by its Retry-After header. No retry starts once the
+ * deadline of the step would be exceeded.
+ */
+public class XrayRetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final int DEFAULT_BASE_DELAY_MILLIS = 1000;
+    public static final int DEFAULT_MAX_DELAY_MILLIS = 30000;
+    public static final int DEFAULT_DEADLINE_SECONDS = 600;
+    /**
+     * A 429 or a 503 is answered before the request is processed. A 502 or a 504 comes from a gateway that may have
+     * given up while Xray was still importing the results, so retrying an import could import them twice.
+     */
+    public static final String DEFAULT_STATUS_CODES = "429, 503";
+    /**
+     * Also retried for the exports, which only read from Xray.
+     */
+    public static final String EXPORT_STATUS_CODES = "502, 504";
+    /**
+     * Only the failures to connect are retried by default: the request was not sent, so retrying it can't import the
+     * same results twice. A read timeout or a reset connection may happen after Xray received the request.
+     */
+    public static final String DEFAULT_EXCEPTIONS = "java.net.ConnectException, java.net.NoRouteToHostException, "
+            + "java.net.UnknownHostException, org.apache.http.conn.ConnectTimeoutException";
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long deadlineMillis;
+    private final Set<Integer> statusCodes;
+    private final Set<String> exceptions;
+
+    XrayRetryPolicy(int maxAttempts,
+                    long baseDelayMillis,
+                    long maxDelayMillis,
+                    long deadlineMillis,
+                    @Nonnull Set<Integer> statusCodes,
+                    @Nonnull Set<String> exceptions) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        this.deadlineMillis = deadlineMillis;
+        this.statusCodes = statusCodes;
+        this.exceptions = exceptions;
+    }
+
+    /**
+     * @param instance the Xray instance
+     * @return the retry policy configured in the instance
+     */
+    @Nonnull
+    public static XrayRetryPolicy of(@Nonnull XrayInstance instance) {
+        return new XrayRetryPolicy(instance.getRetryMaxAttempts(),
+                instance.getRetryBaseDelayMillis(),
+                instance.getRetryMaxDelayMillis(),
+                TimeUnit.SECONDS.toMillis(instance.getRetryDeadlineSeconds()),
+                parseStatusCodes(instance.getRetryStatusCodes()),
+                parseExceptions(instance.getRetryExceptions()));
+    }
+
+    /**
+     * @param instance the Xray instance
+     * @return the retry policy configured in the instance, which also retries the gateway errors
+     */
+    @Nonnull
+    public static XrayRetryPolicy forExports(@Nonnull XrayInstance instance) {
+        final Set<Integer> statusCodes = new LinkedHashSet<>(parseStatusCodes(instance.getRetryStatusCodes()));
+        statusCodes.addAll(parseStatusCodes(EXPORT_STATUS_CODES));
+        return new XrayRetryPolicy(instance.getRetryMaxAttempts(),
+                instance.getRetryBaseDelayMillis(),
+                instance.getRetryMaxDelayMillis(),
+                TimeUnit.SECONDS.toMillis(instance.getRetryDeadlineSeconds()),
+                Collections.unmodifiableSet(statusCodes),
+                parseExceptions(instance.getRetryExceptions()));
+    }
+
+    /**
+     * @param statusCodes the status codes, separated by commas or spaces
+     * @return the parsed status codes
+     * @throws IllegalArgumentException if a status code is not valid
+     */
+    @Nonnull
+    public static Set<Integer> parseStatusCodes(@Nullable String statusCodes) {
+        final Set<Integer> parsed = new LinkedHashSet<>();
+        for (String statusCode : split(statusCodes)) {
+            final int code;
+            try {
+                code = Integer.parseInt(statusCode);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid status code: " + statusCode);
+            }
+            if (code < 100 || code > 599) {
+                throw new IllegalArgumentException("Invalid status code: " + statusCode);
+            }
+            parsed.add(code);
+        }
+        return Collections.unmodifiableSet(parsed);
+    }
+
+    /**
+     * @param exceptions the fully qualified names of the exception classes, separated by commas or spaces
+     * @return the parsed class names
+     * @throws IllegalArgumentException if a class name is not valid
+     */
+    @Nonnull
+    public static Set<String> parseExceptions(@Nullable String exceptions) {
+        final Set<String> parsed = new LinkedHashSet<>();
+        for (String exception : split(exceptions)) {
+            if (!exception.matches("[\\w$]+(\\.[\\w$]+)*")) {
+                throw new IllegalArgumentException("Invalid class name: " + exception);
+            }
+            parsed.add(exception);
+        }
+        return Collections.unmodifiableSet(parsed);
+    }
+
+    private static String[] split(@Nullable String values) {
+        return StringUtils.isBlank(values) ? new String[0] : values.trim().split("[\\s,]+");
+    }
+
+    /**
+     * Starts the deadline of a step.
+     *
+     * @param logger where each attempt is logged
+     * @return the retries of the step
+     */
+    @Nonnull
+    public Session start(@Nonnull PrintStream logger) {
+        return start(logger, () -> {});
+    }
+
+    /**
+     * Starts the deadline of a step.
+     *
+     * @param logger where each attempt is logged
+     * @param onRetry called before each retry (for the metrics)
+     * @return the retries of the step
+     */
+    @Nonnull
+    public Session start(@Nonnull PrintStream logger, @Nonnull Runnable onRetry) {
+        final long deadline = deadlineMillis > 0 ? System.currentTimeMillis() + deadlineMillis : Long.MAX_VALUE;
+        return new Session(logger, deadline, onRetry);
+    }
+
+    /**
+     * @param attempt the attempt that failed, starting at 1
+     * @param random the source of the jitter
+     * @return the delay before the next attempt, in milliseconds
+     */
+    long getBackoffMillis(int attempt, @Nonnull Random random) {
+        final int exponent = Math.min(Math.max(0, attempt - 1), 30);
+        final long ceiling = Math.min(maxDelayMillis, baseDelayMillis << exponent);
+        return ceiling > 0 ? (long) (random.nextDouble() * (ceiling + 1)) : 0;
+    }
+
+    boolean isRetryable(@Nullable Object result) {
+        return result instanceof UploadResult && isRetryableStatusCode(((UploadResult) result).getStatusCode());
+    }
+
+    boolean isRetryableStatusCode(int statusCode) {
+        return statusCodes.contains(statusCode);
+    }
+
+    /**
+     * @param error an error
+     * @return true if the error, or one of its causes, is an instance of a retryable exception class
+     */
+    boolean isRetryable(@Nonnull Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause() != cause ? cause.getCause() : null) {
+            for (Class<?> type = cause.getClass(); type != null; type = type.getSuperclass()) {
+                if (exceptions.contains(type.getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A request sent again on each attempt. Its content must be read again on each call.
+     */
+    public interface Attempt<T> {
+        T call() throws IOException, InterruptedException;
+    }
+
+    /**
+     * The retries of the requests of one step, which share its deadline.
+     */
+    public class Session {
+        private final PrintStream logger;
+        private final long deadline;
+        private final Runnable onRetry;
+
+        private Session(PrintStream logger, long deadline, Runnable onRetry) {
+            this.logger = logger;
+            this.deadline = deadline;
+            this.onRetry = onRetry;
+        }
+
+        /**
+         * Sends a request until it succeeds, fails with an error that isn't transient, or can't be retried anymore.
+         *
+         * @param description what the request does, for the console
+         * @param attempt the request
+         * @return the result of the last attempt
+         * @throws IOException if the last attempt failed
+         * @throws InterruptedException if the build was aborted
+         */
+        public <T> T execute(@Nonnull String description, @Nonnull Attempt<T> attempt) throws IOException, InterruptedException {
+            for (int attemptNumber = 1; ; attemptNumber++) {
+                final long startTime = System.nanoTime();
+                T result = null;
+                Exception failure = null;
+                try {
+                    result = attempt.call();
+                } catch (UndeclaredThrowableException e) {
+                    if (e.getCause() instanceof InterruptedException) {
+                        // Aborted while waiting in the request queue of a scheduled client
+                        throw (InterruptedException) e.getCause();
+                    }
+                    failure = e;
+                } catch (IOException | RuntimeException e) {
+                    failure = e;
+                }
+                final long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+                final String outcome = failure != null
+                        ? failure.getClass().getSimpleName() + ": " + failure.getMessage()
+                        : result instanceof UploadResult ? "HTTP " + ((UploadResult) result).getStatusCode() : "done";
+                final String attemptLog = String.format("Attempt %d/%d to %s: %s in %d ms",
+                        attemptNumber, maxAttempts, description, outcome, latencyMillis);
+
+                final long delayMillis = getRetryDelayMillis(attemptNumber, result, failure);
+                if (delayMillis < 0) {
+                    logger.println(attemptLog);
+                    return resultOrThrow(result, failure);
+                }
+                if (System.currentTimeMillis() + delayMillis > deadline) {
+                    logger.println(attemptLog + ", not retried: the deadline of the step would be exceeded");
+                    return resultOrThrow(result, failure);
+                }
+
+                logger.println(attemptLog + ", retrying in " + delayMillis + " ms");
+                onRetry.run();
+                if (delayMillis > 0) {
+                    Thread.sleep(delayMillis);
+                }
+            }
+        }
+
+        /**
+         * @return the delay before the next attempt, or -1 if the request must not be retried
+         */
+        private long getRetryDelayMillis(int attemptNumber, @Nullable Object result, @Nullable Exception failure) {
+            final boolean retryable = failure != null ? isRetryable(failure) : isRetryable(result);
+            if (!retryable || attemptNumber >= maxAttempts) {
+                return -1;
+            }
+
+            final long backoffMillis = getBackoffMillis(attemptNumber, ThreadLocalRandom.current());
+            if (result instanceof UploadResult && ((UploadResult) result).isTooManyRequests()) {
+                final Long retryAfterSeconds = UploadResultUtil.getRetryTime((UploadResult) result).orElse(null);
+                if (retryAfterSeconds != null) {
+                    if (retryAfterSeconds > MAX_RETRY_AFTER_TIME_SECONDS) {
+                        // If the server asks us to wait too much time, we give up
+                        logger.println(String.format("Too Many Requests: Wait time (%s seconds) exceeds the maximum allowed (%s seconds)",
+                                retryAfterSeconds, MAX_RETRY_AFTER_TIME_SECONDS));
+                        return -1;
+                    }
+                    return Math.max(backoffMillis, TimeUnit.SECONDS.toMillis(retryAfterSeconds));
+                }
+            }
+            return backoffMillis;
+        }
+
+        private <T> T resultOrThrow(@Nullable T result, @Nullable Exception failure) throws IOException {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.xpandit.plugins.xrayjenkins.services.scheduler;
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The maximum number of concurrent Xray requests of the jobs of each folder, with one line per folder, as
+ * <code>folder full name=maximum</code> (e.g. <code>team-a/pull-requests=2</code>). A quota applies to all the jobs
+ * inside the folder, including its sub folders, and lines starting with <code>#</code> are ignored.
+ */
+public class XrayFolderQuotas {
+
+    private static final XrayFolderQuotas EMPTY = new XrayFolderQuotas(Collections.<String, Integer>emptyMap());
+
+    private final Map<String, Integer> quotas;
+
+    private XrayFolderQuotas(Map<String, Integer> quotas) {
+        this.quotas = quotas;
+    }
+
+    /**
+     * @param quotas the quotas
+     * @return the parsed quotas
+     * @throws IllegalArgumentException if a line is not valid
+     */
+    @Nonnull
+    public static XrayFolderQuotas parse(@Nullable String quotas) {
+        if (StringUtils.isBlank(quotas)) {
+            return EMPTY;
+        }
+
+        final Map<String, Integer> parsed = new LinkedHashMap<>();
+        for (String line : quotas.split("\\r?\\n")) {
+            final String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+
+            final int separator = trimmed.lastIndexOf('=');
+            final String folder = separator > 0 ? StringUtils.strip(trimmed.substring(0, separator).trim(), "/") : "";
+            final int maximum = separator > 0 ? parseMaximum(trimmed.substring(separator + 1).trim()) : 0;
+            if (folder.isEmpty() || maximum <= 0) {
+                throw new IllegalArgumentException("Invalid quota (expected 'folder full name=maximum', with a positive maximum): " + trimmed);
+            }
+            parsed.put(folder, maximum);
+        }
+        return new XrayFolderQuotas(Collections.unmodifiableMap(parsed));
+    }
+
+    private static int parseMaximum(String maximum) {
+        try {
+            return Integer.parseInt(maximum);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param jobFullName the full name of a job
+     * @return the quotas of the folders of the job, by folder
+     */
+    @Nonnull
+    public Map<String, Integer> getQuotas(@Nonnull String jobFullName) {
+        Map<String, Integer> matching = Collections.emptyMap();
+        for (Map.Entry<String, Integer> quota : quotas.entrySet()) {
+            if (jobFullName.equals(quota.getKey()) || jobFullName.startsWith(quota.getKey() + "/")) {
+                if (matching.isEmpty()) {
+                    matching = new LinkedHashMap<>();
+                }
+                matching.put(quota.getKey(), quota.getValue());
+            }
+        }
+        return matching;
+    }
+}
@@ -0,0 +1,332 @@
+package com.xpandit.plugins.xrayjenkins.services.scheduler;
+
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.xpandit.plugins.xrayjenkins.model.ServerConfiguration;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import com.xpandit.plugins.xrayjenkins.model.XrayRequestLane;
+import com.xpandit.plugins.xrayjenkins.services.breaker.XrayCircuitBreaker;
+import com.xpandit.plugins.xrayjenkins.services.metrics.XrayMetrics;
+import com.xpandit.xray.model.UploadResult;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+import javax.annotation.Nonnull;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Controller-wide scheduler of the requests sent to Xray, so that many builds don't overload the same Jira instance.
+ * A request waits until:
+ * <ul>
+ *     <li>its instance has less requests in flight than its maximum (see {@link XrayInstance#getMaxConcurrentRequests()});</li>
+ *     <li>each folder of its job has less requests in flight than its quota (see {@link XrayFolderQuotas}).</li>
+ * </ul>
+ * Waiting requests are granted by lane (see {@link XrayRequestLane}), and in arrival order within a lane. A request
+ * only waiting for a folder quota doesn't hold back the requests of other folders.
+ */
+public class XrayRequestScheduler {
+
+    private static final String INSTANCE_PREFIX = "instance/";
+    private static final String FOLDER_PREFIX = "folder/";
+
+    private static final Object LOCK = new Object();
+
+    // Guarded by LOCK
+    private static final TreeSet<Waiter> QUEUE = new TreeSet<>(Comparator
+            .comparing((Waiter waiter) -> waiter.request.lane)
+            .thenComparingLong(waiter -> waiter.sequence));
+    private static final Map<String, Integer> IN_FLIGHT = new HashMap<>();
+    private static long sequence;
+
+    private XrayRequestScheduler() {}
+
+    /**
+     * Wraps a client, so that each of its requests (every method but <code>shutdown</code>) waits for a free slot.
+     * The time spent waiting is printed in the console. The requests also fail fast while the instance is unavailable
+     * (see {@link XrayCircuitBreaker}).
+     * <p>
+     * A request whose build is aborted while waiting throws an {@link java.lang.reflect.UndeclaredThrowableException}
+     * caused by an {@link InterruptedException}, which {@link com.xpandit.plugins.xrayjenkins.services.retry.XrayRetryPolicy}
+     * rethrows as is.
+     *
+     * @param clientType the client interface (importer, exporter...)
+     * @param client the client, which may be shared by other builds
+     * @param instance the Xray instance of the client
+     * @param run the build sending the requests
+     * @param lane the priority of the requests
+     * @param listener where the waiting time is printed
+     * @return the scheduled client
+     */
+    @Nonnull
+    public static <C> C schedule(@Nonnull Class<C> clientType,
+                                 @Nonnull C client,
+                                 @Nonnull XrayInstance instance,
+                                 @Nonnull Run<?, ?> run,
+                                 @Nonnull XrayRequestLane lane,
+                                 @Nonnull TaskListener listener) {
+        final ServerConfiguration configuration = ServerConfiguration.get();
+        final Map<String, Integer> folderQuotas = configuration != null
+                ? configuration.getParsedFolderQuotas().getQuotas(run.getParent().getFullName())
+                : Collections.<String, Integer>emptyMap();
+        final Request request = new Request(instance.getConfigID(), instance.getMaxConcurrentRequests(), folderQuotas, lane);
+        final XrayCircuitBreaker.Probe probe = probe(instance);
+
+        return clientType.cast(Proxy.newProxyInstance(clientType.getClassLoader(), new Class<?>[]{clientType}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class || "shutdown".equals(method.getName())) {
+                return invoke(client, method, args);
+            }
+
+            XrayCircuitBreaker.checkAvailable(instance);
+
+            // An InterruptedException isn't declared by the client methods: the proxy wraps it, and XrayRetryPolicy
+            // unwraps it, so that the build ends as aborted, not failed
+            final Permit permit = acquire(request);
+            try {
+                XrayMetrics.recordQueueWait(instance, permit.getWaitedMillis());
+                if (permit.getWaitedMillis() > 0) {
+                    listener.getLogger().println(String.format("Waited %.1f s in the Xray request queue (%s lane)",
+                            permit.getWaitedMillis() / 1000.0, lane.name().toLowerCase()));
+                }
+                final Object result;
+                try {
+                    result = invoke(client, method, args);
+                } catch (Throwable e) {
+                    // Errors of the request itself (e.g. invalid parameters) don't mean that the instance is down
+                    if (XrayCircuitBreaker.isFailure(e)) {
+                        XrayCircuitBreaker.recordFailure(instance, e.getClass().getSimpleName() + ": " + e.getMessage(), probe);
+                    }
+                    throw e;
+                }
+                if (XrayCircuitBreaker.isFailure(result)) {
+                    XrayCircuitBreaker.recordFailure(instance, "HTTP " + ((UploadResult) result).getStatusCode(), probe);
+                } else {
+                    XrayCircuitBreaker.recordSuccess(instance);
+                }
+                return result;
+            } finally {
+                permit.close();
+            }
+        }));
+    }
+
+    /**
+     * Tests the connection with the global credential of the instance, since the circuit outlives the build that
+     * opened it. Without a global credential, the circuit closes once the open period ends, and the next request
+     * tests the instance.
+     */
+    private static XrayCircuitBreaker.Probe probe(XrayInstance instance) {
+        return () -> {
+            final ServerConfiguration configuration = ServerConfiguration.get();
+            final StandardUsernamePasswordCredentials credential = configuration != null
+                    ? configuration.getGlobalCredential(instance.getCredentialId())
+                    : null;
+            if (credential == null) {
+                return true;
+            }
+            return probe(instance, address -> ServerConfiguration.testConnection(instance,
+                    address,
+                    credential.getUsername(),
+                    credential.getPassword().getPlainText()).isSuccessful()).isAvailable();
+        };
+    }
+
+    /**
+     * The instance is available again as soon as one of its nodes is, or Xray Cloud for a Cloud instance.
+     *
+     * @param instance the Xray instance
+     * @param connectionTest tests the connection to an address of the instance (see {@link XrayInstance#getConnectionTestAddresses()})
+     * @return the probe
+     */
+    @Nonnull
+    static XrayCircuitBreaker.Probe probe(@Nonnull XrayInstance instance, @Nonnull Predicate<String> connectionTest) {
+        return () -> instance.getConnectionTestAddresses().stream().anyMatch(connectionTest);
+    }
+
+    private static Object invoke(Object client, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(client, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Waits for a free slot.
+     *
+     * @param request the request
+     * @return the slot, to close once the request is done
+     * @throws InterruptedException if the build was aborted while waiting
+     */
+    @Nonnull
+    static Permit acquire(@Nonnull Request request) throws InterruptedException {
+        final long startTime = System.nanoTime();
+        synchronized (LOCK) {
+            final Waiter waiter = new Waiter(request, sequence++);
+            QUEUE.add(waiter);
+            dispatch();
+
+            boolean queued = false;
+            try {
+                while (!waiter.granted) {
+                    queued = true;
+                    LOCK.wait();
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    release(request);
+                } else {
+                    QUEUE.remove(waiter);
+                }
+                dispatch();
+                throw e;
+            }
+            return new Permit(request, queued ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) : 0);
+        }
+    }
+
+    /**
+     * Grants the waiting requests that fit, by lane and in arrival order.
+     */
+    private static void dispatch() {
+        final Set<String> fullInstances = new HashSet<>();
+        boolean granted = false;
+        for (Iterator<Waiter> it = QUEUE.iterator(); it.hasNext(); ) {
+            final Waiter waiter = it.next();
+            final Request request = waiter.request;
+            final String instanceKey = INSTANCE_PREFIX + request.instanceId;
+            if (fullInstances.contains(instanceKey)) {
+                continue;
+            }
+            if (!hasCapacity(instanceKey, request.maxConcurrentRequests)) {
+                // The next requests of this instance keep waiting behind this one
+                fullInstances.add(instanceKey);
+                continue;
+            }
+            if (!hasFolderCapacity(request)) {
+                continue;
+            }
+
+            it.remove();
+            grant(request);
+            waiter.granted = true;
+            granted = true;
+        }
+        if (granted) {
+            LOCK.notifyAll();
+        }
+    }
+
+    private static boolean hasFolderCapacity(Request request) {
+        for (Map.Entry<String, Integer> quota : request.folderQuotas.entrySet()) {
+            if (!hasCapacity(FOLDER_PREFIX + quota.getKey(), quota.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasCapacity(String key, int maximum) {
+        return maximum <= 0 || IN_FLIGHT.getOrDefault(key, 0) < maximum;
+    }
+
+    private static void grant(Request request) {
+        IN_FLIGHT.merge(INSTANCE_PREFIX + request.instanceId, 1, Integer::sum);
+        for (String folder : request.folderQuotas.keySet()) {
+            IN_FLIGHT.merge(FOLDER_PREFIX + folder, 1, Integer::sum);
+        }
+    }
+
+    private static void release(Request request) {
+        IN_FLIGHT.computeIfPresent(INSTANCE_PREFIX + request.instanceId, (key, count) -> count > 1 ? count - 1 : null);
+        for (String folder : request.folderQuotas.keySet()) {
+            IN_FLIGHT.computeIfPresent(FOLDER_PREFIX + folder, (key, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * @param instanceId the configuration ID of an instance
+     * @return the number of requests in flight to the instance
+     */
+    public static int getInFlight(@Nonnull String instanceId) {
+        synchronized (LOCK) {
+            return IN_FLIGHT.getOrDefault(INSTANCE_PREFIX + instanceId, 0);
+        }
+    }
+
+    /**
+     * @return the number of requests waiting for a slot
+     */
+    public static int getQueued() {
+        synchronized (LOCK) {
+            return QUEUE.size();
+        }
+    }
+
+    static final class Request {
+        private final String instanceId;
+        private final int maxConcurrentRequests;
+        private final Map<String, Integer> folderQuotas;
+        private final XrayRequestLane lane;
+
+        Request(String instanceId, int maxConcurrentRequests, Map<String, Integer> folderQuotas, XrayRequestLane lane) {
+            this.instanceId = instanceId;
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            this.folderQuotas = folderQuotas;
+            this.lane = lane;
+        }
+    }
+
+    /**
+     * A request slot, released when closed.
+     */
+    static final class Permit implements AutoCloseable {
+        private final Request request;
+        private final long waitedMillis;
+        private boolean closed;
+
+        private Permit(Request request, long waitedMillis) {
+            this.request = request;
+            this.waitedMillis = waitedMillis;
+        }
+
+        /**
+         * @return how long the request waited in the queue (0 if it didn't)
+         */
+        long getWaitedMillis() {
+            return waitedMillis;
+        }
+
+        @Override
+        public void close() {
+            synchronized (LOCK) {
+                if (!closed) {
+                    closed = true;
+                    release(request);
+                    dispatch();
+                }
+            }
+        }
+    }
+
+    private static final class Waiter {
+        private final Request request;
+        private final long sequence;
+        private boolean granted;
+
+        private Waiter(Request request, long sequence) {
+            this.request = request;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.xpandit.plugins.xrayjenkins.task;
+
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResponse;
+import com.xpandit.plugins.xrayjenkins.services.batch.XrayUploadBatcher;
+import com.xpandit.xray.model.Endpoint;
+import hudson.FilePath;
+import org.apache.commons.io.IOUtils;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports JUnit reports in a batch with the reports of other builds (see {@link XrayUploadBatcher}).
+ * The reports are copied to the build directory, and prepared there with the options of this step, since the batch
+ * may be imported by another build. This build only gets the Tests of its own reports.
+ */
+final class XrayBatchedImport {
+
+    private final XrayImportSession session;
+    private final File buildDir;
+    private final XrayUploadBatcher.Key batchKey;
+    private final long windowMillis;
+
+    /**
+     * @param session the uploads of the step to the instance
+     * @param buildDir the build directory, where the reports are copied
+     * @param batchKey what the reports are imported to, with the credential of the build
+     * @param windowMillis how long a new batch waits for the reports of other builds
+     */
+    XrayBatchedImport(@Nonnull XrayImportSession session,
+                      @Nonnull File buildDir,
+                      @Nonnull XrayUploadBatcher.Key batchKey,
+                      long windowMillis) {
+        this.session = session;
+        this.buildDir = buildDir;
+        this.batchKey = batchKey;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Imports the reports not imported yet by a previous attempt of this step, in a single batch.
+     *
+     * @param reports the matched JUnit reports, in the workspace
+     */
+    void importReports(@Nonnull List<FilePath> reports) throws IOException, InterruptedException {
+        final List<FilePath> pending = new ArrayList<>();
+        final List<String> digests = new ArrayList<>();
+        for (FilePath fp : reports) {
+            final String digest = session.findDigest(fp, fp);
+            final XrayImportResponse response = digest != null ? session.findImported(fp, digest) : null;
+            if (response != null) {
+                session.add(fp.getName(), response, 0, fp.length());
+            } else {
+                pending.add(fp);
+                digests.add(digest);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        final List<File> copies = new ArrayList<>();
+        final List<File> submitted = new ArrayList<>();
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                final File copy = File.createTempFile("xray-batch", ".xml", buildDir);
+                copies.add(copy);
+                // Hashed as it is copied, unless it was hashed already
+                final XrayImportSession.ContentDigest digest = new XrayImportSession.ContentDigest();
+                try (InputStream in = new DigestInputStream(pending.get(i).read(), digest.restart());
+                     OutputStream out = new FileOutputStream(copy)) {
+                    IOUtils.copy(in, out);
+                }
+                if (digests.get(i) == null) {
+                    digests.set(i, digest.getValue());
+                }
+
+                // Prepared with the options of this step: the batch may be imported by another build
+                final FilePath prepared = session.prepare(Endpoint.JUNIT, new FilePath(copy));
+                if (prepared != null) {
+                    final File preparedCopy = new File(prepared.getRemote());
+                    copies.add(preparedCopy);
+                    submitted.add(preparedCopy);
+                } else {
+                    submitted.add(copy);
+                }
+            }
+
+            final long startTime = System.currentTimeMillis();
+            final XrayUploadBatcher.Result batch = XrayUploadBatcher.submit(batchKey,
+                    submitted,
+                    windowMillis,
+                    merged -> session.uploadPrepared(session.getPlan(), new FilePath(merged)));
+            session.getListener().getLogger().println("Imported " + pending.size() + " report(s) in a batch of "
+                    + batch.getReports() + " report(s) from " + batch.getBuilds() + " build(s)");
+            if (!batch.isTestsMatched()) {
+                session.getListener().getLogger().println("The Tests of the batch could not be matched with the test cases"
+                        + " of each build: only the Test Execution is kept for this build");
+            }
+
+            final XrayImportResponse response = batch.getResponse();
+            session.addResponse(response);
+            final long duration = System.currentTimeMillis() - startTime;
+            for (int i = 0; i < pending.size(); i++) {
+                final FilePath fp = pending.get(i);
+                session.addFileResult(fp.getName(), response, duration, fp.length());
+                session.recordImport(fp, digests.get(i), response);
+            }
+        } finally {
+            for (File copy : copies) {
+                Files.deleteIfExists(copy.toPath());
+            }
+        }
+    }
+}
@@ -7,23 +7,46 @@
  */
 package com.xpandit.plugins.xrayjenkins.task;
 
+import com.xpandit.plugins.xrayjenkins.Utils.ArchiveUtils;
 import com.xpandit.plugins.xrayjenkins.Utils.ConfigurationUtils;
 import com.xpandit.plugins.xrayjenkins.Utils.FormUtils;
 import com.xpandit.plugins.xrayjenkins.Utils.BuilderUtils;
 import com.xpandit.plugins.xrayjenkins.Utils.ProxyUtil;
 import com.xpandit.plugins.xrayjenkins.exceptions.XrayJenkinsGenericException;
+import com.xpandit.plugins.xrayjenkins.model.CredentialResolver;
+import com.xpandit.plugins.xrayjenkins.model.ExportConflictResolution;
 import com.xpandit.plugins.xrayjenkins.model.HostingType;
+import com.xpandit.plugins.xrayjenkins.model.XrayExportSpec;
+import com.xpandit.plugins.xrayjenkins.model.XrayRequestLane;
+import com.xpandit.plugins.xrayjenkins.services.balancer.XrayNodeBalancer;
 import com.xpandit.plugins.xrayjenkins.services.enviromentvariables.XrayEnvironmentVariableSetter;
 import com.xpandit.plugins.xrayjenkins.task.compatibility.XrayExportBuilderCompatibilityDelegate;
 import com.xpandit.xray.service.impl.XrayExporterCloudImpl;
 import com.xpandit.xray.service.impl.delegates.HttpRequestProvider;
+import com.xpandit.plugins.xrayjenkins.services.cache.AgentFeatureStore;
+import com.xpandit.plugins.xrayjenkins.services.cache.RunExportCache;
+import com.xpandit.plugins.xrayjenkins.services.cache.XrayClientCache;
+import com.xpandit.plugins.xrayjenkins.services.metrics.XrayMetrics;
+import com.xpandit.plugins.xrayjenkins.services.monitor.XrayHealthMonitor;
+import com.xpandit.plugins.xrayjenkins.services.retry.XrayRetryPolicy;
+import com.xpandit.plugins.xrayjenkins.services.scheduler.XrayRequestScheduler;
 import hudson.EnvVars;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.annotation.Nonnull;
 import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
@@ -43,8 +66,10 @@ import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
 import jenkins.tasks.SimpleBuildStep;
 import net.sf.json.JSONObject;
 import org.slf4j.Logger;
@@ -73,6 +98,7 @@ import static com.xpandit.plugins.xrayjenkins.Utils.EnvironmentVariableUtil.expa
 public class XrayExportBuilder extends Builder implements SimpleBuildStep {
 
     private static final Logger LOG = LoggerFactory.getLogger(XrayExportBuilder.class);
+    private static final int MAX_CONCURRENT_EXPORTS = 4;
 
     /**
      * this is only kept for backward compatibility (previous from 1.3.0)
@@ -94,6 +120,10 @@ public class XrayExportBuilder extends Builder implements SimpleBuildStep {
     private String issues;
     private String filter;
     private String filePath;
+    private boolean useFeatureStore;
+    private List<XrayExportSpec> additionalExports;
+    private ExportConflictResolution conflictResolution;
+    private XrayRequestLane requestLane;
 
     /**
      * Constructor used in pipelines projects
@@ -162,64 +192,202 @@ public class XrayExportBuilder extends Builder implements SimpleBuildStep {
             throw new AbortException("The Jira server configuration of this task was not found.");
         }
 
-        final HttpRequestProvider.ProxyBean proxyBean = ProxyUtil.createProxyBean();
-        XrayExporter client;
-
-        if (serverInstance.getHosting() == HostingType.CLOUD) {
-            client = new XrayExporterCloudImpl(serverInstance.getCredential(build).getUsername(),
-                    serverInstance.getCredential(build).getPassword(),
-                    proxyBean);
-        } else if (serverInstance.getHosting() == null || serverInstance.getHosting() == HostingType.SERVER) {
-            client = new XrayExporterImpl(serverInstance.getServerAddress(),
-                    serverInstance.getCredential(build).getUsername(),
-                    serverInstance.getCredential(build).getPassword(),
-                    proxyBean);
-        } else {
+        if (serverInstance.getHosting() != null
+                && serverInstance.getHosting() != HostingType.CLOUD
+                && serverInstance.getHosting() != HostingType.SERVER) {
             XrayEnvironmentVariableSetter
                     .failed("Hosting type not recognized.")
                     .setAction(build, listener);
             throw new XrayJenkinsGenericException("Hosting type not recognized.");
         }
-        
+        XrayHealthMonitor.warnIfDegraded(serverInstance, listener.getLogger());
+
+        final CredentialResolver credential = serverInstance.getCredential(build);
+        final XrayClientCache.Lease<XrayExporter> clientLease = XrayClientCache.acquire(serverInstance,
+                credential,
+                XrayExporter.class,
+                () -> createClient(serverInstance, credential),
+                XrayExporter::shutdown);
+        final XrayExporter client = XrayRequestScheduler.schedule(XrayExporter.class,
+                clientLease.get(),
+                serverInstance,
+                build,
+                getRequestLane(),
+                listener);
+        // The transient failures are retried until the deadline of this step
+        final XrayMetrics.OperationMetrics metrics = XrayMetrics.of(serverInstance, XrayMetrics.Operation.EXPORT);
+        final XrayRetryPolicy.Session retries = XrayRetryPolicy.forExports(serverInstance).start(listener.getLogger(), metrics::retried);
+
         try {
             final EnvVars env = build.getEnvironment(listener);
             final String expandedIssues = expandVariable(env, issues);
             final String expandedFilter = expandVariable(env, filter);
             final String expandedFilePath = expandVariable(env, filePath);
 
-            if (StringUtils.isNotBlank(expandedIssues)) {
-                listener.getLogger().println("Issues: " + expandedIssues);
-            }
-            if (StringUtils.isNotBlank(expandedFilter)) {
-                listener.getLogger().println("Filter: " + expandedFilter);
+            final List<XrayExportSpec> specs = getExpandedExportSpecs(env, expandedIssues, expandedFilter);
+
+            for (int i = 0; i < specs.size(); i++) {
+                final String prefix = specs.size() > 1 ? "Export #" + (i + 1) + " - " : "";
+                if (StringUtils.isNotBlank(specs.get(i).getIssues())) {
+                    listener.getLogger().println(prefix + "Issues: " + specs.get(i).getIssues());
+                }
+                if (StringUtils.isNotBlank(specs.get(i).getFilter())) {
+                    listener.getLogger().println(prefix + "Filter: " + specs.get(i).getFilter());
+                }
             }
             if (StringUtils.isNotBlank(expandedFilePath)) {
                 listener.getLogger().println("Will save the feature files in: " + expandedFilePath);
             }
-            
-            InputStream file = client.downloadFeatures(expandedIssues, expandedFilter,"true");
-            this.unzipFeatures(listener, workspace, expandedFilePath, file);
-            
+
+            final List<File> archives = downloadArchives(build, serverInstance, credential, client, retries, specs, listener);
+
+            if (archives.size() == 1) {
+                try (InputStream file = new FileInputStream(archives.get(0))) {
+                    this.unzipFeatures(listener, workspace, expandedFilePath, file);
+                }
+            } else {
+                final File mergedArchive = File.createTempFile("merged", ".zip", archives.get(0).getParentFile());
+                try {
+                    final int mergedFiles = ArchiveUtils.mergeArchives(archives, mergedArchive, getConflictResolution(), listener.getLogger());
+                    listener.getLogger().println(mergedFiles + " file(s) merged from " + archives.size() + " exports");
+
+                    try (InputStream file = new FileInputStream(mergedArchive)) {
+                        this.unzipFeatures(listener, workspace, expandedFilePath, file);
+                    }
+                } finally {
+                    Files.deleteIfExists(mergedArchive.toPath());
+                }
+            }
+
             listener.getLogger().println("Successfully exported the Cucumber features");
 
             // Sets the Xray Build Environment Variables
             XrayEnvironmentVariableSetter
                     .success()
                     .setAction(build, listener);
-        } catch (XrayClientCoreGenericException | IOException | InterruptedException e) {
+        } catch (XrayClientCoreGenericException | XrayJenkinsGenericException | IOException | InterruptedException e) {
             e.printStackTrace();
             listener.error(e.getMessage());
 
+            if (e instanceof XrayClientCoreGenericException) {
+                // The export doesn't expose the status code, so we can't tell an expired token apart from other errors.
+                clientLease.invalidate();
+            }
+
             XrayEnvironmentVariableSetter
                     .failed()
                     .setAction(build, listener);
 
             throw new AbortException(e.getMessage());
         } finally {
-            client.shutdown();
+            clientLease.close();
         }
     }
+
+    private XrayExporter createClient(XrayInstance serverInstance, CredentialResolver credential) {
+        final HttpRequestProvider.ProxyBean proxyBean = ProxyUtil.createProxyBean();
+        if (serverInstance.getHosting() == HostingType.CLOUD) {
+            return new XrayExporterCloudImpl(credential.getUsername(),
+                    credential.getPassword(),
+                    proxyBean);
+        }
+        // Spread across the Data Center nodes, if any
+        return XrayNodeBalancer.balance(XrayExporter.class,
+                serverInstance,
+                address -> new XrayExporterImpl(address,
+                        credential.getUsername(),
+                        credential.getPassword(),
+                        proxyBean),
+                XrayExporter::shutdown);
+    }
     
+    private List<XrayExportSpec> getExpandedExportSpecs(EnvVars env, String expandedIssues, String expandedFilter) {
+        final List<XrayExportSpec> specs = new ArrayList<>();
+        if (StringUtils.isNotBlank(expandedIssues) || StringUtils.isNotBlank(expandedFilter) || getAdditionalExports().isEmpty()) {
+            specs.add(new XrayExportSpec(expandedIssues, expandedFilter));
+        }
+        for (XrayExportSpec spec : getAdditionalExports()) {
+            specs.add(new XrayExportSpec(expandVariable(env, spec.getIssues()), expandVariable(env, spec.getFilter())));
+        }
+        return specs;
+    }
+
+    /**
+     * Downloads the archive of each export. When there are several exports, they are downloaded concurrently
+     * (up to MAX_CONCURRENT_EXPORTS at a time), each of them with its own client, since the clients aren't known to
+     * be safe to share between threads.
+     */
+    private List<File> downloadArchives(final Run<?, ?> build,
+                                        final XrayInstance instance,
+                                        final CredentialResolver credential,
+                                        final XrayExporter client,
+                                        final XrayRetryPolicy.Session retries,
+                                        final List<XrayExportSpec> specs,
+                                        final TaskListener listener) throws IOException, InterruptedException {
+        if (specs.size() == 1) {
+            return Collections.singletonList(downloadArchive(build, instance, client, retries, specs.get(0), listener));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(specs.size(), MAX_CONCURRENT_EXPORTS),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Xray features export"));
+        try {
+            final List<Future<File>> futures = new ArrayList<>(specs.size());
+            for (final XrayExportSpec spec : specs) {
+                futures.add(executor.submit(() -> {
+                    final XrayExporter taskClient = createClient(instance, credential);
+                    try {
+                        return downloadArchive(build,
+                                instance,
+                                XrayRequestScheduler.schedule(XrayExporter.class, taskClient, instance, build, getRequestLane(), listener),
+                                retries,
+                                spec,
+                                listener);
+                    } finally {
+                        taskClient.shutdown();
+                    }
+                }));
+            }
+
+            final List<File> archives = new ArrayList<>(specs.size());
+            for (Future<File> future : futures) {
+                archives.add(getArchive(future));
+            }
+            return archives;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private File downloadArchive(Run<?, ?> build,
+                                 XrayInstance instance,
+                                 XrayExporter client,
+                                 XrayRetryPolicy.Session retries,
+                                 XrayExportSpec spec,
+                                 TaskListener listener) throws IOException, InterruptedException {
+        // Parallel branches of the same build exporting the same features share a single download
+        final String cacheKey = RunExportCache.getCacheKey(instance.getConfigID(), spec.getIssues(), spec.getFilter());
+        final XrayMetrics.OperationMetrics metrics = XrayMetrics.of(instance, XrayMetrics.Operation.EXPORT);
+        // A download interrupted while reading the archive is retried as well
+        return retries.execute("export the features", () -> RunExportCache.getOrDownload(build,
+                cacheKey,
+                () -> metrics.download(() -> client.downloadFeatures(spec.getIssues(), spec.getFilter(), "true")),
+                listener.getLogger()));
+    }
+
+    private File getArchive(Future<File> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
     private void unzipFeatures(TaskListener listener, FilePath workspace, String filePath, InputStream zip) throws IOException, InterruptedException {
 
         if (StringUtils.isBlank(filePath)) {
@@ -229,7 +397,14 @@ public class XrayExportBuilder extends Builder implements SimpleBuildStep {
         FilePath outputFile = new FilePath(workspace, filePath.trim());
         listener.getLogger().println("###################### Unzipping file ####################");
         outputFile.mkdirs();
-        outputFile.unzipFrom(zip);
+
+        final FilePath storeFolder = useFeatureStore ? AgentFeatureStore.getStoreFolder(workspace) : null;
+        if (storeFolder != null) {
+            final int materialized = AgentFeatureStore.materialize(storeFolder, outputFile, zip);
+            listener.getLogger().println(materialized + " file(s) materialized from the agent feature store: " + storeFolder.getRemote());
+        } else {
+            outputFile.unzipFrom(zip);
+        }
         listener.getLogger().println("###################### Unzipped file #####################");
     }
 
@@ -269,6 +444,48 @@ public class XrayExportBuilder extends Builder implements SimpleBuildStep {
 		this.filePath = filePath;
 	}
 
+    public boolean isUseFeatureStore() {
+        return useFeatureStore;
+    }
+
+    @DataBoundSetter
+    public void setUseFeatureStore(boolean useFeatureStore) {
+        this.useFeatureStore = useFeatureStore;
+    }
+
+    @Nonnull
+    public List<XrayExportSpec> getAdditionalExports() {
+        return additionalExports != null ? additionalExports : Collections.<XrayExportSpec>emptyList();
+    }
+
+    @DataBoundSetter
+    public void setAdditionalExports(List<XrayExportSpec> additionalExports) {
+        this.additionalExports = additionalExports;
+    }
+
+    @Nonnull
+    public ExportConflictResolution getConflictResolution() {
+        return conflictResolution != null ? conflictResolution : ExportConflictResolution.getDefaultResolution();
+    }
+
+    @DataBoundSetter
+    public void setConflictResolution(ExportConflictResolution conflictResolution) {
+        this.conflictResolution = conflictResolution;
+    }
+
+    @Nonnull
+    public XrayRequestLane getRequestLane() {
+        return requestLane != null ? requestLane : XrayRequestLane.getDefaultLane();
+    }
+
+    /**
+     * The priority of the requests of this step, when they wait for a free request slot of the Xray instance.
+     */
+    @DataBoundSetter
+    public void setRequestLane(XrayRequestLane requestLane) {
+        this.requestLane = requestLane;
+    }
+
     public XrayInstance getXrayInstance() {
         return xrayInstance;
     }
@@ -307,10 +524,21 @@ public class XrayExportBuilder extends Builder implements SimpleBuildStep {
 		public XrayExportBuilder newInstance(StaplerRequest req, JSONObject formData) throws Descriptor.FormException{
 			validateFormData(formData);
         	Map<String,String> fields = getFields(formData.getJSONObject("fields"));
-            return new XrayExportBuilder(formData.getString("serverInstance"),
+            XrayExportBuilder builder = new XrayExportBuilder(formData.getString("serverInstance"),
                     fields.get("issues"),
                     fields.get("filter"),
                     fields.get("filePath"));
+            builder.setUseFeatureStore(formData.optBoolean("useFeatureStore"));
+            if (formData.has("additionalExports")) {
+                builder.setAdditionalExports(req.bindJSONToList(XrayExportSpec.class, formData.get("additionalExports")));
+            }
+            if (StringUtils.isNotBlank(formData.optString("conflictResolution"))) {
+                builder.setConflictResolution(ExportConflictResolution.valueOf(formData.getString("conflictResolution")));
+            }
+            if (StringUtils.isNotBlank(formData.optString("requestLane"))) {
+                builder.setRequestLane(XrayRequestLane.valueOf(formData.getString("requestLane")));
+            }
+            return builder;
 			
         }
 
@@ -7,32 +7,47 @@
  */
 package com.xpandit.plugins.xrayjenkins.task;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.xpandit.plugins.xrayjenkins.Utils.BuilderUtils;
 import com.xpandit.plugins.xrayjenkins.Utils.ConfigurationUtils;
+import com.xpandit.plugins.xrayjenkins.Utils.CucumberEmbeddingsFilter;
 import com.xpandit.plugins.xrayjenkins.Utils.FileUtils;
 import com.xpandit.plugins.xrayjenkins.Utils.FormUtils;
+import com.xpandit.plugins.xrayjenkins.Utils.JUnitReportCompactor;
+import com.xpandit.plugins.xrayjenkins.Utils.RobotOutputPruner;
+import com.xpandit.plugins.xrayjenkins.Utils.TestNameMapping;
+import com.xpandit.plugins.xrayjenkins.Utils.XrayEvidenceCollector;
+import com.xpandit.plugins.xrayjenkins.Utils.XrayJsonResultsConverter;
 import com.xpandit.plugins.xrayjenkins.Utils.ProxyUtil;
 import com.xpandit.plugins.xrayjenkins.exceptions.XrayJenkinsGenericException;
+import com.xpandit.plugins.xrayjenkins.model.CredentialResolver;
 import com.xpandit.plugins.xrayjenkins.model.HostingType;
 import com.xpandit.plugins.xrayjenkins.model.ServerConfiguration;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResponse;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResult;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResultAction;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportTarget;
 import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import com.xpandit.plugins.xrayjenkins.model.XrayRequestLane;
+import com.xpandit.plugins.xrayjenkins.services.balancer.XrayNodeBalancer;
+import com.xpandit.plugins.xrayjenkins.services.batch.XrayUploadBatcher;
+import com.xpandit.plugins.xrayjenkins.services.cache.XrayClientCache;
 import com.xpandit.plugins.xrayjenkins.services.enviromentvariables.XrayEnvironmentVariableSetter;
+import com.xpandit.plugins.xrayjenkins.services.ledger.XrayImportLedger;
+import com.xpandit.plugins.xrayjenkins.services.metrics.XrayMetrics;
+import com.xpandit.plugins.xrayjenkins.services.monitor.XrayHealthMonitor;
+import com.xpandit.plugins.xrayjenkins.services.retry.XrayRetryPolicy;
+import com.xpandit.plugins.xrayjenkins.services.scheduler.XrayRequestScheduler;
 import com.xpandit.plugins.xrayjenkins.task.compatibility.XrayImportBuilderCompatibilityDelegate;
-import com.xpandit.xray.exception.XrayClientCoreGenericException;
-import com.xpandit.xray.model.Content;
 import com.xpandit.xray.model.Endpoint;
 import com.xpandit.xray.model.FormatBean;
 import com.xpandit.xray.model.ParameterBean;
 import com.xpandit.xray.model.QueryParameter;
-import com.xpandit.xray.model.UploadResult;
 import com.xpandit.xray.service.XrayImporter;
 import com.xpandit.xray.service.impl.XrayImporterCloudImpl;
 import com.xpandit.xray.service.impl.XrayImporterImpl;
 import com.xpandit.xray.service.impl.delegates.HttpRequestProvider;
-import com.xpandit.xray.util.UploadResultUtil;
 import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.Extension;
@@ -41,6 +56,7 @@ import hudson.Launcher;
 import hudson.model.AbstractProject;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.slaves.WorkspaceList;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Notifier;
@@ -49,7 +65,6 @@ import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import jenkins.tasks.SimpleBuildStep;
 import net.sf.json.JSONObject;
-import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
@@ -59,8 +74,15 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
@@ -69,7 +91,6 @@ import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static com.xpandit.plugins.xrayjenkins.Utils.EnvironmentVariableUtil.expandVariable;
-import static com.xpandit.xray.util.UploadResultUtil.MAX_RETRY_AFTER_TIME_SECONDS;
 
 /**
  * This class is responsible for performing the Xray: Results Import Task
@@ -107,10 +128,37 @@ public class XrayImportBuilder extends Notifier implements SimpleBuildStep {
     private static final String REVISION_FIELD = "revision";
     private static final String IMPORT_INFO = "importInfo";
     private static final String FORMAT_SUFFIX = "formatSuffix";
+    private static final String INJECT_ENVIRONMENT_VARIABLES = "injectEnvironmentVariables";
+    private static final String USE_PUBLISHED_TEST_RESULTS = "usePublishedTestResults";
+    private static final String CONVERT_TO_XRAY_JSON = "convertToXrayJson";
+    private static final String TEST_KEY_MAPPING = "testKeyMapping";
+    private static final String MAX_FAILURE_MESSAGE_LENGTH = "maxFailureMessageLength";
+    private static final String COMPACT_JUNIT_REPORTS = "compactJUnitReports";
+    private static final String MAX_SYSTEM_OUTPUT_KB = "maxSystemOutputKb";
+    private static final String MAX_FAILURE_BODY_KB = "maxFailureBodyKb";
+    private static final String PRUNE_ROBOT_KEYWORDS = "pruneRobotKeywords";
+    private static final String PRUNE_ROBOT_LOOPS = "pruneRobotLoops";
+    private static final String COLLAPSE_RERUNS = "collapseReruns";
+    private static final String CAP_CUCUMBER_EMBEDDINGS = "capCucumberEmbeddings";
+    private static final String EVIDENCE_MAPPING = "evidenceMapping";
+    private static final String MAX_EVIDENCE_FILE_KB = "maxEvidenceFileKb";
+    private static final String MAX_EVIDENCE_TOTAL_KB = "maxEvidenceTotalKb";
+    private static final int DEFAULT_MAX_EVIDENCE_FILE_KB = 10 * 1024;
+    private static final int DEFAULT_MAX_EVIDENCE_TOTAL_KB = 100 * 1024;
+    private static final String MAX_EMBEDDINGS_PER_SCENARIO = "maxEmbeddingsPerScenario";
+    private static final String MAX_EMBEDDING_KB = "maxEmbeddingKb";
+    private static final int DEFAULT_MAX_EMBEDDINGS_PER_SCENARIO = 1;
+    private static final int DEFAULT_MAX_EMBEDDING_KB = 1024;
+    private static final int DEFAULT_MAX_SYSTEM_OUTPUT_KB = 0;
+    private static final int DEFAULT_MAX_FAILURE_BODY_KB = 64;
+    private static final String BATCH_UPLOADS = "batchUploads";
+    private static final String BATCH_WINDOW_SECONDS = "batchWindowSeconds";
+    private static final int DEFAULT_BATCH_WINDOW_SECONDS = 10;
+    private static final String REQUEST_LANE = "requestLane";
+    private static final String ADDITIONAL_TARGETS = "additionalTargets";
+    private static final int KB = 1024;
     private static final String CLOUD_DOC_URL = "https://confluence.xpand-it.com/display/XRAYCLOUD/Import+Execution+Results+-+REST";
     private static final String SERVER_DOC_URL = "https://confluence.xpand-it.com/display/XRAY/Import+Execution+Results+-+REST";
-    private static final String MULTIPART = "multipart";
-    private static final int MAX_TRIES = 3;
 
 
     private String formatSuffix; //value of format select
@@ -126,6 +174,27 @@ public class XrayImportBuilder extends Notifier implements SimpleBuildStep {
     private String revision;
     private String importInfo;
     private String importToSameExecution;
+    private Boolean injectEnvironmentVariables; // null in jobs created before this option: defaults to true
+    private boolean usePublishedTestResults;
+    private boolean convertToXrayJson;
+    private String testKeyMapping;
+    private Integer maxFailureMessageLength;
+    private boolean compactJUnitReports;
+    private Integer maxSystemOutputKb;
+    private Integer maxFailureBodyKb;
+    private boolean pruneRobotKeywords;
+    private boolean pruneRobotLoops;
+    private boolean collapseReruns;
+    private boolean capCucumberEmbeddings;
+    private String evidenceMapping;
+    private Integer maxEvidenceFileKb;
+    private Integer maxEvidenceTotalKb;
+    private Integer maxEmbeddingsPerScenario;
+    private Integer maxEmbeddingKb;
+    private boolean batchUploads;
+    private Integer batchWindowSeconds;
+    private XrayRequestLane requestLane;
+    private List<XrayImportTarget> additionalTargets;
 
 
     /**
@@ -353,6 +422,252 @@ public class XrayImportBuilder extends Notifier implements SimpleBuildStep {
         this.importToSameExecution = importToSameExecution;
     }
 
+    public boolean isInjectEnvironmentVariables() {
+        return injectEnvironmentVariables == null || injectEnvironmentVariables;
+    }
+
+    @DataBoundSetter
+    public void setInjectEnvironmentVariables(boolean injectEnvironmentVariables) {
+        this.injectEnvironmentVariables = injectEnvironmentVariables;
+    }
+
+    public boolean isUsePublishedTestResults() {
+        return usePublishedTestResults;
+    }
+
+    /**
+     * When set, the JUnit results already published in the build (by the JUnit publisher) are imported,
+     * instead of the files in the workspace.
+     */
+    @DataBoundSetter
+    public void setUsePublishedTestResults(boolean usePublishedTestResults) {
+        this.usePublishedTestResults = usePublishedTestResults;
+    }
+
+    public boolean isConvertToXrayJson() {
+        return convertToXrayJson;
+    }
+
+    /**
+     * When set, all the matched JUnit, TestNG or NUnit files are converted into a single Xray JSON document,
+     * imported with one request.
+     */
+    @DataBoundSetter
+    public void setConvertToXrayJson(boolean convertToXrayJson) {
+        this.convertToXrayJson = convertToXrayJson;
+    }
+
+    public String getTestKeyMapping() {
+        return testKeyMapping;
+    }
+
+    @DataBoundSetter
+    public void setTestKeyMapping(String testKeyMapping) {
+        this.testKeyMapping = StringUtils.trimToNull(testKeyMapping);
+    }
+
+    public int getMaxFailureMessageLength() {
+        return maxFailureMessageLength != null ? maxFailureMessageLength : XrayJsonResultsConverter.DEFAULT_MAX_FAILURE_MESSAGE_LENGTH;
+    }
+
+    @DataBoundSetter
+    public void setMaxFailureMessageLength(int maxFailureMessageLength) {
+        this.maxFailureMessageLength = maxFailureMessageLength > 0 ? maxFailureMessageLength : null;
+    }
+
+    public String getEvidenceMapping() {
+        return evidenceMapping;
+    }
+
+    /**
+     * The evidence files of the tests converted to Xray JSON: Ant globs in the workspace, by test name.
+     */
+    @DataBoundSetter
+    public void setEvidenceMapping(String evidenceMapping) {
+        this.evidenceMapping = StringUtils.trimToNull(evidenceMapping);
+    }
+
+    public int getMaxEvidenceFileKb() {
+        return maxEvidenceFileKb != null ? maxEvidenceFileKb : DEFAULT_MAX_EVIDENCE_FILE_KB;
+    }
+
+    @DataBoundSetter
+    public void setMaxEvidenceFileKb(int maxEvidenceFileKb) {
+        this.maxEvidenceFileKb = maxEvidenceFileKb > 0 ? maxEvidenceFileKb : null;
+    }
+
+    public int getMaxEvidenceTotalKb() {
+        return maxEvidenceTotalKb != null ? maxEvidenceTotalKb : DEFAULT_MAX_EVIDENCE_TOTAL_KB;
+    }
+
+    @DataBoundSetter
+    public void setMaxEvidenceTotalKb(int maxEvidenceTotalKb) {
+        this.maxEvidenceTotalKb = maxEvidenceTotalKb > 0 ? maxEvidenceTotalKb : null;
+    }
+
+    public boolean isCompactJUnitReports() {
+        return compactJUnitReports;
+    }
+
+    /**
+     * When set, the system-out and system-err logs and the failure bodies of JUnit reports are removed or capped
+     * before the upload.
+     */
+    @DataBoundSetter
+    public void setCompactJUnitReports(boolean compactJUnitReports) {
+        this.compactJUnitReports = compactJUnitReports;
+    }
+
+    /**
+     * @return the KB kept in each system-out and system-err element (0 removes them)
+     */
+    public int getMaxSystemOutputKb() {
+        return maxSystemOutputKb != null ? maxSystemOutputKb : DEFAULT_MAX_SYSTEM_OUTPUT_KB;
+    }
+
+    @DataBoundSetter
+    public void setMaxSystemOutputKb(int maxSystemOutputKb) {
+        this.maxSystemOutputKb = Math.max(0, maxSystemOutputKb);
+    }
+
+    /**
+     * @return the KB kept in the body of each failure and error element
+     */
+    public int getMaxFailureBodyKb() {
+        return maxFailureBodyKb != null ? maxFailureBodyKb : DEFAULT_MAX_FAILURE_BODY_KB;
+    }
+
+    @DataBoundSetter
+    public void setMaxFailureBodyKb(int maxFailureBodyKb) {
+        this.maxFailureBodyKb = maxFailureBodyKb > 0 ? maxFailureBodyKb : null;
+    }
+
+    public boolean isPruneRobotKeywords() {
+        return pruneRobotKeywords;
+    }
+
+    /**
+     * When set, the keywords of passed tests and suites are removed from Robot Framework outputs before the upload.
+     */
+    @DataBoundSetter
+    public void setPruneRobotKeywords(boolean pruneRobotKeywords) {
+        this.pruneRobotKeywords = pruneRobotKeywords;
+    }
+
+    public boolean isPruneRobotLoops() {
+        return pruneRobotLoops;
+    }
+
+    /**
+     * When set (with {@link #setPruneRobotKeywords}), the passed loop iterations and the failed
+     * Wait Until Keyword Succeeds attempts, except the last ones, are also removed.
+     */
+    @DataBoundSetter
+    public void setPruneRobotLoops(boolean pruneRobotLoops) {
+        this.pruneRobotLoops = pruneRobotLoops;
+    }
+
+    public boolean isCollapseReruns() {
+        return collapseReruns;
+    }
+
+    /**
+     * When set, the Surefire/Failsafe reruns of each test are collapsed into a single test case, with its final outcome,
+     * in JUnit reports.
+     */
+    @DataBoundSetter
+    public void setCollapseReruns(boolean collapseReruns) {
+        this.collapseReruns = collapseReruns;
+    }
+
+    public boolean isCapCucumberEmbeddings() {
+        return capCucumberEmbeddings;
+    }
+
+    /**
+     * When set, the embeddings (screenshots and attachments) of Cucumber JSON reports are capped before the upload.
+     */
+    @DataBoundSetter
+    public void setCapCucumberEmbeddings(boolean capCucumberEmbeddings) {
+        this.capCucumberEmbeddings = capCucumberEmbeddings;
+    }
+
+    /**
+     * @return the number of embeddings kept in each scenario (0 removes them all)
+     */
+    public int getMaxEmbeddingsPerScenario() {
+        return maxEmbeddingsPerScenario != null ? maxEmbeddingsPerScenario : DEFAULT_MAX_EMBEDDINGS_PER_SCENARIO;
+    }
+
+    @DataBoundSetter
+    public void setMaxEmbeddingsPerScenario(int maxEmbeddingsPerScenario) {
+        this.maxEmbeddingsPerScenario = Math.max(0, maxEmbeddingsPerScenario);
+    }
+
+    /**
+     * @return the maximum size of an embedding in KB (0 for no limit)
+     */
+    public int getMaxEmbeddingKb() {
+        return maxEmbeddingKb != null ? maxEmbeddingKb : DEFAULT_MAX_EMBEDDING_KB;
+    }
+
+    @DataBoundSetter
+    public void setMaxEmbeddingKb(int maxEmbeddingKb) {
+        this.maxEmbeddingKb = Math.max(0, maxEmbeddingKb);
+    }
+
+    public boolean isBatchUploads() {
+        return batchUploads;
+    }
+
+    /**
+     * When set, the JUnit reports are imported together with the reports of other builds that import to the same
+     * instance, with the same parameters, within a short window (see {@link XrayUploadBatcher}).
+     */
+    @DataBoundSetter
+    public void setBatchUploads(boolean batchUploads) {
+        this.batchUploads = batchUploads;
+    }
+
+    /**
+     * @return how long a batch waits for the reports of other builds, in seconds
+     */
+    public int getBatchWindowSeconds() {
+        return batchWindowSeconds != null ? batchWindowSeconds : DEFAULT_BATCH_WINDOW_SECONDS;
+    }
+
+    @DataBoundSetter
+    public void setBatchWindowSeconds(int batchWindowSeconds) {
+        this.batchWindowSeconds = Math.max(1, batchWindowSeconds);
+    }
+
+    @Nonnull
+    public XrayRequestLane getRequestLane() {
+        return requestLane != null ? requestLane : XrayRequestLane.getDefaultLane();
+    }
+
+    /**
+     * The priority of the requests of this step, when they wait for a free request slot of the Xray instance.
+     */
+    @DataBoundSetter
+    public void setRequestLane(XrayRequestLane requestLane) {
+        this.requestLane = requestLane;
+    }
+
+    @Nonnull
+    public List<XrayImportTarget> getAdditionalTargets() {
+        return additionalTargets != null ? additionalTargets : Collections.<XrayImportTarget>emptyList();
+    }
+
+    /**
+     * The other Jira instances the same results are imported to, concurrently. The workspace files are read once
+     * for all the instances.
+     */
+    @DataBoundSetter
+    public void setAdditionalTargets(List<XrayImportTarget> additionalTargets) {
+        this.additionalTargets = additionalTargets;
+    }
+
     public String getFormatName() {
         return Endpoint.lookupByName(endpointName).getName();
     }
@@ -446,208 +761,405 @@ public class XrayImportBuilder extends Notifier implements SimpleBuildStep {
         listener.getLogger().println("##########################################################");
         listener.getLogger().println("####     Xray is importing the execution results      ####");
         listener.getLogger().println("##########################################################");
-        XrayInstance importInstance = ConfigurationUtils.getConfiguration(serverInstance);
+        final List<XrayInstance> targets = getTargetInstances(build, listener);
+        // Resolved once for all the targets and files
+        final XrayImportUploadPlan plan = createUploadPlan(workspace, build.getEnvironment(listener), listener);
+        if (targets.size() > 1) {
+            importToAll(build, workspace, launcher, listener, targets, plan);
+            return;
+        }
 
-        if (importInstance == null) {
+        final List<XrayImportResponse> responses;
+        try {
+            responses = importTo(build, workspace, launcher, listener, targets.get(0), plan, null);
+        } catch (XrayJenkinsGenericException e) {
+            // Not set by importTo, which also runs in the threads of the imports to many targets
             XrayEnvironmentVariableSetter
-                    .failed("The Jira server configuration of this task was not found.")
+                    .failed(e.getMessage())
                     .setAction(build, listener);
-            throw new AbortException("The Jira server configuration of this task was not found.");
+            throw e;
         }
 
-        final HttpRequestProvider.ProxyBean proxyBean = ProxyUtil.createProxyBean();
+        // Sets the Xray Build Environment Variables
+        if (isInjectEnvironmentVariables()) {
+            XrayEnvironmentVariableSetter
+                    .parseResultImportResponse(responses)
+                    .setAction(build, listener);
+        }
+    }
+
+    /**
+     * @return the instance of this step, followed by its additional targets
+     */
+    private List<XrayInstance> getTargetInstances(Run<?, ?> build, TaskListener listener) throws AbortException {
+        final List<String> configIds = new ArrayList<>();
+        configIds.add(serverInstance);
+        for (XrayImportTarget target : getAdditionalTargets()) {
+            if (StringUtils.isNotBlank(target.getServerInstance()) && !configIds.contains(target.getServerInstance())) {
+                configIds.add(target.getServerInstance());
+            }
+        }
+
+        final List<XrayInstance> instances = new ArrayList<>();
+        for (String configId : configIds) {
+            final XrayInstance instance = ConfigurationUtils.getConfiguration(configId);
+            if (instance == null) {
+                XrayEnvironmentVariableSetter
+                        .failed("The Jira server configuration of this task was not found.")
+                        .setAction(build, listener);
+                throw new AbortException("The Jira server configuration of this task was not found.");
+            }
+            instances.add(instance);
+        }
+        return instances;
+    }
+
+    /**
+     * Imports the results to all the target instances, concurrently (see {@link XrayMultiTargetImport}). The workspace
+     * files are read once, into the build directory, then each target imports them with its own client. The failures
+     * of the targets are only reported once all of them are imported, in the environment variables of the step.
+     */
+    private void importToAll(Run<?, ?> build,
+                             FilePath workspace,
+                             Launcher launcher,
+                             TaskListener listener,
+                             List<XrayInstance> targets,
+                             XrayImportUploadPlan plan) throws InterruptedException, IOException {
+        final XrayMultiTargetImport multiTarget = new XrayMultiTargetImport(targets, listener);
+        final XrayMultiTargetImport.StagedFiles staged = stageFiles(build, workspace, launcher, listener, multiTarget);
+        try {
+            final XrayMultiTargetImport.Result result = multiTarget.importToAll(staged,
+                    (target, stagedFiles) -> importTo(build, workspace, launcher, listener, target, plan, stagedFiles));
+
+            final String failure = result.getFailedTargets().isEmpty()
+                    ? null
+                    : "The import failed for: " + StringUtils.join(result.getFailedTargets(), ", ");
+            // Sets the Xray Build Environment Variables, with the responses of all the targets
+            if (isInjectEnvironmentVariables()) {
+                final XrayEnvironmentVariableSetter variables = XrayEnvironmentVariableSetter.parseResultImportResponse(result.getResponses());
+                if (failure != null) {
+                    variables.withFailure();
+                }
+                variables.setAction(build, listener);
+            } else if (failure != null) {
+                XrayEnvironmentVariableSetter
+                        .failed(failure)
+                        .setAction(build, listener);
+            }
+            if (failure != null) {
+                throw new AbortException(failure);
+            }
+        } finally {
+            if (staged != null) {
+                staged.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the workspace files to import once for all the targets, into the build directory. The published results
+     * and the Xray JSON conversion don't upload the workspace files as they are, and batched imports already copy
+     * them, so they aren't staged.
+     *
+     * @return the staged files, or null if the targets read the workspace files themselves
+     */
+    @Nullable
+    private XrayMultiTargetImport.StagedFiles stageFiles(Run<?, ?> build,
+                                                         FilePath workspace,
+                                                         Launcher launcher,
+                                                         TaskListener listener,
+                                                         XrayMultiTargetImport multiTarget) throws InterruptedException, IOException {
+        if (isUsePublishedTestResults() || isConvertToXrayJson() || isBatchUploads()) {
+            return null;
+        }
+
+        final String resolved = expandVariable(build.getEnvironment(listener), this.importFilePath);
+        final List<FilePath> files = BuilderUtils.isGlobExpressionsSupported(Endpoint.lookupBySuffix(this.endpointName))
+                ? FileUtils.getFiles(workspace, resolved, listener, launcher.getChannel())
+                : Collections.singletonList(getFile(workspace, resolved, listener));
+        return multiTarget.stage(files, build.getRootDir());
+    }
+
+    /**
+     * Imports the results to an instance. It doesn't set the environment variables of the step, not even when it
+     * fails, since it may run concurrently for many targets.
+     *
+     * @param plan the upload plan of the step
+     * @param staged the workspace files, already read, or null to read them
+     * @return the responses of the import
+     */
+    private List<XrayImportResponse> importTo(Run<?, ?> build,
+                                              FilePath workspace,
+                                              Launcher launcher,
+                                              TaskListener listener,
+                                              XrayInstance importInstance,
+                                              XrayImportUploadPlan plan,
+                                              @Nullable XrayMultiTargetImport.StagedFiles staged) throws InterruptedException, IOException {
         final HostingType hostingType = importInstance.getHosting() == null ? HostingType.SERVER : importInstance.getHosting();
-        XrayImporter client;
 
+        if (hostingType != HostingType.CLOUD && hostingType != HostingType.SERVER) {
+            throw new XrayJenkinsGenericException("Hosting type not recognized.");
+        }
+        XrayHealthMonitor.warnIfDegraded(importInstance, listener.getLogger());
+
+        final CredentialResolver credential = importInstance.getCredential(build);
+        try (XrayClientCache.Lease<XrayImporter> clientLease = XrayClientCache.acquire(importInstance,
+                credential,
+                XrayImporter.class,
+                () -> createClient(importInstance, hostingType, credential),
+                XrayImporter::shutdown)) {
+            return importResults(build, workspace, launcher, listener, importInstance, credential, clientLease, plan, staged);
+        }
+    }
+
+    private XrayImporter createClient(XrayInstance importInstance, HostingType hostingType, CredentialResolver credential) {
+        final HttpRequestProvider.ProxyBean proxyBean = ProxyUtil.createProxyBean();
         if (hostingType == HostingType.CLOUD) {
-            client = new XrayImporterCloudImpl(importInstance.getCredential(build).getUsername(),
-                    importInstance.getCredential(build).getPassword(),
+            return new XrayImporterCloudImpl(credential.getUsername(),
+                    credential.getPassword(),
                     proxyBean);
-        } else if (hostingType == HostingType.SERVER) {
-            client = new XrayImporterImpl(importInstance.getServerAddress(),
-                    importInstance.getCredential(build).getUsername(),
-                    importInstance.getCredential(build).getPassword(),
-                    proxyBean);
-        } else {
-            XrayEnvironmentVariableSetter
-                    .failed("Hosting type not recognized.")
-                    .setAction(build, listener);
-            throw new XrayJenkinsGenericException("Hosting type not recognized.");
         }
+        // Spread across the Data Center nodes, if any
+        return XrayNodeBalancer.balance(XrayImporter.class,
+                importInstance,
+                address -> new XrayImporterImpl(address,
+                        credential.getUsername(),
+                        credential.getPassword(),
+                        proxyBean),
+                XrayImporter::shutdown);
+    }
+
+    private List<XrayImportResponse> importResults(Run<?, ?> build,
+                                                   FilePath workspace,
+                                                   Launcher launcher,
+                                                   TaskListener listener,
+                                                   XrayInstance importInstance,
+                                                   CredentialResolver credential,
+                                                   XrayClientCache.Lease<XrayImporter> clientLease,
+                                                   XrayImportUploadPlan plan,
+                                                   @Nullable XrayMultiTargetImport.StagedFiles staged) throws InterruptedException, IOException {
+        // Every request waits for a free slot of the instance (see XrayRequestScheduler)
+        final XrayImporter client = XrayRequestScheduler.schedule(XrayImporter.class,
+                clientLease.get(),
+                importInstance,
+                build,
+                getRequestLane(),
+                listener);
+        // The transient failures are retried until the deadline of this step
+        final XrayMetrics.OperationMetrics metrics = XrayMetrics.of(importInstance, XrayMetrics.Operation.RESULTS_IMPORT);
+        final XrayRetryPolicy.Session retries = XrayRetryPolicy.of(importInstance).start(listener.getLogger(), metrics::retried);
 
         EnvVars env = build.getEnvironment(listener);
         String resolved = expandVariable(env, this.importFilePath);
 
         Endpoint endpointValue = Endpoint.lookupBySuffix(this.endpointName);
 
-        final List<UploadResult> uploadResults = new ArrayList<>();
-
-        if (BuilderUtils.isGlobExpressionsSupported(endpointValue)) {
-            ObjectMapper mapper = new ObjectMapper();
-            String key = null;
-            for (FilePath fp : FileUtils.getFiles(workspace, resolved, listener, launcher.getChannel())) {
-                UploadResult result = uploadResults(workspace, listener, client, env, key, fp);
-
-                uploadResults.add(result);
+        // The files already imported by a previous attempt of this step, in this build, are not imported again
+        final XrayImportLedger ledger = XrayImportLedger.load(build);
+        final String stepId = XrayImportLedger.stepId(importInstance.getConfigID(),
+                endpointName,
+                resolved,
+                String.valueOf(plan.getQueryParams(null)),
+                inputInfoSwitcher,
+                importInfo,
+                importToSameExecution);
+
+        // The compacted copies of the reports are written next to the workspace, not inside it
+        final XrayImportSession session = new XrayImportSession(listener,
+                client,
+                clientLease,
+                retries,
+                metrics,
+                plan,
+                WorkspaceList.tempDir(workspace),
+                this::prepareReport,
+                ledger,
+                stepId);
+
+        if (isUsePublishedTestResults()) {
+            // The results were already parsed by the JUnit publisher: only the info file (if any) was read from the workspace
+            XrayPublishedResultsImport.importResults(session, build, lookupForEndpoint());
+        } else if (isConvertToXrayJson()) {
+            final FilePath document = writeXrayJsonResults(build, workspace, launcher, listener, importInstance, plan, resolved);
+            try {
+                final XrayImportUploadPlan xrayJsonPlan = XrayImportUploadPlan.withInfoContent(Endpoint.XRAY,
+                        Collections.<com.xpandit.xray.model.QueryParameter, String>emptyMap(), false, true, null);
+                session.importFile(xrayJsonPlan, document, document, null, false);
+            } finally {
+                document.delete();
+            }
+        } else if (isBatchUploads()) {
+            if (lookupForEndpoint() != Endpoint.JUNIT) {
+                throw new AbortException("Only JUnit XML results (not multipart) can be imported in batches with other builds");
+            }
+            // Only the builds with the same credential share a batch: any of them may import the reports of the others
+            final XrayUploadBatcher.Key batchKey = new XrayUploadBatcher.Key(importInstance.getConfigID(),
+                    XrayClientCache.fingerprint(credential.getUsername(), credential.getPassword()),
+                    Endpoint.JUNIT.getName(),
+                    plan.getQueryParams(null));
+            new XrayBatchedImport(session, build.getRootDir(), batchKey, TimeUnit.SECONDS.toMillis(getBatchWindowSeconds()))
+                    .importReports(FileUtils.getFiles(workspace, resolved, listener, launcher.getChannel()));
+        } else if (BuilderUtils.isGlobExpressionsSupported(endpointValue)) {
+            String key = "true".equals(importToSameExecution) ? ledger.getTestExecutionKey(stepId) : null;
+            if (key != null) {
+                listener.getLogger().println("Importing to " + key + ", created by a previous attempt of this step");
+            }
+            final List<FilePath> files = staged != null ? staged.getOriginals() : FileUtils.getFiles(workspace, resolved, listener, launcher.getChannel());
+            for (int i = 0; i < files.size(); i++) {
+                final FilePath fp = files.get(i);
+                final FilePath content = staged != null ? staged.getCopies().get(i) : fp;
+                final XrayImportResponse response = session.importFile(plan, fp, content, key, true);
 
                 if (key == null && "true".equals(importToSameExecution)) {
-                    HostingType instanceType = importInstance.getHosting();
-
-                    if (instanceType == HostingType.SERVER) {
-
-                        Map<String, Object> resultMap = mapper.readValue(result.getMessage(), Map.class);
-                        if (MapUtils.isNotEmpty(resultMap)) {
-                            Map<String, String> testExecIssue = (Map<String, String>) resultMap.get("testExecIssue");
-                            if (MapUtils.isNotEmpty(testExecIssue)) {
-                                key = testExecIssue.get("key");
-                            }
-                        }
-                    } else if (instanceType == HostingType.CLOUD) {
-
-                        Map<String, String> map = mapper.readValue(result.getMessage(), Map.class);
-                        key = map.get("key");
-                    } else {
-                        throw new XrayJenkinsGenericException("Instance type not found.");
-                    }
+                    key = response.getTestExecutionKey();
 
                     if (key == null) {
-                        XrayEnvironmentVariableSetter
-                                .failed("No Test Execution Key returned")
-                                .setAction(build, listener);
                         throw new XrayJenkinsGenericException("No Test Execution Key returned");
                     }
                 }
             }
         } else {
-            FilePath file = getFile(workspace, resolved, listener);
-            uploadResults.add(tryUploadResults(workspace, listener, client, file, env, null));
+            FilePath file = staged != null ? staged.getOriginals().get(0) : getFile(workspace, resolved, listener);
+            FilePath content = staged != null ? staged.getCopies().get(0) : file;
+            session.importFile(plan, file, content, null, true);
         }
 
-        // Sets the Xray Build Environment Variables
-        XrayEnvironmentVariableSetter
-                .parseResultImportResponse(uploadResults, hostingType, listener.getLogger())
-                .setAction(build, listener);
+        final String type = endpointValue != null ? endpointValue.getName() : endpointName;
+        XrayImportResultAction.addResult(build, new XrayImportResult(type, importInstance.getAlias(), session.getFileResults()));
+        return session.getResponses();
     }
 
-    private UploadResult uploadResults(@Nonnull FilePath workspace,
-                                       @Nonnull TaskListener listener,
-                                       XrayImporter client,
-                                       EnvVars environmentVariables,
-                                       String key,
-                                       FilePath filePath) throws InterruptedException, IOException {
-        UploadResult result = tryUploadResults(workspace, listener, client, filePath, environmentVariables, key);
-
-        int tries = 1; // Tries start with 1 because we count the original request as a try.
-
-        // Xray Cloud may return a 429 (Too Many Requests) response, in this case, we want to retry up to 3 times (after the waiting period).
-        while (result.isTooManyRequests() && tries < MAX_TRIES) {
-            final long sleepTimeSeconds = UploadResultUtil.getRetryTime(result)
-                                                          .orElse(MAX_RETRY_AFTER_TIME_SECONDS);
-
-            listener.getLogger().println("Too Many Requests: Waiting " + sleepTimeSeconds + " seconds - try #" + tries);
+    /**
+     * Converts all the matched results files into a temporary Xray JSON document, in the build directory.
+     * The import parameters go into the document, since the Xray JSON endpoint has no query parameters.
+     */
+    private FilePath writeXrayJsonResults(Run<?, ?> build,
+                                          FilePath workspace,
+                                          Launcher launcher,
+                                          TaskListener listener,
+                                          XrayInstance importInstance,
+                                          XrayImportUploadPlan plan,
+                                          String resultsFilePath) throws IOException, InterruptedException {
+        final Endpoint sourceEndpoint = lookupForEndpoint();
+        if (sourceEndpoint != Endpoint.JUNIT && sourceEndpoint != Endpoint.TESTNG && sourceEndpoint != Endpoint.NUNIT) {
+            throw new AbortException("Only the JUnit XML, TestNG XML and NUnit XML formats can be converted to Xray JSON");
+        }
 
-            if (sleepTimeSeconds > MAX_RETRY_AFTER_TIME_SECONDS) { // If the server asks us to wait to much time, we abort the whole import.
-                final String logText = String.format("Too Many Requests: Wait time (%s seconds) exceeds the maximum allowed (%s seconds)",
-                        sleepTimeSeconds, MAX_RETRY_AFTER_TIME_SECONDS);
+        final HostingType hostingType = importInstance.getHosting() == null ? HostingType.SERVER : importInstance.getHosting();
+        final XrayJsonResultsConverter converter;
+        final XrayEvidenceCollector evidenceCollector;
+        try {
+            converter = new XrayJsonResultsConverter(hostingType, testKeyMapping, getMaxFailureMessageLength());
+            evidenceCollector = StringUtils.isBlank(evidenceMapping) ? null : new XrayEvidenceCollector(workspace,
+                    evidenceMapping,
+                    getMaxEvidenceFileKb() * (long) KB,
+                    getMaxEvidenceTotalKb() * (long) KB,
+                    listener);
+        } catch (IllegalArgumentException e) {
+            throw new AbortException(e.getMessage());
+        }
 
-                listener.getLogger().println(logText);
-                throw new XrayJenkinsGenericException(result.getMessage());
-            } else if (sleepTimeSeconds > 0) {
-                Thread.sleep(TimeUnit.SECONDS.toMillis(sleepTimeSeconds));
+        final List<FilePath> files = FileUtils.getFiles(workspace, resultsFilePath, listener, launcher.getChannel());
+        final File document = File.createTempFile("xray-results", ".json", build.getRootDir());
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(document));
+             XrayJsonResultsConverter.Document xrayJson = converter.open(out, plan.getQueryParams(null), evidenceCollector)) {
+            for (FilePath file : files) {
+                try (InputStream in = file.read()) {
+                    xrayJson.add(in, file.getName());
+                }
             }
-
-            result = tryUploadResults(workspace, listener, client, filePath, environmentVariables, key);
-            tries++;
+            listener.getLogger().println("Converted " + xrayJson.getTestCount() + " test(s) from " + files.size() + " file(s) to Xray JSON");
+            if (evidenceCollector != null) {
+                listener.getLogger().println("Attached " + evidenceCollector.getAttachedFiles() + " evidence file(s) ("
+                        + evidenceCollector.getTotalBytes() + " bytes)");
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(document.toPath());
+            throw e;
         }
+        return new FilePath(document);
+    }
 
-        if (result.isTooManyRequests() && tries >= MAX_TRIES) {
-            throw new XrayJenkinsGenericException(result.getMessage());
+    private JUnitReportCompactor createJUnitReportCompactor() {
+        if (!isCompactJUnitReports()) {
+            return new JUnitReportCompactor(JUnitReportCompactor.UNLIMITED, JUnitReportCompactor.UNLIMITED, true);
         }
-
-        return result;
+        return new JUnitReportCompactor(getMaxSystemOutputKb() * KB, getMaxFailureBodyKb() * KB, isCollapseReruns());
     }
 
     /**
-     * Upload the results to the xray instance
+     * Compacts a JUnit report, prunes a Robot Framework output or caps the embeddings of a Cucumber JSON report,
+     * when enabled, into a temporary file on the node where it is: in the temporary directory of the workspace
+     * if it's on the same node, next to the report otherwise (i.e. a copy in the build directory).
      *
-     * @param workspace            the Workspace
-     * @param listener             the TaskListener
-     * @param client               the xray client
-     * @param resultsFile          the FilePath of the results file
-     * @param env                  the environment variables
-     * @param sameTestExecutionKey The key used when multiple results are imported to the same Test Execution
-     * @return the upload results
+     * @return the temporary file, or null if the report is uploaded as is
      */
-    private UploadResult tryUploadResults(FilePath workspace,
-                                          TaskListener listener,
-                                          XrayImporter client,
-                                          FilePath resultsFile,
-                                          EnvVars env,
-                                          @Nullable String sameTestExecutionKey) throws InterruptedException, IOException {
-        try {
-            Endpoint targetEndpoint = lookupForEndpoint();
-            Map<com.xpandit.xray.model.QueryParameter, String> queryParams = prepareQueryParam(env);
-
-            if (BuilderUtils.isEnvVariableUndefined(this.testExecKey)
-                    && StringUtils.isNotBlank(sameTestExecutionKey)
-                    && "true".equals(importToSameExecution)) {
-                if (isMultipartEndpoint(targetEndpoint)) {
-                    targetEndpoint = BuilderUtils.getGenericEndpointFromMultipartSuffix(targetEndpoint.getSuffix());
-                }
-
-                queryParams.put(com.xpandit.xray.model.QueryParameter.TEST_EXEC_KEY, sameTestExecutionKey);
-            }
-
-            Map<com.xpandit.xray.model.DataParameter, Content> dataParams = new HashMap<>();
-
-            if (StringUtils.isNotBlank(this.importFilePath)) {
-                Content results = new com.xpandit.xray.model.FileStream(resultsFile.getName(), resultsFile.read(),
-                        targetEndpoint.getResultsMediaType());
-                dataParams.put(com.xpandit.xray.model.DataParameter.FILEPATH, results);
+    @Nullable
+    private FilePath prepareReport(TaskListener listener,
+                                   Endpoint targetEndpoint,
+                                   @Nullable FilePath tempDir,
+                                   FilePath report) throws IOException, InterruptedException {
+        final boolean junit = targetEndpoint == Endpoint.JUNIT || targetEndpoint == Endpoint.JUNIT_MULTIPART;
+        final boolean robot = targetEndpoint == Endpoint.ROBOT || targetEndpoint == Endpoint.ROBOT_MULTIPART;
+        final boolean cucumber = targetEndpoint == Endpoint.CUCUMBER || targetEndpoint == Endpoint.CUCUMBER_MULTIPART;
+        if (!(junit && (isCompactJUnitReports() || isCollapseReruns()))
+                && !(robot && isPruneRobotKeywords())
+                && !(cucumber && isCapCucumberEmbeddings())) {
+            return null;
+        }
 
+        final FilePath folder = tempDir != null && tempDir.getChannel() == report.getChannel() ? tempDir : report.getParent();
+        folder.mkdirs();
+        final FilePath prepared = folder.createTempFile("xray-compacted", cucumber ? ".json" : ".xml");
+        try {
+            final long savedBytes;
+            if (junit) {
+                savedBytes = createJUnitReportCompactor().compact(report, prepared);
+            } else if (robot) {
+                savedBytes = new RobotOutputPruner(isPruneRobotLoops()).prune(report, prepared);
+            } else {
+                savedBytes = new CucumberEmbeddingsFilter(getMaxEmbeddingsPerScenario(),
+                        getMaxEmbeddingKb() > 0 ? getMaxEmbeddingKb() * (long) KB : CucumberEmbeddingsFilter.UNLIMITED)
+                        .filter(report, prepared);
             }
-            if (StringUtils.isNotBlank(this.importInfo)) {
-                String resolved = expandVariable(env, this.importInfo);
-
-                Content info;
-                if (this.inputInfoSwitcher.equals("filePath")) {
-                    FilePath infoFile = getFile(workspace, resolved, listener);
-                    info = new com.xpandit.xray.model.FileStream(infoFile.getName(), infoFile.read(), targetEndpoint.getInfoFieldMediaType());
-                } else {
-                    info = new com.xpandit.xray.model.StringContent(resolved, targetEndpoint.getInfoFieldMediaType());
-                }
+            listener.getLogger().println("Compacted " + report.getName() + ": " + savedBytes + " bytes saved");
+            return prepared;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            prepared.delete();
+            throw e;
+        }
+    }
 
-                dataParams.put(com.xpandit.xray.model.DataParameter.INFO, info);
+    /**
+     * Resolves everything that is the same for all the files of this step: endpoint, query parameters and info content.
+     */
+    private XrayImportUploadPlan createUploadPlan(FilePath workspace, EnvVars env, TaskListener listener) throws InterruptedException, IOException {
+        try {
+            final Endpoint targetEndpoint = lookupForEndpoint();
+            if (targetEndpoint == null) {
+                throw new XrayJenkinsGenericException("No endpoint found for the format " + endpointName);
             }
 
-            listener.getLogger().println("Starting to import results from " + resultsFile.getName());
-
-            UploadResult result = client.uploadResults(targetEndpoint, dataParams, queryParams);
+            final Map<com.xpandit.xray.model.QueryParameter, String> queryParams = prepareQueryParam(env);
+            final boolean sameExecutionEnabled = BuilderUtils.isEnvVariableUndefined(this.testExecKey) && "true".equals(importToSameExecution);
+            final boolean withResults = StringUtils.isNotBlank(this.importFilePath) || isUsePublishedTestResults();
 
-            listener.getLogger().println("Response: (" + result.getStatusCode() + ") " + result.getMessage());
-
-            if (result.isOkStatusCode()) {
-                listener.getLogger().println("Successfully imported " + targetEndpoint.getName() + " results from " + resultsFile.getName());
+            if (StringUtils.isBlank(this.importInfo)) {
+                return XrayImportUploadPlan.withInfoContent(targetEndpoint, queryParams, sameExecutionEnabled, withResults, null);
             }
 
-            return result;
-
-        } catch (XrayClientCoreGenericException | XrayJenkinsGenericException e) {
+            final String resolved = expandVariable(env, this.importInfo);
+            if ("filePath".equals(this.inputInfoSwitcher)) {
+                final FilePath infoFile = getFile(workspace, resolved, listener);
+                return XrayImportUploadPlan.withInfoFile(targetEndpoint, queryParams, sameExecutionEnabled, withResults, infoFile);
+            }
+            return XrayImportUploadPlan.withInfoContent(targetEndpoint, queryParams, sameExecutionEnabled, withResults, resolved);
+        } catch (XrayJenkinsGenericException e) {
             LOG.error(ERROR_LOG, e);
             throw new AbortException(e.getMessage());
-        } catch (IOException e) {
-            LOG.error(ERROR_LOG, e);
-            listener.error(e.getMessage());
-            throw new IOException(e);
-        } finally {
-            client.shutdown();
         }
     }
 
-    private boolean isMultipartEndpoint(Endpoint endpoint) {
-        return endpoint.getName().contains(MULTIPART);
-    }
-
     private Map<com.xpandit.xray.model.QueryParameter, String> prepareQueryParam(EnvVars env) {
         Map<com.xpandit.xray.model.QueryParameter, String> queryParams = new EnumMap<>(QueryParameter.class);
         queryParams.put(com.xpandit.xray.model.QueryParameter.PROJECT_KEY, expandVariable(env, projectKey));
@@ -669,11 +1181,14 @@ public class XrayImportBuilder extends Notifier implements SimpleBuildStep {
             LOG.error("passed endpoint is null or could not be found");
             throw new XrayJenkinsGenericException("passed endpoint is null or could not be found");
         }
-        if (this.importFilePath == null) {
+        if (this.importFilePath == null && !isUsePublishedTestResults()) {
             LOG.error("importFilePath is null");
             throw new XrayJenkinsGenericException("importFilePath is null");
         }
         for (com.xpandit.xray.model.DataParameter dp : com.xpandit.xray.model.DataParameter.values()) {
+            if (dp == com.xpandit.xray.model.DataParameter.FILEPATH && isUsePublishedTestResults()) {
+                continue; // The results don't come from a file
+            }
             if (dynamicFields.containsKey(dp.getKey()) && dp.isRequired()) {
                 String value = dynamicFields.get(dp.getKey());
                 if (StringUtils.isBlank(value))
@@ -689,7 +1204,7 @@ public class XrayImportBuilder extends Notifier implements SimpleBuildStep {
             }
         }
 
-        if (this.importFilePath.contains("../")) {
+        if (this.importFilePath != null && this.importFilePath.contains("../")) {
             throw FormValidation.error("You cannot provide file paths for upper directories.");
         }
     }
@@ -699,7 +1214,6 @@ public class XrayImportBuilder extends Notifier implements SimpleBuildStep {
         return BuildStepMonitor.NONE;
     }
 
-
     @Extension
     public static class Descriptor extends BuildStepDescriptor<Publisher> {
         private static long BUILD_STEP_SEED = 0;
@@ -720,7 +1234,7 @@ public class XrayImportBuilder extends Notifier implements SimpleBuildStep {
         public XrayImportBuilder newInstance(StaplerRequest req, JSONObject formData) throws Descriptor.FormException {
             validateFormData(formData);
             Map<String, String> fields = getDynamicFields(formData.getJSONObject("dynamicFields"));
-            return new XrayImportBuilder(
+            XrayImportBuilder builder = new XrayImportBuilder(
                     (String) formData.get(SERVER_INSTANCE),
                     formData.getString(FORMAT_SUFFIX),
                     fields.get(PROJECT_KEY),
@@ -733,6 +1247,32 @@ public class XrayImportBuilder extends Notifier implements SimpleBuildStep {
                     fields.get(IMPORT_INFO),
                     fields.get(INPUT_INFO_SWITCHER),
                     fields.get(SAME_EXECUTION_CHECKBOX));
+            builder.setInjectEnvironmentVariables(formData.optBoolean(INJECT_ENVIRONMENT_VARIABLES, true));
+            builder.setUsePublishedTestResults(formData.optBoolean(USE_PUBLISHED_TEST_RESULTS));
+            builder.setConvertToXrayJson(formData.optBoolean(CONVERT_TO_XRAY_JSON));
+            builder.setTestKeyMapping(formData.optString(TEST_KEY_MAPPING));
+            builder.setMaxFailureMessageLength(formData.optInt(MAX_FAILURE_MESSAGE_LENGTH, XrayJsonResultsConverter.DEFAULT_MAX_FAILURE_MESSAGE_LENGTH));
+            builder.setEvidenceMapping(formData.optString(EVIDENCE_MAPPING));
+            builder.setMaxEvidenceFileKb(formData.optInt(MAX_EVIDENCE_FILE_KB, DEFAULT_MAX_EVIDENCE_FILE_KB));
+            builder.setMaxEvidenceTotalKb(formData.optInt(MAX_EVIDENCE_TOTAL_KB, DEFAULT_MAX_EVIDENCE_TOTAL_KB));
+            builder.setCompactJUnitReports(formData.optBoolean(COMPACT_JUNIT_REPORTS));
+            builder.setMaxSystemOutputKb(formData.optInt(MAX_SYSTEM_OUTPUT_KB, DEFAULT_MAX_SYSTEM_OUTPUT_KB));
+            builder.setMaxFailureBodyKb(formData.optInt(MAX_FAILURE_BODY_KB, DEFAULT_MAX_FAILURE_BODY_KB));
+            builder.setPruneRobotKeywords(formData.optBoolean(PRUNE_ROBOT_KEYWORDS));
+            builder.setPruneRobotLoops(formData.optBoolean(PRUNE_ROBOT_LOOPS));
+            builder.setCollapseReruns(formData.optBoolean(COLLAPSE_RERUNS));
+            builder.setCapCucumberEmbeddings(formData.optBoolean(CAP_CUCUMBER_EMBEDDINGS));
+            builder.setMaxEmbeddingsPerScenario(formData.optInt(MAX_EMBEDDINGS_PER_SCENARIO, DEFAULT_MAX_EMBEDDINGS_PER_SCENARIO));
+            builder.setMaxEmbeddingKb(formData.optInt(MAX_EMBEDDING_KB, DEFAULT_MAX_EMBEDDING_KB));
+            builder.setBatchUploads(formData.optBoolean(BATCH_UPLOADS));
+            builder.setBatchWindowSeconds(formData.optInt(BATCH_WINDOW_SECONDS, DEFAULT_BATCH_WINDOW_SECONDS));
+            if (StringUtils.isNotBlank(formData.optString(REQUEST_LANE))) {
+                builder.setRequestLane(XrayRequestLane.valueOf(formData.getString(REQUEST_LANE)));
+            }
+            if (formData.has(ADDITIONAL_TARGETS)) {
+                builder.setAdditionalTargets(req.bindJSONToList(XrayImportTarget.class, formData.get(ADDITIONAL_TARGETS)));
+            }
+            return builder;
         }
 
         private void validateFormData(JSONObject formData) throws Descriptor.FormException {
@@ -783,6 +1323,23 @@ public class XrayImportBuilder extends Notifier implements SimpleBuildStep {
             return FormUtils.getServerInstanceItems();
         }
 
+        public FormValidation doCheckTestKeyMapping(@org.kohsuke.stapler.QueryParameter String value) {
+            return checkTestNameMapping(value);
+        }
+
+        public FormValidation doCheckEvidenceMapping(@org.kohsuke.stapler.QueryParameter String value) {
+            return checkTestNameMapping(value);
+        }
+
+        private FormValidation checkTestNameMapping(String mapping) {
+            try {
+                TestNameMapping.parse(mapping);
+                return FormValidation.ok();
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+
         public long defaultBuildID() {
             return buildID;
         }
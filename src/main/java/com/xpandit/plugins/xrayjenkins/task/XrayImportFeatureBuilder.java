@@ -13,10 +13,22 @@ import com.xpandit.plugins.xrayjenkins.Utils.FileUtils;
 import com.xpandit.plugins.xrayjenkins.Utils.FormUtils;
 import com.xpandit.plugins.xrayjenkins.Utils.ProxyUtil;
 import com.xpandit.plugins.xrayjenkins.exceptions.XrayJenkinsGenericException;
+import com.xpandit.plugins.xrayjenkins.model.CredentialResolver;
 import com.xpandit.plugins.xrayjenkins.model.HostingType;
 import com.xpandit.plugins.xrayjenkins.model.ServerConfiguration;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportFileResult;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResponse;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResult;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResultAction;
 import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import com.xpandit.plugins.xrayjenkins.model.XrayRequestLane;
+import com.xpandit.plugins.xrayjenkins.services.balancer.XrayNodeBalancer;
+import com.xpandit.plugins.xrayjenkins.services.cache.XrayClientCache;
 import com.xpandit.plugins.xrayjenkins.services.enviromentvariables.XrayEnvironmentVariableSetter;
+import com.xpandit.plugins.xrayjenkins.services.metrics.XrayMetrics;
+import com.xpandit.plugins.xrayjenkins.services.monitor.XrayHealthMonitor;
+import com.xpandit.plugins.xrayjenkins.services.retry.XrayRetryPolicy;
+import com.xpandit.plugins.xrayjenkins.services.scheduler.XrayRequestScheduler;
 import com.xpandit.plugins.xrayjenkins.task.filefilters.OnlyFeatureFilesInPathFilter;
 import com.xpandit.xray.exception.XrayClientCoreGenericException;
 import com.xpandit.xray.model.FileStream;
@@ -52,17 +64,22 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
+import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
+
 /**
  * This class is responsible for performing the Xray: Cucumber Features Import Task
  */
 public class XrayImportFeatureBuilder extends Builder implements SimpleBuildStep {
     
     private static final String TMP_ZIP_FILENAME = "xray_cucumber_features.zip";
+    private static final String IMPORT_TYPE = "Cucumber features";
 
     private String serverInstance;
     private String folderPath;
     private String projectKey;
     private String lastModified;//this must be a String because of pipeline projects
+    private Boolean injectEnvironmentVariables; // null in jobs created before this option: defaults to true
+    private XrayRequestLane requestLane;
 
     @DataBoundConstructor
     public XrayImportFeatureBuilder(String serverInstance,
@@ -99,6 +116,28 @@ public class XrayImportFeatureBuilder extends Builder implements SimpleBuildStep
         this.lastModified = lastModified;
     }
 
+    public boolean isInjectEnvironmentVariables() {
+        return injectEnvironmentVariables == null || injectEnvironmentVariables;
+    }
+
+    @DataBoundSetter
+    public void setInjectEnvironmentVariables(boolean injectEnvironmentVariables) {
+        this.injectEnvironmentVariables = injectEnvironmentVariables;
+    }
+
+    @Nonnull
+    public XrayRequestLane getRequestLane() {
+        return requestLane != null ? requestLane : XrayRequestLane.getDefaultLane();
+    }
+
+    /**
+     * The priority of the request of this step, when it waits for a free request slot of the Xray instance.
+     */
+    @DataBoundSetter
+    public void setRequestLane(XrayRequestLane requestLane) {
+        this.requestLane = requestLane;
+    }
+
     public String getProjectKey() {
         return projectKey;
     }
@@ -136,21 +175,22 @@ public class XrayImportFeatureBuilder extends Builder implements SimpleBuildStep
             throw new AbortException();
         }
         
-        final HttpRequestProvider.ProxyBean proxyBean = ProxyUtil.createProxyBean();
-        XrayTestImporter client;
-        if (xrayInstance.getHosting() == HostingType.CLOUD) {
-            client = new XrayTestImporterCloudImpl(xrayInstance.getCredential(run).getUsername(), xrayInstance.getCredential(run).getPassword(), proxyBean);
-        } else if (xrayInstance.getHosting() == null || xrayInstance.getHosting() == HostingType.SERVER) {
-            client = new XrayTestImporterImpl(xrayInstance.getServerAddress(),
-                    xrayInstance.getCredential(run).getUsername(),
-                    xrayInstance.getCredential(run).getPassword(),
-                    proxyBean);
-        } else {
+        if (xrayInstance.getHosting() != null
+                && xrayInstance.getHosting() != HostingType.CLOUD
+                && xrayInstance.getHosting() != HostingType.SERVER) {
             addFailedOpEnvironmentVariables(run, "Hosting type not recognized.", listener);
             throw new XrayJenkinsGenericException("Hosting type not recognized.");
         }
+        XrayHealthMonitor.warnIfDegraded(xrayInstance, listener.getLogger());
+
+        final CredentialResolver credential = xrayInstance.getCredential(run);
+        final XrayClientCache.Lease<XrayTestImporter> clientLease = XrayClientCache.acquire(xrayInstance,
+                credential,
+                XrayTestImporter.class,
+                () -> createClient(xrayInstance, credential),
+                XrayTestImporter::shutdown);
 
-        final UploadResult uploadResult = processImport(run, workspace, client, listener, xrayInstance);
+        final UploadResult uploadResult = processImport(run, workspace, clientLease, listener, xrayInstance);
 
         listener.getLogger().println("Response: (" + uploadResult.getStatusCode() + ") " + uploadResult.getMessage());
 
@@ -162,7 +202,7 @@ public class XrayImportFeatureBuilder extends Builder implements SimpleBuildStep
     private UploadResult processImport(
             final Run<?, ?> run,
             final FilePath workspace,
-            final XrayTestImporter client,
+            final XrayClientCache.Lease<XrayTestImporter> clientLease,
             final TaskListener listener,
             final XrayInstance instance) throws IOException, InterruptedException {
         
@@ -182,12 +222,31 @@ public class XrayImportFeatureBuilder extends Builder implements SimpleBuildStep
             base.zip(zipFile.write(), new OnlyFeatureFilesInPathFilter(validFilePaths, lastModified));
 
             // Uploads the Zip file to the Jira instance
-            UploadResult uploadResult = uploadZipFile(client, listener, zipFile);
+            final long startTime = System.currentTimeMillis();
+            final XrayTestImporter client = XrayRequestScheduler.schedule(XrayTestImporter.class,
+                    clientLease.get(),
+                    instance,
+                    run,
+                    getRequestLane(),
+                    listener);
+            // The transient failures are retried until the deadline of this step
+            final XrayMetrics.OperationMetrics metrics = XrayMetrics.of(instance, XrayMetrics.Operation.FEATURE_IMPORT);
+            final XrayRetryPolicy.Session retries = XrayRetryPolicy.of(instance).start(listener.getLogger(), metrics::retried);
+            UploadResult uploadResult = retries.execute("import the features", () -> uploadZipFile(client, metrics, listener, zipFile));
+            if (uploadResult.getStatusCode() == HTTP_UNAUTHORIZED) {
+                // The shared Cloud client holds an expired or revoked token
+                clientLease.invalidate();
+            }
+
+            final XrayImportResponse response = XrayImportResponse.parse(uploadResult);
+            final XrayImportFileResult fileResult = new XrayImportFileResult(zipFile.getName(), response, System.currentTimeMillis() - startTime, zipFile.length());
+            XrayImportResultAction.addResult(run, new XrayImportResult(IMPORT_TYPE, instance.getAlias(), Collections.singletonList(fileResult)));
 
-            final HostingType hostingType = instance.getHosting() == null ? HostingType.SERVER : instance.getHosting();
-            XrayEnvironmentVariableSetter
-                    .parseCucumberFeatureImportResponse(Collections.singleton(uploadResult), hostingType, listener.getLogger())
-                    .setAction(run, listener);
+            if (isInjectEnvironmentVariables()) {
+                XrayEnvironmentVariableSetter
+                        .parseCucumberFeatureImportResponse(Collections.singleton(response))
+                        .setAction(run, listener);
+            }
 
             // Deletes the Zip File
             deleteFile(zipFile, listener);
@@ -198,10 +257,25 @@ public class XrayImportFeatureBuilder extends Builder implements SimpleBuildStep
             listener.error(e.getMessage());
             throw new AbortException(e.getMessage());
         } finally {
-            client.shutdown();
+            clientLease.close();
         }
 
     }
+
+    private XrayTestImporter createClient(XrayInstance xrayInstance, CredentialResolver credential) {
+        final HttpRequestProvider.ProxyBean proxyBean = ProxyUtil.createProxyBean();
+        if (xrayInstance.getHosting() == HostingType.CLOUD) {
+            return new XrayTestImporterCloudImpl(credential.getUsername(), credential.getPassword(), proxyBean);
+        }
+        // Spread across the Data Center nodes, if any
+        return XrayNodeBalancer.balance(XrayTestImporter.class,
+                xrayInstance,
+                address -> new XrayTestImporterImpl(address,
+                        credential.getUsername(),
+                        credential.getPassword(),
+                        proxyBean),
+                XrayTestImporter::shutdown);
+    }
     
     private void deleteFile(FilePath file, TaskListener listener) throws IOException, InterruptedException {
         try {
@@ -213,12 +287,15 @@ public class XrayImportFeatureBuilder extends Builder implements SimpleBuildStep
         }
     }
 
-    private UploadResult uploadZipFile(XrayTestImporter client, TaskListener listener, FilePath zipFile) throws IOException, InterruptedException {
+    private UploadResult uploadZipFile(XrayTestImporter client,
+                                       XrayMetrics.OperationMetrics metrics,
+                                       TaskListener listener,
+                                       FilePath zipFile) throws IOException, InterruptedException {
         FileStream zipFileStream = new FileStream(
                 zipFile.getName(),
                 zipFile.read(),
                 ContentType.APPLICATION_JSON);
-        UploadResult uploadResult = client.importFeatures(this.projectKey, zipFileStream);
+        UploadResult uploadResult = metrics.time(zipFile.length(), () -> client.importFeatures(this.projectKey, zipFileStream));
         listener.getLogger().println(uploadResult.getMessage());
 
         return uploadResult;
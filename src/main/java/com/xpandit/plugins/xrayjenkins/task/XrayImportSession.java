@@ -0,0 +1,363 @@
+package com.xpandit.plugins.xrayjenkins.task;
+
+import com.xpandit.plugins.xrayjenkins.exceptions.XrayJenkinsGenericException;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportFileResult;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResponse;
+import com.xpandit.plugins.xrayjenkins.services.cache.XrayClientCache;
+import com.xpandit.plugins.xrayjenkins.services.ledger.XrayImportLedger;
+import com.xpandit.plugins.xrayjenkins.services.metrics.XrayMetrics;
+import com.xpandit.plugins.xrayjenkins.services.retry.XrayRetryPolicy;
+import com.xpandit.xray.exception.XrayClientCoreGenericException;
+import com.xpandit.xray.model.Content;
+import com.xpandit.xray.model.DataParameter;
+import com.xpandit.xray.model.Endpoint;
+import com.xpandit.xray.model.QueryParameter;
+import com.xpandit.xray.model.UploadResult;
+import com.xpandit.xray.service.XrayImporter;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.TaskListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
+
+/**
+ * The uploads of an import step to one instance: the client, retries and metrics of the instance, the upload plan of
+ * the step, and the responses collected so far. The import modes (single file, glob, batched, published results...)
+ * all upload through it.
+ */
+final class XrayImportSession {
+
+    private static final Logger LOG = LoggerFactory.getLogger(XrayImportSession.class);
+    private static final String ERROR_LOG = "Error while performing import tasks";
+
+    /**
+     * Prepares a report before it is uploaded (e.g. compacts it), into a temporary file.
+     */
+    interface ReportPreparer {
+        /**
+         * @return the temporary file, or null if the report is uploaded as is
+         */
+        @Nullable
+        FilePath prepare(@Nonnull TaskListener listener,
+                         @Nonnull Endpoint targetEndpoint,
+                         @Nullable FilePath tempDir,
+                         @Nonnull FilePath report) throws IOException, InterruptedException;
+    }
+
+    private final TaskListener listener;
+    private final XrayImporter client;
+    private final XrayClientCache.Lease<XrayImporter> clientLease;
+    private final XrayRetryPolicy.Session retries;
+    private final XrayMetrics.OperationMetrics metrics;
+    private final XrayImportUploadPlan plan;
+    private final FilePath tempDir;
+    private final ReportPreparer preparer;
+    private final XrayImportLedger ledger;
+    private final String stepId;
+
+    // Each response is parsed once, and shared by the same execution logic and the environment variables
+    private final List<XrayImportResponse> responses = new ArrayList<>();
+    private final List<XrayImportFileResult> fileResults = new ArrayList<>();
+
+    /**
+     * @param listener the listener of the build
+     * @param client the client of the instance, scheduled
+     * @param clientLease the lease of the shared client, invalidated when the instance rejects its credential
+     * @param retries the retries of this step
+     * @param metrics the metrics of the imports to the instance
+     * @param plan the upload plan of this step
+     * @param tempDir the temporary directory of the workspace, where the prepared copies are written
+     * @param preparer prepares the reports before they are uploaded
+     * @param ledger the files already imported by previous attempts of this step, in this build
+     * @param stepId the id of this step in the ledger
+     */
+    XrayImportSession(@Nonnull TaskListener listener,
+                      @Nonnull XrayImporter client,
+                      @Nonnull XrayClientCache.Lease<XrayImporter> clientLease,
+                      @Nonnull XrayRetryPolicy.Session retries,
+                      @Nonnull XrayMetrics.OperationMetrics metrics,
+                      @Nonnull XrayImportUploadPlan plan,
+                      @Nullable FilePath tempDir,
+                      @Nonnull ReportPreparer preparer,
+                      @Nonnull XrayImportLedger ledger,
+                      @Nonnull String stepId) {
+        this.listener = listener;
+        this.client = client;
+        this.clientLease = clientLease;
+        this.retries = retries;
+        this.metrics = metrics;
+        this.plan = plan;
+        this.tempDir = tempDir;
+        this.preparer = preparer;
+        this.ledger = ledger;
+        this.stepId = stepId;
+    }
+
+    @Nonnull
+    TaskListener getListener() {
+        return listener;
+    }
+
+    @Nonnull
+    XrayImportUploadPlan getPlan() {
+        return plan;
+    }
+
+    @Nonnull
+    XrayImportLedger getLedger() {
+        return ledger;
+    }
+
+    @Nonnull
+    String getStepId() {
+        return stepId;
+    }
+
+    @Nonnull
+    List<XrayImportResponse> getResponses() {
+        return responses;
+    }
+
+    @Nonnull
+    List<XrayImportFileResult> getFileResults() {
+        return fileResults;
+    }
+
+    /**
+     * Adds the response of the import of a file.
+     */
+    void add(@Nonnull String fileName, @Nonnull XrayImportResponse response, long durationMillis, long bytes) {
+        addResponse(response);
+        addFileResult(fileName, response, durationMillis, bytes);
+    }
+
+    /**
+     * Adds a response, e.g. the response of the import of many files at once.
+     */
+    void addResponse(@Nonnull XrayImportResponse response) {
+        responses.add(response);
+    }
+
+    void addFileResult(@Nonnull String fileName, @Nonnull XrayImportResponse response, long durationMillis, long bytes) {
+        fileResults.add(new XrayImportFileResult(fileName, response, durationMillis, bytes));
+    }
+
+    /**
+     * Imports a single file, unless a previous attempt of this step already imported it. The file is only hashed
+     * before it is uploaded when the step already imported it: otherwise it is hashed as it is uploaded.
+     *
+     * @param uploadPlan the upload plan of the file
+     * @param file the file, as named in the results and the ledger
+     * @param content where the content of the file is read (the file itself, or a copy)
+     * @param sameTestExecutionKey the key used when multiple results are imported to the same Test Execution
+     * @param recorded whether the file is kept in the ledger: files generated by this step are always imported
+     * @return the response of the import
+     */
+    @Nonnull
+    XrayImportResponse importFile(@Nonnull XrayImportUploadPlan uploadPlan,
+                                  @Nonnull FilePath file,
+                                  @Nonnull FilePath content,
+                                  @Nullable String sameTestExecutionKey,
+                                  boolean recorded) throws InterruptedException, IOException {
+        final long startTime = System.currentTimeMillis();
+        final String digest = recorded ? findDigest(file, content) : null;
+        XrayImportResponse response = digest != null ? findImported(file, digest) : null;
+        if (response == null) {
+            final ContentDigest uploaded = recorded && digest == null ? new ContentDigest() : null;
+            response = upload(uploadPlan, content, sameTestExecutionKey, true, uploaded);
+            if (recorded) {
+                recordImport(file, digest != null ? digest : uploaded.getValue(), response);
+            }
+        }
+        add(file.getName(), response, System.currentTimeMillis() - startTime, content.length());
+        return response;
+    }
+
+    /**
+     * @param file the file, as named in the ledger
+     * @param content where the content of the file is read
+     * @return the hash of the content if the step already imported the file (maybe with another content), or null
+     */
+    @Nullable
+    String findDigest(@Nonnull FilePath file, @Nonnull FilePath content) throws IOException, InterruptedException {
+        return ledger.hasImported(stepId, file.getRemote()) ? content.digest() : null;
+    }
+
+    /**
+     * Uploads a results file.
+     *
+     * @param uploadPlan the upload plan of the file
+     * @param resultsFile the results file
+     * @param sameTestExecutionKey the key used when multiple results are imported to the same Test Execution
+     * @return the parsed response
+     */
+    @Nonnull
+    XrayImportResponse upload(@Nonnull XrayImportUploadPlan uploadPlan,
+                              @Nonnull FilePath resultsFile,
+                              @Nullable String sameTestExecutionKey) throws InterruptedException, IOException {
+        return upload(uploadPlan, resultsFile, sameTestExecutionKey, true, null);
+    }
+
+    /**
+     * Uploads a results file already prepared, e.g. merged from reports prepared by their own builds.
+     *
+     * @param uploadPlan the upload plan of the file
+     * @param resultsFile the results file
+     * @return the parsed response
+     */
+    @Nonnull
+    XrayImportResponse uploadPrepared(@Nonnull XrayImportUploadPlan uploadPlan,
+                                      @Nonnull FilePath resultsFile) throws InterruptedException, IOException {
+        return upload(uploadPlan, resultsFile, null, false, null);
+    }
+
+    /**
+     * Prepares a report, as it would be before being uploaded.
+     *
+     * @return the prepared copy, to delete once uploaded, or null if the report is uploaded as is
+     */
+    @Nullable
+    FilePath prepare(@Nonnull Endpoint targetEndpoint, @Nonnull FilePath report) throws IOException, InterruptedException {
+        return preparer.prepare(listener, targetEndpoint, tempDir, report);
+    }
+
+    private XrayImportResponse upload(XrayImportUploadPlan uploadPlan,
+                                      FilePath resultsFile,
+                                      @Nullable String sameTestExecutionKey,
+                                      boolean prepare,
+                                      @Nullable ContentDigest contentDigest) throws InterruptedException, IOException {
+        final UploadResult result = tryUploadResults(uploadPlan, resultsFile, sameTestExecutionKey, prepare, contentDigest);
+        // A 401 means the shared Cloud client holds an expired or revoked token, so it must not be reused
+        if (result.getStatusCode() == HTTP_UNAUTHORIZED) {
+            clientLease.invalidate();
+        }
+        return XrayImportResponse.parse(result);
+    }
+
+    private UploadResult tryUploadResults(XrayImportUploadPlan uploadPlan,
+                                          FilePath resultsFile,
+                                          @Nullable String sameTestExecutionKey,
+                                          boolean prepare,
+                                          @Nullable ContentDigest contentDigest) throws InterruptedException, IOException {
+        FilePath preparedFile = null;
+        try {
+            final Endpoint targetEndpoint = uploadPlan.getEndpoint(sameTestExecutionKey);
+            final Map<QueryParameter, String> queryParams = uploadPlan.getQueryParams(sameTestExecutionKey);
+
+            preparedFile = prepare ? preparer.prepare(listener, targetEndpoint, tempDir, resultsFile) : null;
+            final FilePath uploadedFile = preparedFile;
+            if (contentDigest != null && uploadedFile != null) {
+                // The uploaded content isn't the content of the file
+                contentDigest.setValue(resultsFile.digest());
+            }
+
+            listener.getLogger().println("Starting to import results from " + resultsFile.getName());
+
+            final long size = (uploadedFile != null ? uploadedFile : resultsFile).length();
+            UploadResult result = retries.execute("import " + resultsFile.getName(), () -> {
+                // The content is read again by each attempt
+                final Map<DataParameter, Content> dataParams = uploadedFile != null
+                        ? uploadPlan.getDataParams(uploadedFile, resultsFile.getName(), sameTestExecutionKey)
+                        : uploadPlan.getDataParams(resultsFile,
+                                resultsFile.getName(),
+                                sameTestExecutionKey,
+                                contentDigest != null ? contentDigest.restart() : null);
+                return metrics.time(size, () -> client.uploadResults(targetEndpoint, dataParams, queryParams));
+            });
+
+            listener.getLogger().println("Response: (" + result.getStatusCode() + ") " + result.getMessage());
+
+            if (result.isTooManyRequests()) {
+                throw new XrayJenkinsGenericException(result.getMessage());
+            }
+
+            if (result.isOkStatusCode()) {
+                listener.getLogger().println("Successfully imported " + targetEndpoint.getName() + " results from " + resultsFile.getName());
+            }
+
+            return result;
+
+        } catch (XrayClientCoreGenericException | XrayJenkinsGenericException e) {
+            LOG.error(ERROR_LOG, e);
+            throw new AbortException(e.getMessage());
+        } catch (IOException e) {
+            LOG.error(ERROR_LOG, e);
+            listener.error(e.getMessage());
+            throw new IOException(e);
+        } finally {
+            if (preparedFile != null) {
+                preparedFile.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the response of the import of the same file, with the same content, by a previous attempt of this step
+     * in this build, or null if it must be imported
+     */
+    @Nullable
+    XrayImportResponse findImported(@Nonnull FilePath file, @Nonnull String digest) {
+        final XrayImportResponse response = ledger.findImported(stepId, file.getRemote(), digest);
+        if (response != null) {
+            listener.getLogger().println("Skipping " + file.getRemote() + ": already imported by a previous attempt of this step"
+                    + (response.getTestExecutionKey() != null ? " (" + response.getTestExecutionKey() + ")" : ""));
+        }
+        return response;
+    }
+
+    void recordImport(@Nonnull FilePath file, @Nonnull String digest, @Nonnull XrayImportResponse response) {
+        try {
+            ledger.record(stepId, file.getRemote(), digest, response);
+        } catch (IOException e) {
+            // The file was imported: only a later attempt of this step would import it again
+            LOG.warn("Unable to record the import of " + file.getRemote(), e);
+            listener.getLogger().println("Unable to record the import of " + file.getRemote() + " in the build: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The hash of a file, in the format of {@link FilePath#digest()}, computed as the file is read for another purpose
+     * (e.g. uploaded or copied), so that it isn't read once more only to be hashed.
+     */
+    static final class ContentDigest {
+        private MessageDigest digest;
+        private String value;
+
+        /**
+         * @return the digest to update with the whole content, from the start (e.g. by another attempt of the upload)
+         */
+        @Nonnull
+        MessageDigest restart() {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            return digest;
+        }
+
+        void setValue(@Nonnull String value) {
+            this.value = value;
+        }
+
+        @Nonnull
+        String getValue() {
+            if (value == null) {
+                value = Util.toHexString(digest.digest());
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.xpandit.plugins.xrayjenkins.task;
+
+import com.xpandit.plugins.xrayjenkins.Utils.BuilderUtils;
+import com.xpandit.xray.model.Content;
+import com.xpandit.xray.model.DataParameter;
+import com.xpandit.xray.model.Endpoint;
+import com.xpandit.xray.model.FileStream;
+import com.xpandit.xray.model.QueryParameter;
+import com.xpandit.xray.model.StringContent;
+import hudson.FilePath;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Everything an upload needs that doesn't depend on the results file: the endpoint, the expanded query parameters
+ * and the info content (read once, even when it comes from a file).
+ * It is built once per import step and is immutable, so it can be shared by all the uploads of the step.
+ */
+public final class XrayImportUploadPlan {
+
+    private static final String MULTIPART = "multipart";
+
+    private final Endpoint endpoint;
+    private final Map<QueryParameter, String> queryParams;
+    private final boolean sameExecutionEnabled;
+    private final boolean withResults;
+
+    // Info content: either a file (name + bytes) or a String
+    private final String infoFileName;
+    private final byte[] infoBytes;
+    private final String infoString;
+
+    // Computed once, the first time a multipart import is sent to the same Test Execution
+    private volatile Endpoint sameExecutionEndpoint;
+
+    private XrayImportUploadPlan(Endpoint endpoint,
+                                 Map<QueryParameter, String> queryParams,
+                                 boolean sameExecutionEnabled,
+                                 boolean withResults,
+                                 String infoFileName,
+                                 byte[] infoBytes,
+                                 String infoString) {
+        this.endpoint = endpoint;
+        // new EnumMap<>(Map) rejects empty maps that aren't EnumMaps
+        final Map<QueryParameter, String> params = new EnumMap<>(QueryParameter.class);
+        params.putAll(queryParams);
+        this.queryParams = Collections.unmodifiableMap(params);
+        this.sameExecutionEnabled = sameExecutionEnabled;
+        this.withResults = withResults;
+        this.infoFileName = infoFileName;
+        this.infoBytes = infoBytes;
+        this.infoString = infoString;
+    }
+
+    /**
+     * Creates a plan whose info content (if any) is a String.
+     */
+    @Nonnull
+    public static XrayImportUploadPlan withInfoContent(@Nonnull Endpoint endpoint,
+                                                       @Nonnull Map<QueryParameter, String> queryParams,
+                                                       boolean sameExecutionEnabled,
+                                                       boolean withResults,
+                                                       @Nullable String info) {
+        return new XrayImportUploadPlan(endpoint, queryParams, sameExecutionEnabled, withResults, null, null, info);
+    }
+
+    /**
+     * Creates a plan whose info content is read (only once) from a file.
+     */
+    @Nonnull
+    public static XrayImportUploadPlan withInfoFile(@Nonnull Endpoint endpoint,
+                                                    @Nonnull Map<QueryParameter, String> queryParams,
+                                                    boolean sameExecutionEnabled,
+                                                    boolean withResults,
+                                                    @Nonnull FilePath infoFile) throws IOException, InterruptedException {
+        final byte[] infoBytes;
+        try (InputStream in = infoFile.read()) {
+            infoBytes = IOUtils.toByteArray(in);
+        }
+        return new XrayImportUploadPlan(endpoint, queryParams, sameExecutionEnabled, withResults, infoFile.getName(), infoBytes, null);
+    }
+
+    /**
+     * @param sameTestExecutionKey the key used when multiple results are imported to the same Test Execution
+     * @return the endpoint to use
+     */
+    @Nonnull
+    public Endpoint getEndpoint(@Nullable String sameTestExecutionKey) {
+        if (!isSameExecution(sameTestExecutionKey) || !endpoint.getName().contains(MULTIPART)) {
+            return endpoint;
+        }
+
+        // Multipart endpoints can't import to an existing Test Execution, so we use the generic one.
+        Endpoint genericEndpoint = sameExecutionEndpoint;
+        if (genericEndpoint == null) {
+            genericEndpoint = BuilderUtils.getGenericEndpointFromMultipartSuffix(endpoint.getSuffix());
+            sameExecutionEndpoint = genericEndpoint;
+        }
+        return genericEndpoint;
+    }
+
+    /**
+     * @param sameTestExecutionKey the key used when multiple results are imported to the same Test Execution
+     * @return a new map with the query parameters, which may be changed by the caller
+     */
+    @Nonnull
+    public Map<QueryParameter, String> getQueryParams(@Nullable String sameTestExecutionKey) {
+        final Map<QueryParameter, String> params = new EnumMap<>(QueryParameter.class);
+        params.putAll(queryParams);
+        if (isSameExecution(sameTestExecutionKey)) {
+            params.put(QueryParameter.TEST_EXEC_KEY, sameTestExecutionKey);
+        }
+        return params;
+    }
+
+    /**
+     * Builds the data parameters of an upload. Only the results file is opened, everything else was prepared before.
+     *
+     * @param resultsFile the results file
+     * @param sameTestExecutionKey the key used when multiple results are imported to the same Test Execution
+     * @return the data parameters
+     */
+    @Nonnull
+    public Map<DataParameter, Content> getDataParams(@Nonnull FilePath resultsFile,
+                                                     @Nullable String sameTestExecutionKey) throws IOException, InterruptedException {
+        return getDataParams(resultsFile, resultsFile.getName(), sameTestExecutionKey);
+    }
+
+    /**
+     * Builds the data parameters of an upload whose results content was written to another file (e.g. compacted).
+     *
+     * @param resultsFile the file with the results content
+     * @param resultsFileName the name of the original results file, sent to Xray
+     * @param sameTestExecutionKey the key used when multiple results are imported to the same Test Execution
+     * @return the data parameters
+     */
+    @Nonnull
+    public Map<DataParameter, Content> getDataParams(@Nonnull FilePath resultsFile,
+                                                     @Nonnull String resultsFileName,
+                                                     @Nullable String sameTestExecutionKey) throws IOException, InterruptedException {
+        return getDataParams(resultsFile, resultsFileName, sameTestExecutionKey, null);
+    }
+
+    /**
+     * Builds the data parameters of an upload, hashing the results content as it is uploaded.
+     *
+     * @param resultsFile the file with the results content
+     * @param resultsFileName the name of the results file, sent to Xray
+     * @param sameTestExecutionKey the key used when multiple results are imported to the same Test Execution
+     * @param contentDigest updated with the results content as it is read, if any
+     * @return the data parameters
+     */
+    @Nonnull
+    public Map<DataParameter, Content> getDataParams(@Nonnull FilePath resultsFile,
+                                                     @Nonnull String resultsFileName,
+                                                     @Nullable String sameTestExecutionKey,
+                                                     @Nullable MessageDigest contentDigest) throws IOException, InterruptedException {
+        final Endpoint targetEndpoint = getEndpoint(sameTestExecutionKey);
+        final Map<DataParameter, Content> dataParams = new HashMap<>();
+
+        if (withResults) {
+            final InputStream content = contentDigest != null
+                    ? new DigestInputStream(resultsFile.read(), contentDigest)
+                    : resultsFile.read();
+            dataParams.put(DataParameter.FILEPATH, new FileStream(resultsFileName, content, targetEndpoint.getResultsMediaType()));
+        }
+        if (infoBytes != null) {
+            dataParams.put(DataParameter.INFO, new FileStream(infoFileName, new ByteArrayInputStream(infoBytes), targetEndpoint.getInfoFieldMediaType()));
+        } else if (infoString != null) {
+            dataParams.put(DataParameter.INFO, new StringContent(infoString, targetEndpoint.getInfoFieldMediaType()));
+        }
+        return dataParams;
+    }
+
+    private boolean isSameExecution(@Nullable String sameTestExecutionKey) {
+        return sameExecutionEnabled && StringUtils.isNotBlank(sameTestExecutionKey);
+    }
+}
@@ -0,0 +1,194 @@
+package com.xpandit.plugins.xrayjenkins.task;
+
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResponse;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports the results of a step to many instances, concurrently. Each target imports them with its own client, so
+ * with its own endpoints and responses, and every target is imported whatever the result of the others.
+ */
+final class XrayMultiTargetImport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(XrayMultiTargetImport.class);
+
+    static final int MAX_CONCURRENT_TARGETS = 4;
+
+    /**
+     * Imports the results to a single target.
+     */
+    interface TargetImport {
+        /**
+         * @param target the instance
+         * @param staged the workspace files, already read, or null if the target reads them
+         * @return the responses of the import
+         */
+        @Nonnull
+        List<XrayImportResponse> importTo(@Nonnull XrayInstance target,
+                                          @Nullable StagedFiles staged) throws IOException, InterruptedException;
+    }
+
+    private final List<XrayInstance> targets;
+    private final TaskListener listener;
+
+    XrayMultiTargetImport(@Nonnull List<XrayInstance> targets, @Nonnull TaskListener listener) {
+        this.targets = targets;
+        this.listener = listener;
+    }
+
+    /**
+     * Copies the workspace files to import once for all the targets, into the build directory.
+     *
+     * @param files the workspace files
+     * @param buildDir the build directory
+     * @return the staged files, to delete once imported
+     */
+    @Nonnull
+    StagedFiles stage(@Nonnull List<FilePath> files, @Nonnull File buildDir) throws IOException, InterruptedException {
+        final StagedFiles staged = new StagedFiles(new FilePath(Files.createTempDirectory(buildDir.toPath(), "xray-import").toFile()));
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                // One folder per file, since files of different folders may have the same name
+                final FilePath copy = new FilePath(new FilePath(staged.folder, String.valueOf(i)), files.get(i).getName());
+                copy.getParent().mkdirs();
+                files.get(i).copyTo(copy);
+                staged.add(files.get(i), copy);
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            staged.delete();
+            throw e;
+        }
+        listener.getLogger().println("Read " + files.size() + " file(s) once for the " + targets.size() + " Jira instances");
+        return staged;
+    }
+
+    /**
+     * Imports to all the targets, and waits until all of them are imported.
+     *
+     * @param staged the workspace files, already read, or null if each target reads them
+     * @param targetImport imports to a single target
+     * @return the responses of all the targets, and the targets that failed
+     */
+    @Nonnull
+    Result importToAll(@Nullable StagedFiles staged, @Nonnull TargetImport targetImport) throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(targets.size(), MAX_CONCURRENT_TARGETS),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Xray results import"));
+        try {
+            final List<Future<List<XrayImportResponse>>> futures = new ArrayList<>(targets.size());
+            for (final XrayInstance target : targets) {
+                futures.add(executor.submit(() -> targetImport.importTo(target, staged)));
+            }
+
+            final Result result = new Result();
+            for (int i = 0; i < targets.size(); i++) {
+                final String alias = targets.get(i).getAlias();
+                try {
+                    final List<XrayImportResponse> targetResponses = getResponses(futures.get(i));
+                    result.responses.addAll(targetResponses);
+                    final long failed = targetResponses.stream().filter(response -> !response.isSuccessful()).count();
+                    listener.getLogger().println("Imported to " + alias + ": " + targetResponses.size() + " response(s), "
+                            + failed + " failed");
+                } catch (IOException | RuntimeException e) {
+                    LOG.error("Error while importing to " + alias, e);
+                    listener.error("Import to " + alias + " failed: " + e.getMessage());
+                    result.failedTargets.add(alias);
+                }
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<XrayImportResponse> getResponses(Future<List<XrayImportResponse>> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * The import of all the targets.
+     */
+    static final class Result {
+        private final List<XrayImportResponse> responses = new ArrayList<>();
+        private final List<String> failedTargets = new ArrayList<>();
+
+        /**
+         * @return the responses of all the targets that were imported
+         */
+        @Nonnull
+        List<XrayImportResponse> getResponses() {
+            return Collections.unmodifiableList(responses);
+        }
+
+        /**
+         * @return the aliases of the targets whose import failed
+         */
+        @Nonnull
+        List<String> getFailedTargets() {
+            return Collections.unmodifiableList(failedTargets);
+        }
+    }
+
+    /**
+     * Workspace files copied to the build directory, imported by all the targets of the step.
+     */
+    static final class StagedFiles {
+        private final FilePath folder;
+        private final List<FilePath> originals = new ArrayList<>();
+        private final List<FilePath> copies = new ArrayList<>();
+
+        private StagedFiles(FilePath folder) {
+            this.folder = folder;
+        }
+
+        private void add(FilePath original, FilePath copy) {
+            originals.add(original);
+            copies.add(copy);
+        }
+
+        /**
+         * @return the workspace files, as named in the results and the ledger
+         */
+        List<FilePath> getOriginals() {
+            return originals;
+        }
+
+        /**
+         * @return the copies of the workspace files, in the same order
+         */
+        List<FilePath> getCopies() {
+            return copies;
+        }
+
+        void delete() throws IOException, InterruptedException {
+            folder.deleteRecursive();
+        }
+    }
+}
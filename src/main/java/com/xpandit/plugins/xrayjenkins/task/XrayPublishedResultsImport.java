@@ -0,0 +1,71 @@
+package com.xpandit.plugins.xrayjenkins.task;
+
+import com.xpandit.plugins.xrayjenkins.Utils.JUnitReportWriter;
+import com.xpandit.xray.model.Endpoint;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.tasks.junit.TestResult;
+import hudson.tasks.junit.TestResultAction;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+/**
+ * Imports the JUnit results already published in the build by the JUnit publisher, instead of the workspace files:
+ * they are written into a temporary JUnit XML report, in the build directory, and imported as a single file.
+ */
+final class XrayPublishedResultsImport {
+
+    private XrayPublishedResultsImport() {}
+
+    /**
+     * @param session the uploads of the step to the instance
+     * @param build the build, with its published results
+     * @param targetEndpoint the format of the step
+     */
+    static void importResults(@Nonnull XrayImportSession session,
+                              @Nonnull Run<?, ?> build,
+                              @Nullable Endpoint targetEndpoint) throws IOException, InterruptedException {
+        final TestResultAction testResultAction = build.getAction(TestResultAction.class);
+        final FilePath report = writePublishedTestResults(targetEndpoint,
+                testResultAction != null ? testResultAction.getResult() : null,
+                build.getRootDir(),
+                session.getListener().getLogger());
+        try {
+            // Generated by this step: always imported
+            session.importFile(session.getPlan(), report, report, null, false);
+        } finally {
+            report.delete();
+        }
+    }
+
+    static FilePath writePublishedTestResults(@Nullable Endpoint targetEndpoint,
+                                              @Nullable TestResult testResult,
+                                              File folder,
+                                              PrintStream logger) throws IOException {
+        if (targetEndpoint != Endpoint.JUNIT && targetEndpoint != Endpoint.JUNIT_MULTIPART) {
+            throw new AbortException("The JUnit results published in this build can only be imported with a JUnit XML format");
+        }
+        if (testResult == null) {
+            throw new AbortException("No JUnit results were published in this build: the JUnit publisher must run before this step");
+        }
+
+        final File report = File.createTempFile("junit-results", ".xml", folder);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(report))) {
+            final int testCases = JUnitReportWriter.write(testResult, out);
+            logger.println("Importing the " + testCases + " JUnit test case(s) published in this build");
+        } catch (IOException e) {
+            Files.deleteIfExists(report.toPath());
+            throw e;
+        }
+        return new FilePath(report);
+    }
+}
@@ -0,0 +1,116 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import com.xpandit.plugins.xrayjenkins.exceptions.XrayJenkinsGenericException;
+import com.xpandit.plugins.xrayjenkins.model.ExportConflictResolution;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+public class ArchiveUtilsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final PrintStream logger = new PrintStream(new ByteArrayOutputStream());
+
+    @Test
+    public void testMergeKeepsFilesOfAllArchives() throws IOException {
+        File first = createArchive("first.zip", "a.feature", "Feature: A", "b.feature", "Feature: B");
+        File second = createArchive("second.zip", "c.feature", "Feature: C");
+        File merged = folder.newFile("merged.zip");
+
+        int files = ArchiveUtils.mergeArchives(Arrays.asList(first, second), merged, ExportConflictResolution.KEEP_FIRST, logger);
+
+        Assert.assertEquals(3, files);
+        Map<String, String> content = readArchive(merged);
+        Assert.assertEquals("Feature: A", content.get("a.feature"));
+        Assert.assertEquals("Feature: B", content.get("b.feature"));
+        Assert.assertEquals("Feature: C", content.get("c.feature"));
+    }
+
+    @Test
+    public void testMergeAddsIdenticalFilesOnce() throws IOException {
+        File first = createArchive("first.zip", "a.feature", "Feature: A");
+        File second = createArchive("second.zip", "a.feature", "Feature: A");
+        File merged = folder.newFile("merged.zip");
+
+        int files = ArchiveUtils.mergeArchives(Arrays.asList(first, second), merged, ExportConflictResolution.FAIL, logger);
+
+        Assert.assertEquals(1, files);
+        Assert.assertEquals(1, readArchive(merged).size());
+    }
+
+    @Test
+    public void testMergeConflictKeepFirst() throws IOException {
+        File first = createArchive("first.zip", "a.feature", "Feature: first");
+        File second = createArchive("second.zip", "a.feature", "Feature: second");
+        File merged = folder.newFile("merged.zip");
+
+        ArchiveUtils.mergeArchives(Arrays.asList(first, second), merged, ExportConflictResolution.KEEP_FIRST, logger);
+
+        Assert.assertEquals("Feature: first", readArchive(merged).get("a.feature"));
+    }
+
+    @Test
+    public void testMergeConflictKeepLast() throws IOException {
+        File first = createArchive("first.zip", "a.feature", "Feature: first");
+        File second = createArchive("second.zip", "a.feature", "Feature: second");
+        File merged = folder.newFile("merged.zip");
+
+        ArchiveUtils.mergeArchives(Arrays.asList(first, second), merged, ExportConflictResolution.KEEP_LAST, logger);
+
+        Assert.assertEquals("Feature: second", readArchive(merged).get("a.feature"));
+    }
+
+    @Test(expected = XrayJenkinsGenericException.class)
+    public void testMergeConflictFail() throws IOException {
+        File first = createArchive("first.zip", "a.feature", "Feature: first");
+        File second = createArchive("second.zip", "a.feature", "Feature: second");
+
+        ArchiveUtils.mergeArchives(Arrays.asList(first, second), folder.newFile("merged.zip"), ExportConflictResolution.FAIL, logger);
+    }
+
+    private File createArchive(String name, String... namesAndContents) throws IOException {
+        File archive = folder.newFile(name);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive))) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                out.putNextEntry(new ZipEntry(namesAndContents[i]));
+                out.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return archive;
+    }
+
+    private Map<String, String> readArchive(File archive) throws IOException {
+        Map<String, String> content = new HashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                content.put(entry.getName(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+        return content;
+    }
+}
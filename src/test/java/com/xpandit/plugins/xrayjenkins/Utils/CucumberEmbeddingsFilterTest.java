@@ -0,0 +1,61 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+public class CucumberEmbeddingsFilterTest {
+
+    private static final String SMALL = Base64.getEncoder().encodeToString(new byte[10]);
+    private static final String LARGE = Base64.getEncoder().encodeToString(new byte[1000]);
+
+    private static final String REPORT = "[{\"id\":\"login\",\"name\":\"Login\",\"elements\":["
+            + "{\"name\":\"Valid login\",\"steps\":["
+            + "{\"name\":\"step 1\",\"result\":{\"status\":\"passed\"},\"embeddings\":[{\"data\":\"" + LARGE + "\",\"mime_type\":\"image/png\"}]},"
+            + "{\"name\":\"step 2\",\"result\":{\"status\":\"failed\"},\"embeddings\":[{\"mime_type\":\"image/png\",\"data\":\"" + SMALL + "\"},"
+            + "{\"data\":\"" + SMALL + "\",\"mime_type\":\"text/plain\",\"name\":\"log\"}]}"
+            + "]},"
+            + "{\"name\":\"Invalid login\",\"after\":[{\"result\":{\"status\":\"passed\"},\"embeddings\":[{\"data\":\"" + SMALL + "\",\"mime_type\":\"image/png\"}]}]}"
+            + "]}]";
+
+    @Test
+    public void testCapEmbeddings() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final CucumberEmbeddingsFilter.Removed removed = new CucumberEmbeddingsFilter(1, 100).filter(stream(), out);
+
+        Assert.assertEquals(2, removed.getEmbeddings());
+        // Only the removed embeddings are counted, not the rest of the report
+        final String largeEmbedding = "{\"data\":\"" + LARGE + "\",\"mime_type\":\"image/png\"}";
+        final String logEmbedding = "{\"data\":\"" + SMALL + "\",\"mime_type\":\"text/plain\",\"name\":\"log\"}";
+        Assert.assertEquals(largeEmbedding.length() + logEmbedding.length(), removed.getBytes());
+        final JsonNode scenarios = new ObjectMapper().readTree(out.toByteArray()).get(0).get("elements");
+
+        final JsonNode steps = scenarios.get(0).get("steps");
+        Assert.assertEquals(0, steps.get(0).get("embeddings").size());
+        Assert.assertEquals(1, steps.get(1).get("embeddings").size());
+        Assert.assertEquals(SMALL, steps.get(1).get("embeddings").get(0).get("data").asText());
+        Assert.assertEquals("image/png", steps.get(1).get("embeddings").get(0).get("mime_type").asText());
+        Assert.assertEquals("failed", steps.get(1).get("result").get("status").asText());
+
+        // Each scenario has its own count
+        Assert.assertEquals(1, scenarios.get(1).get("after").get(0).get("embeddings").size());
+    }
+
+    @Test
+    public void testDropEmbeddings() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(4, new CucumberEmbeddingsFilter(0, CucumberEmbeddingsFilter.UNLIMITED).filter(stream(), out).getEmbeddings());
+        Assert.assertFalse(new String(out.toByteArray(), StandardCharsets.UTF_8).contains("mime_type"));
+    }
+
+    private static ByteArrayInputStream stream() {
+        return new ByteArrayInputStream(REPORT.getBytes(StandardCharsets.UTF_8));
+    }
+}
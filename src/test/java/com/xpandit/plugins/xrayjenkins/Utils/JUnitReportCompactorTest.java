@@ -0,0 +1,119 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class JUnitReportCompactorTest {
+
+    private static final String REPORT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<!-- generated -->"
+            + "<testsuite name=\"CalcTest\" tests=\"2\">"
+            + "<testcase classname=\"CalcTest\" name=\"testSum\"><system-out>0123456789</system-out></testcase>"
+            + "<testcase classname=\"CalcTest\" name=\"testDivide\">"
+            + "<failure message=\"expected &lt;2&gt;\"><![CDATA[AssertionError at line 1 & more]]></failure>"
+            + "<system-err>err</system-err>"
+            + "</testcase>"
+            + "</testsuite>";
+
+    private static final String RERUNS_REPORT = "<testsuite name=\"CalcTest\" tests=\"4\">"
+            + "<testcase classname=\"CalcTest\" name=\"testFlaky\">"
+            + "<flakyFailure message=\"first\"><stackTrace>trace</stackTrace><system-out>out</system-out></flakyFailure>"
+            + "<system-out>final run</system-out>"
+            + "</testcase>"
+            + "<testcase classname=\"CalcTest\" name=\"testBroken\">"
+            + "<failure message=\"last\">trace</failure><rerunFailure message=\"rerun\">trace</rerunFailure>"
+            + "</testcase>"
+            + "<testcase classname=\"CalcTest\" name=\"testPlain\"/>"
+            + "<testcase classname=\"CalcTest\" name=\"testRepeated\"><failure message=\"run 1\"/></testcase>"
+            + "<testcase classname=\"CalcTest\" name=\"testRepeated\"/>"
+            + "</testsuite>";
+
+    // Parameterized tests, a data provider and a rerun of a test with properties
+    private static final String REPEATED_REPORT = "<testsuite name=\"CalcTest\" tests=\"6\">"
+            + "<testcase classname=\"CalcTest\" name=\"testParameterized\"/>"
+            + "<testcase classname=\"CalcTest\" name=\"testParameterized\"><failure message=\"case 2\"/></testcase>"
+            + "<testcase classname=\"CalcTest\" name=\"testDataProvider\"><skipped/></testcase>"
+            + "<testcase classname=\"CalcTest\" name=\"testDataProvider\"/>"
+            + "<testcase classname=\"CalcTest\" name=\"testTagged\"><properties><property name=\"tag\" value=\"a\"/></properties>"
+            + "<error message=\"timeout\"/></testcase>"
+            + "<testcase classname=\"CalcTest\" name=\"testTagged\"><properties><property name=\"tag\" value=\"b\"/></properties></testcase>"
+            + "</testsuite>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCollapseReruns() throws IOException {
+        final File report = folder.newFile("TEST-CalcTest.xml");
+        Files.write(report.toPath(), RERUNS_REPORT.getBytes(StandardCharsets.UTF_8));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JUnitReportCompactor(JUnitReportCompactor.UNLIMITED, JUnitReportCompactor.UNLIMITED, true).compact(report, out);
+        final String compacted = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+        Assert.assertTrue(compacted.contains("<testcase classname=\"CalcTest\" name=\"testFlaky\">"
+                + "<properties><property name=\"reruns\" value=\"1\"/></properties><system-out>final run</system-out></testcase>"));
+        Assert.assertTrue(compacted.contains("<testcase classname=\"CalcTest\" name=\"testBroken\">"
+                + "<properties><property name=\"reruns\" value=\"1\"/></properties><failure message=\"last\">trace</failure></testcase>"));
+        Assert.assertFalse(compacted.contains("run 1"));
+        Assert.assertTrue(compacted.contains("<testcase classname=\"CalcTest\" name=\"testPlain\"></testcase>"
+                + "<testcase classname=\"CalcTest\" name=\"testRepeated\"><properties><property name=\"reruns\" value=\"1\"/></properties></testcase>"));
+    }
+
+    @Test
+    public void testCollapseOnlyReruns() throws IOException {
+        final File report = folder.newFile("TEST-CalcTest.xml");
+        Files.write(report.toPath(), REPEATED_REPORT.getBytes(StandardCharsets.UTF_8));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JUnitReportCompactor(JUnitReportCompactor.UNLIMITED, JUnitReportCompactor.UNLIMITED, true).compact(report, out);
+        final String compacted = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+        // Not after a failure of the same test: not reruns
+        Assert.assertTrue(compacted.contains("<testcase classname=\"CalcTest\" name=\"testParameterized\"></testcase>"
+                + "<testcase classname=\"CalcTest\" name=\"testParameterized\"><failure message=\"case 2\"></failure></testcase>"));
+        Assert.assertTrue(compacted.contains("<testcase classname=\"CalcTest\" name=\"testDataProvider\"><skipped></skipped></testcase>"
+                + "<testcase classname=\"CalcTest\" name=\"testDataProvider\"></testcase>"));
+        // Rerun after an error: the count goes into the existing properties
+        Assert.assertFalse(compacted.contains("timeout"));
+        Assert.assertTrue(compacted.contains("<testcase classname=\"CalcTest\" name=\"testTagged\"><properties>"
+                + "<property name=\"reruns\" value=\"1\"/><property name=\"tag\" value=\"b\"></property></properties></testcase>"));
+        Assert.assertEquals(compacted.indexOf("<properties>"), compacted.lastIndexOf("<properties>"));
+    }
+
+    @Test
+    public void testRemoveSystemOutput() throws IOException {
+        final String compacted = compact(new JUnitReportCompactor(0, JUnitReportCompactor.UNLIMITED));
+
+        Assert.assertFalse(compacted.contains("system-out"));
+        Assert.assertFalse(compacted.contains("system-err"));
+        Assert.assertFalse(compacted.contains("generated"));
+        Assert.assertTrue(compacted.contains("message=\"expected &lt;2&gt;\""));
+        Assert.assertTrue(compacted.contains("AssertionError at line 1 &amp; more</failure>"));
+    }
+
+    @Test
+    public void testCapSystemOutputAndFailureBody() throws IOException {
+        final String compacted = compact(new JUnitReportCompactor(4, 14));
+
+        Assert.assertTrue(compacted.contains("<system-out>0123\n[6 characters removed before importing to Xray]</system-out>"));
+        Assert.assertTrue(compacted.contains("<system-err>err</system-err>"));
+        Assert.assertTrue(compacted.contains(">AssertionError\n[17 characters removed before importing to Xray]</failure>"));
+        Assert.assertTrue(compacted.endsWith("</testcase></testsuite>"));
+    }
+
+    private static String compact(JUnitReportCompactor compactor) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compactor.compact(new ByteArrayInputStream(REPORT.getBytes(StandardCharsets.UTF_8)), out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
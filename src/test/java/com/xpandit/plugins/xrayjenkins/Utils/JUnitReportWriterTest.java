@@ -0,0 +1,85 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.junit.SuiteResult;
+import hudson.tasks.junit.TestResult;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JUnitReportWriterTest {
+
+    private static final String REPORT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<testsuite name=\"com.example.LoginTest\" tests=\"3\" time=\"1.5\" timestamp=\"2026-10-19T10:00:00\">"
+            + "<testcase classname=\"com.example.LoginTest\" name=\"testLogin\" time=\"0.5\">"
+            + "<system-out>logged in</system-out></testcase>"
+            + "<testcase classname=\"com.example.LoginTest\" name=\"testLogout\" time=\"1\">"
+            + "<failure message=\"expected &lt;true&gt;\">java.lang.AssertionError: expected &lt;true&gt;</failure></testcase>"
+            + "<testcase classname=\"com.example.LoginTest\" name=\"testRemember\"><skipped/></testcase>"
+            + "</testsuite>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPublishedResultsWrittenBack() throws Exception {
+        final TestResult published = parse(write("published.xml", REPORT));
+
+        final File written = folder.newFile("written.xml");
+        try (OutputStream out = new FileOutputStream(written)) {
+            Assert.assertEquals(3, JUnitReportWriter.write(published, out));
+        }
+
+        final String xml = new String(Files.readAllBytes(written.toPath()), StandardCharsets.UTF_8);
+        Assert.assertTrue(xml.contains("tests=\"3\" failures=\"1\" errors=\"0\" skipped=\"1\" time=\"1.500\""));
+        Assert.assertTrue(xml.contains("timestamp=\"2026-10-19T10:00:00\""));
+
+        final List<SuiteResult> suites = new ArrayList<>(parse(written).getSuites());
+        Assert.assertEquals(1, suites.size());
+        Assert.assertEquals("com.example.LoginTest", suites.get(0).getName());
+
+        final List<CaseResult> cases = suites.get(0).getCases();
+        Assert.assertEquals(3, cases.size());
+        Assert.assertTrue(cases.get(0).isPassed());
+        Assert.assertEquals("logged in", cases.get(0).getStdout());
+        Assert.assertEquals(0.5, cases.get(0).getDuration(), 0.001);
+        Assert.assertTrue(cases.get(1).isFailed());
+        Assert.assertEquals("expected <true>", cases.get(1).getErrorDetails());
+        Assert.assertEquals("java.lang.AssertionError: expected <true>", cases.get(1).getErrorStackTrace());
+        Assert.assertTrue(cases.get(2).isSkipped());
+        Assert.assertEquals("testRemember", cases.get(2).getName());
+    }
+
+    @Test
+    public void testEmptyResults() throws Exception {
+        final TestResult published = parse(write("empty.xml", "<testsuite name=\"empty\" tests=\"0\"/>"));
+
+        final File written = folder.newFile("written.xml");
+        try (OutputStream out = new FileOutputStream(written)) {
+            Assert.assertEquals(0, JUnitReportWriter.write(published, out));
+        }
+        Assert.assertEquals(1, parse(written).getSuites().size());
+    }
+
+    private File write(String name, String content) throws Exception {
+        final File file = folder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static TestResult parse(File report) throws Exception {
+        final TestResult result = new TestResult();
+        result.parse(report);
+        result.tally();
+        return result;
+    }
+}
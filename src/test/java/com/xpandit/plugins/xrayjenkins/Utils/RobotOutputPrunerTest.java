@@ -0,0 +1,79 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class RobotOutputPrunerTest {
+
+    private static final String OUTPUT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<robot generator=\"Robot 4.1\">"
+            + "<suite id=\"s1\" name=\"Login\">"
+            + "<test id=\"s1-t1\" name=\"Valid Login\">"
+            + "<kw name=\"Open Browser\"><arguments><arg>chrome</arg></arguments><msg level=\"INFO\">opened</msg><status status=\"PASS\"/></kw>"
+            + "<tags><tag>CALC-1</tag></tags>"
+            + "<status status=\"PASS\"/>"
+            + "</test>"
+            + "<test id=\"s1-t2\" name=\"Invalid Login\">"
+            + "<for flavor=\"IN\">"
+            + "<iter><kw name=\"Iteration 1\"><status status=\"PASS\"/></kw><status status=\"PASS\"/></iter>"
+            + "<iter><kw name=\"Iteration 2\"><status status=\"PASS\"/></kw><status status=\"PASS\"/></iter>"
+            + "<iter><kw name=\"Iteration 3\"><status status=\"PASS\"/></kw><status status=\"PASS\"/></iter>"
+            + "<status status=\"PASS\"/>"
+            + "</for>"
+            + "<kw name=\"Wait Until Keyword Succeeds\" library=\"BuiltIn\">"
+            + "<kw name=\"Attempt 1\"><status status=\"FAIL\"/></kw>"
+            + "<kw name=\"Attempt 2\"><status status=\"FAIL\"/></kw>"
+            + "<status status=\"FAIL\"/>"
+            + "</kw>"
+            + "<tags><tag>CALC-2</tag></tags>"
+            + "<status status=\"FAIL\">Login failed</status>"
+            + "</test>"
+            + "<status status=\"FAIL\"/>"
+            + "</suite>"
+            + "<statistics><total><stat pass=\"1\" fail=\"1\">All Tests</stat></total></statistics>"
+            + "</robot>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPrunePassedTests() throws IOException {
+        final String pruned = prune(new RobotOutputPruner(false));
+
+        Assert.assertFalse(pruned.contains("Open Browser"));
+        Assert.assertTrue(pruned.contains("<test id=\"s1-t1\" name=\"Valid Login\"><tags><tag>CALC-1</tag></tags><status status=\"PASS\"></status></test>"));
+        Assert.assertTrue(pruned.contains("Iteration 1"));
+        Assert.assertTrue(pruned.contains("Attempt 1"));
+        Assert.assertTrue(pruned.contains("Login failed"));
+        Assert.assertTrue(pruned.contains("All Tests"));
+    }
+
+    @Test
+    public void testPruneLoops() throws IOException {
+        final String pruned = prune(new RobotOutputPruner(true));
+
+        Assert.assertFalse(pruned.contains("Iteration 1"));
+        Assert.assertFalse(pruned.contains("Iteration 2"));
+        Assert.assertTrue(pruned.contains("Iteration 3"));
+        Assert.assertFalse(pruned.contains("Attempt 1"));
+        Assert.assertTrue(pruned.contains("Attempt 2"));
+        Assert.assertTrue(pruned.contains("<tag>CALC-2</tag>"));
+    }
+
+    private String prune(RobotOutputPruner pruner) throws IOException {
+        final File output = folder.newFile("output.xml");
+        Files.write(output.toPath(), OUTPUT.getBytes(StandardCharsets.UTF_8));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pruner.prune(output, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
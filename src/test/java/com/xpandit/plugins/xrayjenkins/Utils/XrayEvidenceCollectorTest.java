@@ -0,0 +1,81 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class XrayEvidenceCollectorTest {
+
+    @Rule
+    public TemporaryFolder workspace = new TemporaryFolder();
+
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+    @Test
+    public void testIdenticalFilesAttachedOnce() throws Exception {
+        write("screenshots/LoginTest/testLogin.png", "login");
+        write("screenshots/LoginTest/testLogin-copy.png", "login");
+        write("screenshots/LoginTest/testLogout.png", "logout");
+
+        final XrayEvidenceCollector collector = collector("com\\.example\\.(\\w+)\\.\\w+=screenshots/$1/*.png", 1024, 1024);
+
+        // The first test gets one of the identical files
+        Assert.assertEquals(2, collector.getEvidence("com.example.LoginTest.testLogin").size());
+        // The same files matched again for another test are not attached twice
+        Assert.assertTrue(collector.getEvidence("com.example.LoginTest.testLogout").isEmpty());
+        Assert.assertEquals(2, collector.getAttachedFiles());
+        Assert.assertEquals("login".length() + "logout".length(), collector.getTotalBytes());
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        write("screenshots/a.png", "0123456789");
+        write("screenshots/b.png", "abcdefghij");
+        write("screenshots/c.png", "ABCDEFGHIJKLMNOPQRST");
+
+        final XrayEvidenceCollector collector = collector("com\\.example\\..*=screenshots/*.png", 15, 15);
+
+        final List<String> names = new ArrayList<>();
+        for (XrayJsonResultsConverter.Evidence evidence : collector.getEvidence("com.example.Test.test")) {
+            names.add(evidence.getFileName());
+        }
+        Assert.assertEquals(1, names.size());
+        Assert.assertEquals("a.png", names.get(0));
+
+        final String output = new String(log.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(output.contains("c.png not attached"));
+        Assert.assertTrue(output.contains("Maximum total size of the evidence (15 bytes) reached"));
+    }
+
+    @Test
+    public void testNoMapping() throws Exception {
+        final XrayEvidenceCollector collector = collector("com\\.example\\.Other\\..*=screenshots/*.png", 1024, 1024);
+        Assert.assertTrue(collector.getEvidence("com.example.Test.test").isEmpty());
+    }
+
+    private XrayEvidenceCollector collector(String mapping, long maxFileBytes, long maxTotalBytes) {
+        final PrintStream logger = new PrintStream(log, true);
+        final TaskListener listener = (TaskListener) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{TaskListener.class},
+                (proxy, method, args) -> "getLogger".equals(method.getName()) ? logger : null);
+        return new XrayEvidenceCollector(new FilePath(workspace.getRoot()), mapping, maxFileBytes, maxTotalBytes, listener);
+    }
+
+    private void write(String path, String content) throws Exception {
+        final File file = new File(workspace.getRoot(), path);
+        Assert.assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,142 @@
+package com.xpandit.plugins.xrayjenkins.Utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xpandit.plugins.xrayjenkins.model.HostingType;
+import com.xpandit.xray.model.QueryParameter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+public class XrayJsonResultsConverterTest {
+
+    private static final String JUNIT_REPORT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<testsuite name=\"com.example.CalcTest\" tests=\"3\">"
+            + "<testcase classname=\"com.example.CalcTest\" name=\"testSum_CALC_1\" time=\"0.1\"><system-out>lots of output</system-out></testcase>"
+            + "<testcase classname=\"com.example.CalcTest\" name=\"testDivide\" time=\"0.2\">"
+            + "<failure message=\"expected 2 but was 3\" type=\"AssertionError\">java.lang.AssertionError: expected 2 but was 3\n\tat ...</failure>"
+            + "</testcase>"
+            + "<testcase classname=\"com.example.CalcTest\" name=\"testSkipped\"><skipped/></testcase>"
+            + "</testsuite>";
+
+    private static final String TESTNG_REPORT = "<testng-results><suite name=\"Suite\"><test name=\"Test\">"
+            + "<class name=\"com.example.LoginTest\">"
+            + "<test-method status=\"PASS\" name=\"setUp\" is-config=\"true\"/>"
+            + "<test-method status=\"FAIL\" name=\"testLogin\"><exception class=\"java.lang.AssertionError\">"
+            + "<message><![CDATA[0123456789ABCDEFGHIJ]]></message><full-stacktrace><![CDATA[at ...]]></full-stacktrace>"
+            + "</exception></test-method>"
+            + "</class></test></suite></testng-results>";
+
+    private static final String NUNIT_REPORT = "<test-run><test-suite type=\"TestFixture\">"
+            + "<test-case fullname=\"Example.MathTest.Add\" name=\"Add\" result=\"Passed\"/>"
+            + "<test-case fullname=\"Example.MathTest.Ignored\" name=\"Ignored\" result=\"Skipped\"><reason><message>later</message></reason></test-case>"
+            + "</test-suite></test-run>";
+
+    @Test
+    public void testConvertReports() throws IOException {
+        final Map<QueryParameter, String> params = new EnumMap<>(QueryParameter.class);
+        params.put(QueryParameter.PROJECT_KEY, "CALC");
+        params.put(QueryParameter.TEST_ENVIRONMENTS, "chrome;linux");
+
+        final XrayJsonResultsConverter converter = new XrayJsonResultsConverter(HostingType.SERVER, ".*_(CALC_\\d+)=$1", 10);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (XrayJsonResultsConverter.Document document = converter.open(out, params)) {
+            Assert.assertEquals(3, document.add(stream(JUNIT_REPORT), "junit.xml"));
+            Assert.assertEquals(1, document.add(stream(TESTNG_REPORT), "testng-results.xml"));
+            Assert.assertEquals(2, document.add(stream(NUNIT_REPORT), "TestResult.xml"));
+            Assert.assertEquals(6, document.getTestCount());
+        }
+
+        final JsonNode json = new ObjectMapper().readTree(out.toByteArray());
+        Assert.assertFalse(json.has("testExecutionKey"));
+        Assert.assertEquals("CALC", json.get("info").get("project").asText());
+        Assert.assertEquals(2, json.get("info").get("testEnvironments").size());
+
+        final JsonNode tests = json.get("tests");
+        Assert.assertEquals(6, tests.size());
+
+        Assert.assertEquals("CALC_1", tests.get(0).get("testKey").asText());
+        Assert.assertEquals("PASS", tests.get(0).get("status").asText());
+        Assert.assertFalse(tests.get(0).has("comment"));
+
+        Assert.assertEquals("com.example.CalcTest.testDivide", tests.get(1).get("testInfo").get("definition").asText());
+        Assert.assertEquals("CALC", tests.get(1).get("testInfo").get("projectKey").asText());
+        Assert.assertEquals("FAIL", tests.get(1).get("status").asText());
+        Assert.assertEquals("expecte...", tests.get(1).get("comment").asText());
+
+        Assert.assertEquals("TODO", tests.get(2).get("status").asText());
+
+        Assert.assertEquals("com.example.LoginTest.testLogin", tests.get(3).get("testInfo").get("definition").asText());
+        Assert.assertEquals("0123456...", tests.get(3).get("comment").asText());
+
+        Assert.assertEquals("Example.MathTest.Add", tests.get(4).get("testInfo").get("definition").asText());
+        Assert.assertEquals("Add", tests.get(4).get("testInfo").get("summary").asText());
+        Assert.assertEquals("TODO", tests.get(5).get("status").asText());
+    }
+
+    @Test
+    public void testCloudStatusNames() throws IOException {
+        final XrayJsonResultsConverter converter = new XrayJsonResultsConverter(HostingType.CLOUD, null, 0);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (XrayJsonResultsConverter.Document document = converter.open(out, new EnumMap<>(QueryParameter.class))) {
+            document.add(stream(JUNIT_REPORT), "junit.xml");
+        }
+
+        final JsonNode tests = new ObjectMapper().readTree(out.toByteArray()).get("tests");
+        Assert.assertEquals("PASSED", tests.get(0).get("status").asText());
+        Assert.assertEquals("FAILED", tests.get(1).get("status").asText());
+        Assert.assertEquals("expected 2 but was 3", tests.get(1).get("comment").asText());
+    }
+
+    @Test
+    public void testEvidence() throws IOException {
+        final byte[] screenshot = new byte[]{1, 2, 3, 4, 5};
+        final XrayJsonResultsConverter.EvidenceSource evidenceSource = testName -> {
+            if (!testName.endsWith("testDivide")) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(new XrayJsonResultsConverter.Evidence() {
+                @Override
+                public String getFileName() {
+                    return "testDivide.png";
+                }
+
+                @Override
+                public InputStream open() {
+                    return new ByteArrayInputStream(screenshot);
+                }
+            });
+        };
+
+        final XrayJsonResultsConverter converter = new XrayJsonResultsConverter(HostingType.CLOUD, null, 0);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (XrayJsonResultsConverter.Document document = converter.open(out, new EnumMap<>(QueryParameter.class), evidenceSource)) {
+            document.add(stream(JUNIT_REPORT), "junit.xml");
+        }
+
+        final JsonNode tests = new ObjectMapper().readTree(out.toByteArray()).get("tests");
+        Assert.assertFalse(tests.get(0).has("evidence"));
+        final JsonNode evidence = tests.get(1).get("evidence").get(0);
+        Assert.assertEquals("testDivide.png", evidence.get("filename").asText());
+        Assert.assertEquals("image/png", evidence.get("contentType").asText());
+        Assert.assertEquals(Base64.getEncoder().encodeToString(screenshot), evidence.get("data").asText());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMapping() {
+        TestNameMapping.parse("(unclosed=KEY-1");
+    }
+
+    private static ByteArrayInputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
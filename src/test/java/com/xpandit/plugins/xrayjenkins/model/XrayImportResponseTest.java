@@ -0,0 +1,67 @@
+package com.xpandit.plugins.xrayjenkins.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+public class XrayImportResponseTest {
+
+    @Test
+    public void testServerResultsImport() {
+        final String message = "{\"testExecIssue\":{\"id\":\"10001\",\"key\":\"XT-1\",\"self\":\"http://jira/rest/api/2/issue/10001\"},"
+                + "\"testIssues\":{\"success\":[{\"id\":\"10002\",\"key\":\"XT-2\"},{\"id\":\"10003\",\"key\":\"XT-3\"}],"
+                + "\"error\":[{\"key\":\"XT-4\",\"messages\":[\"error\"]}]},"
+                + "\"infoMessages\":[]}";
+
+        final XrayImportResponse response = XrayImportResponse.parse(200, message);
+
+        Assert.assertTrue(response.isSuccessful());
+        Assert.assertEquals("XT-1", response.getTestExecutionKey());
+        Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("XT-2", "XT-3")), response.getTestKeys());
+    }
+
+    @Test
+    public void testCloudResultsImport() {
+        final XrayImportResponse response = XrayImportResponse.parse(200, "{\"id\":\"10001\",\"key\":\"XT-1\",\"self\":\"https://jira/rest/api/2/issue/10001\"}");
+
+        Assert.assertEquals("XT-1", response.getTestExecutionKey());
+        Assert.assertTrue(response.getTestKeys().isEmpty());
+    }
+
+    @Test
+    public void testServerFeaturesImport() {
+        final String message = "[{\"id\":\"10002\",\"key\":\"XT-2\",\"issueType\":{\"id\":\"1\",\"name\":\"Test\"}},"
+                + "{\"id\":\"10005\",\"key\":\"XT-5\",\"issueType\":{\"id\":\"2\",\"name\":\"Pre-Condition\"}}]";
+
+        final XrayImportResponse response = XrayImportResponse.parse(200, message);
+
+        Assert.assertNull(response.getTestExecutionKey());
+        Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("XT-2", "XT-5")), response.getImportedFeatureIssueKeys());
+    }
+
+    @Test
+    public void testCloudFeaturesImport() {
+        final String message = "{\"errors\":[],"
+                + "\"updatedOrCreatedTests\":[{\"id\":\"10002\",\"key\":\"XT-2\",\"self\":\"https://jira\"}],"
+                + "\"updatedOrCreatedPreconditions\":[{\"id\":\"10005\",\"key\":\"XT-5\",\"self\":\"https://jira\"}]}";
+
+        final XrayImportResponse response = XrayImportResponse.parse(200, message);
+
+        Assert.assertNull(response.getTestExecutionKey());
+        Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("XT-2")), response.getTestKeys());
+        Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("XT-5")), response.getPreconditionKeys());
+        Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("XT-2", "XT-5")), response.getImportedFeatureIssueKeys());
+    }
+
+    @Test
+    public void testNotJsonResponse() {
+        final XrayImportResponse response = XrayImportResponse.parse(500, "<html>Internal Server Error</html>");
+
+        Assert.assertFalse(response.isSuccessful());
+        Assert.assertNull(response.getTestExecutionKey());
+        Assert.assertTrue(response.getImportedFeatureIssueKeys().isEmpty());
+        Assert.assertEquals("<html>Internal Server Error</html>", response.getMessage());
+    }
+}
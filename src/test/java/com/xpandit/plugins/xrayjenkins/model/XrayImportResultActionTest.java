@@ -0,0 +1,53 @@
+package com.xpandit.plugins.xrayjenkins.model;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class XrayImportResultActionTest {
+
+    @Rule
+    public TemporaryFolder rootDir = new TemporaryFolder();
+
+    @Test
+    public void testResultsStoredInBuildDirectory() throws Exception {
+        final XrayImportResultAction action = new XrayImportResultAction(rootDir.getRoot());
+        Assert.assertTrue(action.getImports().isEmpty());
+        Assert.assertNull(action.getLatestImport());
+
+        action.add(result("JUnit XML", "report-1.xml", "{\"key\":\"XT-1\"}"));
+        action.add(result("Cucumber JSON", "cucumber.json", "{\"key\":\"XT-2\"}"));
+        Assert.assertEquals(1, rootDir.getRoot().list().length);
+
+        // As if the build was loaded again: nothing but the build directory is kept in build.xml
+        final XrayImportResultAction loaded = new XrayImportResultAction(rootDir.getRoot());
+        Assert.assertEquals(2, loaded.getImports().size());
+        Assert.assertEquals("JUnit XML", loaded.getImports().get(0).getType());
+        Assert.assertEquals("report-1.xml", loaded.getImports().get(0).getFiles().get(0).getFileName());
+        Assert.assertEquals(Collections.singletonList("XT-2"), loaded.getLatestImport().getTestExecutionKeys());
+        Assert.assertEquals(1234, loaded.getLatestImport().getBytes());
+    }
+
+    @Test
+    public void testResultsKeepImportOrder() throws Exception {
+        final XrayImportResultAction action = new XrayImportResultAction(rootDir.getRoot());
+        action.add(result("JUnit XML", "a.xml", "{\"key\":\"XT-3\"}"));
+        action.add(result("JUnit XML", "b.xml", "{\"key\":\"XT-1\"}"));
+        action.add(result("JUnit XML", "c.xml", "{\"key\":\"XT-2\"}"));
+
+        final XrayImportResultAction loaded = new XrayImportResultAction(rootDir.getRoot());
+        Assert.assertEquals(Arrays.asList("a.xml", "b.xml", "c.xml"), Arrays.asList(
+                loaded.getImports().get(0).getFiles().get(0).getFileName(),
+                loaded.getImports().get(1).getFiles().get(0).getFileName(),
+                loaded.getImports().get(2).getFiles().get(0).getFileName()));
+    }
+
+    private static XrayImportResult result(String type, String fileName, String message) {
+        final XrayImportFileResult file = new XrayImportFileResult(fileName, XrayImportResponse.parse(200, message), 10, 1234);
+        return new XrayImportResult(type, "Xray", Collections.singletonList(file));
+    }
+}
@@ -0,0 +1,111 @@
+package com.xpandit.plugins.xrayjenkins.services.balancer;
+
+import com.xpandit.plugins.xrayjenkins.model.HostingType;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+public class XrayNodeBalancerTest {
+
+    @Test
+    public void testLeastOutstandingWeightedByLatency() {
+        final List<String> nodes = Arrays.asList("http://latency-1", "http://latency-2");
+        // Both nodes get a first request, then node 1 turns out to be much slower
+        final XrayNodeBalancer.Node slow = XrayNodeBalancer.acquire(nodes);
+        final XrayNodeBalancer.Node fast = XrayNodeBalancer.acquire(nodes);
+        Assert.assertNotSame(slow, fast);
+        Assert.assertEquals(2, XrayNodeBalancer.getStatuses(instance(nodes)).size());
+        slow.complete(0, 1000, false);
+        fast.complete(0, 100, false);
+
+        Assert.assertSame(fast, XrayNodeBalancer.acquire(nodes));
+        Assert.assertEquals(1, XrayNodeBalancer.getStatus("http://latency-2").getOutstanding());
+        // Still cheaper with a request in flight (2 * 100 ms < 1000 ms)
+        Assert.assertSame(fast, XrayNodeBalancer.acquire(nodes));
+        Assert.assertEquals(2, XrayNodeBalancer.getStatus("http://latency-2").getOutstanding());
+        fast.complete(0, 100, false);
+        fast.complete(0, 100, false);
+        Assert.assertEquals(100, XrayNodeBalancer.getStatus("http://latency-2").getEwmaLatencyMillis(), 0.1);
+    }
+
+    @Test
+    public void testUnhealthyNodesSkipped() {
+        final List<String> nodes = Arrays.asList("http://health-1", "http://health-2");
+        final long now = System.currentTimeMillis();
+        final XrayNodeBalancer.Node failed = XrayNodeBalancer.acquire(nodes);
+        failed.complete(now - 10, now, true);
+        Assert.assertTrue(XrayNodeBalancer.getStatus("http://health-1").isUnhealthy());
+
+        final XrayNodeBalancer.Node healthy = XrayNodeBalancer.acquire(nodes);
+        Assert.assertNotSame(failed, healthy);
+        healthy.complete(now - 10, now + 1, true);
+
+        // When all the nodes failed, the first one to fail is tried again
+        final XrayNodeBalancer.Node retried = XrayNodeBalancer.acquire(nodes);
+        Assert.assertSame(failed, retried);
+        retried.complete(now + 1, now + 11, false);
+        Assert.assertFalse(XrayNodeBalancer.getStatus("http://health-1").isUnhealthy());
+    }
+
+    @Test
+    public void testSuccessSentBeforeFailure() {
+        final List<String> nodes = Arrays.asList("http://stale-1", "http://stale-2");
+        final long now = System.currentTimeMillis();
+        final XrayNodeBalancer.Node node = XrayNodeBalancer.acquire(nodes);
+        XrayNodeBalancer.acquire(Collections.singletonList("http://stale-1"));
+
+        node.complete(now - 100, now, true);
+        // A slow request, sent before the failure, completes afterwards
+        node.complete(now - 200, now + 10, false);
+        Assert.assertTrue(XrayNodeBalancer.getStatus("http://stale-1").isUnhealthy());
+    }
+
+    @Test
+    public void testRequestErrorsDontMakeNodesUnhealthy() throws Throwable {
+        final List<String> nodes = Arrays.asList("http://errors-1", "http://errors-2");
+        final Method get = Supplier.class.getMethod("get");
+
+        final XrayNodeBalancer.Node rejected = XrayNodeBalancer.acquire(nodes);
+        try {
+            rejected.invoke(() -> (Supplier<Object>) () -> {
+                throw new IllegalArgumentException("Invalid project key");
+            }, get, new Object[0]);
+            Assert.fail("Expected the error of the request");
+        } catch (IllegalArgumentException e) {
+            Assert.assertFalse(XrayNodeBalancer.getStatus(rejected.getAddress()).isUnhealthy());
+        }
+
+        final XrayNodeBalancer.Node down = XrayNodeBalancer.acquire(nodes);
+        try {
+            down.invoke(() -> (Supplier<Object>) () -> {
+                throw new UncheckedIOException(new ConnectException("Connection refused"));
+            }, get, new Object[0]);
+            Assert.fail("Expected the error of the request");
+        } catch (UncheckedIOException e) {
+            Assert.assertTrue(XrayNodeBalancer.getStatus(down.getAddress()).isUnhealthy());
+        }
+    }
+
+    @Test
+    public void testNodeAddresses() {
+        final XrayInstance instance = new XrayInstance("nodes", "Jira", HostingType.SERVER, "http://jira", "credential");
+        Assert.assertEquals(Collections.singletonList("http://jira"), instance.getNodes());
+
+        instance.setNodeAddresses(" http://node-1/\n\nhttp://node-2\r\nhttp://node-1 ");
+        Assert.assertEquals(Arrays.asList("http://node-1", "http://node-2"), instance.getNodes());
+    }
+
+    private static XrayInstance instance(List<String> nodes) {
+        final XrayInstance instance = new XrayInstance("latency", "Jira", HostingType.SERVER, "http://jira", "credential");
+        instance.setNodeAddresses(String.join("\n", nodes));
+        return instance;
+    }
+}
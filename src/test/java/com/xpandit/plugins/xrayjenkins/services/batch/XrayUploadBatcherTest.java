@@ -0,0 +1,221 @@
+package com.xpandit.plugins.xrayjenkins.services.batch;
+
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResponse;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class XrayUploadBatcherTest {
+
+    private static final String IMPORTED = "{\"id\":\"10001\",\"key\":\"XT-1\",\"self\":\"https://jira/rest/api/2/issue/10001\"}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMergeCompatibleUploads() throws Exception {
+        final File first = report("first.xml", "<testsuite name=\"A\"><testcase classname=\"A\" name=\"a\"/></testsuite>");
+        final File second = report("second.xml", "<testsuites><testsuite name=\"B\"><testcase classname=\"B\" name=\"b\"/></testsuite>"
+                + "<testsuite name=\"C\"/></testsuites>");
+
+        final AtomicInteger uploads = new AtomicInteger();
+        final AtomicReference<String> uploaded = new AtomicReference<>();
+        final XrayUploadBatcher.Uploader uploader = merged -> {
+            uploads.incrementAndGet();
+            uploaded.set(new String(Files.readAllBytes(merged.toPath()), StandardCharsets.UTF_8));
+            return XrayImportResponse.parse(200, IMPORTED);
+        };
+
+        final XrayUploadBatcher.Key key = new XrayUploadBatcher.Key("instance", "credential", "junit", Collections.singletonMap("projectKey", "XT"));
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<XrayUploadBatcher.Result> firstBuild = executor.submit(
+                    () -> XrayUploadBatcher.submit(key, Collections.singletonList(first), 500, uploader));
+            final Future<XrayUploadBatcher.Result> secondBuild = executor.submit(
+                    () -> XrayUploadBatcher.submit(key, Collections.singletonList(second), 500, uploader));
+
+            for (XrayUploadBatcher.Result result : Arrays.asList(firstBuild.get(), secondBuild.get())) {
+                Assert.assertEquals(2, result.getBuilds());
+                Assert.assertEquals(2, result.getReports());
+                Assert.assertEquals("XT-1", result.getResponse().getTestExecutionKey());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(1, uploads.get());
+        // The reports of both builds are in a single root, in any order
+        final String merged = uploaded.get();
+        Assert.assertTrue(merged.contains("<testsuite name=\"A\">"));
+        Assert.assertTrue(merged.contains("<testsuite name=\"B\">"));
+        Assert.assertTrue(merged.contains("<testsuite name=\"C\">"));
+        Assert.assertEquals(merged.indexOf("<testsuites>"), merged.lastIndexOf("<testsuites>"));
+    }
+
+    @Test
+    public void testEachBuildGetsItsOwnTests() throws Exception {
+        final File first = report("first.xml", "<testsuite name=\"A\"><testcase classname=\"A\" name=\"a\"/>"
+                + "<testcase classname=\"Shared\" name=\"s\"/></testsuite>");
+        final File second = report("second.xml", "<testsuite name=\"B\"><testcase classname=\"B\" name=\"b\"/>"
+                + "<testcase classname=\"Shared\" name=\"s\"/></testsuite>");
+
+        final AtomicReference<String> uploaded = new AtomicReference<>();
+        final XrayUploadBatcher.Uploader uploader = merged -> {
+            // Xray lists each Test once, in the order of the test cases
+            final String content = new String(Files.readAllBytes(merged.toPath()), StandardCharsets.UTF_8);
+            uploaded.set(content);
+            final List<String> tests = content.indexOf("classname=\"A\"") < content.indexOf("classname=\"B\"")
+                    ? Arrays.asList("XT-2", "XT-3", "XT-4")
+                    : Arrays.asList("XT-4", "XT-3", "XT-2");
+            return XrayImportResponse.parse(200, "{\"testExecIssue\":{\"key\":\"XT-1\"},\"testIssues\":{\"success\":["
+                    + "{\"key\":\"" + tests.get(0) + "\"},{\"key\":\"" + tests.get(1) + "\"},{\"key\":\"" + tests.get(2) + "\"}]}}");
+        };
+
+        final XrayUploadBatcher.Key key = new XrayUploadBatcher.Key("instance", "shares", "junit", Collections.singletonMap("projectKey", "XT"));
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<XrayUploadBatcher.Result> firstBuild = executor.submit(
+                    () -> XrayUploadBatcher.submit(key, Collections.singletonList(first), 500, uploader));
+            final Future<XrayUploadBatcher.Result> secondBuild = executor.submit(
+                    () -> XrayUploadBatcher.submit(key, Collections.singletonList(second), 500, uploader));
+
+            Assert.assertEquals(2, firstBuild.get().getBuilds());
+            Assert.assertTrue(firstBuild.get().isTestsMatched());
+            // XT-2 for A.a, XT-3 for the shared test case and XT-4 for B.b
+            Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("XT-2", "XT-3")), firstBuild.get().getResponse().getTestKeys());
+            Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("XT-4", "XT-3")), secondBuild.get().getResponse().getTestKeys());
+            Assert.assertEquals("XT-1", secondBuild.get().getResponse().getTestExecutionKey());
+            // Also in the message, as recorded in the ledger
+            Assert.assertFalse(firstBuild.get().getResponse().getMessage().contains("XT-4"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTestsNotMatchedAreNotShared() throws Exception {
+        final File report = report("report.xml", "<testsuite name=\"A\"><testcase classname=\"A\" name=\"a\"/>"
+                + "<testcase classname=\"A\" name=\"b\"/></testsuite>");
+        // One of the test cases was rejected
+        final XrayUploadBatcher.Uploader uploader = merged -> XrayImportResponse.parse(200,
+                "{\"testExecIssue\":{\"key\":\"XT-1\"},\"testIssues\":{\"success\":[{\"key\":\"XT-2\"}]}}");
+
+        final XrayUploadBatcher.Result result = XrayUploadBatcher.submit(
+                new XrayUploadBatcher.Key("instance", "unmatched", "junit", Collections.singletonMap("projectKey", "XT")),
+                Collections.singletonList(report), 10, uploader);
+
+        Assert.assertFalse(result.isTestsMatched());
+        Assert.assertEquals("XT-1", result.getResponse().getTestExecutionKey());
+        Assert.assertTrue(result.getResponse().getTestKeys().isEmpty());
+    }
+
+    @Test
+    public void testDifferentKeysAreNotMerged() throws Exception {
+        final File report = report("report.xml", "<testsuite name=\"A\"/>");
+        final XrayUploadBatcher.Uploader uploader = merged -> XrayImportResponse.parse(200, IMPORTED);
+
+        final XrayUploadBatcher.Result first = XrayUploadBatcher.submit(
+                new XrayUploadBatcher.Key("instance", "credential", "junit", Collections.singletonMap("projectKey", "XT")),
+                Collections.singletonList(report), 10, uploader);
+        final XrayUploadBatcher.Result second = XrayUploadBatcher.submit(
+                new XrayUploadBatcher.Key("instance", "credential", "junit", Collections.singletonMap("projectKey", "OTHER")),
+                Collections.singletonList(report), 10, uploader);
+
+        Assert.assertEquals(1, first.getBuilds());
+        Assert.assertEquals(1, second.getBuilds());
+    }
+
+    @Test
+    public void testDifferentCredentialsAreNotMerged() throws Exception {
+        final File report = report("report.xml", "<testsuite name=\"A\"/>");
+        final XrayUploadBatcher.Uploader uploader = merged -> XrayImportResponse.parse(200, IMPORTED);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<XrayUploadBatcher.Result> first = executor.submit(() -> XrayUploadBatcher.submit(
+                    new XrayUploadBatcher.Key("instance", "folder-a", "junit", Collections.singletonMap("projectKey", "XT")),
+                    Collections.singletonList(report), 200, uploader));
+            final Future<XrayUploadBatcher.Result> second = executor.submit(() -> XrayUploadBatcher.submit(
+                    new XrayUploadBatcher.Key("instance", "folder-b", "junit", Collections.singletonMap("projectKey", "XT")),
+                    Collections.singletonList(report), 200, uploader));
+
+            Assert.assertEquals(1, first.get().getBuilds());
+            Assert.assertEquals(1, second.get().getBuilds());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBatchHandedBackWhenImportingBuildAborted() throws Exception {
+        final File first = report("first.xml", "<testsuite name=\"A\"/>");
+        final File second = report("second.xml", "<testsuite name=\"B\"/>");
+
+        // The first build to import the batch is aborted while importing it
+        final CountDownLatch importing = new CountDownLatch(1);
+        final AtomicReference<Thread> aborted = new AtomicReference<>();
+        final AtomicReference<String> uploaded = new AtomicReference<>();
+        final XrayUploadBatcher.Uploader uploader = merged -> {
+            if (aborted.compareAndSet(null, Thread.currentThread())) {
+                importing.countDown();
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            }
+            uploaded.set(new String(Files.readAllBytes(merged.toPath()), StandardCharsets.UTF_8));
+            return XrayImportResponse.parse(200, IMPORTED);
+        };
+
+        final XrayUploadBatcher.Key key = new XrayUploadBatcher.Key("instance", "handoff", "junit", Collections.singletonMap("projectKey", "XT"));
+        final Map<Thread, Object> outcomes = new ConcurrentHashMap<>();
+        final List<Thread> builds = new ArrayList<>();
+        for (File report : Arrays.asList(first, second)) {
+            builds.add(new Thread(() -> {
+                try {
+                    outcomes.put(Thread.currentThread(), XrayUploadBatcher.submit(key, Collections.singletonList(report), 200, uploader));
+                } catch (Exception e) {
+                    outcomes.put(Thread.currentThread(), e);
+                }
+            }));
+        }
+        builds.forEach(Thread::start);
+
+        Assert.assertTrue(importing.await(10, TimeUnit.SECONDS));
+        aborted.get().interrupt();
+        for (Thread build : builds) {
+            build.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        Assert.assertTrue(outcomes.get(aborted.get()) instanceof InterruptedException);
+        final Thread other = builds.get(0) == aborted.get() ? builds.get(1) : builds.get(0);
+        final XrayUploadBatcher.Result result = (XrayUploadBatcher.Result) outcomes.get(other);
+        // Imported by the other build, without the reports of the aborted one
+        Assert.assertEquals(1, result.getBuilds());
+        Assert.assertEquals(1, result.getReports());
+        Assert.assertEquals(1, uploaded.get().split("<testsuite ").length - 1);
+    }
+
+    private File report(String name, String xml) throws IOException {
+        final File file = folder.newFile(name);
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
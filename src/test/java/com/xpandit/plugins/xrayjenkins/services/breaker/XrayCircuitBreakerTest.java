@@ -0,0 +1,90 @@
+package com.xpandit.plugins.xrayjenkins.services.breaker;
+
+import com.xpandit.plugins.xrayjenkins.exceptions.XrayJenkinsGenericException;
+import com.xpandit.plugins.xrayjenkins.model.HostingType;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class XrayCircuitBreakerTest {
+
+    @Test
+    public void testOpenAndCloseAfterProbe() throws InterruptedException {
+        final XrayInstance instance = new XrayInstance("breaker", "Jira", HostingType.SERVER, "http://jira", "credential");
+        instance.setCircuitBreakerThreshold(2);
+        instance.setCircuitBreakerOpenSeconds(1);
+
+        final AtomicBoolean available = new AtomicBoolean(false);
+        final XrayCircuitBreaker.Probe probe = available::get;
+
+        XrayCircuitBreaker.recordFailure(instance, "Read timed out", probe);
+        XrayCircuitBreaker.checkAvailable(instance);
+        XrayCircuitBreaker.recordFailure(instance, "Read timed out", probe);
+        Assert.assertEquals(XrayCircuitBreaker.State.OPEN, XrayCircuitBreaker.getStatus("breaker").getState());
+        assertUnavailable(instance, "Read timed out");
+
+        // The first connection test fails, the second one succeeds
+        waitForState(XrayCircuitBreaker.State.OPEN, 1);
+        assertUnavailable(instance, "connection test failed");
+
+        available.set(true);
+        waitForState(XrayCircuitBreaker.State.CLOSED, 0);
+        XrayCircuitBreaker.checkAvailable(instance);
+        Assert.assertEquals(0, XrayCircuitBreaker.getStatus("breaker").getConsecutiveFailures());
+    }
+
+    @Test
+    public void testFailureClassification() {
+        // The instance doesn't answer
+        Assert.assertTrue(XrayCircuitBreaker.isFailure(new ConnectException("Connection refused")));
+        Assert.assertTrue(XrayCircuitBreaker.isFailure(new RuntimeException(new SocketTimeoutException("Read timed out"))));
+        Assert.assertTrue(XrayCircuitBreaker.isFailure(new TimeoutException()));
+
+        // The request itself is wrong, or the build was aborted
+        Assert.assertFalse(XrayCircuitBreaker.isFailure(new XrayJenkinsGenericException("Invalid project key")));
+        Assert.assertFalse(XrayCircuitBreaker.isFailure(new IllegalArgumentException("Unauthorized")));
+        Assert.assertFalse(XrayCircuitBreaker.isFailure(new RuntimeException(new FileNotFoundException("report.xml"))));
+        Assert.assertFalse(XrayCircuitBreaker.isFailure(new InterruptedIOException()));
+        Assert.assertFalse(XrayCircuitBreaker.isFailure(new UndeclaredThrowableException(new InterruptedException())));
+    }
+
+    @Test
+    public void testDisabled() {
+        final XrayInstance instance = new XrayInstance("disabled", "Jira", HostingType.SERVER, "http://jira", "credential");
+        for (int i = 0; i < 10; i++) {
+            XrayCircuitBreaker.recordFailure(instance, "Connection refused", () -> false);
+        }
+        XrayCircuitBreaker.checkAvailable(instance);
+        Assert.assertNull(XrayCircuitBreaker.getStatus("disabled"));
+    }
+
+    private static void assertUnavailable(XrayInstance instance, String lastError) {
+        try {
+            XrayCircuitBreaker.checkAvailable(instance);
+            Assert.fail("Expected the requests to fail fast");
+        } catch (XrayJenkinsGenericException e) {
+            Assert.assertTrue(e.getMessage().contains(lastError));
+        }
+    }
+
+    private static void waitForState(XrayCircuitBreaker.State state, long minOpenedAtDelta) throws InterruptedException {
+        final long openedAt = XrayCircuitBreaker.getStatus("breaker").getOpenedAt();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            final XrayCircuitBreaker.Status status = XrayCircuitBreaker.getStatus("breaker");
+            if (status.getState() == state && status.getOpenedAt() - openedAt >= minOpenedAtDelta) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        Assert.fail("The circuit is not " + state);
+    }
+}
@@ -0,0 +1,159 @@
+package com.xpandit.plugins.xrayjenkins.services.cache;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class AgentFeatureStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMaterializedFilesReplacedNotWrittenThrough() throws Exception {
+        final File store = folder.newFolder("store");
+        final File first = folder.newFolder("first");
+        final File second = folder.newFolder("second");
+        final byte[] zip = zip("login.feature", "Feature: Login");
+
+        Assert.assertEquals(1, materialize(store, first, zip, Long.MAX_VALUE).intValue());
+        final File feature = new File(first, "login.feature");
+        if (feature.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Assert.assertFalse(Files.getPosixFilePermissions(feature.toPath()).contains(PosixFilePermission.OWNER_WRITE));
+        }
+
+        // A later step replaces the file, and the workspace can be cleaned up
+        Assert.assertTrue(feature.delete());
+        Files.write(feature.toPath(), "Feature: Changed".getBytes(StandardCharsets.UTF_8));
+
+        materialize(store, second, zip, Long.MAX_VALUE);
+        Assert.assertEquals("Feature: Login", read(new File(second, "login.feature")));
+        Assert.assertEquals("Feature: Changed", read(feature));
+    }
+
+    @Test
+    public void testChangedFileNotSpread() throws Exception {
+        final File store = folder.newFolder("store");
+        final File first = folder.newFolder("first");
+        final File second = folder.newFolder("second");
+        final byte[] zip = zip("login.feature", "Feature: Login");
+
+        materialize(store, first, zip, Long.MAX_VALUE);
+        final File changed = new File(first, "login.feature");
+        if (!changed.setWritable(true)) {
+            return;
+        }
+        // Changed in place, through the link to the store, after making it writable
+        Files.write(changed.toPath(), "Feature: Changed".getBytes(StandardCharsets.UTF_8));
+
+        materialize(store, second, zip, Long.MAX_VALUE);
+        Assert.assertEquals("Feature: Login", read(new File(second, "login.feature")));
+    }
+
+    @Test
+    public void testSameFileWhetherEntrySizeKnownOrNot() throws Exception {
+        final File store = folder.newFolder("store");
+        final File first = folder.newFolder("first");
+        final File second = folder.newFolder("second");
+        final File third = folder.newFolder("third");
+
+        materialize(store, first, zip("login.feature", "Feature: Login"), Long.MAX_VALUE);
+        // The CRC and size are in the local header of stored entries: the entry isn't extracted again
+        materialize(store, second, storedZip("login.feature", "Feature: Login"), Long.MAX_VALUE);
+        materialize(store, third, storedZip("login.feature", "Feature: Login"), Long.MAX_VALUE);
+
+        Assert.assertEquals(1, storedFiles(store).length);
+        Assert.assertEquals("Feature: Login", read(new File(third, "login.feature")));
+        final File stored = storedFiles(store)[0];
+        if (Files.isSameFile(new File(first, "login.feature").toPath(), stored.toPath())) {
+            Assert.assertTrue(Files.isSameFile(new File(second, "login.feature").toPath(), stored.toPath()));
+            Assert.assertTrue(Files.isSameFile(new File(third, "login.feature").toPath(), stored.toPath()));
+        }
+    }
+
+    @Test
+    public void testLinkedFilesNotEvicted() throws Exception {
+        final File store = folder.newFolder("store");
+        final File workspace = folder.newFolder("workspace");
+        final File other = folder.newFolder("other");
+
+        materialize(store, workspace, zip("login.feature", "Feature: Login"), 0);
+        final File login = new File(workspace, "login.feature");
+        if (!Files.isSameFile(login.toPath(), storedFiles(store)[0].toPath())) {
+            // Hard links not supported: every file is a copy, and the store is emptied by each eviction
+            return;
+        }
+
+        // Still linked by the workspace: deleting it wouldn't free any space
+        materialize(store, other, zip("logout.feature", "Feature: Logout"), 0);
+        Assert.assertEquals(2, storedFiles(store).length);
+
+        // Once the workspaces are deleted, the files are evicted
+        Assert.assertTrue(login.delete());
+        Assert.assertTrue(new File(other, "logout.feature").delete());
+        materialize(store, folder.newFolder("empty"), zip("empty.feature", ""), 0);
+        final File[] stored = storedFiles(store);
+        Assert.assertEquals(1, stored.length);
+        Assert.assertEquals(0, stored[0].length());
+    }
+
+    private static Integer materialize(File store, File workspace, byte[] zip, long maxSizeBytes) throws IOException, InterruptedException {
+        return new AgentFeatureStore.MaterializeCallable(store.getAbsolutePath(), maxSizeBytes, new ByteArrayInputStream(zip))
+                .invoke(workspace, null);
+    }
+
+    private static byte[] zip(String name, String content) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            out.putNextEntry(new ZipEntry(name));
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] storedZip(String name, String content) throws IOException {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        final ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCrc(crc.getValue());
+
+        final ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zip)) {
+            out.putNextEntry(entry);
+            out.write(bytes);
+            out.closeEntry();
+        }
+        return zip.toByteArray();
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static File[] storedFiles(File store) {
+        final List<File> files = new ArrayList<>();
+        for (File bucket : store.listFiles(File::isDirectory)) {
+            files.addAll(Arrays.asList(bucket.listFiles(File::isFile)));
+        }
+        return files.toArray(new File[0]);
+    }
+}
@@ -0,0 +1,85 @@
+package com.xpandit.plugins.xrayjenkins.services.cache;
+
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import hudson.model.ItemGroup;
+import hudson.model.Saveable;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class CredentialCacheTest {
+
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final Supplier<StandardUsernamePasswordCredentials> lookup = () -> {
+        lookups.incrementAndGet();
+        return credential();
+    };
+
+    @Before
+    public void setUp() {
+        CredentialCache.invalidateAll();
+    }
+
+    @Test
+    public void testExpiredAfterTtl() {
+        final CredentialCache.Key key = new CredentialCache.Key("xray", "folder/job", "SYSTEM");
+
+        final StandardUsernamePasswordCredentials first = CredentialCache.get(key, lookup, 0);
+        Assert.assertSame(first, CredentialCache.get(key, lookup, TTL_MILLIS - 1));
+        Assert.assertEquals(1, lookups.get());
+
+        Assert.assertNotSame(first, CredentialCache.get(key, lookup, TTL_MILLIS));
+        Assert.assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void testIsolatedByAuthentication() {
+        CredentialCache.get(new CredentialCache.Key("xray", "folder/job", "alice"), lookup, 0);
+        CredentialCache.get(new CredentialCache.Key("xray", "folder/job", "bob"), lookup, 0);
+        CredentialCache.get(new CredentialCache.Key("xray", "other/job", "alice"), lookup, 0);
+        Assert.assertEquals(3, lookups.get());
+    }
+
+    @Test
+    public void testMissingCredentialNotCached() {
+        final CredentialCache.Key key = new CredentialCache.Key("missing", "folder/job", "SYSTEM");
+        Assert.assertNull(CredentialCache.get(key, () -> null, 0));
+        Assert.assertNotNull(CredentialCache.get(key, lookup, 1));
+        Assert.assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void testInvalidatedWhenFolderSaved() {
+        final CredentialCache.Key key = new CredentialCache.Key("xray", "folder/job", "SYSTEM");
+        CredentialCache.get(key, lookup, 0);
+
+        // Not a credentials store
+        new CredentialCache.CredentialsChangeListener().onChange(() -> { }, null);
+        CredentialCache.get(key, lookup, 1);
+        Assert.assertEquals(1, lookups.get());
+
+        new CredentialCache.CredentialsChangeListener().onChange(folder(), null);
+        CredentialCache.get(key, lookup, 2);
+        Assert.assertEquals(2, lookups.get());
+    }
+
+    private static StandardUsernamePasswordCredentials credential() {
+        return (StandardUsernamePasswordCredentials) Proxy.newProxyInstance(CredentialCacheTest.class.getClassLoader(),
+                new Class<?>[]{StandardUsernamePasswordCredentials.class},
+                (proxy, method, args) -> "equals".equals(method.getName()) ? proxy == args[0] : null);
+    }
+
+    private static Saveable folder() {
+        // Folder credentials are saved with the folder
+        return (Saveable) Proxy.newProxyInstance(CredentialCacheTest.class.getClassLoader(),
+                new Class<?>[]{ItemGroup.class, Saveable.class},
+                (proxy, method, args) -> null);
+    }
+}
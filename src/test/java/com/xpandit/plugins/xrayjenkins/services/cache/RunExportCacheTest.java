@@ -0,0 +1,125 @@
+package com.xpandit.plugins.xrayjenkins.services.cache;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RunExportCacheTest {
+
+    @Rule
+    public TemporaryFolder rootDir = new TemporaryFolder();
+
+    private final PrintStream logger = new PrintStream(new ByteArrayOutputStream());
+
+    @Test
+    public void testDownloadedOnce() throws Exception {
+        final File folder = new File(rootDir.getRoot(), "xray-exports");
+        final AtomicInteger downloads = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<File>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> RunExportCache.getOrDownload(folder, "once", () -> {
+                    downloads.incrementAndGet();
+                    started.countDown();
+                    await(release);
+                    return new ByteArrayInputStream("features".getBytes(StandardCharsets.UTF_8));
+                }, logger)));
+            }
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            release.countDown();
+
+            for (Future<File> future : futures) {
+                Assert.assertEquals("features", new String(Files.readAllBytes(future.get().toPath()), StandardCharsets.UTF_8));
+            }
+            Assert.assertEquals(1, downloads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedDownloadRetriedByOneWaiterAtATime() throws Exception {
+        final File folder = new File(rootDir.getRoot(), "xray-exports");
+        final AtomicInteger downloads = new AtomicInteger();
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<File>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> RunExportCache.getOrDownload(folder, "retried", () -> {
+                    maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(50);
+                        if (downloads.incrementAndGet() == 1) {
+                            throw new IOException("Connection reset");
+                        }
+                        return new ByteArrayInputStream("features".getBytes(StandardCharsets.UTF_8));
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    } finally {
+                        concurrent.decrementAndGet();
+                    }
+                }, logger)));
+            }
+
+            int failures = 0;
+            for (Future<File> future : futures) {
+                try {
+                    Assert.assertTrue(future.get().isFile());
+                } catch (java.util.concurrent.ExecutionException e) {
+                    Assert.assertEquals("Connection reset", e.getCause().getMessage());
+                    failures++;
+                }
+            }
+            Assert.assertEquals(1, failures);
+            Assert.assertEquals(2, downloads.get());
+            Assert.assertEquals(1, maxConcurrent.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testArchivesDeleted() throws Exception {
+        final File folder = new File(rootDir.getRoot(), "xray-exports");
+        final File archive = RunExportCache.getOrDownload(folder, "deleted",
+                () -> new ByteArrayInputStream(new byte[10]), logger);
+        Assert.assertTrue(archive.isFile());
+
+        RunExportCache.deleteArchives(rootDir.getRoot());
+        Assert.assertFalse(folder.exists());
+        // Nothing to delete
+        RunExportCache.deleteArchives(rootDir.getRoot());
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+}
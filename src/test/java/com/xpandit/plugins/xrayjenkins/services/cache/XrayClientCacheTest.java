@@ -0,0 +1,150 @@
+package com.xpandit.plugins.xrayjenkins.services.cache;
+
+import com.xpandit.plugins.xrayjenkins.model.HostingType;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class XrayClientCacheTest {
+
+    private static final long MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final List<Object> shutDown = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void testSharedBySameCredential() {
+        final XrayInstance instance = cloudInstance("shared");
+        final String fingerprint = XrayClientCache.fingerprint("client", "secret");
+
+        try (XrayClientCache.Lease<Object> first = acquire(instance, fingerprint, MAX_AGE_MILLIS);
+             XrayClientCache.Lease<Object> second = acquire(instance, fingerprint, MAX_AGE_MILLIS)) {
+            Assert.assertSame(first.get(), second.get());
+        }
+        Assert.assertTrue(shutDown.isEmpty());
+    }
+
+    @Test
+    public void testIsolatedByResolvedCredential() {
+        final XrayInstance instance = cloudInstance("isolated");
+        // Same credential id, resolved to different secrets (e.g. in two folders)
+        final String folderA = XrayClientCache.fingerprint("client", "secret-a");
+        final String folderB = XrayClientCache.fingerprint("client", "secret-b");
+        Assert.assertNotEquals(folderA, folderB);
+        Assert.assertNotEquals(XrayClientCache.fingerprint("ab", "c"), XrayClientCache.fingerprint("a", "bc"));
+
+        try (XrayClientCache.Lease<Object> first = acquire(instance, folderA, MAX_AGE_MILLIS);
+             XrayClientCache.Lease<Object> second = acquire(instance, folderB, MAX_AGE_MILLIS)) {
+            Assert.assertNotSame(first.get(), second.get());
+        }
+    }
+
+    @Test
+    public void testExpiredClientRenewed() {
+        final XrayInstance instance = cloudInstance("expired");
+        final String fingerprint = XrayClientCache.fingerprint("client", "secret");
+
+        final XrayClientCache.Lease<Object> first = acquire(instance, fingerprint, 0);
+        final XrayClientCache.Lease<Object> second = acquire(instance, fingerprint, 0);
+        Assert.assertNotSame(first.get(), second.get());
+        // Still in use by the first build
+        Assert.assertTrue(shutDown.isEmpty());
+
+        first.close();
+        Assert.assertEquals(1, shutDown.size());
+        Assert.assertSame(first.get(), shutDown.get(0));
+        second.close();
+    }
+
+    @Test
+    public void testExpiredClientRenewedOnce() throws Exception {
+        final XrayInstance instance = cloudInstance("renewedOnce");
+        final String fingerprint = XrayClientCache.fingerprint("client", "secret");
+        acquire(instance, fingerprint, 0).close();
+
+        final AtomicInteger created = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<XrayClientCache.Lease<Object>>> leases = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                leases.add(executor.submit(() -> XrayClientCache.acquire(instance, fingerprint, Object.class, () -> {
+                    created.incrementAndGet();
+                    // Authenticating
+                    sleep(50);
+                    return new Object();
+                }, shutDown::add, MAX_AGE_MILLIS)));
+            }
+
+            final Object renewed = leases.get(0).get().get();
+            for (Future<XrayClientCache.Lease<Object>> lease : leases) {
+                Assert.assertSame(renewed, lease.get().get());
+                lease.get().close();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(1, created.get());
+        // Only the expired client
+        Assert.assertEquals(1, shutDown.size());
+    }
+
+    @Test
+    public void testUnauthorizedClientRetired() {
+        final XrayInstance instance = cloudInstance("unauthorized");
+        final String fingerprint = XrayClientCache.fingerprint("client", "revoked");
+
+        final XrayClientCache.Lease<Object> rejected = acquire(instance, fingerprint, MAX_AGE_MILLIS);
+        final XrayClientCache.Lease<Object> concurrent = acquire(instance, fingerprint, MAX_AGE_MILLIS);
+        // Xray returned a 401
+        rejected.invalidate();
+
+        final XrayClientCache.Lease<Object> renewed = acquire(instance, fingerprint, MAX_AGE_MILLIS);
+        Assert.assertNotSame(rejected.get(), renewed.get());
+
+        rejected.close();
+        Assert.assertTrue(shutDown.isEmpty());
+        concurrent.close();
+        Assert.assertEquals(1, shutDown.size());
+        renewed.close();
+        Assert.assertEquals(1, shutDown.size());
+    }
+
+    @Test
+    public void testServerClientsNotShared() {
+        final XrayInstance instance = new XrayInstance("server", "server", HostingType.SERVER, "http://xray", "credential");
+        final String fingerprint = XrayClientCache.fingerprint("user", "password");
+
+        final XrayClientCache.Lease<Object> first = acquire(instance, fingerprint, MAX_AGE_MILLIS);
+        final XrayClientCache.Lease<Object> second = acquire(instance, fingerprint, MAX_AGE_MILLIS);
+        Assert.assertNotSame(first.get(), second.get());
+
+        first.close();
+        first.close();
+        second.close();
+        Assert.assertEquals(2, shutDown.size());
+    }
+
+    private XrayClientCache.Lease<Object> acquire(XrayInstance instance, String fingerprint, long maxAgeMillis) {
+        return XrayClientCache.acquire(instance, fingerprint, Object.class, Object::new, shutDown::add, maxAgeMillis);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static XrayInstance cloudInstance(String configId) {
+        return new XrayInstance(configId, configId, HostingType.CLOUD, "", "credential");
+    }
+}
@@ -0,0 +1,58 @@
+package com.xpandit.plugins.xrayjenkins.services.enviromentvariables;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+
+public class XrayEnvironmentInjectActionTest {
+
+    @Rule
+    public TemporaryFolder rootDir = new TemporaryFolder();
+
+    @Test
+    public void testInlineRawResponse() throws Exception {
+        final XrayEnvironmentInjectAction action = new XrayEnvironmentInjectAction(
+                Collections.singletonMap(XrayEnvironmentVariableSetter.RAW_RESPONSE_VARIABLE, "{\"key\":\"XRAY-1\"}"));
+
+        Assert.assertEquals("{\"key\":\"XRAY-1\"}", action.getRawResponse());
+        // Nothing to serve
+        Assert.assertNull(action.getUrlName());
+    }
+
+    @Test
+    public void testStoredRawResponse() throws Exception {
+        final StringBuilder rawResponse = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            rawResponse.append("{\"key\":\"XRAY-").append(i).append("\"}");
+        }
+
+        final String fileName = XrayEnvironmentInjectAction.writeRawResponse(rootDir.getRoot(), rawResponse.toString());
+        final File file = new File(rootDir.getRoot(), fileName);
+        Assert.assertTrue(file.isFile());
+        Assert.assertTrue(file.length() < rawResponse.length());
+        // The temporary file was moved
+        Assert.assertEquals(1, rootDir.getRoot().list().length);
+
+        final XrayEnvironmentInjectAction action = new XrayEnvironmentInjectAction(
+                Collections.singletonMap(XrayEnvironmentVariableSetter.RAW_RESPONSE_VARIABLE, "{\"key\":\"XRAY-0\"}..."),
+                fileName);
+        Assert.assertEquals(rawResponse.toString(), action.readRawResponse(rootDir.getRoot()));
+        Assert.assertEquals(XrayEnvironmentInjectAction.URL_NAME, action.getUrlName());
+        // Not shown in the side panel
+        Assert.assertNull(action.getIconFileName());
+    }
+
+    @Test
+    public void testStoredRawResponseReplaced() throws Exception {
+        XrayEnvironmentInjectAction.writeRawResponse(rootDir.getRoot(), "first");
+        final String fileName = XrayEnvironmentInjectAction.writeRawResponse(rootDir.getRoot(), "second");
+
+        final XrayEnvironmentInjectAction action = new XrayEnvironmentInjectAction(Collections.emptyMap(), fileName);
+        Assert.assertEquals("second", action.readRawResponse(rootDir.getRoot()));
+        Assert.assertEquals(1, rootDir.getRoot().list().length);
+    }
+}
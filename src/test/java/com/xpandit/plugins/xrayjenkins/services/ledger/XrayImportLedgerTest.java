@@ -0,0 +1,65 @@
+package com.xpandit.plugins.xrayjenkins.services.ledger;
+
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResponse;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+public class XrayImportLedgerTest {
+
+    private static final String IMPORTED = "{\"id\":\"10001\",\"key\":\"XT-1\",\"self\":\"https://jira/rest/api/2/issue/10001\"}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResumeImports() throws IOException {
+        final File file = new File(folder.getRoot(), XrayImportLedger.LEDGER_FILE);
+        final XrayImportLedger ledger = XrayImportLedger.load(file);
+        ledger.record("step", "/ws/a.xml", "d1", XrayImportResponse.parse(200, IMPORTED));
+        ledger.record("step", "/ws/b.xml", "d2", XrayImportResponse.parse(500, "error"));
+
+        // An append interrupted by a restart
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write("{\"stepId\":\"step\",\"fi".getBytes(StandardCharsets.UTF_8));
+        }
+
+        final XrayImportLedger reloaded = XrayImportLedger.load(file);
+        final XrayImportResponse response = reloaded.findImported("step", "/ws/a.xml", "d1");
+        Assert.assertNotNull(response);
+        Assert.assertEquals("XT-1", response.getTestExecutionKey());
+        Assert.assertEquals("XT-1", reloaded.getTestExecutionKey("step"));
+
+        // Changed file, other step and failed import
+        Assert.assertNull(reloaded.findImported("step", "/ws/a.xml", "d3"));
+        Assert.assertNull(reloaded.findImported("other", "/ws/a.xml", "d1"));
+        Assert.assertNull(reloaded.findImported("step", "/ws/b.xml", "d2"));
+        Assert.assertNull(reloaded.getTestExecutionKey("other"));
+    }
+
+    @Test
+    public void testRecordAfterTornEntry() throws IOException {
+        final File file = new File(folder.getRoot(), XrayImportLedger.LEDGER_FILE);
+        XrayImportLedger.load(file).record("step", "/ws/a.xml", "d1", XrayImportResponse.parse(200, IMPORTED));
+
+        // An append interrupted by a restart, then the step runs again
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write("{\"stepId\":\"step\",\"fi".getBytes(StandardCharsets.UTF_8));
+        }
+        final XrayImportLedger resumed = XrayImportLedger.load(file);
+        Assert.assertFalse(resumed.hasImported("step", "/ws/b.xml"));
+        resumed.record("step", "/ws/b.xml", "d2", XrayImportResponse.parse(200, IMPORTED));
+
+        final XrayImportLedger reloaded = XrayImportLedger.load(file);
+        Assert.assertNotNull(reloaded.findImported("step", "/ws/a.xml", "d1"));
+        Assert.assertNotNull(reloaded.findImported("step", "/ws/b.xml", "d2"));
+        Assert.assertTrue(reloaded.hasImported("step", "/ws/b.xml"));
+    }
+}
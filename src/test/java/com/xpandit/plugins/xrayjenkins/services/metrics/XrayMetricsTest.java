@@ -0,0 +1,98 @@
+package com.xpandit.plugins.xrayjenkins.services.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.xpandit.plugins.xrayjenkins.model.HostingType;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+
+public class XrayMetricsTest {
+
+    @Test
+    public void testPublishedThroughProvider() {
+        final MetricRegistry published = new MetricRegistry();
+        Assert.assertTrue(new XrayMetrics.XrayMetricProvider(() -> published).getMetricSet().getMetrics().isEmpty());
+
+        // Created after the Metrics plugin read the metric set of the provider
+        final XrayInstance instance = new XrayInstance("published", "Jira Server", HostingType.SERVER, "http://jira", "credential");
+        XrayMetrics.of(instance, XrayMetrics.Operation.EXPORT).retried();
+        XrayMetrics.recordQueueWait(instance, 10);
+        Assert.assertEquals(1, published.getCounters().get("xray.published.export.retries").getCount());
+        Assert.assertEquals(1, published.getTimers().get("xray.published.queueWait").getCount());
+
+        // The instance is deleted
+        XrayMetrics.retain(Collections.emptyList());
+        Assert.assertTrue(published.getMetrics().isEmpty());
+    }
+
+    @Test
+    public void testTime() throws Exception {
+        final MetricRegistry registry = new MetricRegistry();
+        final XrayMetrics.OperationMetrics metrics = new XrayMetrics.OperationMetrics(registry, "xray.time.resultsImport");
+
+        Assert.assertEquals("imported", metrics.time(100, () -> {
+            Assert.assertEquals(1, registry.counter("xray.time.resultsImport.inFlight").getCount());
+            return "imported";
+        }));
+        try {
+            metrics.time(50, () -> {
+                throw new IOException("Connection reset");
+            });
+            Assert.fail("Expected the error of the request");
+        } catch (IOException e) {
+            Assert.assertEquals("Connection reset", e.getMessage());
+        }
+        metrics.retried();
+
+        Assert.assertEquals(2, registry.timer("xray.time.resultsImport.requests").getCount());
+        Assert.assertEquals(1, registry.counter("xray.time.resultsImport.errors").getCount());
+        Assert.assertEquals(150, registry.counter("xray.time.resultsImport.bytesSent").getCount());
+        Assert.assertEquals(1, registry.counter("xray.time.resultsImport.retries").getCount());
+        Assert.assertEquals(0, registry.counter("xray.time.resultsImport.inFlight").getCount());
+    }
+
+    @Test
+    public void testDownloadRecordedOnClose() throws Exception {
+        final MetricRegistry registry = new MetricRegistry();
+        final XrayMetrics.OperationMetrics metrics = new XrayMetrics.OperationMetrics(registry, "xray.download.export");
+
+        final InputStream content = metrics.download(() -> new ByteArrayInputStream(new byte[1000]));
+        Assert.assertEquals(1, registry.counter("xray.download.export.inFlight").getCount());
+        Assert.assertEquals(0, registry.timer("xray.download.export.requests").getCount());
+
+        final byte[] buffer = new byte[300];
+        while (content.read(buffer) > 0) {
+            // Reads the whole content
+        }
+        content.close();
+        content.close();
+
+        Assert.assertEquals(1000, registry.counter("xray.download.export.bytesReceived").getCount());
+        Assert.assertEquals(1, registry.timer("xray.download.export.requests").getCount());
+        Assert.assertEquals(0, registry.counter("xray.download.export.errors").getCount());
+        Assert.assertEquals(0, registry.counter("xray.download.export.inFlight").getCount());
+
+        Assert.assertNull(metrics.download(() -> null));
+        Assert.assertEquals(1, registry.counter("xray.download.export.errors").getCount());
+    }
+
+    @Test
+    public void testRetainConfiguredInstances() {
+        final MetricRegistry registry = new MetricRegistry();
+        new XrayMetrics.OperationMetrics(registry, "xray.kept.resultsImport").retried();
+        new XrayMetrics.OperationMetrics(registry, "xray.deleted.export").retried();
+        registry.timer("xray.deleted.queueWait");
+
+        XrayMetrics.retain(registry, Collections.singleton("kept"));
+
+        Assert.assertFalse(registry.getMetrics().isEmpty());
+        for (String name : registry.getMetrics().keySet()) {
+            Assert.assertTrue(name, name.startsWith("xray.kept."));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.xpandit.plugins.xrayjenkins.services.monitor;
+
+import com.xpandit.plugins.xrayjenkins.model.HostingType;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class XrayHealthMonitorTest {
+
+    @Test
+    public void testPercentilesOverTheLastTests() {
+        final XrayInstance instance = new XrayInstance("percentiles", "Jira", HostingType.SERVER, "http://jira", "credential");
+        // The first tests are pushed out of the ring buffer
+        for (int i = 0; i < 10; i++) {
+            XrayHealthMonitor.record("percentiles", 60000, null);
+        }
+        for (int latency = 1; latency <= XrayHealthMonitor.WINDOW_SIZE; latency++) {
+            XrayHealthMonitor.record("percentiles", latency * 100, null);
+        }
+
+        final XrayHealthMonitor.Health health = XrayHealthMonitor.getHealth(instance);
+        Assert.assertEquals(XrayHealthMonitor.WINDOW_SIZE, health.getSamples());
+        Assert.assertEquals(1000, health.getP50LatencyMillis());
+        Assert.assertEquals(1900, health.getP95LatencyMillis());
+        Assert.assertEquals(0, health.getErrorPercent());
+        Assert.assertFalse(health.isDegraded());
+
+        instance.setDegradedLatencyMillis(1500);
+        Assert.assertTrue(XrayHealthMonitor.getHealth(instance).isDegraded());
+    }
+
+    @Test
+    public void testDegradedByErrors() {
+        final XrayInstance instance = new XrayInstance("errors", "Jira", HostingType.SERVER, "http://jira", "credential");
+        Assert.assertNull(XrayHealthMonitor.getHealth(instance));
+
+        XrayHealthMonitor.record("errors", 100, null);
+        XrayHealthMonitor.record("errors", 100, null);
+        XrayHealthMonitor.record("errors", 10000, "Read timed out");
+
+        final XrayHealthMonitor.Health health = XrayHealthMonitor.getHealth(instance);
+        Assert.assertEquals(33, health.getErrorPercent());
+        Assert.assertEquals(100, health.getP95LatencyMillis());
+        Assert.assertEquals("Read timed out", health.getLastError());
+        Assert.assertTrue(health.isDegraded());
+        Assert.assertEquals(1, XrayHealthMonitor.getDegraded(Collections.singletonList(instance)).size());
+
+        XrayHealthMonitor.retainAll(Collections.<String>emptyList());
+        Assert.assertNull(XrayHealthMonitor.getHealth(instance));
+    }
+}
@@ -0,0 +1,61 @@
+package com.xpandit.plugins.xrayjenkins.services.monitor;
+
+import com.xpandit.plugins.xrayjenkins.model.HostingType;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import hudson.model.TaskListener;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class XrayInstanceProbeTest {
+
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+    @Test
+    public void testEveryNodeProbed() {
+        final XrayInstance instance = new XrayInstance("probeNodes", "Jira", HostingType.SERVER, "http://jira", "credential");
+        instance.setNodeAddresses("http://node-1\nhttp://node-2");
+        final List<String> tested = new ArrayList<>();
+
+        XrayInstanceProbe.probe(instance, address -> {
+            tested.add(address);
+            return address.endsWith("2") ? "Connection refused" : null;
+        }, listener());
+
+        Assert.assertEquals(Arrays.asList("http://node-1", "http://node-2"), tested);
+        final XrayHealthMonitor.Health health = XrayHealthMonitor.getHealth(instance);
+        Assert.assertEquals(2, health.getSamples());
+        Assert.assertEquals("Connection refused", health.getLastError());
+    }
+
+    @Test
+    public void testCloudProbedOnce() {
+        // The server address of a Cloud instance is blank, and it has no nodes
+        final XrayInstance instance = new XrayInstance("probeCloud", "Xray Cloud", HostingType.CLOUD, "", "credential");
+        final List<String> tested = new ArrayList<>();
+
+        XrayInstanceProbe.probe(instance, address -> {
+            tested.add(address);
+            return null;
+        }, listener());
+
+        Assert.assertEquals(Collections.singletonList(null), tested);
+        Assert.assertEquals(1, XrayHealthMonitor.getHealth(instance).getSamples());
+        Assert.assertTrue(new String(log.toByteArray(), StandardCharsets.UTF_8).contains("Xray instance Xray Cloud, Xray Cloud: connected"));
+    }
+
+    private TaskListener listener() {
+        final PrintStream logger = new PrintStream(log, true);
+        return (TaskListener) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{TaskListener.class},
+                (proxy, method, args) -> "getLogger".equals(method.getName()) ? logger : null);
+    }
+}
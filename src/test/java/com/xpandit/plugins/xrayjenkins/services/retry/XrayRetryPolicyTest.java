@@ -0,0 +1,158 @@
+package com.xpandit.plugins.xrayjenkins.services.retry;
+
+import com.xpandit.plugins.xrayjenkins.model.HostingType;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class XrayRetryPolicyTest {
+
+    @Test
+    public void testBackoffWithFullJitter() {
+        final XrayRetryPolicy policy = policy(5, 100, 1000, 0);
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(policy.getBackoffMillis(1, random) <= 100);
+            Assert.assertTrue(policy.getBackoffMillis(3, random) <= 400);
+            final long capped = policy.getBackoffMillis(40, random);
+            Assert.assertTrue(capped >= 0 && capped <= 1000);
+        }
+    }
+
+    @Test
+    public void testRetryableExceptions() {
+        final XrayRetryPolicy policy = policy(3, 0, 0, 0);
+        // Subclasses and causes are retried too
+        Assert.assertTrue(policy.isRetryable(new ConnectException("Connection refused")));
+        Assert.assertTrue(policy.isRetryable(new RuntimeException(new UnknownHostException("jira"))));
+        Assert.assertFalse(policy.isRetryable(new IOException("Forbidden")));
+        // The request may have been received: an import could be done twice
+        Assert.assertFalse(policy.isRetryable(new SocketTimeoutException("Read timed out")));
+        Assert.assertFalse(policy.isRetryable(new SocketException("Connection reset")));
+    }
+
+    @Test
+    public void testGatewayErrorsRetriedOnlyForExports() {
+        final XrayInstance instance = new XrayInstance("server", "Jira Server", HostingType.SERVER, "http://jira", "credential");
+
+        // Xray may still be importing the results behind the gateway
+        final XrayRetryPolicy imports = XrayRetryPolicy.of(instance);
+        Assert.assertTrue(imports.isRetryableStatusCode(429));
+        Assert.assertTrue(imports.isRetryableStatusCode(503));
+        Assert.assertFalse(imports.isRetryableStatusCode(502));
+        Assert.assertFalse(imports.isRetryableStatusCode(504));
+
+        final XrayRetryPolicy exports = XrayRetryPolicy.forExports(instance);
+        Assert.assertTrue(exports.isRetryableStatusCode(429));
+        Assert.assertTrue(exports.isRetryableStatusCode(502));
+        Assert.assertTrue(exports.isRetryableStatusCode(503));
+        Assert.assertTrue(exports.isRetryableStatusCode(504));
+        Assert.assertFalse(exports.isRetryableStatusCode(500));
+    }
+
+    @Test
+    public void testParse() {
+        Assert.assertEquals(new LinkedHashSet<>(Arrays.asList(429, 503)), XrayRetryPolicy.parseStatusCodes("429,503 503"));
+        Assert.assertEquals(4, XrayRetryPolicy.parseExceptions(XrayRetryPolicy.DEFAULT_EXCEPTIONS).size());
+        Assert.assertTrue(XrayRetryPolicy.parseStatusCodes(" ").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidStatusCode() {
+        XrayRetryPolicy.parseStatusCodes("429, 5xx");
+    }
+
+    @Test
+    public void testExecuteUntilSuccess() throws Exception {
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final AtomicInteger calls = new AtomicInteger();
+        final String result = policy(3, 0, 0, 0).start(new PrintStream(log, true, "UTF-8")).execute("export", () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new ConnectException("Connection refused");
+            }
+            return "archive";
+        });
+
+        Assert.assertEquals("archive", result);
+        Assert.assertEquals(3, calls.get());
+        final String[] lines = log.toString("UTF-8").trim().split("\\r?\\n");
+        Assert.assertEquals(3, lines.length);
+        Assert.assertTrue(lines[0].startsWith("Attempt 1/3 to export: ConnectException: Connection refused in "));
+        Assert.assertTrue(lines[0].endsWith(", retrying in 0 ms"));
+        Assert.assertTrue(lines[2].startsWith("Attempt 3/3 to export: done in "));
+    }
+
+    @Test
+    public void testNotRetried() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final PrintStream logger = new PrintStream(new ByteArrayOutputStream(), true, "UTF-8");
+
+        // Not a transient failure
+        try {
+            policy(3, 0, 0, 0).start(logger).execute("import", () -> {
+                calls.incrementAndGet();
+                throw new IOException("Forbidden");
+            });
+            Assert.fail("Expected the error of the attempt");
+        } catch (IOException e) {
+            Assert.assertEquals("Forbidden", e.getMessage());
+        }
+        Assert.assertEquals(1, calls.get());
+
+        // The deadline of the step would be exceeded by the next retry
+        calls.set(0);
+        try {
+            policy(3, 0, 0, 1).start(logger).execute("import", () -> {
+                calls.incrementAndGet();
+                Thread.sleep(10);
+                throw new ConnectException("Connection refused");
+            });
+            Assert.fail("Expected the error of the attempt");
+        } catch (ConnectException e) {
+            Assert.assertEquals(1, calls.get());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAbortedWhileQueued() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        // As a scheduled client, whose methods don't declare InterruptedException
+        final Supplier<String> client = (Supplier<String>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{Supplier.class},
+                (proxy, method, args) -> {
+                    calls.incrementAndGet();
+                    throw new InterruptedException();
+                });
+
+        try {
+            policy(3, 0, 0, 0).start(new PrintStream(new ByteArrayOutputStream(), true, "UTF-8")).execute("import", client::get);
+            Assert.fail("Expected the build to be aborted");
+        } catch (InterruptedException e) {
+            Assert.assertEquals(1, calls.get());
+        }
+    }
+
+    private static XrayRetryPolicy policy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, long deadlineMillis) {
+        return new XrayRetryPolicy(maxAttempts,
+                baseDelayMillis,
+                maxDelayMillis,
+                deadlineMillis,
+                XrayRetryPolicy.parseStatusCodes(XrayRetryPolicy.DEFAULT_STATUS_CODES),
+                XrayRetryPolicy.parseExceptions(XrayRetryPolicy.DEFAULT_EXCEPTIONS));
+    }
+}
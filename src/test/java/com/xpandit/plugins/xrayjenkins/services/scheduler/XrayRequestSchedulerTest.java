@@ -0,0 +1,119 @@
+package com.xpandit.plugins.xrayjenkins.services.scheduler;
+
+import com.xpandit.plugins.xrayjenkins.model.HostingType;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import com.xpandit.plugins.xrayjenkins.model.XrayRequestLane;
+import com.xpandit.plugins.xrayjenkins.services.breaker.XrayCircuitBreaker;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class XrayRequestSchedulerTest {
+
+    @Test
+    public void testLanesAndArrivalOrder() throws Exception {
+        final XrayRequestScheduler.Request first = request("lanes", 1, Collections.<String, Integer>emptyMap(), XrayRequestLane.NORMAL);
+        final XrayRequestScheduler.Permit running = XrayRequestScheduler.acquire(first);
+        Assert.assertEquals(0, running.getWaitedMillis());
+
+        // Queued while the only slot is taken: low, normal, normal, high
+        final List<String> granted = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> threads = new ArrayList<>();
+        for (String name : Arrays.asList("low", "normal-1", "normal-2", "high")) {
+            final XrayRequestLane lane = name.startsWith("low") ? XrayRequestLane.LOW
+                    : name.startsWith("high") ? XrayRequestLane.HIGH : XrayRequestLane.NORMAL;
+            final XrayRequestScheduler.Request request = request("lanes", 1, Collections.<String, Integer>emptyMap(), lane);
+            final Thread thread = new Thread(() -> {
+                try (XrayRequestScheduler.Permit permit = XrayRequestScheduler.acquire(request)) {
+                    granted.add(name);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            waitUntilQueued(threads.size());
+        }
+
+        Assert.assertEquals(1, XrayRequestScheduler.getInFlight("lanes"));
+        running.close();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        Assert.assertEquals(Arrays.asList("high", "normal-1", "normal-2", "low"), granted);
+        Assert.assertEquals(0, XrayRequestScheduler.getInFlight("lanes"));
+    }
+
+    @Test
+    public void testFolderQuotas() throws Exception {
+        final XrayFolderQuotas quotas = XrayFolderQuotas.parse("# pull requests\nteam-a/prs=1\n/team-b/=3");
+        final Map<String, Integer> teamA = quotas.getQuotas("team-a/prs/service-1");
+        Assert.assertEquals(Collections.singletonMap("team-a/prs", 1), teamA);
+        Assert.assertEquals(Collections.singletonMap("team-b", 3), quotas.getQuotas("team-b"));
+        Assert.assertTrue(quotas.getQuotas("team-a/prs-old/service").isEmpty());
+
+        final XrayRequestScheduler.Permit running = XrayRequestScheduler.acquire(request("quotas", 0, teamA, XrayRequestLane.HIGH));
+        final Thread blocked = new Thread(() -> {
+            try (XrayRequestScheduler.Permit permit = XrayRequestScheduler.acquire(request("quotas", 0, teamA, XrayRequestLane.HIGH))) {
+                Assert.assertTrue(permit.getWaitedMillis() > 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        blocked.start();
+        waitUntilQueued(1);
+
+        // Another folder isn't held back by the quota of team-a
+        try (XrayRequestScheduler.Permit other = XrayRequestScheduler.acquire(request("quotas", 0, Collections.<String, Integer>emptyMap(), XrayRequestLane.LOW))) {
+            Assert.assertEquals(0, other.getWaitedMillis());
+        }
+
+        running.close();
+        blocked.join(5000);
+        Assert.assertEquals(0, XrayRequestScheduler.getQueued());
+    }
+
+    @Test
+    public void testCloudCircuitClosedByProbe() throws Exception {
+        // The server address of a Cloud instance is blank, and it has no nodes
+        final XrayInstance cloud = new XrayInstance("cloudProbe", "Xray Cloud", HostingType.CLOUD, "", "credential");
+        cloud.setCircuitBreakerThreshold(1);
+        cloud.setCircuitBreakerOpenSeconds(1);
+        final List<String> tested = Collections.synchronizedList(new ArrayList<>());
+
+        XrayCircuitBreaker.recordFailure(cloud, "Connection refused", XrayRequestScheduler.probe(cloud, address -> tested.add(address)));
+        Assert.assertEquals(XrayCircuitBreaker.State.OPEN, XrayCircuitBreaker.getStatus("cloudProbe").getState());
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (XrayCircuitBreaker.getStatus("cloudProbe").getState() != XrayCircuitBreaker.State.CLOSED
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(XrayCircuitBreaker.State.CLOSED, XrayCircuitBreaker.getStatus("cloudProbe").getState());
+        // Xray Cloud itself, once
+        Assert.assertEquals(Collections.singletonList(null), tested);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidQuota() {
+        XrayFolderQuotas.parse("team-a=none");
+    }
+
+    private static XrayRequestScheduler.Request request(String instanceId, int maxConcurrentRequests, Map<String, Integer> folderQuotas, XrayRequestLane lane) {
+        return new XrayRequestScheduler.Request(instanceId, maxConcurrentRequests, folderQuotas, lane);
+    }
+
+    private static void waitUntilQueued(int queued) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (XrayRequestScheduler.getQueued() < queued && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(queued, XrayRequestScheduler.getQueued());
+    }
+}
@@ -0,0 +1,93 @@
+package com.xpandit.plugins.xrayjenkins.task;
+
+import com.xpandit.xray.model.Content;
+import com.xpandit.xray.model.DataParameter;
+import com.xpandit.xray.model.Endpoint;
+import com.xpandit.xray.model.QueryParameter;
+import hudson.FilePath;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+public class XrayImportUploadPlanTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSameExecutionKeySubstituted() {
+        final XrayImportUploadPlan plan = XrayImportUploadPlan.withInfoContent(Endpoint.JUNIT_MULTIPART,
+                projectKey(), true, true, "{}");
+
+        // First file: creates the Test Execution
+        Assert.assertEquals(Endpoint.JUNIT_MULTIPART, plan.getEndpoint(null));
+        Assert.assertFalse(plan.getQueryParams(null).containsKey(QueryParameter.TEST_EXEC_KEY));
+
+        // Next files: imported to the same Test Execution, through the generic endpoint
+        Assert.assertEquals(Endpoint.JUNIT, plan.getEndpoint("XT-1"));
+        Assert.assertSame(plan.getEndpoint("XT-1"), plan.getEndpoint("XT-2"));
+        final Map<QueryParameter, String> params = plan.getQueryParams("XT-1");
+        Assert.assertEquals("XT-1", params.get(QueryParameter.TEST_EXEC_KEY));
+        Assert.assertEquals("XT", params.get(QueryParameter.PROJECT_KEY));
+
+        // The caller may change its copy
+        params.put(QueryParameter.TEST_PLAN_KEY, "XT-9");
+        Assert.assertFalse(plan.getQueryParams("XT-1").containsKey(QueryParameter.TEST_PLAN_KEY));
+    }
+
+    @Test
+    public void testSameExecutionKeyIgnoredWhenDisabled() {
+        final XrayImportUploadPlan plan = XrayImportUploadPlan.withInfoContent(Endpoint.JUNIT_MULTIPART,
+                projectKey(), false, true, "{}");
+
+        Assert.assertEquals(Endpoint.JUNIT_MULTIPART, plan.getEndpoint("XT-1"));
+        Assert.assertFalse(plan.getQueryParams("XT-1").containsKey(QueryParameter.TEST_EXEC_KEY));
+    }
+
+    @Test
+    public void testInfoFileReadOnce() throws Exception {
+        final File info = write("info.json", "{\"fields\":{\"summary\":\"Nightly\"}}");
+        final XrayImportUploadPlan plan = XrayImportUploadPlan.withInfoFile(Endpoint.JUNIT_MULTIPART,
+                projectKey(), true, true, new FilePath(info));
+        // The info file is not read again for each results file
+        Assert.assertTrue(info.delete());
+
+        final Map<DataParameter, Content> first = plan.getDataParams(new FilePath(write("report-1.xml", "<testsuite/>")), null);
+        final Map<DataParameter, Content> second = plan.getDataParams(new FilePath(write("report-2.xml", "<testsuite/>")), "XT-1");
+
+        Assert.assertTrue(first.containsKey(DataParameter.FILEPATH));
+        Assert.assertTrue(second.containsKey(DataParameter.FILEPATH));
+        Assert.assertNotNull(first.get(DataParameter.INFO));
+        Assert.assertNotNull(second.get(DataParameter.INFO));
+        // Each upload gets its own stream over the cached bytes
+        Assert.assertNotSame(first.get(DataParameter.INFO), second.get(DataParameter.INFO));
+    }
+
+    @Test
+    public void testWithoutResults() throws Exception {
+        final XrayImportUploadPlan plan = XrayImportUploadPlan.withInfoContent(Endpoint.XRAY,
+                Collections.<QueryParameter, String>emptyMap(), false, false, null);
+
+        Assert.assertTrue(plan.getDataParams(new FilePath(write("results.json", "{}")), null).isEmpty());
+    }
+
+    private static Map<QueryParameter, String> projectKey() {
+        final Map<QueryParameter, String> params = new EnumMap<>(QueryParameter.class);
+        params.put(QueryParameter.PROJECT_KEY, "XT");
+        return params;
+    }
+
+    private File write(String name, String content) throws Exception {
+        final File file = folder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,101 @@
+package com.xpandit.plugins.xrayjenkins.task;
+
+import com.xpandit.plugins.xrayjenkins.model.HostingType;
+import com.xpandit.plugins.xrayjenkins.model.XrayImportResponse;
+import com.xpandit.plugins.xrayjenkins.model.XrayInstance;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class XrayMultiTargetImportTest {
+
+    private static final String IMPORTED = "{\"testExecIssue\":{\"id\":\"10001\",\"key\":\"XT-1\",\"self\":\"https://jira/rest/api/2/issue/10001\"}}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+    @Test
+    public void testOneTargetFailing() throws Exception {
+        final XrayInstance cloud = new XrayInstance("cloud", "Xray Cloud", HostingType.CLOUD, "", "credential");
+        final XrayInstance server = new XrayInstance("server", "Jira Server", HostingType.SERVER, "http://jira", "credential");
+        final Set<String> imported = ConcurrentHashMap.newKeySet();
+
+        final XrayMultiTargetImport.Result result = new XrayMultiTargetImport(Arrays.asList(cloud, server), listener())
+                .importToAll(null, (target, staged) -> {
+                    imported.add(target.getConfigID());
+                    if (target == server) {
+                        throw new IOException("Connection refused");
+                    }
+                    return Collections.singletonList(XrayImportResponse.parse(200, IMPORTED));
+                });
+
+        // Both targets were imported, whatever the result of the other
+        Assert.assertEquals(2, imported.size());
+        Assert.assertEquals(1, result.getResponses().size());
+        Assert.assertTrue(result.getResponses().get(0).isSuccessful());
+        Assert.assertEquals(Collections.singletonList("Jira Server"), result.getFailedTargets());
+
+        final String output = new String(log.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(output.contains("Imported to Xray Cloud: 1 response(s), 0 failed"));
+        Assert.assertTrue(output.contains("Import to Jira Server failed: Connection refused"));
+    }
+
+    @Test
+    public void testFilesStagedOnce() throws Exception {
+        final File workspace = folder.newFolder("workspace");
+        final List<FilePath> files = Arrays.asList(write(workspace, "a/report.xml", "<testsuite name=\"A\"/>"),
+                write(workspace, "b/report.xml", "<testsuite name=\"B\"/>"));
+        final File buildDir = folder.newFolder("build");
+
+        final XrayMultiTargetImport multiTarget = new XrayMultiTargetImport(Arrays.asList(
+                new XrayInstance("first", "First", HostingType.SERVER, "http://first", "credential"),
+                new XrayInstance("second", "Second", HostingType.SERVER, "http://second", "credential")), listener());
+        final XrayMultiTargetImport.StagedFiles staged = multiTarget.stage(files, buildDir);
+
+        Assert.assertEquals(files, staged.getOriginals());
+        // Files with the same name don't overwrite each other
+        Assert.assertEquals("<testsuite name=\"A\"/>", staged.getCopies().get(0).readToString());
+        Assert.assertEquals("<testsuite name=\"B\"/>", staged.getCopies().get(1).readToString());
+
+        staged.delete();
+        Assert.assertEquals(0, buildDir.list().length);
+    }
+
+    private TaskListener listener() {
+        final PrintStream logger = new PrintStream(log, true);
+        return (TaskListener) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{TaskListener.class},
+                (proxy, method, args) -> {
+                    if ("error".equals(method.getName())) {
+                        logger.println("ERROR: " + args[0]);
+                        return null;
+                    }
+                    return "getLogger".equals(method.getName()) ? logger : null;
+                });
+    }
+
+    private static FilePath write(File workspace, String path, String content) throws IOException {
+        final File file = new File(workspace, path);
+        Assert.assertTrue(file.getParentFile().mkdirs());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return new FilePath(file);
+    }
+}
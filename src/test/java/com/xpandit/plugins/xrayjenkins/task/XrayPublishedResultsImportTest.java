@@ -0,0 +1,59 @@
+package com.xpandit.plugins.xrayjenkins.task;
+
+import com.xpandit.xray.model.Endpoint;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.tasks.junit.TestResult;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class XrayPublishedResultsImportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    private final PrintStream logger = new PrintStream(log, true);
+
+    @Test
+    public void testPublishedResultsWritten() throws Exception {
+        final File published = folder.newFile("published.xml");
+        Files.write(published.toPath(), ("<testsuite name=\"com.example.LoginTest\">"
+                + "<testcase classname=\"com.example.LoginTest\" name=\"testLogin\"/></testsuite>").getBytes(StandardCharsets.UTF_8));
+        final TestResult testResult = new TestResult();
+        testResult.parse(published);
+
+        final File buildDir = folder.newFolder("build");
+        final FilePath report = XrayPublishedResultsImport.writePublishedTestResults(Endpoint.JUNIT_MULTIPART, testResult, buildDir, logger);
+
+        Assert.assertTrue(report.exists());
+        Assert.assertEquals(buildDir.getAbsolutePath(), new File(report.getRemote()).getParentFile().getAbsolutePath());
+        Assert.assertTrue(report.readToString().contains("name=\"testLogin\""));
+        Assert.assertTrue(log.toString("UTF-8").contains("Importing the 1 JUnit test case(s)"));
+    }
+
+    @Test
+    public void testPublishedResultsRequireJUnitFormat() throws Exception {
+        final File buildDir = folder.newFolder("build");
+        try {
+            XrayPublishedResultsImport.writePublishedTestResults(Endpoint.CUCUMBER, new TestResult(), buildDir, logger);
+            Assert.fail("Expected the format to be rejected");
+        } catch (AbortException e) {
+            Assert.assertTrue(e.getMessage().contains("JUnit XML format"));
+        }
+        Assert.assertEquals(0, buildDir.list().length);
+    }
+
+    @Test(expected = AbortException.class)
+    public void testPublishedResultsMissing() throws Exception {
+        XrayPublishedResultsImport.writePublishedTestResults(Endpoint.JUNIT, null, folder.newFolder("build"), logger);
+    }
+}